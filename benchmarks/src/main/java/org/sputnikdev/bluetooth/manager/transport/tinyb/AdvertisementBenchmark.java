@@ -0,0 +1,105 @@
+package org.sputnikdev.bluetooth.manager.transport.tinyb;
+
+/*-
+ * #%L
+ * org.sputnikdev:bluetooth-manager-tinyb
+ * %%
+ * Copyright (C) 2017 Sputnik Dev
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.sputnikdev.bluetooth.URL;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for advertisement decoding: cost of the built-in decoders and of {@link AdvertisementParser}
+ * for changed and unchanged payloads.
+ * @author Vlad Kolotov
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AdvertisementBenchmark {
+
+    private static final URL DEVICE = new URL("tinyb:/11:5E:ED:00:00:00/20:5E:ED:00:00:01");
+
+    private static final byte[] IBEACON = {0x02, 0x15, (byte) 0xe2, (byte) 0xc5, 0x6d, (byte) 0xb5, (byte) 0xdf,
+        (byte) 0xfb, 0x48, (byte) 0xd2, (byte) 0xb0, 0x60, (byte) 0xd0, (byte) 0xf5, (byte) 0xa7, 0x10, (byte) 0x96,
+        (byte) 0xe0, 0x00, 0x01, 0x00, 0x02, (byte) 0xc5};
+    private static final byte[] EDDYSTONE_TLM = {0x20, 0x00, 0x0b, (byte) 0xb8, 0x19, (byte) 0x80, 0x00, 0x00, 0x00,
+        0x64, 0x00, 0x00, 0x03, (byte) 0xe8};
+    private static final byte[] MIBEACON = {0x50, 0x20, (byte) 0xaa, 0x01, 0x12, 0x66, 0x55, 0x44, 0x33, 0x22, 0x11,
+        0x0d, 0x10, 0x04, (byte) 0xe1, 0x00, (byte) 0x8a, 0x02};
+
+    private final AdvertisementParser parser = new AdvertisementParser(DEVICE);
+    private final Map<Short, byte[]> manufacturerData = Collections.singletonMap(IBeacon.MANUFACTURER_ID, IBEACON);
+    private final Map<String, byte[]> serviceData = new HashMap<>();
+    private final byte[][] counters = {MIBEACON.clone(), MIBEACON.clone()};
+    private int index;
+
+    @Setup
+    public void setUp() {
+        serviceData.put(Eddystone.SERVICE_UUID, EDDYSTONE_TLM);
+        counters[1][4] = 0x13;
+    }
+
+    @Benchmark
+    public IBeacon decodeIBeacon() {
+        return IBeacon.decode(IBEACON);
+    }
+
+    @Benchmark
+    public Eddystone decodeEddystone() {
+        return Eddystone.decode(EDDYSTONE_TLM);
+    }
+
+    @Benchmark
+    public MiBeacon decodeMiBeacon() {
+        return MiBeacon.decode(MIBEACON);
+    }
+
+    @Benchmark
+    public Object parseUnchanged() {
+        parser.parseManufacturerData(manufacturerData, null);
+        return parser.getManufacturerData(IBeacon.MANUFACTURER_ID);
+    }
+
+    @Benchmark
+    public Object parseChanged() {
+        // a MiBeacon payload with a new frame counter
+        index ^= 1;
+        serviceData.put(MiBeacon.SERVICE_UUID, counters[index]);
+        parser.parseServiceData(serviceData, null);
+        return parser.getServiceData(MiBeacon.SERVICE_UUID);
+    }
+
+}
@@ -0,0 +1,177 @@
+package org.sputnikdev.bluetooth.manager.transport.tinyb;
+
+/*-
+ * #%L
+ * org.sputnikdev:bluetooth-manager-tinyb
+ * %%
+ * Copyright (C) 2017 Sputnik Dev
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import org.mockito.stubbing.Answer;
+import org.sputnikdev.bluetooth.URL;
+import tinyb.BluetoothAdapter;
+import tinyb.BluetoothDevice;
+import tinyb.BluetoothGattCharacteristic;
+import tinyb.BluetoothGattService;
+import tinyb.BluetoothManager;
+import tinyb.BluetoothObject;
+import tinyb.BluetoothType;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+/**
+ * An in-process fake of the TinyB API. TinyB objects are replaced with stub-only mocks that return
+ * pre-built values, so that benchmarks measure the transport overhead rather than BlueZ/DBus latencies.
+ * @author Vlad Kolotov
+ */
+final class FakeTinyB {
+
+    static final String SERVICE_UUID = "0000180f-0000-1000-8000-00805f9b34fb";
+    static final byte[] VALUE = {1, 2, 3, 4, 5, 6, 7, 8};
+    static final String[] FLAGS = {"read", "write-without-response", "write", "notify"};
+
+    private final BluetoothManager manager = stub(BluetoothManager.class);
+    private final List<BluetoothAdapter> adapters = new ArrayList<>();
+    private final List<BluetoothDevice> devices = new ArrayList<>();
+    private final List<URL> characteristicURLs = new ArrayList<>();
+    private final Map<BluetoothObject, Map<String, BluetoothObject>> children = new HashMap<>();
+
+    /**
+     * Creates a fake TinyB object tree.
+     * @param adapterCount number of adapters
+     * @param deviceCount number of devices per adapter
+     * @param characteristicCount number of characteristics per device (all in one service)
+     */
+    FakeTinyB(int adapterCount, int deviceCount, int characteristicCount) {
+        for (int a = 0; a < adapterCount; a++) {
+            String adapterAddress = address(0xA0, a);
+            BluetoothAdapter adapter = stub(BluetoothAdapter.class);
+            when(adapter.getAddress()).thenReturn(adapterAddress);
+            when(adapter.getName()).thenReturn("hci" + a);
+            when(adapter.getAlias()).thenReturn("adapter " + a);
+            List<BluetoothDevice> adapterDevices = new ArrayList<>();
+            for (int d = 0; d < deviceCount; d++) {
+                BluetoothDevice device = createDevice(adapter, adapterAddress, a * deviceCount + d,
+                        characteristicCount);
+                adapterDevices.add(device);
+            }
+            when(adapter.getDevices()).thenReturn(Collections.unmodifiableList(adapterDevices));
+            adapters.add(adapter);
+            devices.addAll(adapterDevices);
+            addChild(null, adapterAddress, adapter);
+        }
+        when(manager.getAdapters()).thenReturn(Collections.unmodifiableList(adapters));
+        when(manager.getDevices()).thenReturn(Collections.unmodifiableList(devices));
+        doAnswer((Answer<BluetoothObject>) invocation -> {
+            Map<String, BluetoothObject> siblings = children.get(invocation.getArgumentAt(3, BluetoothObject.class));
+            return siblings != null ? siblings.get(invocation.getArgumentAt(2, String.class)) : null;
+        }).when(manager).getObject(any(BluetoothType.class), any(String.class), any(String.class),
+                any(BluetoothObject.class));
+    }
+
+    /**
+     * Replaces the TinyB BluetoothManager singleton with the fake one.
+     */
+    void install() {
+        try {
+            Field instance = BluetoothManager.class.getDeclaredField("inst");
+            instance.setAccessible(true);
+            instance.set(null, manager);
+        } catch (ReflectiveOperationException ex) {
+            throw new IllegalStateException("Could not install fake TinyB manager", ex);
+        }
+    }
+
+    BluetoothManager getManager() {
+        return manager;
+    }
+
+    List<BluetoothAdapter> getAdapters() {
+        return adapters;
+    }
+
+    List<BluetoothDevice> getDevices() {
+        return devices;
+    }
+
+    List<URL> getCharacteristicURLs() {
+        return characteristicURLs;
+    }
+
+    private BluetoothDevice createDevice(BluetoothAdapter adapter, String adapterAddress, int index,
+                                         int characteristicCount) {
+        String deviceAddress = address(0xD0, index);
+        BluetoothDevice device = stub(BluetoothDevice.class);
+        when(device.getAddress()).thenReturn(deviceAddress);
+        when(device.getAdapter()).thenReturn(adapter);
+        when(device.getName()).thenReturn("device " + index);
+        when(device.getAlias()).thenReturn("device alias " + index);
+        when(device.getRSSI()).thenReturn((short) -(40 + index % 50));
+        when(device.getBluetoothClass()).thenReturn(0);
+        when(device.getConnected()).thenReturn(true);
+        when(device.getServicesResolved()).thenReturn(true);
+
+        BluetoothGattService service = stub(BluetoothGattService.class);
+        when(service.getUUID()).thenReturn(SERVICE_UUID);
+        when(service.getDevice()).thenReturn(device);
+        List<BluetoothGattCharacteristic> characteristics = new ArrayList<>();
+        for (int c = 0; c < characteristicCount; c++) {
+            String uuid = String.format("0000%04x-0000-1000-8000-00805f9b34fb", 0x2a00 + c);
+            BluetoothGattCharacteristic characteristic = stub(BluetoothGattCharacteristic.class);
+            when(characteristic.getUUID()).thenReturn(uuid);
+            when(characteristic.getService()).thenReturn(service);
+            when(characteristic.getFlags()).thenReturn(FLAGS);
+            when(characteristic.readValue()).thenReturn(VALUE);
+            when(characteristic.writeValue(any(byte[].class))).thenReturn(true);
+            when(characteristic.getDescriptors()).thenReturn(Collections.emptyList());
+            characteristics.add(characteristic);
+            addChild(service, uuid, characteristic);
+            characteristicURLs.add(new URL(TinyBFactory.TINYB_PROTOCOL_NAME, adapterAddress, deviceAddress,
+                    SERVICE_UUID, uuid, null));
+        }
+        when(service.getCharacteristics()).thenReturn(Collections.unmodifiableList(characteristics));
+        when(device.getServices()).thenReturn(Collections.singletonList(service));
+
+        addChild(adapter, deviceAddress, device);
+        addChild(device, SERVICE_UUID, service);
+        return device;
+    }
+
+    private void addChild(BluetoothObject parent, String id, BluetoothObject child) {
+        children.computeIfAbsent(parent, key -> new HashMap<>()).put(id, child);
+    }
+
+    private static <T> T stub(Class<T> clazz) {
+        return mock(clazz, withSettings().stubOnly());
+    }
+
+    private static String address(int prefix, int index) {
+        return String.format("%02X:00:00:%02X:%02X:%02X", prefix, (index >> 16) & 0xFF, (index >> 8) & 0xFF,
+                index & 0xFF);
+    }
+
+}
@@ -0,0 +1,173 @@
+package org.sputnikdev.bluetooth.manager.transport.tinyb;
+
+/*-
+ * #%L
+ * org.sputnikdev:bluetooth-manager-tinyb
+ * %%
+ * Copyright (C) 2017 Sputnik Dev
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sputnikdev.bluetooth.URL;
+import org.sputnikdev.bluetooth.manager.transport.Notification;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Allocation profile of the hot paths (RSSI getter, characteristic read and value notification) with logging
+ * disabled. Must be run with the GC profiler:
+ * <pre>
+ * java -jar target/benchmarks.jar HotPathAllocationBenchmark -prof gc
+ * </pre>
+ * Each path has a baseline that calls the backend (or the notification dispatcher) directly, the transport adds
+ * no logging garbage if "gc.alloc.rate.norm" of a path equals to its baseline. Backend objects return constant
+ * values, so that they do not allocate themselves.
+ * @author Vlad Kolotov
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HotPathAllocationBenchmark {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(HotPathAllocationBenchmark.class);
+    private static final String ADAPTER = "11:5E:ED:00:00:00";
+    private static final String DEVICE = "20:5E:ED:00:00:01";
+    private static final byte[] VALUE = {1, 2, 3, 4, 5, 6, 7, 8};
+
+    private BackendDevice backendDevice;
+    private TinyBDevice device;
+    private ConstantCharacteristic backendCharacteristic;
+    private TinyBCharacteristic characteristic;
+    private URL characteristicURL;
+    private final Notification<byte[]> notification = value -> { };
+    private final TinyBContext context = new TinyBContext();
+
+    @Setup
+    public void setUp() {
+        backendDevice = new SimulatedBackend(1).addAdapter(ADAPTER, "hci0").addDevice(DEVICE, "device");
+        URL deviceURL = new URL(TinyBFactory.TINYB_PROTOCOL_NAME, ADAPTER, DEVICE);
+        device = new TinyBDevice(deviceURL, backendDevice, context);
+
+        characteristicURL = deviceURL.copyWithService(FakeTinyB.SERVICE_UUID)
+                .copyWithCharacteristic("00002a19-0000-1000-8000-00805f9b34fb");
+        backendCharacteristic = new ConstantCharacteristic();
+        characteristic = new TinyBCharacteristic(characteristicURL, backendCharacteristic, context);
+        characteristic.enableValueNotifications(notification);
+    }
+
+    @Benchmark
+    public short rssiBaseline() {
+        return backendDevice.getRSSI();
+    }
+
+    @Benchmark
+    public short rssi() {
+        return device.getRSSI();
+    }
+
+    @Benchmark
+    public byte[] readBaseline() {
+        return backendCharacteristic.readValue();
+    }
+
+    @Benchmark
+    public byte[] read() {
+        return characteristic.readValue();
+    }
+
+    @Benchmark
+    public void valueNotificationBaseline() {
+        context.notifySafely(characteristicURL, notification, VALUE, LOGGER, "Benchmark notification error");
+    }
+
+    @Benchmark
+    public void valueNotification() {
+        backendCharacteristic.valueNotification.notify(VALUE);
+    }
+
+    /**
+     * A backend characteristic that returns a constant value and captures the value notification callback.
+     */
+    private static final class ConstantCharacteristic implements BackendCharacteristic {
+
+        private Notification<byte[]> valueNotification;
+
+        @Override
+        public String getUUID() {
+            return "00002a19-0000-1000-8000-00805f9b34fb";
+        }
+
+        @Override
+        public BackendService getService() {
+            return null;
+        }
+
+        @Override
+        public String[] getFlags() {
+            return FakeTinyB.FLAGS;
+        }
+
+        @Override
+        public boolean getNotifying() {
+            return valueNotification != null;
+        }
+
+        @Override
+        public byte[] readValue() {
+            return VALUE;
+        }
+
+        @Override
+        public boolean writeValue(byte[] value) {
+            return true;
+        }
+
+        @Override
+        public void enableValueNotifications(Notification<byte[]> notification) {
+            valueNotification = notification;
+        }
+
+        @Override
+        public void disableValueNotifications() {
+            valueNotification = null;
+        }
+
+        @Override
+        public List<BackendDescriptor> getDescriptors() {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public void close() { /* nothing to release */ }
+    }
+
+}
@@ -0,0 +1,84 @@
+package org.sputnikdev.bluetooth.manager.transport.tinyb;
+
+/*-
+ * #%L
+ * org.sputnikdev:bluetooth-manager-tinyb
+ * %%
+ * Copyright (C) 2017 Sputnik Dev
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sputnikdev.bluetooth.URL;
+import org.sputnikdev.bluetooth.manager.transport.Notification;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Benchmarks for notification dispatching via {@link TinyBContext#notifySafely}.
+ * @author Vlad Kolotov
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NotificationBenchmark {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(NotificationBenchmark.class);
+
+    @Param({"1", "200"})
+    private int devices;
+
+    private final LongAdder delivered = new LongAdder();
+    private final Notification<Short> notification = value -> delivered.increment();
+    private final TinyBContext context = new TinyBContext();
+    private List<URL> urls;
+    private int index;
+
+    @Setup
+    public void setUp() {
+        FakeTinyB fake = new FakeTinyB(1, devices, 1);
+        urls = fake.getCharacteristicURLs();
+    }
+
+    @TearDown
+    public void tearDown() {
+        LOGGER.info("Notifications delivered: {}", delivered.sum());
+    }
+
+    @Benchmark
+    public void notifySafely() {
+        index = (index + 1) % urls.size();
+        context.notifySafely(urls.get(index), notification, (short) -60, LOGGER, "Benchmark notification error");
+    }
+
+}
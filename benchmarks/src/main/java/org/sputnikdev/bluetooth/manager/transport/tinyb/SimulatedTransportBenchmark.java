@@ -0,0 +1,93 @@
+package org.sputnikdev.bluetooth.manager.transport.tinyb;
+
+/*-
+ * #%L
+ * org.sputnikdev:bluetooth-manager-tinyb
+ * %%
+ * Copyright (C) 2017 Sputnik Dev
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sputnikdev.bluetooth.URL;
+import org.sputnikdev.bluetooth.manager.transport.Adapter;
+import org.sputnikdev.bluetooth.manager.transport.Device;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * End-to-end benchmark of the transport running on top of {@link SimulatedBackend}: each invocation advances
+ * simulated time by one advertisement interval, i.e. every device produces one RSSI
+ * and one manufacturer data notification that travel through the whole notification pipeline.
+ * @author Vlad Kolotov
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SimulatedTransportBenchmark {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SimulatedTransportBenchmark.class);
+    private static final long ADVERTISEMENT_INTERVAL = 100;
+
+    @Param({"10", "500"})
+    private int devices;
+
+    private final LongAdder delivered = new LongAdder();
+    private SimulatedBackend backend;
+
+    @Setup
+    public void setUp() {
+        backend = new SimulatedBackend(1);
+        backend.setAdvertisementInterval(ADVERTISEMENT_INTERVAL);
+        backend.populate(1, devices, 0);
+        TinyBFactory factory = new TinyBFactory(backend);
+        URL adapterURL = factory.getDiscoveredAdapters().iterator().next().getURL();
+        Adapter adapter = factory.getAdapter(adapterURL);
+        adapter.startDiscovery();
+        backend.advance(ADVERTISEMENT_INTERVAL);
+        for (Device device : adapter.getDevices()) {
+            device.enableRSSINotifications(value -> delivered.increment());
+            device.enableManufacturerDataNotifications(value -> delivered.increment());
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        LOGGER.info("Notifications delivered: {}", delivered.sum());
+    }
+
+    @Benchmark
+    public void advertise() {
+        backend.advance(ADVERTISEMENT_INTERVAL);
+    }
+
+}
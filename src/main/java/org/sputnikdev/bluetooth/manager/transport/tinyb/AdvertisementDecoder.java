@@ -0,0 +1,41 @@
+package org.sputnikdev.bluetooth.manager.transport.tinyb;
+
+/*-
+ * #%L
+ * org.sputnikdev:bluetooth-manager-tinyb
+ * %%
+ * Copyright (C) 2017 Sputnik Dev
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+/**
+ * Decodes an advertisement payload (service data or manufacturer specific data) into a typed object.
+ * Decoders are registered in {@link AdvertisementDecoders} by service UUID or manufacturer ID.
+ * A decoder is invoked only when the payload changes, the decoded object is shared by all consumers
+ * until then, hence decoded objects must be immutable.
+ * @param <T> type of the decoded object
+ * @author Vlad Kolotov
+ */
+@FunctionalInterface
+public interface AdvertisementDecoder<T> {
+
+    /**
+     * Decodes an advertisement payload.
+     * @param data service data or manufacturer specific data (without the manufacturer ID)
+     * @return a decoded object or null if the payload is not recognised by this decoder
+     */
+    T decode(byte[] data);
+
+}
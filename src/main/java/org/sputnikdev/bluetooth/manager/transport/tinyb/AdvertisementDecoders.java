@@ -0,0 +1,136 @@
+package org.sputnikdev.bluetooth.manager.transport.tinyb;
+
+/*-
+ * #%L
+ * org.sputnikdev:bluetooth-manager-tinyb
+ * %%
+ * Copyright (C) 2017 Sputnik Dev
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A registry of advertisement decoders keyed by service UUID (service data) and manufacturer ID
+ * (manufacturer specific data). The default registry comes with decoders of the following formats:
+ * <ul>
+ *     <li>Apple iBeacon, manufacturer ID 0x004C, decoded into {@link IBeacon}</li>
+ *     <li>Eddystone, service UUID 0xFEAA, decoded into {@link Eddystone}</li>
+ *     <li>Xiaomi MiBeacon, service UUID 0xFE95, decoded into {@link MiBeacon}</li>
+ * </ul>
+ * A registered decoder replaces the existing one for the same key. Payloads are decoded per device
+ * only when their bytes change, see {@link TinyBFactory#enableAdvertisementNotifications}.
+ * @author Vlad Kolotov
+ */
+public final class AdvertisementDecoders {
+
+    private static final AdvertisementDecoders DEFAULT = new AdvertisementDecoders().registerDefaults();
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final Map<String, AdvertisementDecoder<?>> serviceDataDecoders = new ConcurrentHashMap<>();
+    private final Map<Short, AdvertisementDecoder<?>> manufacturerDataDecoders = new ConcurrentHashMap<>();
+
+    /**
+     * Returns the registry that is used by the transport.
+     * @return the default registry
+     */
+    public static AdvertisementDecoders getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Registers the built-in decoders (iBeacon, Eddystone and Xiaomi MiBeacon).
+     * @return this registry
+     */
+    public AdvertisementDecoders registerDefaults() {
+        registerManufacturerDataDecoder(IBeacon.MANUFACTURER_ID, IBeacon::decode);
+        registerServiceDataDecoder(Eddystone.SERVICE_UUID, Eddystone::decode);
+        registerServiceDataDecoder(MiBeacon.SERVICE_UUID, MiBeacon::decode);
+        return this;
+    }
+
+    /**
+     * Registers a decoder of service data.
+     * @param serviceUUID full service UUID or a 16 bit short form (e.g. "feaa")
+     * @param decoder a decoder
+     */
+    public void registerServiceDataDecoder(String serviceUUID, AdvertisementDecoder<?> decoder) {
+        serviceDataDecoders.put(DescriptorIndex.normalize(serviceUUID), decoder);
+    }
+
+    /**
+     * Registers a decoder of manufacturer specific data.
+     * @param manufacturerId manufacturer ID (company identifier)
+     * @param decoder a decoder
+     */
+    public void registerManufacturerDataDecoder(short manufacturerId, AdvertisementDecoder<?> decoder) {
+        manufacturerDataDecoders.put(manufacturerId, decoder);
+    }
+
+    public void unregisterServiceDataDecoder(String serviceUUID) {
+        serviceDataDecoders.remove(DescriptorIndex.normalize(serviceUUID));
+    }
+
+    public void unregisterManufacturerDataDecoder(short manufacturerId) {
+        manufacturerDataDecoders.remove(manufacturerId);
+    }
+
+    /**
+     * Returns a decoder of service data.
+     * @param serviceUUID full service UUID or a 16 bit short form
+     * @return a decoder or null if there is no decoder for the service
+     */
+    public AdvertisementDecoder<?> getServiceDataDecoder(String serviceUUID) {
+        return serviceDataDecoders.get(DescriptorIndex.normalize(serviceUUID));
+    }
+
+    /**
+     * Returns a decoder of manufacturer specific data.
+     * @param manufacturerId manufacturer ID
+     * @return a decoder or null if there is no decoder for the manufacturer
+     */
+    public AdvertisementDecoder<?> getManufacturerDataDecoder(short manufacturerId) {
+        return manufacturerDataDecoders.get(manufacturerId);
+    }
+
+    public void clear() {
+        serviceDataDecoders.clear();
+        manufacturerDataDecoders.clear();
+    }
+
+    static int getUInt16(byte[] data, int offset) {
+        return (data[offset] & 0xFF) << 8 | data[offset + 1] & 0xFF;
+    }
+
+    static long getUInt32(byte[] data, int offset) {
+        return (long) getUInt16(data, offset) << 16 | getUInt16(data, offset + 2);
+    }
+
+    static long getLong(byte[] data, int offset) {
+        return getUInt32(data, offset) << 32 | getUInt32(data, offset + 4);
+    }
+
+    static String toHexString(byte[] data, int offset, int length) {
+        char[] chars = new char[length * 2];
+        for (int i = 0; i < length; i++) {
+            int value = data[offset + i] & 0xFF;
+            chars[i * 2] = HEX[value >>> 4];
+            chars[i * 2 + 1] = HEX[value & 0x0F];
+        }
+        return new String(chars);
+    }
+
+}
@@ -0,0 +1,161 @@
+package org.sputnikdev.bluetooth.manager.transport.tinyb;
+
+/*-
+ * #%L
+ * org.sputnikdev:bluetooth-manager-tinyb
+ * %%
+ * Copyright (C) 2017 Sputnik Dev
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sputnikdev.bluetooth.URL;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Decodes advertisement payloads of a device with decoders registered in {@link AdvertisementDecoders}.
+ * The last payload and its decoded object are remembered per service UUID / manufacturer ID, a decoder is invoked
+ * only when the payload bytes (or the registered decoder) change, otherwise the previously decoded object is reused.
+ * @author Vlad Kolotov
+ */
+class AdvertisementParser {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(AdvertisementParser.class);
+
+    private final URL url;
+    private final Supplier<AdvertisementDecoders> decoders;
+    private final Map<String, Entry> serviceData = new ConcurrentHashMap<>();
+    private final Map<Short, Entry> manufacturerData = new ConcurrentHashMap<>();
+
+    AdvertisementParser(URL url) {
+        this(url, AdvertisementDecoders::getDefault);
+    }
+
+    AdvertisementParser(URL url, Supplier<AdvertisementDecoders> decoders) {
+        this.url = url;
+        this.decoders = decoders;
+    }
+
+    /**
+     * Decodes service data. Decoded objects of services that are missing from the given data are dropped.
+     * @param data service data keyed by service UUID
+     * @param changed a consumer of objects decoded from changed payloads, can be null
+     */
+    void parseServiceData(Map<String, byte[]> data, Consumer<Object> changed) {
+        AdvertisementDecoders registry = decoders.get();
+        parse(data, serviceData, DescriptorIndex::normalize, registry::getServiceDataDecoder, changed);
+    }
+
+    /**
+     * Decodes manufacturer specific data. Decoded objects of manufacturers that are missing from the given data
+     * are dropped.
+     * @param data manufacturer data keyed by manufacturer ID
+     * @param changed a consumer of objects decoded from changed payloads, can be null
+     */
+    void parseManufacturerData(Map<Short, byte[]> data, Consumer<Object> changed) {
+        AdvertisementDecoders registry = decoders.get();
+        parse(data, manufacturerData, Function.identity(), registry::getManufacturerDataDecoder, changed);
+    }
+
+    /**
+     * Returns the last decoded service data.
+     * @param serviceUUID full service UUID or a 16 bit short form
+     * @return a decoded object or null if there is no decoded payload for the service
+     */
+    Object getServiceData(String serviceUUID) {
+        Entry entry = serviceData.get(DescriptorIndex.normalize(serviceUUID));
+        return entry != null ? entry.decoded : null;
+    }
+
+    /**
+     * Returns the last decoded manufacturer data.
+     * @param manufacturerId manufacturer ID
+     * @return a decoded object or null if there is no decoded payload for the manufacturer
+     */
+    Object getManufacturerData(short manufacturerId) {
+        Entry entry = manufacturerData.get(manufacturerId);
+        return entry != null ? entry.decoded : null;
+    }
+
+    /**
+     * Forgets all payloads, so that the next ones are decoded (and reported as changed) again.
+     */
+    void reset() {
+        serviceData.clear();
+        manufacturerData.clear();
+    }
+
+    private <K> void parse(Map<K, byte[]> data, Map<K, Entry> entries, Function<K, K> normalizer,
+                           Function<K, AdvertisementDecoder<?>> registry, Consumer<Object> changed) {
+        if (data == null || data.isEmpty()) {
+            entries.clear();
+            return;
+        }
+        // payloads that are no longer advertised are dropped, so that their decoded objects are not reported
+        entries.keySet().removeIf(key -> !data.containsKey(key)
+                && data.keySet().stream().noneMatch(other -> key.equals(normalizer.apply(other))));
+        for (Map.Entry<K, byte[]> payload : data.entrySet()) {
+            K key = normalizer.apply(payload.getKey());
+            AdvertisementDecoder<?> decoder = registry.apply(key);
+            if (decoder == null) {
+                continue;
+            }
+            byte[] bytes = payload.getValue();
+            Entry entry = entries.get(key);
+            if (entry != null && entry.decoder == decoder && Arrays.equals(entry.payload, bytes)) {
+                Metrics.unchangedAdvertisement(url);
+                continue;
+            }
+            Object decoded = decode(decoder, key, bytes);
+            entries.put(key, new Entry(decoder, bytes != null ? bytes.clone() : null, decoded));
+            if (decoded != null && changed != null) {
+                changed.accept(decoded);
+            }
+        }
+    }
+
+    private Object decode(AdvertisementDecoder<?> decoder, Object key, byte[] bytes) {
+        long started = System.nanoTime();
+        try {
+            return decoder.decode(bytes);
+        } catch (Exception ex) {
+            LOGGER.debug("Could not decode advertisement: {} : {} : {}", url, key, ex.getMessage());
+            return null;
+        } finally {
+            Metrics.recordDecode(url, key, System.nanoTime() - started);
+        }
+    }
+
+    private static final class Entry {
+
+        private final AdvertisementDecoder<?> decoder;
+        private final byte[] payload;
+        private final Object decoded;
+
+        private Entry(AdvertisementDecoder<?> decoder, byte[] payload, Object decoded) {
+            this.decoder = decoder;
+            this.payload = payload;
+            this.decoded = decoded;
+        }
+    }
+
+}
@@ -0,0 +1,70 @@
+package org.sputnikdev.bluetooth.manager.transport.tinyb;
+
+/*-
+ * #%L
+ * org.sputnikdev:bluetooth-manager-tinyb
+ * %%
+ * Copyright (C) 2017 Sputnik Dev
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import org.sputnikdev.bluetooth.manager.transport.Notification;
+
+import java.util.List;
+
+/**
+ * A bluetooth adapter provided by a {@link TinyBBackend}. Methods follow TinyB BluetoothAdapter API.
+ * @author Vlad Kolotov
+ */
+public interface BackendAdapter extends BackendObject {
+
+    String getAddress();
+
+    String getName();
+
+    String getAlias();
+
+    void setAlias(String alias);
+
+    boolean getPowered();
+
+    void setPowered(boolean powered);
+
+    void enablePoweredNotifications(Notification<Boolean> notification);
+
+    void disablePoweredNotifications();
+
+    boolean getDiscovering();
+
+    void enableDiscoveringNotifications(Notification<Boolean> notification);
+
+    void disableDiscoveringNotifications();
+
+    void disableDiscoverableNotifications();
+
+    void disablePairableNotifications();
+
+    /**
+     * Resets discovery filter so that all devices get discovered.
+     */
+    void resetDiscoveryFilter();
+
+    boolean startDiscovery();
+
+    boolean stopDiscovery();
+
+    List<BackendDevice> getDevices();
+
+}
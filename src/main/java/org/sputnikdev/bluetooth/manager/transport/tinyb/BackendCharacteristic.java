@@ -0,0 +1,66 @@
+package org.sputnikdev.bluetooth.manager.transport.tinyb;
+
+/*-
+ * #%L
+ * org.sputnikdev:bluetooth-manager-tinyb
+ * %%
+ * Copyright (C) 2017 Sputnik Dev
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import org.sputnikdev.bluetooth.manager.transport.Notification;
+
+import java.util.List;
+
+/**
+ * A GATT characteristic provided by a {@link TinyBBackend}. Methods follow TinyB BluetoothGattCharacteristic API.
+ * @author Vlad Kolotov
+ */
+public interface BackendCharacteristic extends BackendObject {
+
+    String getUUID();
+
+    BackendService getService();
+
+    /**
+     * Returns BlueZ characteristic flags, e.g. "read", "write-without-response", "notify".
+     * @return characteristic flags
+     */
+    String[] getFlags();
+
+    boolean getNotifying();
+
+    byte[] readValue();
+
+    boolean writeValue(byte[] value);
+
+    /**
+     * Writes a value without waiting for an acknowledgement from the device (GATT write command).
+     * TinyB does not allow to choose the write type (BlueZ chooses it depending on characteristic flags),
+     * hence the default implementation is a normal write.
+     * @param value a value to write
+     * @return true if the value has been written
+     */
+    default boolean writeValueWithoutResponse(byte[] value) {
+        return writeValue(value);
+    }
+
+    void enableValueNotifications(Notification<byte[]> notification);
+
+    void disableValueNotifications();
+
+    List<BackendDescriptor> getDescriptors();
+
+}
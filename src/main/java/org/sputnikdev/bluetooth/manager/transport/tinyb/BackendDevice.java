@@ -0,0 +1,98 @@
+package org.sputnikdev.bluetooth.manager.transport.tinyb;
+
+/*-
+ * #%L
+ * org.sputnikdev:bluetooth-manager-tinyb
+ * %%
+ * Copyright (C) 2017 Sputnik Dev
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import org.sputnikdev.bluetooth.manager.transport.Notification;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A bluetooth device provided by a {@link TinyBBackend}. Methods follow TinyB BluetoothDevice API.
+ * @author Vlad Kolotov
+ */
+public interface BackendDevice extends BackendObject {
+
+    String getAddress();
+
+    BackendAdapter getAdapter();
+
+    String getName();
+
+    String getAlias();
+
+    void setAlias(String alias);
+
+    int getBluetoothClass();
+
+    boolean connect();
+
+    boolean disconnect();
+
+    boolean remove();
+
+    boolean getBlocked();
+
+    void setBlocked(boolean blocked);
+
+    void enableBlockedNotifications(Notification<Boolean> notification);
+
+    void disableBlockedNotifications();
+
+    short getRSSI();
+
+    void enableRSSINotifications(Notification<Short> notification);
+
+    void disableRSSINotifications();
+
+    short getTxPower();
+
+    boolean getConnected();
+
+    void enableConnectedNotifications(Notification<Boolean> notification);
+
+    void disableConnectedNotifications();
+
+    boolean getServicesResolved();
+
+    void enableServicesResolvedNotifications(Notification<Boolean> notification);
+
+    void disableServicesResolvedNotifications();
+
+    void disablePairedNotifications();
+
+    void disableTrustedNotifications();
+
+    List<BackendService> getServices();
+
+    Map<String, byte[]> getServiceData();
+
+    void enableServiceDataNotifications(Notification<Map<String, byte[]>> notification);
+
+    void disableServiceDataNotifications();
+
+    Map<Short, byte[]> getManufacturerData();
+
+    void enableManufacturerDataNotifications(Notification<Map<Short, byte[]>> notification);
+
+    void disableManufacturerDataNotifications();
+
+}
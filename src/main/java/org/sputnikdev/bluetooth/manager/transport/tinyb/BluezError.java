@@ -0,0 +1,96 @@
+package org.sputnikdev.bluetooth.manager.transport.tinyb;
+
+/*-
+ * #%L
+ * org.sputnikdev:bluetooth-manager-tinyb
+ * %%
+ * Copyright (C) 2017 Sputnik Dev
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+/**
+ * Categories of BlueZ errors. TinyB reports BlueZ errors as exceptions with DBus error messages,
+ * e.g. "GDBus.Error:org.bluez.Error.Failed: Input/output error", the message is the only way to tell them apart.
+ * @author Vlad Kolotov
+ */
+enum BluezError {
+
+    /**
+     * Another operation is in progress (e.g. connection is being established or the stack queue is full).
+     */
+    IN_PROGRESS(true, "org.bluez.Error.InProgress", "In Progress", "Resource temporarily unavailable"),
+    /**
+     * Connection has been aborted (errno 103), normally a transient radio issue.
+     */
+    ABORTED(true, "Software caused connection abort", "(103)"),
+    /**
+     * The device is not available at the moment (e.g. out of range or not advertising).
+     */
+    NOT_AVAILABLE(true, "org.bluez.Error.NotAvailable", "Host is down", "No route to host"),
+    /**
+     * The operation has timed out.
+     */
+    TIMEOUT(true, "Timeout was reached", "Connection timed out", "Operation timed out",
+            "org.freedesktop.DBus.Error.NoReply"),
+    /**
+     * The device is already connected.
+     */
+    ALREADY_CONNECTED(false, "org.bluez.Error.AlreadyConnected", "Already Connected"),
+    /**
+     * Input/output error, the adapter is likely to be in a bad state.
+     */
+    IO_ERROR(false, "Input/output error"),
+    /**
+     * The adapter is not ready (e.g. powered off).
+     */
+    NOT_READY(false, "org.bluez.Error.NotReady", "Resource Not Ready"),
+    /**
+     * Any other error.
+     */
+    UNKNOWN(false);
+
+    private final boolean retryable;
+    private final String[] patterns;
+
+    BluezError(boolean retryable, String... patterns) {
+        this.retryable = retryable;
+        this.patterns = patterns;
+    }
+
+    boolean isRetryable() {
+        return retryable;
+    }
+
+    /**
+     * Classifies an error by its message.
+     * @param error an error
+     * @return error category
+     */
+    static BluezError classify(Throwable error) {
+        String message = error != null ? error.getMessage() : null;
+        if (message == null) {
+            return UNKNOWN;
+        }
+        for (BluezError category : values()) {
+            for (String pattern : category.patterns) {
+                if (message.contains(pattern)) {
+                    return category;
+                }
+            }
+        }
+        return UNKNOWN;
+    }
+
+}
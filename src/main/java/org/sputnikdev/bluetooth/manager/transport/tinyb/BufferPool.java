@@ -0,0 +1,139 @@
+package org.sputnikdev.bluetooth.manager.transport.tinyb;
+
+/*-
+ * #%L
+ * org.sputnikdev:bluetooth-manager-tinyb
+ * %%
+ * Copyright (C) 2017 Sputnik Dev
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A pool of byte buffers that are used to deliver characteristic values, so that steady state notification
+ * delivery does not allocate new buffers. Buffers are grouped in power of two size classes up to
+ * {@value #MAX_POOLED_CAPACITY} bytes (the maximum length of an attribute value), each class keeps up to
+ * the configured number of free buffers. Buffers can be either heap or direct ones.
+ * @author Vlad Kolotov
+ */
+final class BufferPool {
+
+    static final int DEFAULT_MAX_POOLED = 64;
+    static final int MAX_POOLED_CAPACITY = 512;
+
+    private static final int SIZE_CLASSES = Integer.numberOfTrailingZeros(MAX_POOLED_CAPACITY) + 1;
+
+    private final int maxPooled;
+    private final boolean direct;
+    private final ArrayDeque<ByteBuffer>[] free;
+    private final LongAdder allocations = new LongAdder();
+    private final LongAdder reuses = new LongAdder();
+
+    /**
+     * Creates a buffer pool.
+     * @param maxPooled maximum number of free buffers kept per size class, 0 disables pooling
+     * @param direct if true, direct buffers are allocated
+     */
+    @SuppressWarnings("unchecked")
+    BufferPool(int maxPooled, boolean direct) {
+        if (maxPooled < 0) {
+            throw new IllegalArgumentException("Number of pooled buffers must not be negative: " + maxPooled);
+        }
+        this.maxPooled = maxPooled;
+        this.direct = direct;
+        free = new ArrayDeque[SIZE_CLASSES];
+        for (int i = 0; i < SIZE_CLASSES; i++) {
+            free[i] = new ArrayDeque<>(maxPooled);
+        }
+    }
+
+    /**
+     * Takes a free buffer from the pool or allocates a new one. The buffer is cleared and its limit
+     * is set to the requested size.
+     * @param size required size
+     * @return a buffer
+     */
+    ByteBuffer acquire(int size) {
+        if (size < 0) {
+            throw new IllegalArgumentException("Buffer size must not be negative: " + size);
+        }
+        if (size > MAX_POOLED_CAPACITY) {
+            allocations.increment();
+            return allocate(size);
+        }
+        int sizeClass = sizeClass(size);
+        ArrayDeque<ByteBuffer> buffers = free[sizeClass];
+        ByteBuffer buffer;
+        synchronized (buffers) {
+            buffer = buffers.pollFirst();
+        }
+        if (buffer != null) {
+            reuses.increment();
+        } else {
+            allocations.increment();
+            buffer = allocate(1 << sizeClass);
+        }
+        buffer.clear();
+        buffer.limit(size);
+        return buffer;
+    }
+
+    /**
+     * Returns a buffer to the pool. The buffer must not be used after that. Buffers that have not been
+     * acquired from this pool (or if the pool is full) are left for garbage collection.
+     * @param buffer a buffer to return
+     */
+    void release(ByteBuffer buffer) {
+        int capacity = buffer.capacity();
+        if (buffer.isDirect() != direct || buffer.isReadOnly() || capacity > MAX_POOLED_CAPACITY
+                || Integer.bitCount(capacity) != 1) {
+            return;
+        }
+        ArrayDeque<ByteBuffer> buffers = free[sizeClass(capacity)];
+        synchronized (buffers) {
+            if (buffers.size() < maxPooled) {
+                buffers.addFirst(buffer);
+            }
+        }
+    }
+
+    boolean isDirect() {
+        return direct;
+    }
+
+    int getMaxPooled() {
+        return maxPooled;
+    }
+
+    long getAllocationCount() {
+        return allocations.sum();
+    }
+
+    long getReuseCount() {
+        return reuses.sum();
+    }
+
+    private ByteBuffer allocate(int capacity) {
+        return direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+    }
+
+    private static int sizeClass(int size) {
+        return size <= 1 ? 0 : 32 - Integer.numberOfLeadingZeros(size - 1);
+    }
+
+}
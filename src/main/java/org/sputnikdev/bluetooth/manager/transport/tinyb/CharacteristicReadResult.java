@@ -0,0 +1,84 @@
+package org.sputnikdev.bluetooth.manager.transport.tinyb;
+
+/*-
+ * #%L
+ * org.sputnikdev:bluetooth-manager-tinyb
+ * %%
+ * Copyright (C) 2017 Sputnik Dev
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import org.sputnikdev.bluetooth.URL;
+
+/**
+ * A result of reading a characteristic in a batch, see {@link TinyBFactory#readCharacteristics}.
+ * @author Vlad Kolotov
+ */
+public final class CharacteristicReadResult {
+
+    private final URL url;
+    private final byte[] value;
+    private final Exception error;
+    private final long latency;
+
+    private CharacteristicReadResult(URL url, byte[] value, Exception error, long latency) {
+        this.url = url;
+        this.value = value;
+        this.error = error;
+        this.latency = latency;
+    }
+
+    static CharacteristicReadResult success(URL url, byte[] value, long latency) {
+        return new CharacteristicReadResult(url, value, null, latency);
+    }
+
+    static CharacteristicReadResult failure(URL url, Exception error, long latency) {
+        return new CharacteristicReadResult(url, null, error, latency);
+    }
+
+    public URL getURL() {
+        return url;
+    }
+
+    /**
+     * Returns characteristic value.
+     * @return characteristic value or null if the read operation has failed
+     */
+    public byte[] getValue() {
+        return value;
+    }
+
+    /**
+     * Returns an error occurred while reading the characteristic.
+     * @return an error or null if the read operation has succeeded
+     */
+    public Exception getError() {
+        return error;
+    }
+
+    public boolean isSuccess() {
+        return error == null;
+    }
+
+    /**
+     * Returns time spent on reading the characteristic. It is measured from the moment the read operation starts
+     * executing, time spent waiting for a GATT thread or a connection slot is not included.
+     * @return latency in nanoseconds, 0 if the read operation has not started
+     */
+    public long getLatency() {
+        return latency;
+    }
+
+}
@@ -0,0 +1,155 @@
+package org.sputnikdev.bluetooth.manager.transport.tinyb;
+
+/*-
+ * #%L
+ * org.sputnikdev:bluetooth-manager-tinyb
+ * %%
+ * Copyright (C) 2017 Sputnik Dev
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sputnikdev.bluetooth.URL;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Supplier;
+
+/**
+ * A connect retry engine of a device. BlueZ errors are classified by {@link BluezError}, retryable errors
+ * are retried with jittered exponential back-off, fatal errors are rethrown straight away.
+ * Retries are also bounded by the total time of a connect request and stop once the calling thread
+ * is interrupted (e.g. an asynchronous connect has timed out or has been cancelled).
+ * When all attempts fail, subsequent connect requests fail fast until the back-off delay expires,
+ * so that callers retrying in a loop do not hammer BlueZ. Retry engines are kept by {@link TinyBContext}.
+ * @author Vlad Kolotov
+ */
+class ConnectRetry {
+
+    static final int DEFAULT_ATTEMPTS = 3;
+    static final long DEFAULT_BACKOFF = 500;
+    static final long MAX_BACKOFF = 30000;
+    static final long DEFAULT_TIMEOUT = GattExecutor.DEFAULT_CONNECT_TIMEOUT;
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ConnectRetry.class);
+
+    private final URL url;
+    private final ConnectStatistics statistics;
+    private volatile int attempts = DEFAULT_ATTEMPTS;
+    private volatile long backoff = DEFAULT_BACKOFF;
+    private volatile long timeout = DEFAULT_TIMEOUT;
+    private volatile int consecutiveFailures;
+    private volatile long retryAfter;
+
+    ConnectRetry(URL url) {
+        this.url = url;
+        this.statistics = new ConnectStatistics(url);
+    }
+
+    /**
+     * Configures the retry engine.
+     * @param maxAttempts maximum number of connect attempts per connect request
+     * @param initialBackoff back-off delay in milliseconds after the first failure, doubled after each failure
+     * @param totalTimeout maximum time in milliseconds of a connect request including retries, 0 means no limit
+     */
+    void configure(int maxAttempts, long initialBackoff, long totalTimeout) {
+        validate(maxAttempts, initialBackoff, totalTimeout);
+        attempts = maxAttempts;
+        backoff = initialBackoff;
+        timeout = totalTimeout;
+    }
+
+    static void validate(int maxAttempts, long initialBackoff, long totalTimeout) {
+        if (maxAttempts < 1 || initialBackoff < 0 || totalTimeout < 0) {
+            throw new IllegalArgumentException("Invalid connect retry settings: " + maxAttempts + " / "
+                    + initialBackoff + " / " + totalTimeout);
+        }
+    }
+
+    /**
+     * Executes a connect operation with retries.
+     * @param operation connect operation
+     * @return connect operation result
+     */
+    boolean connect(Supplier<Boolean> operation) {
+        long wait = retryAfter - System.currentTimeMillis();
+        if (wait > 0) {
+            throw new TinyBException("Connect is backing off after failures, retry in " + wait + "ms: " + url);
+        }
+        long begin = System.currentTimeMillis();
+        for (int attempt = 1; ; attempt++) {
+            long started = System.currentTimeMillis();
+            try {
+                boolean connected = Boolean.TRUE.equals(operation.get());
+                if (connected) {
+                    statistics.success(System.currentTimeMillis() - started);
+                    consecutiveFailures = 0;
+                    retryAfter = 0;
+                } else {
+                    statistics.failure(BluezError.UNKNOWN);
+                }
+                return connected;
+            } catch (RuntimeException ex) {
+                BluezError error = BluezError.classify(ex);
+                if (error == BluezError.ALREADY_CONNECTED) {
+                    statistics.success(System.currentTimeMillis() - started);
+                    consecutiveFailures = 0;
+                    return true;
+                }
+                statistics.failure(error);
+                long delay = nextDelay();
+                if (!error.isRetryable() || attempt >= attempts || !canRetry(begin, started, delay)) {
+                    if (error.isRetryable()) {
+                        retryAfter = System.currentTimeMillis() + delay;
+                    }
+                    throw ex;
+                }
+                LOGGER.debug("Connect attempt {} failed ({}), retrying in {}ms: {}", attempt, error, delay, url);
+                sleep(delay, ex);
+            }
+        }
+    }
+
+    ConnectStatistics getStatistics() {
+        return statistics;
+    }
+
+    private boolean canRetry(long begin, long started, long delay) {
+        if (Thread.currentThread().isInterrupted()) {
+            // the caller is not waiting for the result anymore
+            return false;
+        }
+        long now = System.currentTimeMillis();
+        // the next attempt is expected to take as long as the failed one, e.g. BlueZ connect timeouts take ~25s
+        return timeout == 0 || now - begin + delay + (now - started) <= timeout;
+    }
+
+    private long nextDelay() {
+        int failures = Math.min(++consecutiveFailures, 16);
+        long max = Math.min(MAX_BACKOFF, backoff << (failures - 1));
+        // "equal jitter": half of the delay is fixed, the other half is random
+        return max / 2 + ThreadLocalRandom.current().nextLong(max / 2 + 1);
+    }
+
+    private static void sleep(long delay, RuntimeException cause) {
+        try {
+            Thread.sleep(delay);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw cause;
+        }
+    }
+
+}
@@ -0,0 +1,145 @@
+package org.sputnikdev.bluetooth.manager.transport.tinyb;
+
+/*-
+ * #%L
+ * org.sputnikdev:bluetooth-manager-tinyb
+ * %%
+ * Copyright (C) 2017 Sputnik Dev
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import org.sputnikdev.bluetooth.URL;
+
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Connect statistics of a device: number of attempts, success rate, latency histogram and failures by
+ * error category, see {@link TinyBFactory#getConnectStatistics(URL)}.
+ * @author Vlad Kolotov
+ */
+public final class ConnectStatistics {
+
+    private static final long[] LATENCY_BOUNDS = {100, 250, 500, 1000, 2000, 5000, 10000, 30000};
+
+    private final URL url;
+    private final LongAdder attempts = new LongAdder();
+    private final LongAdder successes = new LongAdder();
+    private final LongAdder totalLatency = new LongAdder();
+    private final AtomicLongArray latencies = new AtomicLongArray(LATENCY_BOUNDS.length + 1);
+    private final Map<BluezError, LongAdder> failures = new EnumMap<>(BluezError.class);
+
+    ConnectStatistics(URL url) {
+        this.url = url;
+        for (BluezError error : BluezError.values()) {
+            failures.put(error, new LongAdder());
+        }
+    }
+
+    void success(long latency) {
+        attempts.increment();
+        successes.increment();
+        totalLatency.add(latency);
+        int bucket = 0;
+        while (bucket < LATENCY_BOUNDS.length && latency > LATENCY_BOUNDS[bucket]) {
+            bucket++;
+        }
+        latencies.incrementAndGet(bucket);
+    }
+
+    void failure(BluezError error) {
+        attempts.increment();
+        failures.get(error).increment();
+    }
+
+    public URL getURL() {
+        return url;
+    }
+
+    public long getAttempts() {
+        return attempts.sum();
+    }
+
+    public long getSuccesses() {
+        return successes.sum();
+    }
+
+    public long getFailures() {
+        return attempts.sum() - successes.sum();
+    }
+
+    /**
+     * Returns ratio of successful connect attempts.
+     * @return success rate from 0 to 1, or 0 if there have been no attempts
+     */
+    public double getSuccessRate() {
+        long total = attempts.sum();
+        return total > 0 ? (double) successes.sum() / total : 0;
+    }
+
+    /**
+     * Returns average latency of successful connect attempts.
+     * @return average latency in milliseconds
+     */
+    public long getAverageLatency() {
+        long count = successes.sum();
+        return count > 0 ? totalLatency.sum() / count : 0;
+    }
+
+    /**
+     * Returns upper bounds of the latency histogram buckets, the last bucket has no upper bound.
+     * @return bucket bounds in milliseconds
+     */
+    public static long[] getLatencyBounds() {
+        return LATENCY_BOUNDS.clone();
+    }
+
+    /**
+     * Returns latency histogram of successful connect attempts, see {@link #getLatencyBounds()}.
+     * @return number of attempts per bucket
+     */
+    public long[] getLatencyHistogram() {
+        long[] histogram = new long[latencies.length()];
+        for (int i = 0; i < histogram.length; i++) {
+            histogram[i] = latencies.get(i);
+        }
+        return histogram;
+    }
+
+    /**
+     * Returns number of failed attempts by error category.
+     * @return failures by category name (e.g. "IN_PROGRESS", "TIMEOUT", "IO_ERROR")
+     */
+    public Map<String, Long> getFailuresByCategory() {
+        Map<String, Long> result = new LinkedHashMap<>();
+        failures.forEach((error, count) -> {
+            long value = count.sum();
+            if (value > 0) {
+                result.put(error.name(), value);
+            }
+        });
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "[url=" + url + ", attempts=" + getAttempts() + ", successRate=" + getSuccessRate()
+                + ", averageLatency=" + getAverageLatency() + "ms]";
+    }
+
+}
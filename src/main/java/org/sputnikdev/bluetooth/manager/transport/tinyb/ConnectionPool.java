@@ -0,0 +1,298 @@
+package org.sputnikdev.bluetooth.manager.transport.tinyb;
+
+/*-
+ * #%L
+ * org.sputnikdev:bluetooth-manager-tinyb
+ * %%
+ * Copyright (C) 2017 Sputnik Dev
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sputnikdev.bluetooth.URL;
+
+import java.util.Comparator;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * A pool of connections of an adapter. Bluetooth controllers support a limited number of simultaneous
+ * LE connections, connect requests that exceed the limit make BlueZ fail slowly. The pool enforces
+ * a maximum number of connections per adapter: when the limit is reached, the least recently used idle
+ * connection (no GATT operations within the idle timeout) is closed, if there is none, the connect request
+ * waits in a queue ordered by priority (and by arrival within the same priority).
+ * Only connections established through the pool are counted. Pools are kept by {@link TinyBContext}.
+ * @author Vlad Kolotov
+ */
+public final class ConnectionPool {
+
+    static final int DEFAULT_MAX_CONNECTIONS = 0;
+    static final long DEFAULT_IDLE_TIMEOUT = 30000;
+    static final long DEFAULT_QUEUE_TIMEOUT = 30000;
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ConnectionPool.class);
+    private static final long RECHECK_INTERVAL = 1000;
+
+    private final URL adapterURL;
+    private volatile int maxConnections = DEFAULT_MAX_CONNECTIONS;
+    private volatile long idleTimeout = DEFAULT_IDLE_TIMEOUT;
+    private volatile long queueTimeout = DEFAULT_QUEUE_TIMEOUT;
+    private final Map<URL, Connection> connections = new ConcurrentHashMap<>();
+    private final PriorityQueue<Waiter> waiting = new PriorityQueue<>(
+            Comparator.comparingInt((Waiter waiter) -> -waiter.priority).thenComparingLong(waiter -> waiter.sequence));
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder rejections = new LongAdder();
+    private long sequence;
+
+    ConnectionPool(URL adapterURL) {
+        this.adapterURL = adapterURL;
+    }
+
+    /**
+     * Configures the pool.
+     * @param max maximum number of connections, 0 means no limit
+     * @param idle time in milliseconds without GATT operations after which a connection can be evicted
+     * @param timeout maximum time in milliseconds a connect request waits for a free slot
+     */
+    void configure(int max, long idle, long timeout) {
+        validate(max, idle, timeout);
+        maxConnections = max;
+        idleTimeout = idle;
+        queueTimeout = timeout;
+        synchronized (this) {
+            notifyAll();
+        }
+    }
+
+    static void validate(int max, long idle, long timeout) {
+        if (max < 0 || idle < 0 || timeout < 0) {
+            throw new IllegalArgumentException("Connection pool settings must not be negative: "
+                    + max + " / " + idle + " / " + timeout);
+        }
+    }
+
+    /**
+     * Connects a device by taking a slot in the pool. If there is no free slot, the least recently used idle
+     * connection is closed by using its disconnect operation, otherwise the request waits for a free slot.
+     * @param url device URL
+     * @param priority request priority, requests with higher priority are served first
+     * @param connect connect operation
+     * @param disconnect disconnect operation which is used to evict the connection
+     * @return connect operation result
+     */
+    boolean connect(URL url, int priority, Supplier<Boolean> connect, Runnable disconnect) {
+        URL deviceURL = url.getDeviceURL();
+        Connection connection = connections.get(deviceURL);
+        if (connection == null) {
+            acquire(deviceURL, priority, disconnect);
+        } else {
+            connection.touch();
+        }
+        boolean connected = false;
+        try {
+            connected = Boolean.TRUE.equals(connect.get());
+            return connected;
+        } finally {
+            if (!connected) {
+                release(deviceURL);
+            }
+        }
+    }
+
+    /**
+     * Records usage of a connection, so that it is not considered as idle.
+     * @param url device URL (or URL of any object of the device)
+     */
+    void touch(URL url) {
+        Connection connection = connections.get(url.isDevice() ? url : url.getDeviceURL());
+        if (connection != null) {
+            connection.touch();
+        }
+    }
+
+    /**
+     * Checks whether the given device has taken a slot in the pool.
+     * @param url device URL (or URL of any object of the device)
+     * @return true if the device holds a slot
+     */
+    boolean isAdmitted(URL url) {
+        return connections.containsKey(url.getDeviceURL());
+    }
+
+    /**
+     * Frees a slot taken by the given device, this must be called when the device gets disconnected.
+     * @param url device URL
+     */
+    void release(URL url) {
+        if (connections.remove(url.getDeviceURL()) != null) {
+            synchronized (this) {
+                notifyAll();
+            }
+        }
+    }
+
+    public URL getAdapterURL() {
+        return adapterURL;
+    }
+
+    /**
+     * Returns maximum number of connections.
+     * @return maximum number of connections, 0 means no limit
+     */
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    public int getActiveConnections() {
+        return connections.size();
+    }
+
+    /**
+     * Returns number of connect requests waiting for a free slot.
+     * @return number of waiting requests
+     */
+    public synchronized int getWaitingCount() {
+        return waiting.size();
+    }
+
+    /**
+     * Returns pool utilization.
+     * @return ratio of active connections to maximum connections, 0 if there is no limit
+     */
+    public double getUtilization() {
+        int max = maxConnections;
+        return max > 0 ? (double) connections.size() / max : 0;
+    }
+
+    /**
+     * Returns number of idle connections that have been closed to free a slot.
+     * @return number of evictions
+     */
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    /**
+     * Returns number of connect requests that have not got a slot within the queue timeout.
+     * @return number of rejections
+     */
+    public long getRejectionCount() {
+        return rejections.sum();
+    }
+
+    private void acquire(URL url, int priority, Runnable disconnect) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(queueTimeout);
+        Waiter waiter;
+        synchronized (this) {
+            waiter = new Waiter(priority, sequence++);
+            waiting.add(waiter);
+        }
+        try {
+            while (true) {
+                Map.Entry<URL, Connection> victim = null;
+                synchronized (this) {
+                    if (waiting.peek() == waiter) {
+                        int max = maxConnections;
+                        if (max == 0 || connections.size() < max) {
+                            waiting.poll();
+                            connections.put(url, new Connection(disconnect));
+                            notifyAll();
+                            return;
+                        }
+                        victim = pollEvictable();
+                    }
+                    if (victim == null) {
+                        long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                        if (remaining <= 0) {
+                            rejections.increment();
+                            throw new TinyBException("Connection limit reached: " + adapterURL + " : "
+                                    + maxConnections);
+                        }
+                        // idle connections may become evictable without any notification, hence re-checking
+                        wait(Math.min(remaining, RECHECK_INTERVAL));
+                    }
+                }
+                if (victim != null) {
+                    evict(victim.getKey(), victim.getValue());
+                }
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new TinyBException("Interrupted while waiting for a connection slot: " + url, ex);
+        } finally {
+            synchronized (this) {
+                if (waiting.remove(waiter)) {
+                    notifyAll();
+                }
+            }
+        }
+    }
+
+    private Map.Entry<URL, Connection> pollEvictable() {
+        long now = System.currentTimeMillis();
+        Map.Entry<URL, Connection> victim = null;
+        for (Map.Entry<URL, Connection> entry : connections.entrySet()) {
+            long lastUsed = entry.getValue().lastUsed;
+            if (now - lastUsed >= idleTimeout && (victim == null || lastUsed < victim.getValue().lastUsed)) {
+                victim = entry;
+            }
+        }
+        if (victim != null && connections.remove(victim.getKey(), victim.getValue())) {
+            return victim;
+        }
+        return null;
+    }
+
+    private void evict(URL url, Connection connection) {
+        LOGGER.debug("Evicting idle connection: {}", url);
+        evictions.increment();
+        try {
+            connection.disconnect.run();
+        } catch (Exception ex) {
+            LOGGER.debug("Could not disconnect evicted connection: {} : {}", url, ex.getMessage());
+        }
+    }
+
+    private static final class Connection {
+
+        private final Runnable disconnect;
+        private volatile long lastUsed = System.currentTimeMillis();
+
+        private Connection(Runnable disconnect) {
+            this.disconnect = disconnect;
+        }
+
+        private void touch() {
+            lastUsed = System.currentTimeMillis();
+        }
+    }
+
+    private static final class Waiter {
+
+        private final int priority;
+        private final long sequence;
+
+        private Waiter(int priority, long sequence) {
+            this.priority = priority;
+            this.sequence = sequence;
+        }
+    }
+
+}
@@ -0,0 +1,129 @@
+package org.sputnikdev.bluetooth.manager.transport.tinyb;
+
+/*-
+ * #%L
+ * org.sputnikdev:bluetooth-manager-tinyb
+ * %%
+ * Copyright (C) 2017 Sputnik Dev
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Supplier;
+
+/**
+ * An immutable index of characteristic descriptors by their UUIDs. The client characteristic configuration
+ * descriptor (0x2902) is located upfront, as it is checked every time notifications are configured.
+ * Descriptors do not change for the life of a characteristic, hence the index is built once per characteristic.
+ * The index can also be built from known descriptor UUIDs (e.g. from {@link GattDatabase}), in this case
+ * descriptor objects are resolved only when one of them is accessed.
+ * @author Vlad Kolotov
+ */
+final class DescriptorIndex {
+
+    static final String CONFIGURATION_UUID = "00002902-0000-1000-8000-00805f9b34fb";
+
+    private static final String BASE_UUID_FORMAT = "0000%s-0000-1000-8000-00805f9b34fb";
+
+    private final Set<String> uuids;
+    private final Supplier<List<BackendDescriptor>> resolver;
+    private volatile Map<String, BackendDescriptor> descriptors;
+
+    DescriptorIndex(List<BackendDescriptor> descriptors) {
+        this.descriptors = index(descriptors);
+        this.uuids = Collections.unmodifiableSet(this.descriptors.keySet());
+        this.resolver = null;
+    }
+
+    DescriptorIndex(Collection<String> uuids, Supplier<List<BackendDescriptor>> resolver) {
+        Set<String> normalized = new LinkedHashSet<>();
+        uuids.forEach(uuid -> normalized.add(normalize(uuid)));
+        this.uuids = Collections.unmodifiableSet(normalized);
+        this.resolver = resolver;
+    }
+
+    /**
+     * Returns a descriptor by its UUID.
+     * @param uuid full descriptor UUID or a 16 bit short form (e.g. "2902")
+     * @return a descriptor or null if the characteristic does not have it
+     */
+    BackendDescriptor get(String uuid) {
+        String normalized = normalize(uuid);
+        if (!uuids.contains(normalized)) {
+            return null;
+        }
+        Map<String, BackendDescriptor> index = descriptors;
+        if (index == null) {
+            index = index(resolver.get());
+            descriptors = index;
+        }
+        return index.get(normalized);
+    }
+
+    /**
+     * Returns the client characteristic configuration descriptor.
+     * @return CCCD or null if the characteristic does not have it
+     */
+    BackendDescriptor getConfiguration() {
+        return get(CONFIGURATION_UUID);
+    }
+
+    /**
+     * Checks whether the characteristic has the client characteristic configuration descriptor,
+     * descriptor objects are not resolved.
+     * @return true if the characteristic has CCCD
+     */
+    boolean hasConfiguration() {
+        return uuids.contains(CONFIGURATION_UUID);
+    }
+
+    Set<String> getUUIDs() {
+        return uuids;
+    }
+
+    int size() {
+        return uuids.size();
+    }
+
+    private static Map<String, BackendDescriptor> index(List<BackendDescriptor> descriptors) {
+        Map<String, BackendDescriptor> index = new HashMap<>();
+        if (descriptors != null) {
+            for (BackendDescriptor descriptor : descriptors) {
+                String uuid = descriptor.getUUID();
+                if (uuid != null) {
+                    index.putIfAbsent(normalize(uuid), descriptor);
+                }
+            }
+        }
+        return Collections.unmodifiableMap(index);
+    }
+
+    /**
+     * Normalizes a UUID to its full lower case form.
+     * @param uuid full UUID or a 16 bit short form (e.g. "2902")
+     * @return full UUID
+     */
+    static String normalize(String uuid) {
+        String normalized = uuid.trim().toLowerCase();
+        return normalized.length() == 4 ? String.format(BASE_UUID_FORMAT, normalized) : normalized;
+    }
+
+}
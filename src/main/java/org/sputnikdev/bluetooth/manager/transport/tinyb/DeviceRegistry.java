@@ -0,0 +1,398 @@
+package org.sputnikdev.bluetooth.manager.transport.tinyb;
+
+/*-
+ * #%L
+ * org.sputnikdev:bluetooth-manager-tinyb
+ * %%
+ * Copyright (C) 2017 Sputnik Dev
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sputnikdev.bluetooth.URL;
+import org.sputnikdev.bluetooth.manager.DiscoveredDevice;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * A registry of known devices that is persisted to an append-only file, so that known devices are available
+ * straight after restart without waiting for a discovery cycle. A new record is appended when a device changes
+ * its name, alias or class, or when its persisted record is older than {@link #PERSIST_INTERVAL}.
+ * The last record of a device wins when the file is loaded, the file is compacted on loading and when the number
+ * of appended records exceeds a threshold. Devices that have not been seen for longer than the maximum age
+ * are evicted.
+ * @author Vlad Kolotov
+ */
+class DeviceRegistry {
+
+    static final long DEFAULT_TIME_TO_LIVE = 300000;
+    static final long PERSIST_INTERVAL = 60000;
+    static final long DEFAULT_MAX_AGE = 30L * 24 * 60 * 60 * 1000;
+    static final int MIN_COMPACTION_THRESHOLD = 1000;
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(DeviceRegistry.class);
+    private static final String SEPARATOR = "\t";
+    private static final String NULL = "\\N";
+
+    private final GattDatabase gattDatabase;
+    private final Map<URL, Record> devices = new ConcurrentHashMap<>();
+    private volatile long timeToLive = DEFAULT_TIME_TO_LIVE;
+    private volatile long maxAge = DEFAULT_MAX_AGE;
+    private volatile Path file;
+    private BufferedWriter log;
+    // records appended since the last compaction
+    private int appended;
+
+    /**
+     * Creates a registry.
+     * @param gattDatabase GATT cache to look up known services of devices
+     */
+    DeviceRegistry(GattDatabase gattDatabase) {
+        this.gattDatabase = gattDatabase;
+    }
+
+    /**
+     * Updates known devices with the discovery changes.
+     * @param delta discovery changes
+     * @param now current time in milliseconds
+     */
+    void update(DiscoveryDelta delta, long now) {
+        delta.getAdded().forEach(device -> update(device, now));
+        delta.getChanged().forEach(device -> update(device, now));
+    }
+
+    void update(DiscoveredDevice device, long now) {
+        Set<String> services = gattDatabase.getServiceUUIDs(device.getURL());
+        Record previous = devices.get(device.getURL());
+        // a device that is cached by BlueZ but is not in range (RSSI is not valid) is not seen
+        long lastSeen = previous == null || isSeen(device) ? now : previous.lastSeen;
+        Record record = new Record(device, lastSeen, services != null ? services
+                : previous != null ? previous.services : Collections.emptySet());
+        devices.put(device.getURL(), record);
+        if (previous == null || now - previous.persisted >= PERSIST_INTERVAL || !sameIdentity(previous, record)) {
+            append(record);
+        } else {
+            record.persisted = previous.persisted;
+        }
+    }
+
+    /**
+     * Refreshes last seen time of currently discovered devices (devices that are present but do not change
+     * are not reported by discovery changes) and evicts devices that have not been seen for longer than
+     * the maximum age. Devices that are cached by BlueZ but are not in range (RSSI is not valid) are not
+     * refreshed, so that they eventually get evicted.
+     * @param discovered currently discovered devices
+     * @param now current time in milliseconds
+     */
+    void touch(Collection<DiscoveredDevice> discovered, long now) {
+        for (DiscoveredDevice device : discovered) {
+            Record record = devices.get(device.getURL());
+            if (record != null && isSeen(device)) {
+                record.lastSeen = now;
+                if (now - record.persisted >= PERSIST_INTERVAL) {
+                    append(record);
+                }
+            }
+        }
+        evict(now);
+    }
+
+    /**
+     * Returns all known devices.
+     * @return known devices
+     */
+    Collection<KnownDevice> getKnownDevices() {
+        return devices.values().stream().map(Record::toKnownDevice).collect(Collectors.toList());
+    }
+
+    /**
+     * Adds known devices that have been seen recently (within time to live) but are not in the given set.
+     * @param discovered currently discovered devices
+     * @param now current time in milliseconds
+     * @return the given set if there are no such devices, a new merged set otherwise
+     */
+    Set<DiscoveredDevice> merge(Set<DiscoveredDevice> discovered, long now) {
+        Set<DiscoveredDevice> result = discovered;
+        for (Record record : devices.values()) {
+            if (now - record.lastSeen <= timeToLive && !discovered.contains(record.device)) {
+                if (result == discovered) {
+                    result = new HashSet<>(discovered);
+                }
+                result.add(record.device);
+            }
+        }
+        return result;
+    }
+
+    boolean isEnabled() {
+        return file != null;
+    }
+
+    long getTimeToLive() {
+        return timeToLive;
+    }
+
+    void setTimeToLive(long timeToLive) {
+        this.timeToLive = timeToLive;
+    }
+
+    long getMaxAge() {
+        return maxAge;
+    }
+
+    /**
+     * Sets maximum time since a device was seen last time, after which the device is evicted.
+     * @param maxAge maximum age in milliseconds
+     */
+    void setMaxAge(long maxAge) {
+        this.maxAge = maxAge;
+    }
+
+    int size() {
+        return devices.size();
+    }
+
+    /**
+     * Sets the registry file, known devices are loaded from the file and the file is compacted.
+     * @param file registry file or null to disable persistence
+     */
+    synchronized void setFile(Path file) {
+        close();
+        this.file = file;
+        if (file == null) {
+            return;
+        }
+        if (Files.exists(file)) {
+            load(file);
+        }
+        compact();
+    }
+
+    synchronized void close() {
+        if (log != null) {
+            try {
+                log.close();
+            } catch (IOException ex) {
+                LOGGER.debug("Could not close device registry: {}", ex.getMessage());
+            }
+            log = null;
+        }
+    }
+
+    void clear() {
+        devices.clear();
+    }
+
+    private synchronized void append(Record record) {
+        if (log == null) {
+            return;
+        }
+        try {
+            log.write(encode(record));
+            log.newLine();
+            log.flush();
+            record.persisted = record.lastSeen;
+        } catch (IOException ex) {
+            LOGGER.warn("Could not update device registry: {}. Reason: {}.", file, ex.getMessage());
+        }
+        if (++appended > Math.max(MIN_COMPACTION_THRESHOLD, 2 * devices.size())) {
+            close();
+            compact();
+        }
+    }
+
+    /**
+     * Rewrites the file with the last record of each known device and reopens it for appending.
+     */
+    private synchronized void compact() {
+        try {
+            Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+            try (BufferedWriter writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+                for (Record record : devices.values()) {
+                    writer.write(encode(record));
+                    writer.newLine();
+                }
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            log = Files.newBufferedWriter(file, StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+            appended = 0;
+            LOGGER.debug("Device registry compacted: {} : {} devices", file, devices.size());
+        } catch (IOException ex) {
+            LOGGER.warn("Could not open device registry: {}. Reason: {}.", file, ex.getMessage());
+        }
+    }
+
+    private void evict(long now) {
+        long age = maxAge;
+        devices.values().removeIf(record -> now - record.lastSeen > age);
+    }
+
+    private void load(Path source) {
+        int lines = 0;
+        try (BufferedReader reader = Files.newBufferedReader(source, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lines++;
+                Record record = decode(line);
+                if (record != null) {
+                    record.persisted = record.lastSeen;
+                    devices.merge(record.device.getURL(), record,
+                        (existing, loaded) -> loaded.lastSeen >= existing.lastSeen ? loaded : existing);
+                }
+            }
+        } catch (IOException ex) {
+            LOGGER.warn("Could not load device registry: {}. Reason: {}.", source, ex.getMessage());
+        }
+        LOGGER.debug("Device registry loaded: {} : {} records, {} devices", source, lines, devices.size());
+    }
+
+    private static boolean isSeen(DiscoveredDevice device) {
+        return device.getRSSI() != 0;
+    }
+
+    private static boolean sameIdentity(Record first, Record second) {
+        DiscoveredDevice device1 = first.device;
+        DiscoveredDevice device2 = second.device;
+        return Objects.equals(device1.getName(), device2.getName())
+                && Objects.equals(device1.getAlias(), device2.getAlias())
+                && device1.getBluetoothClass() == device2.getBluetoothClass()
+                && first.services.equals(second.services);
+    }
+
+    private static String encode(Record record) {
+        DiscoveredDevice device = record.device;
+        return String.join(SEPARATOR, device.getURL().getAdapterAddress(), device.getURL().getDeviceAddress(),
+                clean(device.getName()), clean(device.getAlias()), Integer.toString(device.getBluetoothClass()),
+                Boolean.toString(device.isBleEnabled()), Short.toString(device.getRSSI()),
+                Long.toString(record.lastSeen), String.join(",", record.services));
+    }
+
+    private static Record decode(String line) {
+        String[] tokens = line.split(SEPARATOR, -1);
+        if (tokens.length != 9) {
+            // e.g. a line truncated by a crash
+            return null;
+        }
+        try {
+            URL url = new URL(TinyBFactory.TINYB_PROTOCOL_NAME, tokens[0], tokens[1]);
+            DiscoveredDevice device = new DiscoveredDevice(url, restore(tokens[2]), restore(tokens[3]),
+                    Short.parseShort(tokens[6]), Integer.parseInt(tokens[4]), Boolean.parseBoolean(tokens[5]));
+            Set<String> services = tokens[8].isEmpty() ? Collections.emptySet()
+                    : new LinkedHashSet<>(Arrays.asList(tokens[8].split(",")));
+            return new Record(device, Long.parseLong(tokens[7]), services);
+        } catch (RuntimeException ex) {
+            return null;
+        }
+    }
+
+    // escaping values so that they do not break the record format, null is distinguished from an empty string
+    private static String clean(String value) {
+        if (value == null) {
+            return NULL;
+        }
+        StringBuilder result = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '\\':
+                    result.append("\\\\");
+                    break;
+                case '\t':
+                    result.append("\\t");
+                    break;
+                case '\n':
+                    result.append("\\n");
+                    break;
+                case '\r':
+                    result.append("\\r");
+                    break;
+                default:
+                    result.append(c);
+            }
+        }
+        return result.toString();
+    }
+
+    private static String restore(String value) {
+        if (NULL.equals(value)) {
+            return null;
+        }
+        if (value.indexOf('\\') < 0) {
+            return value;
+        }
+        StringBuilder result = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\' && i + 1 < value.length()) {
+                char next = value.charAt(++i);
+                switch (next) {
+                    case 't':
+                        result.append('\t');
+                        break;
+                    case 'n':
+                        result.append('\n');
+                        break;
+                    case 'r':
+                        result.append('\r');
+                        break;
+                    case '\\':
+                        result.append('\\');
+                        break;
+                    default:
+                        result.append(c).append(next);
+                }
+            } else {
+                result.append(c);
+            }
+        }
+        return result.toString();
+    }
+
+    private static final class Record {
+        private final DiscoveredDevice device;
+        private final Set<String> services;
+        private volatile long lastSeen;
+        private volatile long persisted;
+
+        private Record(DiscoveredDevice device, long lastSeen, Set<String> services) {
+            this.device = device;
+            this.lastSeen = lastSeen;
+            this.services = services;
+        }
+
+        private KnownDevice toKnownDevice() {
+            return new KnownDevice(device, lastSeen, services);
+        }
+    }
+
+}
@@ -0,0 +1,77 @@
+package org.sputnikdev.bluetooth.manager.transport.tinyb;
+
+/*-
+ * #%L
+ * org.sputnikdev:bluetooth-manager-tinyb
+ * %%
+ * Copyright (C) 2017 Sputnik Dev
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import org.sputnikdev.bluetooth.manager.DiscoveredDevice;
+
+import java.util.Collections;
+import java.util.Set;
+
+/**
+ * Changes of the discovered devices list between two consecutive refreshes of the discovery index.
+ * @author Vlad Kolotov
+ */
+public final class DiscoveryDelta {
+
+    private final Set<DiscoveredDevice> added;
+    private final Set<DiscoveredDevice> changed;
+    private final Set<DiscoveredDevice> removed;
+
+    DiscoveryDelta(Set<DiscoveredDevice> added, Set<DiscoveredDevice> changed, Set<DiscoveredDevice> removed) {
+        this.added = Collections.unmodifiableSet(added);
+        this.changed = Collections.unmodifiableSet(changed);
+        this.removed = Collections.unmodifiableSet(removed);
+    }
+
+    /**
+     * Returns devices that have appeared since the previous refresh.
+     * @return added devices
+     */
+    public Set<DiscoveredDevice> getAdded() {
+        return added;
+    }
+
+    /**
+     * Returns devices which name, alias, RSSI or bluetooth class have changed since the previous refresh.
+     * @return changed devices
+     */
+    public Set<DiscoveredDevice> getChanged() {
+        return changed;
+    }
+
+    /**
+     * Returns devices that have disappeared since the previous refresh.
+     * @return removed devices
+     */
+    public Set<DiscoveredDevice> getRemoved() {
+        return removed;
+    }
+
+    public boolean isEmpty() {
+        return added.isEmpty() && changed.isEmpty() && removed.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return "[added=" + added.size() + ", changed=" + changed.size() + ", removed=" + removed.size() + "]";
+    }
+
+}
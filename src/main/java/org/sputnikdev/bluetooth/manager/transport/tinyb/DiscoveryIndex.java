@@ -0,0 +1,340 @@
+package org.sputnikdev.bluetooth.manager.transport.tinyb;
+
+/*-
+ * #%L
+ * org.sputnikdev:bluetooth-manager-tinyb
+ * %%
+ * Copyright (C) 2017 Sputnik Dev
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sputnikdev.bluetooth.URL;
+import org.sputnikdev.bluetooth.manager.DiscoveredDevice;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+
+/**
+ * An index of discovered devices that is updated incrementally.
+ * Reading device properties requires a DBus round trip per property, so that the index reads all properties
+ * (name, alias, RSSI, bluetooth class) only for new devices and once in the configured refresh interval
+ * for known devices. In between, only RSSI is read, unless it has been already received via a notification.
+ * Discovered devices are returned as an immutable snapshot that is rebuilt only when something changes.
+ * Changes are also published to {@link DiscoveryListener}s as they are detected. Besides the changes of each
+ * update, the index accumulates changes until they are taken with {@link #takeChanges()}, so that updates made by
+ * the background discovery poller do not consume changes that are reported to other callers.
+ * A device is reported as lost when it is removed by the bluetooth stack or, if time to live is set, when it has
+ * not been seen for longer than time to live. A device is seen when its RSSI is notified or it has a valid
+ * (non-zero) RSSI, even if the value has not changed, as the bluetooth stack invalidates RSSI of devices that are
+ * out of range or when discovery stops.
+ * @author Vlad Kolotov
+ */
+class DiscoveryIndex {
+
+    static final long DEFAULT_REFRESH_INTERVAL = 30000;
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(DiscoveryIndex.class);
+
+    private final Supplier<NotificationDispatcher> dispatcher;
+    private final Map<BackendDevice, Entry> entries = new ConcurrentHashMap<>();
+    private final Map<URL, Entry> entriesByURL = new ConcurrentHashMap<>();
+    private final List<DiscoveryListener> listeners = new CopyOnWriteArrayList<>();
+    private volatile long refreshInterval = DEFAULT_REFRESH_INTERVAL;
+    private volatile long timeToLive;
+    private volatile Set<DiscoveredDevice> snapshot = Collections.emptySet();
+    private volatile boolean dirty;
+    // changes accumulated since the last call of takeChanges, guarded by this
+    private final Map<URL, DiscoveredDevice> pendingAdded = new HashMap<>();
+    private final Map<URL, DiscoveredDevice> pendingChanged = new HashMap<>();
+    private final Map<URL, DiscoveredDevice> pendingRemoved = new HashMap<>();
+
+    /**
+     * Creates an index.
+     * @param dispatcher a dispatcher that delivers events to discovery listeners
+     */
+    DiscoveryIndex(Supplier<NotificationDispatcher> dispatcher) {
+        this.dispatcher = dispatcher;
+    }
+
+    /**
+     * Updates the index with the current list of devices. The changes are also accumulated for
+     * {@link #takeChanges()}.
+     * @param devices devices currently known to the bluetooth stack
+     * @return changes since the previous update
+     */
+    synchronized DiscoveryDelta update(List<BackendDevice> devices) {
+        long now = System.currentTimeMillis();
+        Set<DiscoveredDevice> added = new HashSet<>();
+        Set<DiscoveredDevice> changed = new HashSet<>();
+        Set<DiscoveredDevice> removed = new HashSet<>();
+        Set<BackendDevice> present = new HashSet<>(devices.size() * 2);
+        for (BackendDevice device : devices) {
+            present.add(device);
+            Entry entry = entries.get(device);
+            if (entry == null) {
+                entry = new Entry(read(device, new URL(TinyBFactory.TINYB_PROTOCOL_NAME,
+                        device.getAdapter().getAddress(), device.getAddress())), now);
+                entries.put(device, entry);
+                entriesByURL.put(entry.device.getURL(), entry);
+                added.add(entry.device);
+                publish(entry.device, DiscoveryListener::discovered);
+            } else {
+                refresh(device, entry, now);
+                if (entry.changed) {
+                    changed.add(entry.device);
+                }
+                if (!entry.lost && timeToLive > 0 && now - entry.lastSeen > timeToLive) {
+                    entry.lost = true;
+                    publish(entry.device, DiscoveryListener::lost);
+                }
+            }
+            entry.changed = false;
+        }
+        for (Iterator<Map.Entry<BackendDevice, Entry>> iterator = entries.entrySet().iterator();
+                iterator.hasNext();) {
+            Map.Entry<BackendDevice, Entry> entry = iterator.next();
+            if (!present.contains(entry.getKey())) {
+                iterator.remove();
+                entriesByURL.remove(entry.getValue().device.getURL());
+                removed.add(entry.getValue().device);
+                if (!entry.getValue().lost) {
+                    publish(entry.getValue().device, DiscoveryListener::lost);
+                }
+            }
+        }
+        if (dirty || !added.isEmpty() || !changed.isEmpty() || !removed.isEmpty()) {
+            rebuildSnapshot();
+        }
+        accumulate(added, changed, removed);
+        return new DiscoveryDelta(added, changed, removed);
+    }
+
+    /**
+     * Returns changes accumulated since the previous call of this method, a device that has been added and then
+     * removed in between is not reported, a device that has been removed and then added again is reported as changed.
+     * @return accumulated changes
+     */
+    synchronized DiscoveryDelta takeChanges() {
+        DiscoveryDelta delta = new DiscoveryDelta(new HashSet<>(pendingAdded.values()),
+                new HashSet<>(pendingChanged.values()), new HashSet<>(pendingRemoved.values()));
+        pendingAdded.clear();
+        pendingChanged.clear();
+        pendingRemoved.clear();
+        return delta;
+    }
+
+    /**
+     * Updates RSSI of a device that is already in the index.
+     * @param url device URL
+     * @param rssi a new RSSI value
+     */
+    synchronized void updateRSSI(URL url, short rssi) {
+        Entry entry = entriesByURL.get(url);
+        if (entry != null) {
+            entry.rssiNotified = true;
+            if (entry.device.getRSSI() != rssi) {
+                dirty = true;
+                seen(entry, copy(entry.device, rssi), System.currentTimeMillis());
+            } else {
+                seen(entry, null, System.currentTimeMillis());
+            }
+        }
+    }
+
+    void addListener(DiscoveryListener listener) {
+        listeners.add(listener);
+    }
+
+    void removeListener(DiscoveryListener listener) {
+        listeners.remove(listener);
+    }
+
+    boolean hasListeners() {
+        return !listeners.isEmpty();
+    }
+
+    /**
+     * Returns a snapshot of discovered devices. The snapshot reflects the latest update and RSSI notifications.
+     * @return discovered devices
+     */
+    Set<DiscoveredDevice> getSnapshot() {
+        if (dirty) {
+            synchronized (this) {
+                if (dirty) {
+                    rebuildSnapshot();
+                }
+            }
+        }
+        return snapshot;
+    }
+
+    void setRefreshInterval(long refreshInterval) {
+        this.refreshInterval = refreshInterval;
+    }
+
+    long getRefreshInterval() {
+        return refreshInterval;
+    }
+
+    /**
+     * Sets time to live of discovered devices.
+     * @param timeToLive time in milliseconds after which a device that has not been seen is reported as lost,
+     *                   0 means that devices are reported as lost only when they are removed by the bluetooth stack
+     */
+    void setTimeToLive(long timeToLive) {
+        this.timeToLive = timeToLive;
+    }
+
+    synchronized void clear() {
+        entries.clear();
+        entriesByURL.clear();
+        snapshot = Collections.emptySet();
+        dirty = false;
+        pendingAdded.clear();
+        pendingChanged.clear();
+        pendingRemoved.clear();
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    private void refresh(BackendDevice device, Entry entry, long now) {
+        DiscoveredDevice current = entry.device;
+        if (now - entry.refreshed >= refreshInterval) {
+            DiscoveredDevice fresh = read(device, current.getURL());
+            entry.refreshed = now;
+            boolean changed = current.getRSSI() != fresh.getRSSI()
+                    || !Objects.equals(current.getName(), fresh.getName())
+                    || !Objects.equals(current.getAlias(), fresh.getAlias())
+                    || current.getBluetoothClass() != fresh.getBluetoothClass();
+            seen(entry, changed ? fresh : null, now);
+        } else if (!entry.rssiNotified) {
+            short rssi = device.getRSSI();
+            seen(entry, rssi != current.getRSSI() ? copy(current, rssi) : null, now);
+        }
+        entry.rssiNotified = false;
+    }
+
+    /**
+     * Records that a device has been reported by the bluetooth stack. The device counts as seen only if it has
+     * a valid RSSI, a device that has just become out of range (RSSI is invalidated) only publishes the change.
+     * @param entry index entry
+     * @param changed an updated device or null if nothing has changed
+     * @param now current time
+     */
+    private void seen(Entry entry, DiscoveredDevice changed, long now) {
+        if (changed != null) {
+            entry.device = changed;
+            entry.changed = true;
+        }
+        if (entry.device.getRSSI() != 0) {
+            entry.lastSeen = now;
+            if (entry.lost) {
+                entry.lost = false;
+                publish(entry.device, DiscoveryListener::discovered);
+                return;
+            }
+        }
+        if (changed != null) {
+            publish(changed, DiscoveryListener::changed);
+        }
+    }
+
+    private void accumulate(Set<DiscoveredDevice> added, Set<DiscoveredDevice> changed,
+                            Set<DiscoveredDevice> removed) {
+        for (DiscoveredDevice device : added) {
+            if (pendingRemoved.remove(device.getURL()) != null) {
+                pendingChanged.put(device.getURL(), device);
+            } else {
+                pendingAdded.put(device.getURL(), device);
+            }
+        }
+        for (DiscoveredDevice device : changed) {
+            if (pendingAdded.containsKey(device.getURL())) {
+                pendingAdded.put(device.getURL(), device);
+            } else {
+                pendingChanged.put(device.getURL(), device);
+            }
+        }
+        for (DiscoveredDevice device : removed) {
+            pendingChanged.remove(device.getURL());
+            if (pendingAdded.remove(device.getURL()) == null) {
+                pendingRemoved.put(device.getURL(), device);
+            }
+        }
+    }
+
+    private void publish(DiscoveredDevice device, BiConsumer<DiscoveryListener, DiscoveredDevice> event) {
+        for (DiscoveryListener listener : listeners) {
+            dispatcher.get().dispatch(device.getURL(), null, () -> {
+                try {
+                    event.accept(listener, device);
+                } catch (Exception ex) {
+                    LOGGER.error("Discovery listener execution error", ex);
+                }
+            });
+        }
+    }
+
+    private void rebuildSnapshot() {
+        dirty = false;
+        Set<DiscoveredDevice> devices = new HashSet<>(entries.size() * 2);
+        for (Entry entry : entries.values()) {
+            devices.add(entry.device);
+        }
+        snapshot = Collections.unmodifiableSet(devices);
+    }
+
+    private static DiscoveredDevice read(BackendDevice device, URL url) {
+        int bluetoothClass = device.getBluetoothClass();
+        //TODO implement proper determination of the device type
+        return new DiscoveredDevice(url, device.getName(), device.getAlias(), device.getRSSI(),
+                bluetoothClass, bluetoothClass == 0);
+    }
+
+    private static DiscoveredDevice copy(DiscoveredDevice device, short rssi) {
+        return new DiscoveredDevice(device.getURL(), device.getName(), device.getAlias(), rssi,
+                device.getBluetoothClass(), device.isBleEnabled());
+    }
+
+    private static final class Entry {
+        private volatile DiscoveredDevice device;
+        private volatile long refreshed;
+        private volatile long lastSeen;
+        private volatile boolean rssiNotified;
+        private volatile boolean changed;
+        private volatile boolean lost;
+
+        private Entry(DiscoveredDevice device, long refreshed) {
+            this.device = device;
+            this.refreshed = refreshed;
+            this.lastSeen = refreshed;
+        }
+    }
+
+}
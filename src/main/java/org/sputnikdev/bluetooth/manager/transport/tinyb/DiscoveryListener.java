@@ -0,0 +1,50 @@
+package org.sputnikdev.bluetooth.manager.transport.tinyb;
+
+/*-
+ * #%L
+ * org.sputnikdev:bluetooth-manager-tinyb
+ * %%
+ * Copyright (C) 2017 Sputnik Dev
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import org.sputnikdev.bluetooth.manager.DiscoveredDevice;
+
+/**
+ * A listener of discovery events. Events are delivered in a notification thread, events for the same device
+ * are delivered in order.
+ * @author Vlad Kolotov
+ */
+public interface DiscoveryListener {
+
+    /**
+     * Called when a new device is discovered or a lost device appears again.
+     * @param device discovered device
+     */
+    void discovered(DiscoveredDevice device);
+
+    /**
+     * Called when RSSI, name, alias or bluetooth class of a discovered device change.
+     * @param device changed device
+     */
+    default void changed(DiscoveredDevice device) { }
+
+    /**
+     * Called when a device is removed by the bluetooth stack or has not been seen for the configured time to live.
+     * @param device lost device
+     */
+    void lost(DiscoveredDevice device);
+
+}
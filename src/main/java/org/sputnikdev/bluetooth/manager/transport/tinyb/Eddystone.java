@@ -0,0 +1,215 @@
+package org.sputnikdev.bluetooth.manager.transport.tinyb;
+
+/*-
+ * #%L
+ * org.sputnikdev:bluetooth-manager-tinyb
+ * %%
+ * Copyright (C) 2017 Sputnik Dev
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+/**
+ * A decoded Eddystone frame (service data of the Eddystone service, UUID 0xFEAA).
+ * Only properties of the decoded frame type are set, see {@link #getFrameType()}.
+ * @author Vlad Kolotov
+ */
+public final class Eddystone {
+
+    static final String SERVICE_UUID = "0000feaa-0000-1000-8000-00805f9b34fb";
+
+    private static final String[] URL_SCHEMES = {"http://www.", "https://www.", "http://", "https://"};
+    private static final String[] URL_EXPANSIONS = {".com/", ".org/", ".edu/", ".net/", ".info/", ".biz/", ".gov/",
+        ".com", ".org", ".edu", ".net", ".info", ".biz", ".gov"};
+    private static final int TEMPERATURE_NOT_SUPPORTED = 0x8000;
+
+    /**
+     * Eddystone frame types.
+     */
+    public enum FrameType {
+        UID, URL, TLM, EID
+    }
+
+    private final FrameType frameType;
+    private final int txPower;
+    private final String namespace;
+    private final String instance;
+    private final String url;
+    private final String ephemeralId;
+    private final int batteryVoltage;
+    private final double temperature;
+    private final long advertisementCount;
+    private final long uptime;
+
+    private Eddystone(FrameType frameType, int txPower, String namespace, String instance, String url,
+                      String ephemeralId, int batteryVoltage, double temperature, long advertisementCount,
+                      long uptime) {
+        this.frameType = frameType;
+        this.txPower = txPower;
+        this.namespace = namespace;
+        this.instance = instance;
+        this.url = url;
+        this.ephemeralId = ephemeralId;
+        this.batteryVoltage = batteryVoltage;
+        this.temperature = temperature;
+        this.advertisementCount = advertisementCount;
+        this.uptime = uptime;
+    }
+
+    /**
+     * Decodes an Eddystone frame, UID, URL, TLM (unencrypted) and EID frames are supported.
+     * @param data Eddystone service data
+     * @return a decoded frame or null if the frame type is not supported or the frame is malformed
+     */
+    static Eddystone decode(byte[] data) {
+        if (data == null || data.length < 2) {
+            return null;
+        }
+        switch (data[0]) {
+            case 0x00:
+                if (data.length < 18) {
+                    return null;
+                }
+                return new Eddystone(FrameType.UID, data[1], AdvertisementDecoders.toHexString(data, 2, 10),
+                        AdvertisementDecoders.toHexString(data, 12, 6), null, null, 0, Double.NaN, 0, 0);
+            case 0x10:
+                if (data.length < 3 || (data[2] & 0xFF) >= URL_SCHEMES.length) {
+                    return null;
+                }
+                return new Eddystone(FrameType.URL, data[1], null, null, decodeURL(data), null, 0, Double.NaN, 0, 0);
+            case 0x20:
+                // only unencrypted (version 0) telemetry is supported
+                if (data.length < 14 || data[1] != 0x00) {
+                    return null;
+                }
+                int temperature = AdvertisementDecoders.getUInt16(data, 4);
+                return new Eddystone(FrameType.TLM, 0, null, null, null, null, AdvertisementDecoders.getUInt16(data, 2),
+                        temperature == TEMPERATURE_NOT_SUPPORTED ? Double.NaN : (short) temperature / 256.0,
+                        AdvertisementDecoders.getUInt32(data, 6), AdvertisementDecoders.getUInt32(data, 10) * 100);
+            case 0x30:
+                if (data.length < 10) {
+                    return null;
+                }
+                return new Eddystone(FrameType.EID, data[1], null, null, null,
+                        AdvertisementDecoders.toHexString(data, 2, 8), 0, Double.NaN, 0, 0);
+            default:
+                return null;
+        }
+    }
+
+    public FrameType getFrameType() {
+        return frameType;
+    }
+
+    /**
+     * Returns calibrated TX power at 0 meters (UID, URL and EID frames).
+     * @return TX power in dBm
+     */
+    public int getTxPower() {
+        return txPower;
+    }
+
+    /**
+     * Returns beacon namespace (UID frames).
+     * @return namespace ID as a hex string
+     */
+    public String getNamespace() {
+        return namespace;
+    }
+
+    /**
+     * Returns beacon instance (UID frames).
+     * @return instance ID as a hex string
+     */
+    public String getInstance() {
+        return instance;
+    }
+
+    /**
+     * Returns broadcast URL (URL frames).
+     * @return URL
+     */
+    public String getURL() {
+        return url;
+    }
+
+    /**
+     * Returns ephemeral identifier (EID frames).
+     * @return EID as a hex string
+     */
+    public String getEphemeralId() {
+        return ephemeralId;
+    }
+
+    /**
+     * Returns battery voltage (TLM frames).
+     * @return battery voltage in mV, 0 if not supported by the beacon
+     */
+    public int getBatteryVoltage() {
+        return batteryVoltage;
+    }
+
+    /**
+     * Returns beacon temperature (TLM frames).
+     * @return temperature in degrees Celsius, NaN if not supported by the beacon
+     */
+    public double getTemperature() {
+        return temperature;
+    }
+
+    /**
+     * Returns number of advertisements sent since power-up or reboot (TLM frames).
+     * @return advertisement count
+     */
+    public long getAdvertisementCount() {
+        return advertisementCount;
+    }
+
+    /**
+     * Returns time since power-up or reboot (TLM frames).
+     * @return uptime in milliseconds
+     */
+    public long getUptime() {
+        return uptime;
+    }
+
+    @Override
+    public String toString() {
+        switch (frameType) {
+            case UID:
+                return "[UID, namespace=" + namespace + ", instance=" + instance + ", txPower=" + txPower + "]";
+            case URL:
+                return "[URL, url=" + url + ", txPower=" + txPower + "]";
+            case TLM:
+                return "[TLM, battery=" + batteryVoltage + "mV, temperature=" + temperature
+                        + ", advertisements=" + advertisementCount + ", uptime=" + uptime + "ms]";
+            default:
+                return "[EID, eid=" + ephemeralId + ", txPower=" + txPower + "]";
+        }
+    }
+
+    private static String decodeURL(byte[] data) {
+        StringBuilder url = new StringBuilder(URL_SCHEMES[data[2]]);
+        for (int i = 3; i < data.length; i++) {
+            int code = data[i] & 0xFF;
+            if (code < URL_EXPANSIONS.length) {
+                url.append(URL_EXPANSIONS[code]);
+            } else {
+                url.append((char) code);
+            }
+        }
+        return url.toString();
+    }
+
+}
@@ -0,0 +1,329 @@
+package org.sputnikdev.bluetooth.manager.transport.tinyb;
+
+/*-
+ * #%L
+ * org.sputnikdev:bluetooth-manager-tinyb
+ * %%
+ * Copyright (C) 2017 Sputnik Dev
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sputnikdev.bluetooth.URL;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * A cache of GATT attributes (services, characteristics, their flags and descriptors) of devices keyed by
+ * device address. BlueZ recreates GATT objects on every connection, the cache allows to skip reading
+ * attribute metadata (flags and descriptors) through JNI after reconnects.
+ * Records are validated against the service and characteristic UUIDs that are read anyway in order to build
+ * transport objects; records of attributes that are not present anymore are dropped. As changed flags or descriptors
+ * of the same UUIDs cannot be detected this way, records of a device are dropped when the device resolves its services
+ * again without reconnecting (Service Changed) or on request, see {@link TinyBFactory#invalidateGattCache(URL)}.
+ * Optionally, the cache can be persisted to a file, so that it survives restarts.
+ * @author Vlad Kolotov
+ */
+class GattDatabase {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(GattDatabase.class);
+
+    private static final String DEVICE = "device";
+    private static final String SERVICE = "service";
+    private static final String CHARACTERISTIC = "characteristic";
+    private static final String UNKNOWN = "?";
+    private static final String EMPTY = "-";
+
+    private final Map<String, DeviceRecord> devices = new ConcurrentHashMap<>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private volatile Path file;
+    private volatile boolean dirty;
+
+    /**
+     * Returns a record of the given device and validates it against the current list of services.
+     * Records of services that are not present anymore are removed.
+     * @param url device URL
+     * @param serviceUUIDs UUIDs of the resolved services
+     * @return device record
+     */
+    DeviceRecord validate(URL url, Collection<String> serviceUUIDs) {
+        DeviceRecord device = devices.computeIfAbsent(key(url), key -> new DeviceRecord());
+        if (device.retain(serviceUUIDs)) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+        }
+        return device;
+    }
+
+    /**
+     * Returns a record of the given service, a new record is created if there is none.
+     * @param url service URL
+     * @return service record
+     */
+    ServiceRecord getService(URL url) {
+        return devices.computeIfAbsent(key(url), key -> new DeviceRecord()).getService(url.getServiceUUID());
+    }
+
+    /**
+     * Returns a record of the given characteristic, a new record is created if there is none.
+     * @param url characteristic URL
+     * @return characteristic record
+     */
+    CharacteristicRecord getCharacteristic(URL url) {
+        return getService(url).getCharacteristic(url.getCharacteristicUUID());
+    }
+
+    /**
+     * Returns UUIDs of cached services of the given device, a record is not created if there is none.
+     * @param url device URL
+     * @return service UUIDs or null if the device is not cached
+     */
+    Set<String> getServiceUUIDs(URL url) {
+        DeviceRecord device = devices.get(key(url));
+        return device != null ? new LinkedHashSet<>(device.services.keySet()) : null;
+    }
+
+    void remove(URL url) {
+        if (devices.remove(key(url)) != null) {
+            dirty = true;
+        }
+    }
+
+    void clear() {
+        devices.clear();
+        dirty = true;
+    }
+
+    int size() {
+        return devices.size();
+    }
+
+    long getHits() {
+        return hits.get();
+    }
+
+    long getMisses() {
+        return misses.get();
+    }
+
+    Path getFile() {
+        return file;
+    }
+
+    /**
+     * Sets a file to persist the cache to, records are loaded from the file if it exists.
+     * @param file a file or null to disable persistence
+     */
+    void setFile(Path file) {
+        this.file = file;
+        if (file != null && Files.exists(file)) {
+            load(file);
+        }
+    }
+
+    /**
+     * Saves the cache to the configured file if it has been changed since the last save.
+     */
+    void saveIfDirty() {
+        Path target = file;
+        if (target != null && dirty) {
+            save(target);
+        }
+    }
+
+    void load(Path source) {
+        try (BufferedReader reader = Files.newBufferedReader(source, StandardCharsets.UTF_8)) {
+            DeviceRecord device = null;
+            ServiceRecord service = null;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] tokens = line.trim().split(" ");
+                if (DEVICE.equals(tokens[0]) && tokens.length == 2) {
+                    device = devices.computeIfAbsent(tokens[1], key -> new DeviceRecord());
+                } else if (SERVICE.equals(tokens[0]) && tokens.length == 2 && device != null) {
+                    service = device.getService(tokens[1]);
+                } else if (CHARACTERISTIC.equals(tokens[0]) && tokens.length == 4 && service != null) {
+                    CharacteristicRecord characteristic = service.getCharacteristic(tokens[1]);
+                    characteristic.flags = decode(tokens[2]);
+                    characteristic.descriptors = decode(tokens[3]);
+                }
+            }
+            LOGGER.debug("GATT cache loaded: {} : {} devices", source, devices.size());
+        } catch (IOException | RuntimeException ex) {
+            LOGGER.warn("Could not load GATT cache: {}. Reason: {}.", source, ex.getMessage());
+        }
+    }
+
+    synchronized void save(Path target) {
+        dirty = false;
+        try {
+            Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+            try (BufferedWriter writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+                for (Map.Entry<String, DeviceRecord> device : devices.entrySet()) {
+                    writer.write(DEVICE + " " + device.getKey());
+                    writer.newLine();
+                    for (Map.Entry<String, ServiceRecord> service : device.getValue().services.entrySet()) {
+                        writer.write(SERVICE + " " + service.getKey());
+                        writer.newLine();
+                        for (Map.Entry<String, CharacteristicRecord> characteristic
+                                : service.getValue().characteristics.entrySet()) {
+                            writer.write(CHARACTERISTIC + " " + characteristic.getKey() + " "
+                                    + encode(characteristic.getValue().flags) + " "
+                                    + encode(characteristic.getValue().descriptors));
+                            writer.newLine();
+                        }
+                    }
+                }
+            }
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException ex) {
+            dirty = true;
+            LOGGER.warn("Could not save GATT cache: {}. Reason: {}.", target, ex.getMessage());
+        }
+    }
+
+    private <R> boolean retain(Map<String, R> records, Collection<String> uuids,
+                               Supplier<R> factory) {
+        Set<String> current = new HashSet<>();
+        for (String uuid : uuids) {
+            current.add(uuid.toLowerCase());
+        }
+        if (records.keySet().equals(current)) {
+            return true;
+        }
+        records.keySet().retainAll(current);
+        current.forEach(uuid -> records.computeIfAbsent(uuid, key -> factory.get()));
+        dirty = true;
+        return false;
+    }
+
+    private static String key(URL url) {
+        return url.getDeviceAddress().toUpperCase();
+    }
+
+    private static String encode(String[] values) {
+        if (values == null) {
+            return UNKNOWN;
+        }
+        return values.length == 0 ? EMPTY : String.join(",", values);
+    }
+
+    private static String[] decode(String value) {
+        if (UNKNOWN.equals(value)) {
+            return null;
+        }
+        return EMPTY.equals(value) ? new String[0] : value.split(",");
+    }
+
+    /**
+     * GATT attributes of a device.
+     */
+    final class DeviceRecord {
+
+        private final Map<String, ServiceRecord> services = new ConcurrentHashMap<>();
+
+        ServiceRecord getService(String uuid) {
+            return services.computeIfAbsent(uuid.toLowerCase(), key -> {
+                dirty = true;
+                return new ServiceRecord();
+            });
+        }
+
+        Set<String> getServiceUUIDs() {
+            return Collections.unmodifiableSet(services.keySet());
+        }
+
+        private boolean retain(Collection<String> uuids) {
+            return GattDatabase.this.retain(services, uuids, ServiceRecord::new);
+        }
+    }
+
+    /**
+     * GATT attributes of a service.
+     */
+    final class ServiceRecord {
+
+        private final Map<String, CharacteristicRecord> characteristics = new ConcurrentHashMap<>();
+
+        CharacteristicRecord getCharacteristic(String uuid) {
+            return characteristics.computeIfAbsent(uuid.toLowerCase(), key -> {
+                dirty = true;
+                return new CharacteristicRecord();
+            });
+        }
+
+        Set<String> getCharacteristicUUIDs() {
+            return Collections.unmodifiableSet(characteristics.keySet());
+        }
+
+        /**
+         * Validates the record against the current list of characteristics.
+         * @param uuids UUIDs of the resolved characteristics
+         * @return true if the record matches the given characteristics
+         */
+        boolean retain(Collection<String> uuids) {
+            return GattDatabase.this.retain(characteristics, uuids, CharacteristicRecord::new);
+        }
+    }
+
+    /**
+     * GATT attributes of a characteristic, null values mean that the attribute has not been read yet.
+     */
+    final class CharacteristicRecord {
+
+        private volatile String[] flags;
+        private volatile String[] descriptors;
+
+        String[] getFlags() {
+            return flags;
+        }
+
+        void setFlags(String[] flags) {
+            this.flags = flags != null ? flags.clone() : null;
+            dirty = true;
+        }
+
+        List<String> getDescriptors() {
+            String[] uuids = descriptors;
+            return uuids != null ? Arrays.asList(uuids) : null;
+        }
+
+        void setDescriptors(List<String> descriptors) {
+            this.descriptors = descriptors != null ? descriptors.toArray(new String[descriptors.size()]) : null;
+            dirty = true;
+        }
+    }
+
+}
@@ -0,0 +1,165 @@
+package org.sputnikdev.bluetooth.manager.transport.tinyb;
+
+/*-
+ * #%L
+ * org.sputnikdev:bluetooth-manager-tinyb
+ * %%
+ * Copyright (C) 2017 Sputnik Dev
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * A bounded pool of threads that execute blocking GATT operations (connection, characteristic reads and writes),
+ * so that the callers are not blocked and several operations can be pipelined over a connection.
+ * Operations are queued when all threads are busy, operations that do not fit into the queue are rejected.
+ * An operation that does not complete in the given timeout is completed with {@link TimeoutException}.
+ * @author Vlad Kolotov
+ */
+class GattExecutor {
+
+    static final int DEFAULT_THREADS = 8;
+    static final int DEFAULT_CAPACITY = 1000;
+    static final long DEFAULT_OPERATION_TIMEOUT = 10000;
+    static final long DEFAULT_CONNECT_TIMEOUT = 30000;
+
+    private final ThreadPoolExecutor executor;
+    private final ScheduledExecutorService timer;
+    private final long operationTimeout;
+    private final long connectTimeout;
+
+    GattExecutor() {
+        this(DEFAULT_THREADS, DEFAULT_CAPACITY, DEFAULT_OPERATION_TIMEOUT, DEFAULT_CONNECT_TIMEOUT);
+    }
+
+    GattExecutor(int threads, int capacity, long operationTimeout, long connectTimeout) {
+        if (threads < 1 || capacity < 1) {
+            throw new IllegalArgumentException("Number of threads and queue capacity must be positive: "
+                    + threads + " / " + capacity);
+        }
+        this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(capacity), new GattThreadFactory("tinyb-gatt-"));
+        this.executor.allowCoreThreadTimeOut(true);
+        this.timer = Executors.newSingleThreadScheduledExecutor(new GattThreadFactory("tinyb-gatt-timer-"));
+        this.operationTimeout = operationTimeout;
+        this.connectTimeout = connectTimeout;
+    }
+
+    /**
+     * Submits a GATT operation with the default operation timeout.
+     * @param operation a blocking operation
+     * @param <T> result type
+     * @return a future that is completed when the operation is completed
+     */
+    <T> CompletableFuture<T> submit(Supplier<T> operation) {
+        return submit(operation, operationTimeout);
+    }
+
+    /**
+     * Submits a connection operation with the default connection timeout.
+     * @param operation a blocking operation
+     * @param <T> result type
+     * @return a future that is completed when the operation is completed
+     */
+    <T> CompletableFuture<T> submitConnect(Supplier<T> operation) {
+        return submit(operation, connectTimeout);
+    }
+
+    /**
+     * Submits a GATT operation.
+     * @param operation a blocking operation
+     * @param timeout timeout in milliseconds, 0 means no timeout
+     * @param <T> result type
+     * @return a future that is completed when the operation is completed, fails or times out
+     */
+    <T> CompletableFuture<T> submit(Supplier<T> operation, long timeout) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        try {
+            Future<?> task = executor.submit(() -> {
+                try {
+                    future.complete(operation.get());
+                } catch (Throwable ex) {
+                    future.completeExceptionally(ex);
+                }
+            });
+            if (timeout > 0) {
+                ScheduledFuture<?> timeoutTask = timer.schedule(() -> {
+                    if (future.completeExceptionally(
+                            new TimeoutException("GATT operation timed out after " + timeout + " ms"))) {
+                        task.cancel(true);
+                    }
+                }, timeout, TimeUnit.MILLISECONDS);
+                future.whenComplete((result, error) -> timeoutTask.cancel(false));
+            }
+            // e.g. a connect operation stops retrying when the caller is not waiting anymore
+            future.whenComplete((result, error) -> {
+                if (future.isCancelled()) {
+                    task.cancel(true);
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            future.completeExceptionally(ex);
+        }
+        return future;
+    }
+
+    long getOperationTimeout() {
+        return operationTimeout;
+    }
+
+    long getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    int getPendingCount() {
+        return executor.getQueue().size();
+    }
+
+    void shutdown() {
+        timer.shutdownNow();
+        executor.shutdown();
+    }
+
+    private static final class GattThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger counter = new AtomicInteger();
+        private final String prefix;
+
+        private GattThreadFactory(String prefix) {
+            this.prefix = prefix;
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, prefix + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
+}
@@ -0,0 +1,239 @@
+package org.sputnikdev.bluetooth.manager.transport.tinyb;
+
+/*-
+ * #%L
+ * org.sputnikdev:bluetooth-manager-tinyb
+ * %%
+ * Copyright (C) 2017 Sputnik Dev
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import org.sputnikdev.bluetooth.URL;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiFunction;
+import java.util.function.Supplier;
+
+/**
+ * A scheduler of GATT operations of an adapter. BlueZ does not cope well with concurrent operations,
+ * hence the scheduler makes sure that only one connection is being established at a time per adapter and that
+ * only a limited number of operations (one by default) is executed at a time per connection.
+ * Operations of different connections are executed in parallel. Operations are executed in the calling thread,
+ * waiting operations are queued in the order of arrival. Per connection state is kept only while there are
+ * operations executing or waiting for the connection. Schedulers are kept by {@link TinyBContext}.
+ * @author Vlad Kolotov
+ */
+public final class GattScheduler {
+
+    static final int DEFAULT_CONNECTION_CONCURRENCY = 1;
+
+    private final URL adapterURL;
+    // the pool is looked up per operation as pools of lost adapters get removed
+    private final Supplier<ConnectionPool> connectionPool;
+    private final Semaphore connectPermit = new Semaphore(1, true);
+    private volatile Generation generation;
+    private final AtomicInteger queueDepth = new AtomicInteger();
+    private final LongAdder operations = new LongAdder();
+    private final LongAdder totalWaitTime = new LongAdder();
+    private final AtomicLong maxWaitTime = new AtomicLong();
+
+    GattScheduler(URL adapterURL) {
+        this(adapterURL, DEFAULT_CONNECTION_CONCURRENCY, () -> null);
+    }
+
+    /**
+     * Creates a scheduler.
+     * @param adapterURL adapter URL
+     * @param concurrency maximum number of operations that are executed at a time per connection
+     * @param connectionPool a function that returns connection pool of the adapter or null if there is none,
+     *                       connections of the pool are touched by operations, so that they are not evicted
+     */
+    GattScheduler(URL adapterURL, int concurrency, Supplier<ConnectionPool> connectionPool) {
+        this.adapterURL = adapterURL;
+        this.connectionPool = connectionPool;
+        this.generation = new Generation(concurrency);
+        Metrics.registerAdapter(adapterURL);
+    }
+
+    int getConnectionConcurrency() {
+        return generation.concurrency;
+    }
+
+    /**
+     * Sets maximum number of operations that are executed at a time per connection.
+     * @param concurrency maximum number of concurrent operations per connection
+     */
+    void setConnectionConcurrency(int concurrency) {
+        // operations of the previous generation complete and release permits of the previous generation
+        generation = new Generation(concurrency);
+    }
+
+    /**
+     * Executes a connect operation, only one connect operation is executed at a time per adapter.
+     * @param url device URL
+     * @param operation connect operation
+     * @param <T> result type
+     * @return operation result
+     */
+    <T> T connect(URL url, Supplier<T> operation) {
+        return execute(url, true, operation);
+    }
+
+    /**
+     * Executes a GATT operation (e.g. read or write).
+     * @param url device or characteristic URL
+     * @param operation GATT operation
+     * @param <T> result type
+     * @return operation result
+     */
+    <T> T execute(URL url, Supplier<T> operation) {
+        return execute(url, false, operation);
+    }
+
+    public URL getAdapterURL() {
+        return adapterURL;
+    }
+
+    boolean isIdle() {
+        return queueDepth.get() == 0 && generation.connections.isEmpty() && connectPermit.availablePermits() > 0;
+    }
+
+    /**
+     * Returns number of operations waiting for execution.
+     * @return queue depth
+     */
+    public int getQueueDepth() {
+        return queueDepth.get();
+    }
+
+    /**
+     * Returns number of executed operations.
+     * @return number of operations
+     */
+    public long getOperationCount() {
+        return operations.sum();
+    }
+
+    /**
+     * Returns average time operations have spent in the queue.
+     * @return average wait time in nanoseconds
+     */
+    public long getAverageWaitTime() {
+        long count = operations.sum();
+        return count > 0 ? totalWaitTime.sum() / count : 0;
+    }
+
+    /**
+     * Returns maximum time an operation has spent in the queue.
+     * @return maximum wait time in nanoseconds
+     */
+    public long getMaxWaitTime() {
+        return maxWaitTime.get();
+    }
+
+    private <T> T execute(URL url, boolean connect, Supplier<T> operation) {
+        URL deviceURL = url.isDevice() ? url : url.getDeviceURL();
+        Generation current = generation;
+        Connection connection = current.join(deviceURL);
+        long started = System.nanoTime();
+        queueDepth.incrementAndGet();
+        try {
+            if (connect) {
+                connectPermit.acquire();
+            }
+            try {
+                connection.permits.acquire();
+            } catch (InterruptedException ex) {
+                if (connect) {
+                    connectPermit.release();
+                }
+                throw ex;
+            }
+        } catch (InterruptedException ex) {
+            current.leave(deviceURL);
+            Thread.currentThread().interrupt();
+            throw new TinyBException("Interrupted while waiting for GATT operation: " + url, ex);
+        } finally {
+            queueDepth.decrementAndGet();
+        }
+        long waitTime = System.nanoTime() - started;
+        ConnectionPool pool = connectionPool.get();
+        if (pool != null) {
+            pool.touch(deviceURL);
+        }
+        operations.increment();
+        totalWaitTime.add(waitTime);
+        maxWaitTime.accumulateAndGet(waitTime, Math::max);
+        Metrics.recordWait(url, waitTime);
+        try {
+            return operation.get();
+        } finally {
+            connection.permits.release();
+            current.leave(deviceURL);
+            if (connect) {
+                connectPermit.release();
+            }
+        }
+    }
+
+    /**
+     * Connection state for a given connection concurrency. Changing the concurrency swaps in a new generation,
+     * operations that have joined a connection of the previous generation release its permits.
+     */
+    private static final class Generation {
+
+        private final int concurrency;
+        private final Map<URL, Connection> connections = new ConcurrentHashMap<>();
+        // the functions are created once, so that joining and leaving a connection does not allocate
+        private final BiFunction<URL, Connection, Connection> join;
+        private final BiFunction<URL, Connection, Connection> leave = (url, connection) ->
+            --connection.users == 0 ? null : connection;
+
+        private Generation(int concurrency) {
+            this.concurrency = concurrency;
+            join = (url, connection) -> {
+                Connection result = connection != null ? connection : new Connection(concurrency);
+                result.users++;
+                return result;
+            };
+        }
+
+        private Connection join(URL deviceURL) {
+            return connections.compute(deviceURL, join);
+        }
+
+        private void leave(URL deviceURL) {
+            // the connection is removed when its last operation completes
+            connections.computeIfPresent(deviceURL, leave);
+        }
+    }
+
+    private static final class Connection {
+
+        private final Semaphore permits;
+        // number of operations executing or waiting, guarded by the map compute functions
+        private int users;
+
+        private Connection(int concurrency) {
+            permits = new Semaphore(concurrency, true);
+        }
+    }
+
+}
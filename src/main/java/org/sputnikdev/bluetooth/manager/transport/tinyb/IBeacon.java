@@ -0,0 +1,90 @@
+package org.sputnikdev.bluetooth.manager.transport.tinyb;
+
+/*-
+ * #%L
+ * org.sputnikdev:bluetooth-manager-tinyb
+ * %%
+ * Copyright (C) 2017 Sputnik Dev
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.UUID;
+
+/**
+ * A decoded Apple iBeacon advertisement (manufacturer specific data of Apple, ID 0x004C).
+ * @author Vlad Kolotov
+ */
+public final class IBeacon {
+
+    static final short MANUFACTURER_ID = 0x004C;
+
+    private static final int LENGTH = 23;
+    private static final int TYPE = 0x02;
+    private static final int DATA_LENGTH = 0x15;
+
+    private final UUID proximityUUID;
+    private final int major;
+    private final int minor;
+    private final int measuredPower;
+
+    private IBeacon(UUID proximityUUID, int major, int minor, int measuredPower) {
+        this.proximityUUID = proximityUUID;
+        this.major = major;
+        this.minor = minor;
+        this.measuredPower = measuredPower;
+    }
+
+    /**
+     * Decodes iBeacon manufacturer data: type (0x02), length (0x15), proximity UUID (16 bytes),
+     * major (2 bytes), minor (2 bytes), measured power (1 byte), multi-byte values are big endian.
+     * @param data manufacturer data without the manufacturer ID
+     * @return a decoded iBeacon or null if the data is not an iBeacon advertisement
+     */
+    static IBeacon decode(byte[] data) {
+        if (data == null || data.length < LENGTH || data[0] != TYPE || data[1] != DATA_LENGTH) {
+            return null;
+        }
+        UUID uuid = new UUID(AdvertisementDecoders.getLong(data, 2), AdvertisementDecoders.getLong(data, 10));
+        return new IBeacon(uuid, AdvertisementDecoders.getUInt16(data, 18),
+                AdvertisementDecoders.getUInt16(data, 20), data[22]);
+    }
+
+    public UUID getProximityUUID() {
+        return proximityUUID;
+    }
+
+    public int getMajor() {
+        return major;
+    }
+
+    public int getMinor() {
+        return minor;
+    }
+
+    /**
+     * Returns calibrated RSSI at 1 meter distance.
+     * @return measured power in dBm
+     */
+    public int getMeasuredPower() {
+        return measuredPower;
+    }
+
+    @Override
+    public String toString() {
+        return "[uuid=" + proximityUUID + ", major=" + major + ", minor=" + minor
+                + ", measuredPower=" + measuredPower + "]";
+    }
+
+}
@@ -0,0 +1,188 @@
+package org.sputnikdev.bluetooth.manager.transport.tinyb;
+
+/*-
+ * #%L
+ * org.sputnikdev:bluetooth-manager-tinyb
+ * %%
+ * Copyright (C) 2017 Sputnik Dev
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * A lightweight in-memory implementation of {@link MetricsRegistry}. Counters and timers are lock-free,
+ * timers keep a fixed size window of the most recent samples to calculate percentiles, see {@link TimerSnapshot}.
+ * Meters are identified by their name and tags, e.g. {@code tinyb.operation{operation=read,adapter=hci0}}.
+ * @author Vlad Kolotov
+ */
+public class InMemoryMetricsRegistry implements MetricsRegistry {
+
+    static final int DEFAULT_WINDOW_SIZE = 1024;
+
+    private final int windowSize;
+    private final Map<String, InMemoryCounter> counters = new ConcurrentHashMap<>();
+    private final Map<String, InMemoryTimer> timers = new ConcurrentHashMap<>();
+    private final Map<String, Supplier<? extends Number>> gauges = new ConcurrentHashMap<>();
+
+    public InMemoryMetricsRegistry() {
+        this(DEFAULT_WINDOW_SIZE);
+    }
+
+    /**
+     * Creates a registry.
+     * @param windowSize number of the most recent samples that timers keep to calculate percentiles
+     */
+    public InMemoryMetricsRegistry(int windowSize) {
+        if (windowSize < 1) {
+            throw new IllegalArgumentException("Window size must be positive: " + windowSize);
+        }
+        this.windowSize = windowSize;
+    }
+
+    @Override
+    public Counter counter(String name, String... tags) {
+        return counters.computeIfAbsent(id(name, tags), key -> new InMemoryCounter());
+    }
+
+    @Override
+    public Timer timer(String name, String... tags) {
+        return timers.computeIfAbsent(id(name, tags), key -> new InMemoryTimer(windowSize));
+    }
+
+    @Override
+    public void gauge(String name, Supplier<? extends Number> value, String... tags) {
+        gauges.put(id(name, tags), value);
+    }
+
+    /**
+     * Returns current value of a counter.
+     * @param name counter name
+     * @param tags counter tags
+     * @return counter value or 0 if the counter does not exist
+     */
+    public long getCount(String name, String... tags) {
+        InMemoryCounter counter = counters.get(id(name, tags));
+        return counter != null ? counter.value.sum() : 0;
+    }
+
+    /**
+     * Returns a snapshot of a timer.
+     * @param name timer name
+     * @param tags timer tags
+     * @return timer snapshot or null if the timer does not exist
+     */
+    public TimerSnapshot getTimerSnapshot(String name, String... tags) {
+        InMemoryTimer timer = timers.get(id(name, tags));
+        return timer != null ? timer.snapshot() : null;
+    }
+
+    /**
+     * Samples a gauge.
+     * @param name gauge name
+     * @param tags gauge tags
+     * @return gauge value or null if the gauge does not exist
+     */
+    public Number getGaugeValue(String name, String... tags) {
+        Supplier<? extends Number> gauge = gauges.get(id(name, tags));
+        return gauge != null ? gauge.get() : null;
+    }
+
+    /**
+     * Returns a snapshot of all meters sorted by their identifiers. Values are counter values (Long),
+     * sampled gauge values (Number) and timer snapshots ({@link TimerSnapshot}).
+     * @return all meters
+     */
+    public Map<String, Object> snapshot() {
+        Map<String, Object> snapshot = new TreeMap<>();
+        counters.forEach((id, counter) -> snapshot.put(id, counter.value.sum()));
+        gauges.forEach((id, gauge) -> snapshot.put(id, gauge.get()));
+        timers.forEach((id, timer) -> snapshot.put(id, timer.snapshot()));
+        return snapshot;
+    }
+
+    /**
+     * Removes all meters.
+     */
+    public void clear() {
+        counters.clear();
+        timers.clear();
+        gauges.clear();
+    }
+
+    static String id(String name, String... tags) {
+        if (tags.length % 2 != 0) {
+            throw new IllegalArgumentException("Tags must be given as key/value pairs: " + name);
+        }
+        if (tags.length == 0) {
+            return name;
+        }
+        StringBuilder id = new StringBuilder(name).append('{');
+        for (int i = 0; i < tags.length; i += 2) {
+            if (i > 0) {
+                id.append(',');
+            }
+            id.append(tags[i]).append('=').append(tags[i + 1]);
+        }
+        return id.append('}').toString();
+    }
+
+    private static final class InMemoryCounter implements Counter {
+
+        private final LongAdder value = new LongAdder();
+
+        @Override
+        public void increment(long amount) {
+            value.add(amount);
+        }
+    }
+
+    private static final class InMemoryTimer implements Timer {
+
+        private final LongAdder count = new LongAdder();
+        private final LongAdder totalTime = new LongAdder();
+        private final AtomicLong max = new AtomicLong();
+        private final AtomicLong position = new AtomicLong();
+        private final AtomicLongArray window;
+
+        private InMemoryTimer(int windowSize) {
+            window = new AtomicLongArray(windowSize);
+        }
+
+        @Override
+        public void record(long nanos) {
+            count.increment();
+            totalTime.add(nanos);
+            max.accumulateAndGet(nanos, Math::max);
+            window.set((int) (position.getAndIncrement() % window.length()), nanos);
+        }
+
+        private TimerSnapshot snapshot() {
+            int size = (int) Math.min(position.get(), window.length());
+            long[] samples = new long[size];
+            for (int i = 0; i < size; i++) {
+                samples[i] = window.get(i);
+            }
+            return new TimerSnapshot(count.sum(), totalTime.sum(), max.get(), samples);
+        }
+    }
+
+}
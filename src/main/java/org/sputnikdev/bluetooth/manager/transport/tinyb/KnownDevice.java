@@ -0,0 +1,73 @@
+package org.sputnikdev.bluetooth.manager.transport.tinyb;
+
+/*-
+ * #%L
+ * org.sputnikdev:bluetooth-manager-tinyb
+ * %%
+ * Copyright (C) 2017 Sputnik Dev
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import org.sputnikdev.bluetooth.manager.DiscoveredDevice;
+
+import java.util.Collections;
+import java.util.Set;
+
+/**
+ * A device that has been seen before (possibly before restart), see {@link TinyBFactory#getKnownDevices()}.
+ * @author Vlad Kolotov
+ */
+public final class KnownDevice {
+
+    private final DiscoveredDevice device;
+    private final long lastSeen;
+    private final Set<String> serviceUUIDs;
+
+    KnownDevice(DiscoveredDevice device, long lastSeen, Set<String> serviceUUIDs) {
+        this.device = device;
+        this.lastSeen = lastSeen;
+        this.serviceUUIDs = Collections.unmodifiableSet(serviceUUIDs);
+    }
+
+    /**
+     * Returns the device as it was seen last time (address, name, alias, class and RSSI).
+     * @return discovered device
+     */
+    public DiscoveredDevice getDevice() {
+        return device;
+    }
+
+    /**
+     * Returns the time when the device was seen last time.
+     * @return time in milliseconds
+     */
+    public long getLastSeen() {
+        return lastSeen;
+    }
+
+    /**
+     * Returns UUIDs of the device services, if they have ever been resolved.
+     * @return service UUIDs or an empty set
+     */
+    public Set<String> getServiceUUIDs() {
+        return serviceUUIDs;
+    }
+
+    @Override
+    public String toString() {
+        return "[device=" + device.getURL() + ", lastSeen=" + lastSeen + ", services=" + serviceUUIDs.size() + "]";
+    }
+
+}
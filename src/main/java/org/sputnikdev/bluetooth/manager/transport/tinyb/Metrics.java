@@ -0,0 +1,232 @@
+package org.sputnikdev.bluetooth.manager.transport.tinyb;
+
+/*-
+ * #%L
+ * org.sputnikdev:bluetooth-manager-tinyb
+ * %%
+ * Copyright (C) 2017 Sputnik Dev
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import org.sputnikdev.bluetooth.URL;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
+
+/**
+ * Instrumentation of the transport. Holds the current {@link MetricsRegistry} and reports the following meters:
+ * <ul>
+ *     <li>{@value #OPERATION} - timer of transport operations, tags: operation, adapter</li>
+ *     <li>{@value #ERRORS} - counter of failed operations (native exceptions), tags: operation, adapter, error
+ *     (see {@link BluezError})</li>
+ *     <li>{@value #NOTIFICATIONS} - counter of delivered notifications, tags: adapter, outcome</li>
+ *     <li>{@value #GATT_WAIT} - timer of time GATT operations spend waiting in {@link GattScheduler},
+ *     tags: adapter</li>
+ *     <li>{@value #DECODE} - timer of advertisement decoding, tags: adapter, payload (service UUID or
+ *     manufacturer ID)</li>
+ *     <li>{@value #UNCHANGED_ADVERTISEMENTS} - counter of advertisement payloads that have not been decoded
+ *     as they have not changed, tags: adapter</li>
+ *     <li>gauges of object caches, notification dispatcher, GATT executor, buffer pool, connection pools
+ *     and schedulers</li>
+ * </ul>
+ * Gauges are remembered, so that they get registered again when the registry is replaced.
+ * @author Vlad Kolotov
+ */
+final class Metrics {
+
+    static final String OPERATION = "tinyb.operation";
+    static final String ERRORS = "tinyb.errors";
+    static final String NOTIFICATIONS = "tinyb.notifications";
+    static final String GATT_WAIT = "tinyb.gatt.wait";
+    static final String DECODE = "tinyb.advertisement.decode";
+    static final String UNCHANGED_ADVERTISEMENTS = "tinyb.advertisement.unchanged";
+
+    private static final Map<String, Gauge> GAUGES = new ConcurrentHashMap<>();
+    private static volatile MetricsRegistry registry = MetricsRegistry.NOOP;
+
+    static {
+        gauge("tinyb.cache.objects.hits", () -> TinyBContext.sum(context -> context.getObjectCache().getHits()));
+        gauge("tinyb.cache.objects.misses",
+            () -> TinyBContext.sum(context -> context.getObjectCache().getMisses()));
+        gauge("tinyb.cache.objects.size", () -> TinyBContext.sum(context -> context.getObjectCache().size()));
+        gauge("tinyb.cache.gatt.hits", () -> TinyBContext.sum(context -> context.getGattDatabase().getHits()));
+        gauge("tinyb.cache.gatt.misses", () -> TinyBContext.sum(context -> context.getGattDatabase().getMisses()));
+        gauge("tinyb.notifications.dropped",
+            () -> TinyBContext.sum(context -> context.getNotificationDispatcher().getDroppedCount()));
+        gauge("tinyb.notifications.coalesced",
+            () -> TinyBContext.sum(context -> context.getNotificationDispatcher().getCoalescedCount()));
+        gauge("tinyb.notifications.pending",
+            () -> TinyBContext.sum(context -> context.getNotificationDispatcher().getPendingCount()));
+        gauge("tinyb.gatt.executor.pending",
+            () -> TinyBContext.sum(context -> context.getGattExecutor().getPendingCount()));
+        gauge("tinyb.buffers.allocations",
+            () -> TinyBContext.sum(context -> context.getBufferPool().getAllocationCount()));
+        gauge("tinyb.buffers.reuses", () -> TinyBContext.sum(context -> context.getBufferPool().getReuseCount()));
+    }
+
+    private Metrics() { }
+
+    static MetricsRegistry getRegistry() {
+        return registry;
+    }
+
+    /**
+     * Sets the registry to report to, all known gauges get registered in the new registry.
+     * @param registry a new registry or null to disable metrics
+     */
+    static void setRegistry(MetricsRegistry registry) {
+        MetricsRegistry current = registry != null ? registry : MetricsRegistry.NOOP;
+        Metrics.registry = current;
+        GAUGES.values().forEach(gauge -> current.gauge(gauge.name, gauge.value, gauge.tags));
+    }
+
+    /**
+     * Registers gauges of the given adapter (connection pool and GATT scheduler). Values of pools and schedulers
+     * of the adapter are summed up across factories, utilization is the highest one.
+     * @param adapterURL adapter URL
+     */
+    static void registerAdapter(URL adapterURL) {
+        String adapter = adapterURL.getAdapterAddress();
+        gauge("tinyb.connections.active", () -> getPoolMetric(adapterURL, ConnectionPool::getActiveConnections),
+            "adapter", adapter);
+        gauge("tinyb.connections.waiting", () -> getPoolMetric(adapterURL, ConnectionPool::getWaitingCount),
+            "adapter", adapter);
+        gauge("tinyb.connections.utilization", () -> TinyBContext.getContexts().stream()
+            .map(context -> context.findConnectionPool(adapterURL)).filter(Objects::nonNull)
+            .mapToDouble(ConnectionPool::getUtilization).max().orElse(0), "adapter", adapter);
+        gauge("tinyb.connections.evictions", () -> getPoolMetric(adapterURL, ConnectionPool::getEvictionCount),
+            "adapter", adapter);
+        gauge("tinyb.connections.rejections", () -> getPoolMetric(adapterURL, ConnectionPool::getRejectionCount),
+            "adapter", adapter);
+        // pools and schedulers of lost adapters get removed, so that gauges must not create them
+        gauge("tinyb.gatt.queue", () -> getGattMetric(adapterURL, GattScheduler::getQueueDepth), "adapter", adapter);
+        gauge("tinyb.gatt.operations", () -> getGattMetric(adapterURL, GattScheduler::getOperationCount),
+            "adapter", adapter);
+    }
+
+    /**
+     * Executes and times an operation. Failed operations are counted by their error category.
+     * @param operation operation name
+     * @param url URL of the object the operation is executed on
+     * @param function operation
+     * @param <T> result type
+     * @return operation result
+     */
+    static <T> T time(String operation, URL url, Supplier<T> function) {
+        MetricsRegistry current = registry;
+        if (current == MetricsRegistry.NOOP) {
+            return function.get();
+        }
+        String adapter = url.getAdapterAddress();
+        long started = System.nanoTime();
+        try {
+            return function.get();
+        } catch (RuntimeException ex) {
+            current.counter(ERRORS, "operation", operation, "adapter", adapter,
+                "error", BluezError.classify(ex).name()).increment();
+            throw ex;
+        } finally {
+            current.timer(OPERATION, "operation", operation, "adapter", adapter).record(System.nanoTime() - started);
+        }
+    }
+
+    /**
+     * Records time a GATT operation has spent waiting for its turn.
+     * @param url URL of the object the operation is executed on
+     * @param nanos wait time in nanoseconds
+     */
+    static void recordWait(URL url, long nanos) {
+        MetricsRegistry current = registry;
+        if (current != MetricsRegistry.NOOP) {
+            current.timer(GATT_WAIT, "adapter", url.getAdapterAddress()).record(nanos);
+        }
+    }
+
+    /**
+     * Counts a notification delivery.
+     * @param url URL of the object that has originated the notification
+     * @param delivered true if the notification has been successfully delivered, false if it has failed
+     */
+    static void notification(URL url, boolean delivered) {
+        MetricsRegistry current = registry;
+        if (current != MetricsRegistry.NOOP) {
+            current.counter(NOTIFICATIONS, "adapter", url.getAdapterAddress(),
+                "outcome", delivered ? "delivered" : "failed").increment();
+        }
+    }
+
+    /**
+     * Records time spent on decoding an advertisement payload.
+     * @param url device URL
+     * @param payload service UUID or manufacturer ID
+     * @param nanos decoding time in nanoseconds
+     */
+    static void recordDecode(URL url, Object payload, long nanos) {
+        MetricsRegistry current = registry;
+        if (current != MetricsRegistry.NOOP) {
+            current.timer(DECODE, "adapter", url.getAdapterAddress(), "payload", payload instanceof Short
+                ? String.format("%04x", (Short) payload) : String.valueOf(payload)).record(nanos);
+        }
+    }
+
+    /**
+     * Counts an advertisement payload that has been skipped as it has not changed.
+     * @param url device URL
+     */
+    static void unchangedAdvertisement(URL url) {
+        MetricsRegistry current = registry;
+        if (current != MetricsRegistry.NOOP) {
+            current.counter(UNCHANGED_ADVERTISEMENTS, "adapter", url.getAdapterAddress()).increment();
+        }
+    }
+
+    private static long getPoolMetric(URL adapterURL, ToLongFunction<ConnectionPool> metric) {
+        return TinyBContext.sum(context -> {
+            ConnectionPool pool = context.findConnectionPool(adapterURL);
+            return pool != null ? metric.applyAsLong(pool) : 0;
+        });
+    }
+
+    private static long getGattMetric(URL adapterURL, ToLongFunction<GattScheduler> metric) {
+        return TinyBContext.sum(context -> {
+            GattScheduler scheduler = context.findGattScheduler(adapterURL);
+            return scheduler != null ? metric.applyAsLong(scheduler) : 0;
+        });
+    }
+
+    private static void gauge(String name, Supplier<? extends Number> value, String... tags) {
+        Gauge gauge = new Gauge(name, value, tags);
+        if (GAUGES.putIfAbsent(InMemoryMetricsRegistry.id(name, tags), gauge) == null) {
+            registry.gauge(name, value, tags);
+        }
+    }
+
+    private static final class Gauge {
+
+        private final String name;
+        private final Supplier<? extends Number> value;
+        private final String[] tags;
+
+        private Gauge(String name, Supplier<? extends Number> value, String[] tags) {
+            this.name = name;
+            this.value = value;
+            this.tags = tags;
+        }
+    }
+
+}
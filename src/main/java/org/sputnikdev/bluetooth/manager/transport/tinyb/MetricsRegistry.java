@@ -0,0 +1,104 @@
+package org.sputnikdev.bluetooth.manager.transport.tinyb;
+
+/*-
+ * #%L
+ * org.sputnikdev:bluetooth-manager-tinyb
+ * %%
+ * Copyright (C) 2017 Sputnik Dev
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.function.Supplier;
+
+/**
+ * A registry of metrics (counters, timers and gauges) that the transport reports to,
+ * see {@link TinyBFactory#setMetricsRegistry(MetricsRegistry)}.
+ * The interface mirrors the core of Micrometer, so that it can be bridged to Micrometer (or any other metrics
+ * library) by a few lines of code without adding a hard dependency to this library.
+ * Tags are given as key/value pairs, e.g. {@code counter("tinyb.errors", "operation", "read", "adapter", "hci0")}.
+ * A built-in implementation is provided by {@link InMemoryMetricsRegistry}.
+ * @author Vlad Kolotov
+ */
+public interface MetricsRegistry {
+
+    /**
+     * A registry that discards all metrics.
+     */
+    MetricsRegistry NOOP = new MetricsRegistry() {
+        @Override
+        public Counter counter(String name, String... tags) {
+            return amount -> { };
+        }
+
+        @Override
+        public Timer timer(String name, String... tags) {
+            return nanos -> { };
+        }
+
+        @Override
+        public void gauge(String name, Supplier<? extends Number> value, String... tags) { }
+    };
+
+    /**
+     * A monotonically increasing counter.
+     */
+    @FunctionalInterface
+    interface Counter {
+
+        void increment(long amount);
+
+        default void increment() {
+            increment(1);
+        }
+    }
+
+    /**
+     * A timer that records durations of an operation.
+     */
+    @FunctionalInterface
+    interface Timer {
+
+        /**
+         * Records a duration.
+         * @param nanos duration in nanoseconds
+         */
+        void record(long nanos);
+    }
+
+    /**
+     * Returns a counter with the given name and tags, the counter gets created if it does not exist.
+     * @param name counter name
+     * @param tags tags as key/value pairs
+     * @return a counter
+     */
+    Counter counter(String name, String... tags);
+
+    /**
+     * Returns a timer with the given name and tags, the timer gets created if it does not exist.
+     * @param name timer name
+     * @param tags tags as key/value pairs
+     * @return a timer
+     */
+    Timer timer(String name, String... tags);
+
+    /**
+     * Registers a gauge, i.e. a value that is sampled when metrics are collected.
+     * @param name gauge name
+     * @param value value supplier
+     * @param tags tags as key/value pairs
+     */
+    void gauge(String name, Supplier<? extends Number> value, String... tags);
+
+}
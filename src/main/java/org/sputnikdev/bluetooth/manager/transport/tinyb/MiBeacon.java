@@ -0,0 +1,255 @@
+package org.sputnikdev.bluetooth.manager.transport.tinyb;
+
+/*-
+ * #%L
+ * org.sputnikdev:bluetooth-manager-tinyb
+ * %%
+ * Copyright (C) 2017 Sputnik Dev
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+/**
+ * A decoded Xiaomi MiBeacon advertisement (service data of the Xiaomi service, UUID 0xFE95).
+ * A MiBeacon advertisement carries at most one object (a sensor reading), only properties of that object are set,
+ * encrypted objects are not decoded.
+ * @author Vlad Kolotov
+ */
+public final class MiBeacon {
+
+    static final String SERVICE_UUID = "0000fe95-0000-1000-8000-00805f9b34fb";
+
+    private static final int ENCRYPTED = 0x0008;
+    private static final int MAC_INCLUDED = 0x0010;
+    private static final int CAPABILITY_INCLUDED = 0x0020;
+    private static final int OBJECT_INCLUDED = 0x0040;
+    private static final int IO_CAPABILITY_INCLUDED = 0x20;
+
+    private static final int TEMPERATURE = 0x1004;
+    private static final int HUMIDITY = 0x1006;
+    private static final int ILLUMINANCE = 0x1007;
+    private static final int MOISTURE = 0x1008;
+    private static final int CONDUCTIVITY = 0x1009;
+    private static final int BATTERY = 0x100A;
+    private static final int TEMPERATURE_AND_HUMIDITY = 0x100D;
+
+    private final int productId;
+    private final int frameCounter;
+    private final String address;
+    private final boolean encrypted;
+    private final int objectId;
+    private final Double temperature;
+    private final Double humidity;
+    private final Integer illuminance;
+    private final Integer moisture;
+    private final Integer conductivity;
+    private final Integer battery;
+
+    private MiBeacon(int productId, int frameCounter, String address, boolean encrypted, int objectId,
+                     Double temperature, Double humidity, Integer illuminance, Integer moisture,
+                     Integer conductivity, Integer battery) {
+        this.productId = productId;
+        this.frameCounter = frameCounter;
+        this.address = address;
+        this.encrypted = encrypted;
+        this.objectId = objectId;
+        this.temperature = temperature;
+        this.humidity = humidity;
+        this.illuminance = illuminance;
+        this.moisture = moisture;
+        this.conductivity = conductivity;
+        this.battery = battery;
+    }
+
+    /**
+     * Decodes MiBeacon service data: frame control (2 bytes), product ID (2 bytes), frame counter (1 byte),
+     * optional MAC address (6 bytes, reversed), optional capability (1 byte, followed by 2 bytes of IO capability
+     * if indicated) and optional object: ID (2 bytes), length (1 byte) and data. Multi-byte values are little endian.
+     * @param data MiBeacon service data
+     * @return a decoded advertisement or null if the data is malformed
+     */
+    static MiBeacon decode(byte[] data) {
+        if (data == null || data.length < 5) {
+            return null;
+        }
+        int frameControl = getUInt16LE(data, 0);
+        int productId = getUInt16LE(data, 2);
+        int frameCounter = data[4] & 0xFF;
+        int position = 5;
+        String address = null;
+        if ((frameControl & MAC_INCLUDED) != 0) {
+            if (data.length < position + 6) {
+                return null;
+            }
+            StringBuilder builder = new StringBuilder(17);
+            for (int i = position + 5; i >= position; i--) {
+                builder.append(AdvertisementDecoders.toHexString(data, i, 1).toUpperCase());
+                if (i > position) {
+                    builder.append(':');
+                }
+            }
+            address = builder.toString();
+            position += 6;
+        }
+        if ((frameControl & CAPABILITY_INCLUDED) != 0) {
+            if (data.length < position + 1) {
+                return null;
+            }
+            position += (data[position] & IO_CAPABILITY_INCLUDED) != 0 ? 3 : 1;
+        }
+        boolean encrypted = (frameControl & ENCRYPTED) != 0;
+        if (encrypted || (frameControl & OBJECT_INCLUDED) == 0 || data.length < position + 3
+                || data.length < position + 3 + (data[position + 2] & 0xFF)) {
+            return new MiBeacon(productId, frameCounter, address, encrypted, 0,
+                    null, null, null, null, null, null);
+        }
+        int objectId = getUInt16LE(data, position);
+        int length = data[position + 2] & 0xFF;
+        int offset = position + 3;
+        Double temperature = null;
+        Double humidity = null;
+        Integer illuminance = null;
+        Integer moisture = null;
+        Integer conductivity = null;
+        Integer battery = null;
+        switch (objectId) {
+            case TEMPERATURE:
+                temperature = length >= 2 ? (short) getUInt16LE(data, offset) / 10.0 : null;
+                break;
+            case HUMIDITY:
+                humidity = length >= 2 ? getUInt16LE(data, offset) / 10.0 : null;
+                break;
+            case ILLUMINANCE:
+                illuminance = length >= 3 ? getUInt16LE(data, offset) | (data[offset + 2] & 0xFF) << 16 : null;
+                break;
+            case MOISTURE:
+                moisture = length >= 1 ? data[offset] & 0xFF : null;
+                break;
+            case CONDUCTIVITY:
+                conductivity = length >= 2 ? getUInt16LE(data, offset) : null;
+                break;
+            case BATTERY:
+                battery = length >= 1 ? data[offset] & 0xFF : null;
+                break;
+            case TEMPERATURE_AND_HUMIDITY:
+                if (length >= 4) {
+                    temperature = (short) getUInt16LE(data, offset) / 10.0;
+                    humidity = getUInt16LE(data, offset + 2) / 10.0;
+                }
+                break;
+            default:
+                break;
+        }
+        return new MiBeacon(productId, frameCounter, address, false, objectId,
+                temperature, humidity, illuminance, moisture, conductivity, battery);
+    }
+
+    /**
+     * Returns Xiaomi product (device type) ID.
+     * @return product ID
+     */
+    public int getProductId() {
+        return productId;
+    }
+
+    /**
+     * Returns frame counter, it changes with each new reading.
+     * @return frame counter
+     */
+    public int getFrameCounter() {
+        return frameCounter;
+    }
+
+    /**
+     * Returns device MAC address if included in the advertisement.
+     * @return MAC address or null
+     */
+    public String getAddress() {
+        return address;
+    }
+
+    public boolean isEncrypted() {
+        return encrypted;
+    }
+
+    /**
+     * Returns ID of the object included in the advertisement.
+     * @return object ID or 0 if there is no (unencrypted) object
+     */
+    public int getObjectId() {
+        return objectId;
+    }
+
+    /**
+     * Returns temperature.
+     * @return temperature in degrees Celsius or null if not included
+     */
+    public Double getTemperature() {
+        return temperature;
+    }
+
+    /**
+     * Returns relative humidity.
+     * @return humidity in percent or null if not included
+     */
+    public Double getHumidity() {
+        return humidity;
+    }
+
+    /**
+     * Returns illuminance.
+     * @return illuminance in lux or null if not included
+     */
+    public Integer getIlluminance() {
+        return illuminance;
+    }
+
+    /**
+     * Returns soil moisture.
+     * @return moisture in percent or null if not included
+     */
+    public Integer getMoisture() {
+        return moisture;
+    }
+
+    /**
+     * Returns soil conductivity.
+     * @return conductivity in uS/cm or null if not included
+     */
+    public Integer getConductivity() {
+        return conductivity;
+    }
+
+    /**
+     * Returns battery level.
+     * @return battery level in percent or null if not included
+     */
+    public Integer getBattery() {
+        return battery;
+    }
+
+    @Override
+    public String toString() {
+        return "[productId=" + productId + ", frameCounter=" + frameCounter + ", address=" + address
+                + ", encrypted=" + encrypted + ", objectId=" + objectId + ", temperature=" + temperature
+                + ", humidity=" + humidity + ", illuminance=" + illuminance + ", moisture=" + moisture
+                + ", conductivity=" + conductivity + ", battery=" + battery + "]";
+    }
+
+    // MiBeacon fields are little-endian, unlike the big-endian AdvertisementDecoders.getUInt16
+    private static int getUInt16LE(byte[] data, int offset) {
+        return data[offset] & 0xFF | (data[offset + 1] & 0xFF) << 8;
+    }
+
+}
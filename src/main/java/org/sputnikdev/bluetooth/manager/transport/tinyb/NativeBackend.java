@@ -0,0 +1,552 @@
+package org.sputnikdev.bluetooth.manager.transport.tinyb;
+
+/*-
+ * #%L
+ * org.sputnikdev:bluetooth-manager-tinyb
+ * %%
+ * Copyright (C) 2017 Sputnik Dev
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import org.sputnikdev.bluetooth.manager.transport.Notification;
+import tinyb.BluetoothAdapter;
+import tinyb.BluetoothDevice;
+import tinyb.BluetoothGattCharacteristic;
+import tinyb.BluetoothGattDescriptor;
+import tinyb.BluetoothGattService;
+import tinyb.BluetoothManager;
+import tinyb.BluetoothType;
+import tinyb.TransportType;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+
+/**
+ * The default backend that talks to BlueZ via TinyB native library. TinyB objects are wrapped into thin delegates,
+ * delegates are equal if their TinyB objects are equal (i.e. they have the same DBus object path).
+ * @author Vlad Kolotov
+ */
+class NativeBackend implements TinyBBackend {
+
+    private static final AtomicBoolean MANAGER_INITIALIZED = new AtomicBoolean();
+
+    @Override
+    public List<BackendAdapter> getAdapters() {
+        return wrap(manager().getAdapters(), NativeBackend::wrap);
+    }
+
+    @Override
+    public List<BackendDevice> getDevices() {
+        return wrap(manager().getDevices(), NativeBackend::wrap);
+    }
+
+    @Override
+    public List<BackendService> getServices() {
+        return wrap(manager().getServices(), NativeBackend::wrap);
+    }
+
+    @Override
+    public BackendAdapter getAdapter(String address) {
+        return wrap((BluetoothAdapter) manager().getObject(
+                BluetoothType.ADAPTER, null, address, null));
+    }
+
+    @Override
+    public BackendDevice getDevice(BackendAdapter adapter, String address) {
+        return wrap((BluetoothDevice) manager().getObject(
+                BluetoothType.DEVICE, null, address, ((NativeAdapter) adapter).adapter));
+    }
+
+    @Override
+    public BackendService getService(BackendDevice device, String uuid) {
+        return wrap((BluetoothGattService) manager().getObject(
+                BluetoothType.GATT_SERVICE, null, uuid, ((NativeDevice) device).device));
+    }
+
+    @Override
+    public BackendCharacteristic getCharacteristic(BackendService service, String uuid) {
+        return wrap((BluetoothGattCharacteristic) manager().getObject(
+                BluetoothType.GATT_CHARACTERISTIC, null, uuid, ((NativeService) service).service));
+    }
+
+    @Override
+    public boolean stopDiscovery() {
+        return manager().stopDiscovery();
+    }
+
+    /**
+     * Initializes the TinyB BluetoothManager if it has not been initialized yet.
+     */
+    static void initializeManager() {
+        manager();
+    }
+
+    /**
+     * Returns the TinyB BluetoothManager. The first call initializes the manager (it connects to DBus and
+     * fetches all BlueZ objects), time spent for that is recorded in {@link NativeLoadTimings}.
+     * @return the TinyB BluetoothManager
+     */
+    private static BluetoothManager manager() {
+        if (MANAGER_INITIALIZED.get()) {
+            return BluetoothManager.getBluetoothManager();
+        }
+        synchronized (MANAGER_INITIALIZED) {
+            long started = System.nanoTime();
+            BluetoothManager manager = BluetoothManager.getBluetoothManager();
+            if (MANAGER_INITIALIZED.compareAndSet(false, true)) {
+                NativeLoadTimings.getDefault().setManagerInitTime(System.nanoTime() - started);
+            }
+            return manager;
+        }
+    }
+
+    static BackendAdapter wrap(BluetoothAdapter adapter) {
+        return adapter != null ? new NativeAdapter(adapter) : null;
+    }
+
+    static BackendDevice wrap(BluetoothDevice device) {
+        return device != null ? new NativeDevice(device) : null;
+    }
+
+    static BackendService wrap(BluetoothGattService service) {
+        return service != null ? new NativeService(service) : null;
+    }
+
+    static BackendCharacteristic wrap(BluetoothGattCharacteristic characteristic) {
+        return characteristic != null ? new NativeCharacteristic(characteristic) : null;
+    }
+
+    static BackendDescriptor wrap(BluetoothGattDescriptor descriptor) {
+        return descriptor != null ? new NativeDescriptor(descriptor) : null;
+    }
+
+    private static <N, B> List<B> wrap(List<N> objects, Function<N, B> wrapper) {
+        if (objects == null || objects.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<B> result = new ArrayList<>(objects.size());
+        for (N object : objects) {
+            result.add(wrapper.apply(object));
+        }
+        return result;
+    }
+
+    private abstract static class NativeObject<N extends tinyb.BluetoothObject> implements BackendObject {
+
+        private final N delegate;
+
+        NativeObject(N delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void close() {
+            delegate.close();
+        }
+
+        @Override
+        public boolean equals(Object object) {
+            if (this == object) {
+                return true;
+            }
+            if (object == null || getClass() != object.getClass()) {
+                return false;
+            }
+            return delegate.equals(((NativeObject) object).delegate);
+        }
+
+        @Override
+        public int hashCode() {
+            return delegate.hashCode();
+        }
+    }
+
+    private static final class NativeAdapter extends NativeObject<BluetoothAdapter> implements BackendAdapter {
+
+        private final BluetoothAdapter adapter;
+
+        private NativeAdapter(BluetoothAdapter adapter) {
+            super(adapter);
+            this.adapter = adapter;
+        }
+
+        @Override
+        public String getAddress() {
+            return adapter.getAddress();
+        }
+
+        @Override
+        public String getName() {
+            return adapter.getName();
+        }
+
+        @Override
+        public String getAlias() {
+            return adapter.getAlias();
+        }
+
+        @Override
+        public void setAlias(String alias) {
+            adapter.setAlias(alias);
+        }
+
+        @Override
+        public boolean getPowered() {
+            return adapter.getPowered();
+        }
+
+        @Override
+        public void setPowered(boolean powered) {
+            adapter.setPowered(powered);
+        }
+
+        @Override
+        public void enablePoweredNotifications(Notification<Boolean> notification) {
+            adapter.enablePoweredNotifications(notification::notify);
+        }
+
+        @Override
+        public void disablePoweredNotifications() {
+            adapter.disablePoweredNotifications();
+        }
+
+        @Override
+        public boolean getDiscovering() {
+            return adapter.getDiscovering();
+        }
+
+        @Override
+        public void enableDiscoveringNotifications(Notification<Boolean> notification) {
+            adapter.enableDiscoveringNotifications(notification::notify);
+        }
+
+        @Override
+        public void disableDiscoveringNotifications() {
+            adapter.disableDiscoveringNotifications();
+        }
+
+        @Override
+        public void disableDiscoverableNotifications() {
+            adapter.disableDiscoverableNotifications();
+        }
+
+        @Override
+        public void disablePairableNotifications() {
+            adapter.disablePairableNotifications();
+        }
+
+        @Override
+        public void resetDiscoveryFilter() {
+            adapter.setDiscoveryFilter(Collections.emptyList(), 0, 0, TransportType.AUTO);
+        }
+
+        @Override
+        public boolean startDiscovery() {
+            return adapter.startDiscovery();
+        }
+
+        @Override
+        public boolean stopDiscovery() {
+            return adapter.stopDiscovery();
+        }
+
+        @Override
+        public List<BackendDevice> getDevices() {
+            return wrap(adapter.getDevices(), NativeBackend::wrap);
+        }
+    }
+
+    private static final class NativeDevice extends NativeObject<BluetoothDevice> implements BackendDevice {
+
+        private final BluetoothDevice device;
+
+        private NativeDevice(BluetoothDevice device) {
+            super(device);
+            this.device = device;
+        }
+
+        @Override
+        public String getAddress() {
+            return device.getAddress();
+        }
+
+        @Override
+        public BackendAdapter getAdapter() {
+            return wrap(device.getAdapter());
+        }
+
+        @Override
+        public String getName() {
+            return device.getName();
+        }
+
+        @Override
+        public String getAlias() {
+            return device.getAlias();
+        }
+
+        @Override
+        public void setAlias(String alias) {
+            device.setAlias(alias);
+        }
+
+        @Override
+        public int getBluetoothClass() {
+            return device.getBluetoothClass();
+        }
+
+        @Override
+        public boolean connect() {
+            return device.connect();
+        }
+
+        @Override
+        public boolean disconnect() {
+            return device.disconnect();
+        }
+
+        @Override
+        public boolean remove() {
+            return device.remove();
+        }
+
+        @Override
+        public boolean getBlocked() {
+            return device.getBlocked();
+        }
+
+        @Override
+        public void setBlocked(boolean blocked) {
+            device.setBlocked(blocked);
+        }
+
+        @Override
+        public void enableBlockedNotifications(Notification<Boolean> notification) {
+            device.enableBlockedNotifications(notification::notify);
+        }
+
+        @Override
+        public void disableBlockedNotifications() {
+            device.disableBlockedNotifications();
+        }
+
+        @Override
+        public short getRSSI() {
+            return device.getRSSI();
+        }
+
+        @Override
+        public void enableRSSINotifications(Notification<Short> notification) {
+            device.enableRSSINotifications(notification::notify);
+        }
+
+        @Override
+        public void disableRSSINotifications() {
+            device.disableRSSINotifications();
+        }
+
+        @Override
+        public short getTxPower() {
+            return device.getTxPower();
+        }
+
+        @Override
+        public boolean getConnected() {
+            return device.getConnected();
+        }
+
+        @Override
+        public void enableConnectedNotifications(Notification<Boolean> notification) {
+            device.enableConnectedNotifications(notification::notify);
+        }
+
+        @Override
+        public void disableConnectedNotifications() {
+            device.disableConnectedNotifications();
+        }
+
+        @Override
+        public boolean getServicesResolved() {
+            return device.getServicesResolved();
+        }
+
+        @Override
+        public void enableServicesResolvedNotifications(Notification<Boolean> notification) {
+            device.enableServicesResolvedNotifications(notification::notify);
+        }
+
+        @Override
+        public void disableServicesResolvedNotifications() {
+            device.disableServicesResolvedNotifications();
+        }
+
+        @Override
+        public void disablePairedNotifications() {
+            device.disablePairedNotifications();
+        }
+
+        @Override
+        public void disableTrustedNotifications() {
+            device.disableTrustedNotifications();
+        }
+
+        @Override
+        public List<BackendService> getServices() {
+            return wrap(device.getServices(), NativeBackend::wrap);
+        }
+
+        @Override
+        public Map<String, byte[]> getServiceData() {
+            return device.getServiceData();
+        }
+
+        @Override
+        public void enableServiceDataNotifications(Notification<Map<String, byte[]>> notification) {
+            device.enableServiceDataNotifications(notification::notify);
+        }
+
+        @Override
+        public void disableServiceDataNotifications() {
+            device.disableServiceDataNotifications();
+        }
+
+        @Override
+        public Map<Short, byte[]> getManufacturerData() {
+            return device.getManufacturerData();
+        }
+
+        @Override
+        public void enableManufacturerDataNotifications(Notification<Map<Short, byte[]>> notification) {
+            device.enableManufacturerDataNotifications(notification::notify);
+        }
+
+        @Override
+        public void disableManufacturerDataNotifications() {
+            device.disableManufacturerDataNotifications();
+        }
+    }
+
+    private static final class NativeService extends NativeObject<BluetoothGattService> implements BackendService {
+
+        private final BluetoothGattService service;
+
+        private NativeService(BluetoothGattService service) {
+            super(service);
+            this.service = service;
+        }
+
+        @Override
+        public String getUUID() {
+            return service.getUUID();
+        }
+
+        @Override
+        public BackendDevice getDevice() {
+            return wrap(service.getDevice());
+        }
+
+        @Override
+        public List<BackendCharacteristic> getCharacteristics() {
+            return wrap(service.getCharacteristics(), NativeBackend::wrap);
+        }
+    }
+
+    private static final class NativeCharacteristic extends NativeObject<BluetoothGattCharacteristic>
+            implements BackendCharacteristic {
+
+        private final BluetoothGattCharacteristic characteristic;
+
+        private NativeCharacteristic(BluetoothGattCharacteristic characteristic) {
+            super(characteristic);
+            this.characteristic = characteristic;
+        }
+
+        @Override
+        public String getUUID() {
+            return characteristic.getUUID();
+        }
+
+        @Override
+        public BackendService getService() {
+            return wrap(characteristic.getService());
+        }
+
+        @Override
+        public String[] getFlags() {
+            return characteristic.getFlags();
+        }
+
+        @Override
+        public boolean getNotifying() {
+            return characteristic.getNotifying();
+        }
+
+        @Override
+        public byte[] readValue() {
+            return characteristic.readValue();
+        }
+
+        @Override
+        public boolean writeValue(byte[] value) {
+            return characteristic.writeValue(value);
+        }
+
+        @Override
+        public void enableValueNotifications(Notification<byte[]> notification) {
+            characteristic.enableValueNotifications(notification::notify);
+        }
+
+        @Override
+        public void disableValueNotifications() {
+            characteristic.disableValueNotifications();
+        }
+
+        @Override
+        public List<BackendDescriptor> getDescriptors() {
+            return wrap(characteristic.getDescriptors(), NativeBackend::wrap);
+        }
+    }
+
+    private static final class NativeDescriptor extends NativeObject<BluetoothGattDescriptor>
+            implements BackendDescriptor {
+
+        private final BluetoothGattDescriptor descriptor;
+
+        private NativeDescriptor(BluetoothGattDescriptor descriptor) {
+            super(descriptor);
+            this.descriptor = descriptor;
+        }
+
+        @Override
+        public String getUUID() {
+            return descriptor.getUUID();
+        }
+
+        @Override
+        public byte[] readValue() {
+            return descriptor.readValue();
+        }
+
+        @Override
+        public boolean writeValue(byte[] value) {
+            return descriptor.writeValue(value);
+        }
+    }
+
+}
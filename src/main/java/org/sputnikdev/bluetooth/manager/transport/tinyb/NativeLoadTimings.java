@@ -0,0 +1,140 @@
+package org.sputnikdev.bluetooth.manager.transport.tinyb;
+
+/*-
+ * #%L
+ * org.sputnikdev:bluetooth-manager-tinyb
+ * %%
+ * Copyright (C) 2017 Sputnik Dev
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Timings of the native libraries initialization, see {@link TinyBFactory#getNativeLoadTimings()}.
+ * The initialization is split into the following stages:
+ * <ul>
+ *     <li>detect - checking whether the environment is supported by the bundled libraries</li>
+ *     <li>extract - extracting bundled libraries (or verifying their cached copies), this stage runs in parallel
+ *     with looking up the libraries in the system library path</li>
+ *     <li>load - loading libraries into the JVM</li>
+ *     <li>manager - initialization of the TinyB BluetoothManager, it happens on the first use of the stack
+ *     unless it is requested explicitly, see {@link TinyBFactory#loadNativeLibraries(boolean)}</li>
+ * </ul>
+ * All times are in nanoseconds, -1 means that a stage has not been executed (yet).
+ * @author Vlad Kolotov
+ */
+public final class NativeLoadTimings {
+
+    /**
+     * Where the native libraries have been loaded from.
+     */
+    public enum Source {
+        NONE,
+        BUNDLED,
+        SYSTEM
+    }
+
+    private static final NativeLoadTimings DEFAULT = new NativeLoadTimings();
+
+    private volatile Source source = Source.NONE;
+    private volatile boolean systemLibrariesFound;
+    private volatile long detectTime = -1;
+    private volatile long extractTime = -1;
+    private volatile long loadTime = -1;
+    private volatile long managerInitTime = -1;
+
+    NativeLoadTimings() { }
+
+    static NativeLoadTimings getDefault() {
+        return DEFAULT;
+    }
+
+    public Source getSource() {
+        return source;
+    }
+
+    public boolean isLoaded() {
+        return source != Source.NONE;
+    }
+
+    /**
+     * Returns true if the native libraries have been found in the system library path ("java.library.path").
+     * @return true if the native libraries have been found in the system library path
+     */
+    public boolean isSystemLibrariesFound() {
+        return systemLibrariesFound;
+    }
+
+    public long getDetectTime() {
+        return detectTime;
+    }
+
+    public long getExtractTime() {
+        return extractTime;
+    }
+
+    public long getLoadTime() {
+        return loadTime;
+    }
+
+    public long getManagerInitTime() {
+        return managerInitTime;
+    }
+
+    /**
+     * Returns total time spent for the native libraries initialization.
+     * @return total time in nanoseconds
+     */
+    public long getTotalTime() {
+        return Math.max(0, detectTime) + Math.max(0, extractTime) + Math.max(0, loadTime)
+                + Math.max(0, managerInitTime);
+    }
+
+    void setSource(Source source) {
+        this.source = source;
+    }
+
+    void setSystemLibrariesFound(boolean systemLibrariesFound) {
+        this.systemLibrariesFound = systemLibrariesFound;
+    }
+
+    void setDetectTime(long detectTime) {
+        this.detectTime = detectTime;
+    }
+
+    void setExtractTime(long extractTime) {
+        this.extractTime = extractTime;
+    }
+
+    void setLoadTime(long loadTime) {
+        this.loadTime = loadTime;
+    }
+
+    void setManagerInitTime(long managerInitTime) {
+        this.managerInitTime = managerInitTime;
+    }
+
+    @Override
+    public String toString() {
+        return "source: " + source + "; detect: " + millis(detectTime) + " ms; extract: " + millis(extractTime)
+                + " ms; load: " + millis(loadTime) + " ms; manager: " + millis(managerInitTime) + " ms";
+    }
+
+    private static double millis(long nanos) {
+        return nanos < 0 ? -1 : nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+}
@@ -0,0 +1,128 @@
+package org.sputnikdev.bluetooth.manager.transport.tinyb;
+
+/*-
+ * #%L
+ * org.sputnikdev:bluetooth-manager-tinyb
+ * %%
+ * Copyright (C) 2017 Sputnik Dev
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import org.sputnikdev.bluetooth.URL;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * A cache of resolved backend objects (adapters, devices, services and characteristics) keyed by their URLs.
+ * Resolving a TinyB object requires walking the DBus object tree, this cache allows to avoid that.
+ * Services and characteristics must be invalidated when their device gets disconnected
+ * as BlueZ recreates them on the next connection. Adapters and devices can be removed by BlueZ at any time
+ * (e.g. when an adapter is unplugged or a device is not seen for a while), they are invalidated when that is
+ * detected (adapters or devices are not discovered anymore, a device gets disconnected or a call fails),
+ * so that they are resolved again on the next lookup. Only lookups served without resolving are counted as hits.
+ * @author Vlad Kolotov
+ */
+class NativeObjectCache {
+
+    private final Map<URL, BackendObject> objects = new ConcurrentHashMap<>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Returns a cached object or resolves and caches it if it is not in the cache.
+     * @param url object URL
+     * @param resolver a function to resolve the object, it may return null if the object is not found
+     * @param <T> object type
+     * @return a cached or resolved object, or null if the object cannot be resolved
+     */
+    @SuppressWarnings("unchecked")
+    <T extends BackendObject> T get(URL url, Supplier<T> resolver) {
+        T object = (T) objects.get(url);
+        if (object != null) {
+            hits.incrementAndGet();
+            return object;
+        }
+        misses.incrementAndGet();
+        object = resolver.get();
+        if (object != null) {
+            objects.put(url, object);
+        }
+        return object;
+    }
+
+    /**
+     * Returns URLs of cached adapters.
+     * @return adapter URLs
+     */
+    List<URL> getAdapterURLs() {
+        return objects.keySet().stream().filter(URL::isAdapter).collect(Collectors.toList());
+    }
+
+    /**
+     * Removes the given object and all its descendants from the cache.
+     * @param url object URL
+     */
+    void invalidate(URL url) {
+        objects.keySet().removeIf(key -> isDescendant(url, key));
+    }
+
+    /**
+     * Removes all cached services and characteristics of the given device.
+     * @param url device URL
+     */
+    void invalidateServices(URL url) {
+        URL deviceURL = url.getDeviceURL();
+        objects.keySet().removeIf(key -> key.getServiceUUID() != null && isDescendant(deviceURL, key));
+    }
+
+    void clear() {
+        objects.clear();
+    }
+
+    int size() {
+        return objects.size();
+    }
+
+    long getHits() {
+        return hits.get();
+    }
+
+    long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Checks whether the given URL points to the parent object itself or to one of its descendants.
+     * @param parent parent URL
+     * @param url URL to check
+     * @return true if the URL is the parent URL or one of its descendants
+     */
+    static boolean isDescendant(URL parent, URL url) {
+        return Objects.equals(parent.getAdapterAddress(), url.getAdapterAddress())
+                && (parent.getDeviceAddress() == null
+                    || Objects.equals(parent.getDeviceAddress(), url.getDeviceAddress()))
+                && (parent.getServiceUUID() == null
+                    || Objects.equals(parent.getServiceUUID(), url.getServiceUUID()))
+                && (parent.getCharacteristicUUID() == null
+                    || Objects.equals(parent.getCharacteristicUUID(), url.getCharacteristicUUID()));
+    }
+
+}
@@ -20,22 +20,54 @@ package org.sputnikdev.bluetooth.manager.transport.tinyb;
  * #L%
  */
 
-import org.apache.commons.io.FileUtils;
-import org.apache.commons.io.IOUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.nio.file.attribute.UserPrincipal;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Comparator;
+import java.util.Set;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
 
 /**
- * An utility class that loads tinyb native libraries from classpath by copying them into the temp directory.
+ * An utility class that loads tinyb native libraries from classpath by copying them into a cache directory.
+ * Libraries are extracted into a persistent cache: a directory named after the library content hash,
+ * so that a verified copy is reused on the next start instead of being copied again.
+ * The cache is a per-user directory ({@code ~/.cache/tinyb} by default, a private directory in the temp directory
+ * if the home directory is missing or not writable, it can be changed with the {@value #CACHE_DIRECTORY_PROPERTY}
+ * system property). Directories are created accessible by the owner only, directories and libraries that are not
+ * owned by the current user or writable by other users are refused, so that another user cannot plant a library
+ * to be loaded. Stale copies (previous versions of a library and temp directories of previous versions
+ * of this loader) that are owned by the current user are deleted.
  * @author Vlad Kolotov
  */
 final class NativesLoader {
 
+    static final String CACHE_DIRECTORY_PROPERTY = "tinyb.natives.dir";
+
     private static final Logger LOGGER = LoggerFactory.getLogger(NativesLoader.class);
+    private static final String CACHE_PREFIX = "tinyb-";
+    private static final String LEGACY_PATTERN = "tinyb[0-9]+libs";
+    private static final Set<PosixFilePermission> OWNER_ONLY = PosixFilePermissions.fromString("rwx------");
+    private static final int HASH_LENGTH = 16;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+
+    private static volatile UserPrincipal currentUser;
 
     private NativesLoader() { }
 
@@ -46,22 +78,127 @@ final class NativesLoader {
         }
 
         String libraryPath = getLibFolder() + "/" + library;
-        BufferedInputStream tinyBClasspathStream = null;
         LOGGER.debug("Library path: {}", libraryPath);
-        try {
-            tinyBClasspathStream = new BufferedInputStream(NativesLoader.class.getResourceAsStream(libraryPath), 1000);
-            File lib = new File(createTempDirectory(), new File(library).getName());
-            LOGGER.debug("Creating a temporary file: {}", lib.getAbsolutePath());
-            if (lib.createNewFile()) {
-                LOGGER.debug("Temporary file has been created. Copying the library to that file.");
-                FileUtils.copyInputStreamToFile(tinyBClasspathStream, lib);
-                LOGGER.debug("The library has been prepared to be loaded: {}", lib.getAbsolutePath());
-                return lib.getAbsolutePath();
+        String hash = hash(libraryPath);
+        Path cacheDirectory = createPrivateDirectory(getCacheDirectory());
+        Path directory = createPrivateDirectory(cacheDirectory.resolve(CACHE_PREFIX + hash));
+        Path lib = directory.resolve(new File(library).getName());
+        boolean cached = Files.isRegularFile(lib);
+        if (cached) {
+            checkOwner(lib);
+        }
+        if (cached && hash.equals(hash(lib))) {
+            LOGGER.debug("The library has been found in the cache: {}", lib);
+        } else {
+            extract(libraryPath, lib);
+            LOGGER.debug("The library has been prepared to be loaded: {}", lib);
+        }
+        cleanUp(cacheDirectory, lib);
+        return lib.toAbsolutePath().toString();
+    }
+
+    static Path getCacheDirectory() throws IOException {
+        String directory = System.getProperty(CACHE_DIRECTORY_PROPERTY);
+        if (directory != null) {
+            return Paths.get(directory);
+        }
+        String home = System.getProperty("user.home");
+        if (home != null && Paths.get(home).isAbsolute() && Files.isDirectory(Paths.get(home))) {
+            Path cache = Paths.get(home, ".cache", "tinyb");
+            if (isWritable(cache)) {
+                return cache;
+            }
+        }
+        // e.g. a service user without a home directory
+        return Paths.get(System.getProperty("java.io.tmpdir"), CACHE_PREFIX + "natives-" + getCurrentUser().getName());
+    }
+
+    /**
+     * Deletes temp directories created by previous versions of this loader and cached copies of the library
+     * that have a different content (previous versions of the library). Only directories owned by the current user
+     * are deleted.
+     * @param cacheDirectory cache directory
+     * @param lib current library file
+     */
+    static void cleanUp(Path cacheDirectory, Path lib) {
+        Path current = lib.getParent();
+        deleteStale(cacheDirectory, CACHE_PREFIX + "*",
+            directory -> !directory.equals(current) && Files.exists(directory.resolve(lib.getFileName())));
+        deleteStale(Paths.get(System.getProperty("java.io.tmpdir")), "tinyb*",
+            directory -> directory.getFileName().toString().matches(LEGACY_PATTERN));
+    }
+
+    /**
+     * Creates a directory that is accessible by the current user only (its missing parents are created with
+     * default permissions). An existing directory is accepted only if it is owned by the current user
+     * and not writable by other users.
+     * @param directory a directory to create
+     * @return the directory
+     * @throws IOException if the directory cannot be created or it is not private to the current user
+     */
+    static Path createPrivateDirectory(Path directory) throws IOException {
+        if (!Files.isDirectory(directory)) {
+            Path parent = directory.toAbsolutePath().getParent();
+            if (parent != null) {
+                Files.createDirectories(parent);
+            }
+            try {
+                if (isPosix(directory)) {
+                    Files.createDirectory(directory, PosixFilePermissions.asFileAttribute(OWNER_ONLY));
+                } else {
+                    Files.createDirectory(directory);
+                }
+            } catch (FileAlreadyExistsException ex) {
+                LOGGER.debug("The directory has been created by another process: {}", directory);
+            }
+        }
+        checkOwner(directory);
+        return directory;
+    }
+
+    /**
+     * Checks that a file or directory is owned by the current user and it is not writable by other users.
+     * @param path a file or directory
+     * @throws IOException if the path is owned by another user or it is writable by other users
+     */
+    static void checkOwner(Path path) throws IOException {
+        UserPrincipal owner = Files.getOwner(path);
+        if (!owner.equals(getCurrentUser())) {
+            throw new IOException("Native libraries path is not owned by the current user: " + path
+                    + " : " + owner.getName());
+        }
+        if (isPosix(path)) {
+            Set<PosixFilePermission> permissions = Files.getPosixFilePermissions(path);
+            if (permissions.contains(PosixFilePermission.GROUP_WRITE)
+                    || permissions.contains(PosixFilePermission.OTHERS_WRITE)) {
+                throw new IOException("Native libraries path is writable by other users: " + path + " : "
+                        + PosixFilePermissions.toString(permissions));
+            }
+        }
+    }
+
+    /**
+     * Looks up a native library in the directories of the "java.library.path" system property,
+     * i.e. the same directories {@link System#loadLibrary(String)} searches.
+     * @param library library name without prefix and extension, e.g. "tinyb"
+     * @return path of the library or null if it is not found
+     */
+    static Path findSystemLibrary(String library) {
+        String libraryPath = System.getProperty("java.library.path");
+        if (libraryPath == null) {
+            return null;
+        }
+        String fileName = System.mapLibraryName(library);
+        for (String directory : libraryPath.split(File.pathSeparator)) {
+            if (directory.isEmpty()) {
+                continue;
+            }
+            Path lib = Paths.get(directory, fileName);
+            if (Files.isRegularFile(lib)) {
+                return lib;
             }
-            throw new IllegalStateException("Could not create a temporary file: " + lib.getAbsolutePath());
-        } finally {
-            IOUtils.closeQuietly(tinyBClasspathStream);
         }
+        return null;
     }
 
     static boolean isSupportedEnvironment() {
@@ -110,16 +247,117 @@ final class NativesLoader {
         return System.getProperty("os.arch").toLowerCase();
     }
 
-    private static File createTempDirectory() throws IOException {
-        File tempDirectory = File.createTempFile("tinyb", "libs");
-        tempDirectory.delete();
-        tempDirectory.mkdir();
+    private static void extract(String libraryPath, Path lib) throws IOException {
+        Files.createDirectories(lib.getParent());
+        // copying to a temp file first and then moving it, so that a partially extracted library is never used
+        Path temp = Files.createTempFile(lib.getParent(), lib.getFileName().toString(), ".tmp");
+        try {
+            try (InputStream stream = getResource(libraryPath)) {
+                Files.copy(stream, temp, StandardCopyOption.REPLACE_EXISTING);
+            }
+            try {
+                Files.move(temp, lib, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (FileAlreadyExistsException ex) {
+                // another process has extracted it in the meantime
+                LOGGER.debug("The library has been extracted by another process: {}", lib);
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private static String hash(String libraryPath) throws IOException {
+        try (InputStream stream = getResource(libraryPath)) {
+            return hash(stream);
+        }
+    }
+
+    private static String hash(Path file) throws IOException {
+        try (InputStream stream = Files.newInputStream(file)) {
+            return hash(stream);
+        }
+    }
+
+    private static String hash(InputStream stream) throws IOException {
+        MessageDigest digest;
         try {
-            tempDirectory.deleteOnExit();
-        } catch (Exception ignored) {
-            // old jvms
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int read;
+        while ((read = stream.read(buffer)) >= 0) {
+            digest.update(buffer, 0, read);
+        }
+        StringBuilder hex = new StringBuilder();
+        for (byte value : digest.digest()) {
+            hex.append(String.format("%02x", value));
+        }
+        return hex.substring(0, HASH_LENGTH);
+    }
+
+    private static InputStream getResource(String libraryPath) throws IOException {
+        InputStream stream = NativesLoader.class.getResourceAsStream(libraryPath);
+        if (stream == null) {
+            throw new IOException("Native library not found in classpath: " + libraryPath);
+        }
+        return stream;
+    }
+
+    /**
+     * Returns the current user as the owner of a newly created file. Looking the user up by name is not reliable,
+     * e.g. it fails for users that do not have a passwd entry (containers).
+     * @return current user
+     * @throws IOException if a temp file cannot be created
+     */
+    private static UserPrincipal getCurrentUser() throws IOException {
+        if (currentUser == null) {
+            Path probe = Files.createTempFile(CACHE_PREFIX, ".owner");
+            try {
+                currentUser = Files.getOwner(probe);
+            } finally {
+                Files.deleteIfExists(probe);
+            }
+        }
+        return currentUser;
+    }
+
+    private static boolean isWritable(Path path) {
+        // the nearest existing directory must be writable, so that the missing ones can be created
+        Path existing = path.toAbsolutePath();
+        while (existing != null && !Files.exists(existing)) {
+            existing = existing.getParent();
+        }
+        return existing != null && Files.isDirectory(existing) && Files.isWritable(existing);
+    }
+
+    private static void deleteStale(Path parent, String glob, Predicate<Path> stale) {
+        if (!Files.isDirectory(parent)) {
+            return;
+        }
+        try (DirectoryStream<Path> directories = Files.newDirectoryStream(parent, glob)) {
+            UserPrincipal user = getCurrentUser();
+            for (Path directory : directories) {
+                if (Files.isDirectory(directory, LinkOption.NOFOLLOW_LINKS) && stale.test(directory)
+                        && user.equals(Files.getOwner(directory, LinkOption.NOFOLLOW_LINKS))) {
+                    LOGGER.debug("Deleting stale native libraries directory: {}", directory);
+                    delete(directory);
+                }
+            }
+        } catch (IOException | RuntimeException ex) {
+            LOGGER.debug("Could not clean up native libraries: {} : {}", parent, ex.getMessage());
+        }
+    }
+
+    private static void delete(Path directory) throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
         }
-        return tempDirectory;
+    }
+
+    private static boolean isPosix(Path path) {
+        return path.getFileSystem().supportedFileAttributeViews().contains("posix");
     }
 
 }
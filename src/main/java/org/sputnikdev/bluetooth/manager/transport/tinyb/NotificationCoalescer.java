@@ -0,0 +1,174 @@
+package org.sputnikdev.bluetooth.manager.transport.tinyb;
+
+/*-
+ * #%L
+ * org.sputnikdev:bluetooth-manager-tinyb
+ * %%
+ * Copyright (C) 2017 Sputnik Dev
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import org.slf4j.Logger;
+import org.sputnikdev.bluetooth.URL;
+import org.sputnikdev.bluetooth.manager.transport.Notification;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiPredicate;
+import java.util.function.Supplier;
+
+/**
+ * A notification wrapper that delivers only the latest pending value. Values that arrive while a previous value
+ * is still waiting for delivery replace the pending value. Optionally, it can enforce a minimum interval between
+ * deliveries and skip values that are equal to the previously delivered one.
+ * At most one flush task is scheduled at a time. If the dispatcher does not execute the task (it is dropped
+ * on overflow, discarded, rejected or cancelled), the task is told so and the next value schedules a new one.
+ * @param <T> type of the value
+ * @author Vlad Kolotov
+ */
+class NotificationCoalescer<T> implements Notification<T> {
+
+    private final Supplier<NotificationDispatcher> dispatcher;
+    private final URL url;
+    private final Notification<T> notification;
+    private final Settings settings;
+    private final BiPredicate<T, T> equality;
+    private final Logger logger;
+    private final String errorMessage;
+
+    private final AtomicReference<T> pending = new AtomicReference<>();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private final NotificationDispatcher.DiscardableTask flushTask = new FlushTask();
+    private volatile T lastDeliveredValue;
+    private volatile long lastDelivered;
+
+    /**
+     * Coalescing settings.
+     */
+    static final class Settings {
+
+        private final long minInterval;
+        private final boolean onChangeOnly;
+
+        /**
+         * Creates coalescing settings.
+         * @param minInterval minimum interval between deliveries in milliseconds, 0 means no limit
+         * @param onChangeOnly if true, a value that equals to the previously delivered one is not delivered
+         */
+        Settings(long minInterval, boolean onChangeOnly) {
+            this.minInterval = Math.max(0, minInterval);
+            this.onChangeOnly = onChangeOnly;
+        }
+
+        long getMinInterval() {
+            return minInterval;
+        }
+
+        boolean isOnChangeOnly() {
+            return onChangeOnly;
+        }
+    }
+
+    NotificationCoalescer(Supplier<NotificationDispatcher> dispatcher, URL url, Notification<T> notification,
+                          Settings settings, BiPredicate<T, T> equality, Logger logger, String errorMessage) {
+        this.dispatcher = dispatcher;
+        this.url = url;
+        this.notification = notification;
+        this.settings = settings;
+        this.equality = equality;
+        this.logger = logger;
+        this.errorMessage = errorMessage;
+    }
+
+    @Override
+    public void notify(T value) {
+        if (isDelivered(value)) {
+            // the latest value has been delivered already, a pending value is outdated
+            pending.set(null);
+            return;
+        }
+        pending.set(value);
+        if (scheduled.compareAndSet(false, true)) {
+            long delay = settings.getMinInterval() - (System.currentTimeMillis() - lastDelivered);
+            if (delay > 0) {
+                dispatcher.get().dispatchLater(url, notification, flushTask, delay);
+            } else {
+                dispatcher.get().dispatch(url, notification, flushTask);
+            }
+        }
+    }
+
+    private boolean isDelivered(T value) {
+        T delivered = lastDeliveredValue;
+        return settings.isOnChangeOnly() && delivered != null && equality.test(delivered, value);
+    }
+
+    private void flush() {
+        // resetting the flag before taking the value, so that any value arriving after this point gets scheduled
+        scheduled.set(false);
+        T value = pending.getAndSet(null);
+        if (value == null || isDelivered(value)) {
+            return;
+        }
+        lastDeliveredValue = value;
+        lastDelivered = System.currentTimeMillis();
+        try {
+            notification.notify(value);
+            Metrics.notification(url, true);
+        } catch (Exception ex) {
+            Metrics.notification(url, false);
+            logger.error(errorMessage, ex);
+        }
+    }
+
+    private final class FlushTask implements NotificationDispatcher.DiscardableTask {
+
+        @Override
+        public void run() {
+            flush();
+        }
+
+        @Override
+        public void discarded() {
+            // the pending value is delivered when the next value schedules a new task
+            scheduled.set(false);
+        }
+    }
+
+    /**
+     * Compares two maps of byte arrays by their content.
+     * @param first first map
+     * @param second second map
+     * @param <K> key type
+     * @return true if both maps contain the same keys and equal byte arrays
+     */
+    static <K> boolean contentEquals(Map<K, byte[]> first, Map<K, byte[]> second) {
+        if (first == second) {
+            return true;
+        }
+        if (first == null || second == null || first.size() != second.size()) {
+            return false;
+        }
+        for (Map.Entry<K, byte[]> entry : first.entrySet()) {
+            if (!Arrays.equals(entry.getValue(), second.get(entry.getKey()))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+}
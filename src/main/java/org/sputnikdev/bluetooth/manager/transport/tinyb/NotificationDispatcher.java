@@ -0,0 +1,438 @@
+package org.sputnikdev.bluetooth.manager.transport.tinyb;
+
+/*-
+ * #%L
+ * org.sputnikdev:bluetooth-manager-tinyb
+ * %%
+ * Copyright (C) 2017 Sputnik Dev
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * A notification dispatcher that delivers notifications by using a fixed number of worker threads.
+ * Notifications are queued per key (normally a bluetooth object URL), so that notifications for the same object
+ * are delivered in order, whereas notifications for different objects are delivered in parallel.
+ * Each queue is bounded, when a queue is full, the configured {@link OverflowPolicy} is applied.
+ * A queue exists only while it has pending notifications: a queue that drains empty retires
+ * (it is removed and does not accept notifications anymore), so that there is at most one live queue per key.
+ * @author Vlad Kolotov
+ */
+class NotificationDispatcher {
+
+    static final int DEFAULT_WORKERS = Math.max(2, Runtime.getRuntime().availableProcessors());
+    static final int DEFAULT_CAPACITY = 1000;
+    static final OverflowPolicy DEFAULT_POLICY = OverflowPolicy.DROP_OLDEST;
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(NotificationDispatcher.class);
+    private static final int DRAIN_BATCH_SIZE = 16;
+    // the dispatcher which worker is running in the current thread, workers must never block on a full queue
+    private static final ThreadLocal<NotificationDispatcher> WORKER = new ThreadLocal<>();
+
+    /**
+     * A notification that is told when it is not going to be delivered: it has been dropped on overflow,
+     * discarded, rejected or cancelled on shutdown. This allows a task owner that keeps track of its scheduled task
+     * (e.g. {@link NotificationCoalescer}) to schedule it again later.
+     */
+    interface DiscardableTask extends Runnable {
+
+        /**
+         * Called when the task is not going to be executed, possibly while a queue lock is held,
+         * hence it must be fast and must not dispatch notifications.
+         */
+        void discarded();
+    }
+
+    /**
+     * Defines what happens when a new notification is submitted to a full queue.
+     */
+    enum OverflowPolicy {
+        /**
+         * The oldest pending notification is discarded.
+         */
+        DROP_OLDEST,
+        /**
+         * A pending notification of the same type is replaced by the new one,
+         * if there is none, then the oldest pending notification is discarded.
+         */
+        COALESCE,
+        /**
+         * The submitting thread is blocked until there is some space in the queue. A notification handler
+         * (a worker thread) is never blocked, as it could wait for itself, the oldest notification is discarded.
+         */
+        BLOCK
+    }
+
+    private final int capacity;
+    private final OverflowPolicy policy;
+    private final ExecutorService workers;
+    private final ScheduledExecutorService scheduler;
+    private final Map<Object, SerialQueue> queues = new ConcurrentHashMap<>();
+    private final Set<DelayedDispatch> delayed = ConcurrentHashMap.newKeySet();
+    private final Function<Object, SerialQueue> queueFactory = SerialQueue::new;
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private volatile boolean shutdown;
+
+    NotificationDispatcher() {
+        this(DEFAULT_WORKERS, DEFAULT_CAPACITY, DEFAULT_POLICY);
+    }
+
+    NotificationDispatcher(int workers, int capacity, OverflowPolicy policy) {
+        if (workers < 1 || capacity < 1) {
+            throw new IllegalArgumentException("Number of workers and queue capacity must be positive: "
+                    + workers + " / " + capacity);
+        }
+        this.capacity = capacity;
+        this.policy = policy;
+        this.workers = Executors.newFixedThreadPool(workers, new NotificationThreadFactory("tinyb-notification-"));
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(
+                new NotificationThreadFactory("tinyb-notification-scheduler-"));
+    }
+
+    /**
+     * Submits a notification for delivery.
+     * @param key a queue key, notifications with the same key are delivered in the order of submission
+     * @param type a notification type, used to identify notifications that can be coalesced
+     * @param task a notification to deliver
+     */
+    void dispatch(Object key, Object type, Runnable task) {
+        boolean accepted;
+        do {
+            // a queue could retire after it has been looked up, the task then goes to a new queue
+            accepted = queues.computeIfAbsent(key, queueFactory).offer(type, task);
+        } while (!accepted);
+    }
+
+    /**
+     * Submits a notification for delivery after the given delay.
+     * @param key a queue key
+     * @param type a notification type
+     * @param task a notification to deliver
+     * @param delay delay in milliseconds
+     */
+    void dispatchLater(Object key, Object type, Runnable task, long delay) {
+        DelayedDispatch dispatch = new DelayedDispatch(key, type, task);
+        delayed.add(dispatch);
+        try {
+            scheduler.schedule(dispatch, delay, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException ex) {
+            LOGGER.debug("Notification dispatcher has been shut down, notification is discarded: {}", key);
+            if (delayed.remove(dispatch)) {
+                discarded(task);
+            }
+        }
+    }
+
+    /**
+     * Discards all pending notifications for the given key.
+     * @param key a queue key
+     */
+    void discard(Object key) {
+        SerialQueue queue = queues.get(key);
+        if (queue != null) {
+            // the queue stays live until its drain finds it empty, so that a task that is being delivered
+            // and tasks dispatched afterwards are never delivered in parallel
+            queue.clear();
+        }
+    }
+
+    /**
+     * Shuts down the dispatcher. Pending notifications get delivered within the given timeout:
+     * queues that are being drained are drained in-line, new notifications are discarded.
+     * @param timeout timeout in milliseconds
+     */
+    void shutdown(long timeout) {
+        shutdown = true;
+        scheduler.shutdownNow();
+        // delayed notifications that have not been dispatched yet are cancelled
+        for (DelayedDispatch dispatch : delayed) {
+            if (delayed.remove(dispatch)) {
+                discarded(dispatch.task);
+            }
+        }
+        workers.shutdown();
+        try {
+            if (!workers.awaitTermination(timeout, TimeUnit.MILLISECONDS)) {
+                workers.shutdownNow();
+            }
+        } catch (InterruptedException ex) {
+            workers.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        queues.values().forEach(SerialQueue::retire);
+    }
+
+    int getCapacity() {
+        return capacity;
+    }
+
+    OverflowPolicy getPolicy() {
+        return policy;
+    }
+
+    long getDroppedCount() {
+        return dropped.get();
+    }
+
+    long getCoalescedCount() {
+        return coalesced.get();
+    }
+
+    int getPendingCount() {
+        return queues.values().stream().mapToInt(SerialQueue::size).sum();
+    }
+
+    int getQueueCount() {
+        return queues.size();
+    }
+
+    private static void discarded(Runnable task) {
+        if (task instanceof DiscardableTask) {
+            try {
+                ((DiscardableTask) task).discarded();
+            } catch (Exception ex) {
+                LOGGER.error("Notification discard error", ex);
+            }
+        }
+    }
+
+    private final class DelayedDispatch implements Runnable {
+
+        private final Object key;
+        private final Object type;
+        private final Runnable task;
+
+        private DelayedDispatch(Object key, Object type, Runnable task) {
+            this.key = key;
+            this.type = type;
+            this.task = task;
+        }
+
+        @Override
+        public void run() {
+            if (delayed.remove(this)) {
+                dispatch(key, type, task);
+            }
+        }
+    }
+
+    private static final class Entry {
+        private final Object type;
+        private Runnable task;
+
+        private Entry(Object type, Runnable task) {
+            this.type = type;
+            this.task = task;
+        }
+    }
+
+    private final class SerialQueue {
+
+        private final Object key;
+        private final ArrayDeque<Entry> entries = new ArrayDeque<>();
+        private final Runnable drainTask = this::drain;
+        private boolean scheduled;
+        private boolean retired;
+
+        private SerialQueue(Object key) {
+            this.key = key;
+        }
+
+        /**
+         * Adds a task to the queue and schedules the queue for draining if needed.
+         * @return false if the queue has retired, i.e. the task must be offered to a new queue
+         */
+        private boolean offer(Object type, Runnable task) {
+            if (policy == OverflowPolicy.BLOCK && WORKER.get() != NotificationDispatcher.this) {
+                synchronized (this) {
+                    awaitRoom();
+                    return add(type, task);
+                }
+            }
+            return add(type, task);
+        }
+
+        /**
+         * Waits until there is some space in the queue. The queue lock is released while waiting,
+         * so that the queue can be drained and other notifications can be submitted and coalesced.
+         */
+        private synchronized void awaitRoom() {
+            while (!retired && entries.size() >= capacity) {
+                try {
+                    wait();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+
+        private synchronized boolean add(Object type, Runnable task) {
+            if (retired) {
+                return false;
+            }
+            if (entries.size() >= capacity && !makeRoom(type, task)) {
+                return true;
+            }
+            entries.addLast(new Entry(type, task));
+            if (!scheduled) {
+                scheduled = true;
+                try {
+                    workers.execute(drainTask);
+                } catch (RejectedExecutionException ex) {
+                    LOGGER.debug("Notification dispatcher has been shut down, notification is discarded: {}", key);
+                    retire();
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Applies the overflow policy.
+         * @return false if the task has been coalesced with a pending one, true if it must be added
+         */
+        private boolean makeRoom(Object type, Runnable task) {
+            switch (policy) {
+                case COALESCE:
+                    Iterator<Entry> iterator = entries.descendingIterator();
+                    while (iterator.hasNext()) {
+                        Entry entry = iterator.next();
+                        if (entry.type != null && entry.type.equals(type)) {
+                            discarded(entry.task);
+                            entry.task = task;
+                            coalesced.incrementAndGet();
+                            return false;
+                        }
+                    }
+                    dropOldest();
+                    return true;
+                case BLOCK:
+                    // the queue has been filled up again after waiting, or the submitter must not block
+                case DROP_OLDEST:
+                default:
+                    dropOldest();
+                    return true;
+            }
+        }
+
+        private void dropOldest() {
+            Entry entry = entries.pollFirst();
+            if (entry != null) {
+                discarded(entry.task);
+            }
+            dropped.incrementAndGet();
+        }
+
+        private synchronized Runnable poll() {
+            Entry entry = entries.pollFirst();
+            if (entry == null) {
+                retire();
+                return null;
+            }
+            notifyAll();
+            return entry.task;
+        }
+
+        private synchronized int size() {
+            return entries.size();
+        }
+
+        private synchronized void clear() {
+            discardAll();
+            notifyAll();
+        }
+
+        private void discardAll() {
+            Entry entry;
+            while ((entry = entries.pollFirst()) != null) {
+                discarded(entry.task);
+            }
+        }
+
+        /**
+         * Removes the queue, a retired queue does not accept tasks anymore.
+         */
+        private synchronized void retire() {
+            retired = true;
+            scheduled = false;
+            discardAll();
+            queues.remove(key, this);
+            notifyAll();
+        }
+
+        private void drain() {
+            WORKER.set(NotificationDispatcher.this);
+            try {
+                int processed = 0;
+                Runnable task;
+                while ((task = poll()) != null) {
+                    try {
+                        task.run();
+                    } catch (Exception ex) {
+                        LOGGER.error("Notification execution error", ex);
+                    }
+                    // a limited number of tasks is processed in one go so that other queues are not starved,
+                    // once shutdown has started, the queue is drained in-line
+                    if (++processed == DRAIN_BATCH_SIZE && !shutdown) {
+                        try {
+                            workers.execute(drainTask);
+                            return;
+                        } catch (RejectedExecutionException ex) {
+                            LOGGER.debug("Notification dispatcher is shutting down, draining in-line: {}", key);
+                        }
+                    }
+                }
+            } finally {
+                WORKER.remove();
+            }
+        }
+    }
+
+    private static final class NotificationThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger counter = new AtomicInteger();
+        private final String prefix;
+
+        private NotificationThreadFactory(String prefix) {
+            this.prefix = prefix;
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, prefix + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
+}
@@ -0,0 +1,261 @@
+package org.sputnikdev.bluetooth.manager.transport.tinyb;
+
+/*-
+ * #%L
+ * org.sputnikdev:bluetooth-manager-tinyb
+ * %%
+ * Copyright (C) 2017 Sputnik Dev
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import org.slf4j.Logger;
+import org.sputnikdev.bluetooth.URL;
+import org.sputnikdev.bluetooth.manager.transport.Notification;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Delivers notifications of a single native callback to multiple subscribers. Values are published by the native
+ * callback (single producer) into a pre-allocated ring buffer, subscribers (consumers) read the ring at their own
+ * sequences. A dispatcher task delivers all pending values to all subscribers, so adding a subscriber
+ * adds neither native callbacks nor thread handoffs. A task is submitted per published value, a task that finds
+ * no pending values does nothing, hence values are not lost if the dispatcher discards a task on overflow.
+ * The producer never blocks: if a subscriber lags behind by more than the ring capacity, the overwritten values
+ * are skipped for that subscriber and counted as dropped. Each slot carries the sequence of its value, so that
+ * a value that gets overwritten while it is being read is detected and dropped too.
+ * A subscriber set by {@link #replace(Notification)} (enable*Notifications methods) is replaced by the next one,
+ * so that a repeated enable call does not duplicate deliveries, other subscribers are kept.
+ * @param <T> type of the value
+ * @author Vlad Kolotov
+ */
+class NotificationFanout<T> implements Notification<T> {
+
+    static final int DEFAULT_CAPACITY = 64;
+
+    private final Supplier<NotificationDispatcher> dispatcher;
+    private final URL url;
+    private final Logger logger;
+    private final String errorMessage;
+    private final int capacity;
+    // the ring is allocated on the first subscription
+    private volatile AtomicReferenceArray<T> ring;
+    // sequences of values in the ring slots, a slot that is being written holds -1
+    private AtomicLongArray sequences;
+    private final List<Subscriber<T>> subscribers = new CopyOnWriteArrayList<>();
+    // the subscriber set by the last replace call
+    private Notification<T> primary;
+    private final Runnable drainTask = this::drain;
+    private final LongAdder dropped = new LongAdder();
+    // sequence of the last published value, written by the producer only
+    private volatile long cursor = -1;
+
+    NotificationFanout(TinyBContext context, URL url, Logger logger, String errorMessage) {
+        this(context::getNotificationDispatcher, url, context.getFanoutCapacity(), logger, errorMessage);
+    }
+
+    /**
+     * Creates a fan-out.
+     * @param dispatcher a dispatcher that delivers values to subscribers
+     * @param url URL of the object that originates notifications, it is used as the dispatcher queue key
+     * @param capacity ring capacity, rounded up to a power of two
+     * @param logger a logger to report subscriber errors to
+     * @param errorMessage an error message to report if a subscriber fails
+     */
+    NotificationFanout(Supplier<NotificationDispatcher> dispatcher, URL url, int capacity, Logger logger,
+                       String errorMessage) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Ring capacity must be positive: " + capacity);
+        }
+        int size = Integer.highestOneBit(capacity);
+        this.capacity = size < capacity ? size << 1 : size;
+        this.dispatcher = dispatcher;
+        this.url = url;
+        this.logger = logger;
+        this.errorMessage = errorMessage;
+    }
+
+    /**
+     * Adds a subscriber, the same subscriber is added only once. A new subscriber receives only values
+     * published after subscription.
+     * @param notification subscriber
+     * @return true if this is the first subscriber, i.e. the native callback must be enabled
+     */
+    synchronized boolean subscribe(Notification<T> notification) {
+        if (ring == null) {
+            sequences = new AtomicLongArray(capacity);
+            for (int i = 0; i < capacity; i++) {
+                sequences.set(i, -1);
+            }
+            // publishing the ring makes the sequences visible to the producer
+            ring = new AtomicReferenceArray<>(capacity);
+        }
+        boolean first = subscribers.isEmpty();
+        if (subscribers.stream().noneMatch(subscriber -> subscriber.notification == notification)) {
+            subscribers.add(new Subscriber<>(notification, cursor + 1));
+        }
+        return first;
+    }
+
+    /**
+     * Replaces the subscriber set by the previous call of this method with the given one,
+     * subscribers added by {@link #subscribe(Notification)} are kept.
+     * @param notification subscriber
+     * @return true if there were no subscribers, i.e. the native callback must be enabled
+     */
+    synchronized boolean replace(Notification<T> notification) {
+        boolean first = subscribers.isEmpty();
+        Notification<T> previous = primary;
+        if (previous != null && previous != notification) {
+            subscribers.removeIf(subscriber -> subscriber.notification == previous);
+        }
+        primary = notification;
+        subscribe(notification);
+        return first;
+    }
+
+    /**
+     * Removes a subscriber.
+     * @param notification subscriber
+     * @return true if there are no subscribers left, i.e. the native callback can be disabled
+     */
+    synchronized boolean unsubscribe(Notification<T> notification) {
+        subscribers.removeIf(subscriber -> subscriber.notification == notification);
+        if (primary == notification) {
+            primary = null;
+        }
+        return subscribers.isEmpty();
+    }
+
+    /**
+     * Removes all subscribers.
+     */
+    synchronized void clear() {
+        subscribers.clear();
+        primary = null;
+    }
+
+    /**
+     * Removes all subscribers but the given one.
+     * @param retained a subscriber to keep, if subscribed, or null to remove all subscribers
+     * @return true if there are no subscribers left, i.e. the native callback can be disabled
+     */
+    synchronized boolean clearExcept(Notification<T> retained) {
+        subscribers.removeIf(subscriber -> subscriber.notification != retained);
+        if (primary != retained) {
+            primary = null;
+        }
+        return subscribers.isEmpty();
+    }
+
+    int getSubscriberCount() {
+        return subscribers.size();
+    }
+
+    int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Returns number of values that have been skipped by lagging subscribers.
+     * @return number of dropped values
+     */
+    long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    /**
+     * Publishes a value to the ring and schedules its delivery. Must be called by a single thread at a time
+     * (the native callback thread).
+     * @param value a value to publish
+     */
+    @Override
+    public void notify(T value) {
+        AtomicReferenceArray<T> ring = this.ring;
+        if (ring == null) {
+            return;
+        }
+        long sequence = cursor + 1;
+        int slot = (int) sequence & (capacity - 1);
+        // marking the slot first, so that a subscriber reading the slot concurrently detects the overwrite
+        sequences.set(slot, -1);
+        ring.set(slot, value);
+        sequences.set(slot, sequence);
+        cursor = sequence;
+        dispatcher.get().dispatch(url, this, drainTask);
+    }
+
+    /**
+     * Delivers a value to all subscribers in the calling thread, bypassing the ring.
+     * This is used when values are already delivered in a dispatcher thread (e.g. by {@link NotificationCoalescer}).
+     * @param value a value to deliver
+     */
+    void deliver(T value) {
+        for (Subscriber<T> subscriber : subscribers) {
+            deliver(subscriber, value);
+        }
+    }
+
+    private void drain() {
+        // drain tasks of the same object are executed one at a time by the dispatcher
+        AtomicReferenceArray<T> ring = this.ring;
+        long available = cursor;
+        for (Subscriber<T> subscriber : subscribers) {
+            while (subscriber.next <= available) {
+                if (available - subscriber.next >= capacity) {
+                    long skipped = available - capacity + 1 - subscriber.next;
+                    dropped.add(skipped);
+                    subscriber.next += skipped;
+                }
+                int slot = (int) subscriber.next & (capacity - 1);
+                T value = ring.get(slot);
+                // the producer could have overwritten the slot while it was being read
+                if (sequences.get(slot) != subscriber.next) {
+                    dropped.increment();
+                } else {
+                    deliver(subscriber, value);
+                }
+                subscriber.next++;
+            }
+        }
+    }
+
+    private void deliver(Subscriber<T> subscriber, T value) {
+        try {
+            subscriber.notification.notify(value);
+            Metrics.notification(url, true);
+        } catch (Exception ex) {
+            Metrics.notification(url, false);
+            logger.error(errorMessage, ex);
+        }
+    }
+
+    private static final class Subscriber<T> {
+
+        private final Notification<T> notification;
+        // sequence of the next value to deliver, accessed only by the draining thread (after subscription)
+        private long next;
+
+        private Subscriber(Notification<T> notification, long next) {
+            this.notification = notification;
+            this.next = next;
+        }
+    }
+
+}
@@ -0,0 +1,961 @@
+package org.sputnikdev.bluetooth.manager.transport.tinyb;
+
+/*-
+ * #%L
+ * org.sputnikdev:bluetooth-manager-tinyb
+ * %%
+ * Copyright (C) 2017 Sputnik Dev
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import org.sputnikdev.bluetooth.manager.transport.Notification;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A pure Java bluetooth stack simulator that can be used instead of TinyB native library
+ * for load testing and profiling of the transport without bluetooth hardware.
+ *
+ * <p>The simulator models adapters, devices, GATT services and characteristics. Devices advertise
+ * (RSSI, manufacturer data and service data notifications) with a configurable interval and RSSI noise,
+ * connection attempts can fail with a configurable probability, GATT operations can be delayed
+ * by a configurable latency. All random values are produced from a seed, so that runs are reproducible.
+ *
+ * <p>Time is simulated: advertisements and characteristic notifications are produced by {@link #advance(long)}
+ * in the calling thread, which allows deterministic tests. Alternatively, {@link #start(long)} advances
+ * the simulated time in a background thread in real time.
+ *
+ * <p>Errors are reported by throwing {@link TinyBException} with BlueZ error messages.
+ * @author Vlad Kolotov
+ */
+public class SimulatedBackend implements TinyBBackend {
+
+    private final long seed;
+    private final List<SimulatedAdapter> adapters = new CopyOnWriteArrayList<>();
+    private final Map<String, SimulatedAdapter> adaptersByAddress = new ConcurrentHashMap<>();
+
+    private volatile long advertisementInterval = 1000;
+    private volatile double rssiNoise = 2.0;
+    private volatile long gattLatency;
+    private volatile double connectFailureRate;
+
+    private long now;
+    private ScheduledExecutorService clock;
+
+    /**
+     * Creates an empty simulator.
+     * @param seed a seed for all random values
+     */
+    public SimulatedBackend(long seed) {
+        this.seed = seed;
+    }
+
+    /**
+     * Populates the simulator with generated adapters and devices. Each device gets a battery service
+     * with a readable and notifying characteristic and a generic service with the given number of
+     * characteristics.
+     * @param adapterCount number of adapters
+     * @param devicesPerAdapter number of devices per adapter
+     * @param characteristicsPerDevice number of generic characteristics per device
+     * @return this simulator
+     */
+    public SimulatedBackend populate(int adapterCount, int devicesPerAdapter, int characteristicsPerDevice) {
+        for (int a = 0; a < adapterCount; a++) {
+            SimulatedAdapter adapter = addAdapter(address(0x11, a), "hci" + a);
+            for (int d = 0; d < devicesPerAdapter; d++) {
+                SimulatedDevice device = adapter.addDevice(address(0x20 + a, d), "Simulated device " + d);
+                device.setManufacturerData((short) 0x0059, new byte[] {(byte) a, (byte) d});
+                device.addService("0000180f-0000-1000-8000-00805f9b34fb")
+                        .addCharacteristic("00002a19-0000-1000-8000-00805f9b34fb", new byte[] {100},
+                                "read", "notify");
+                SimulatedService service = device.addService(String.format("%08x-0000-1000-8000-00805f9b34fb", d));
+                for (int c = 0; c < characteristicsPerDevice; c++) {
+                    service.addCharacteristic(String.format("%08x-0000-1000-8000-00805f9b34fb", 0x1000 + c),
+                            new byte[] {(byte) c}, "read", "write", "write-without-response", "notify");
+                }
+            }
+        }
+        return this;
+    }
+
+    public SimulatedAdapter addAdapter(String address, String name) {
+        SimulatedAdapter adapter = new SimulatedAdapter(address, name);
+        adapters.add(adapter);
+        adaptersByAddress.put(address, adapter);
+        return adapter;
+    }
+
+    /**
+     * Sets default advertisement interval for devices created after this call.
+     * @param advertisementInterval interval in milliseconds
+     */
+    public void setAdvertisementInterval(long advertisementInterval) {
+        this.advertisementInterval = advertisementInterval;
+    }
+
+    /**
+     * Sets default RSSI noise (standard deviation) for devices created after this call.
+     * @param rssiNoise RSSI standard deviation in dBm
+     */
+    public void setRssiNoise(double rssiNoise) {
+        this.rssiNoise = rssiNoise;
+    }
+
+    /**
+     * Sets default connection failure probability for devices created after this call.
+     * @param connectFailureRate probability of a connection failure, from 0 to 1
+     */
+    public void setConnectFailureRate(double connectFailureRate) {
+        this.connectFailureRate = connectFailureRate;
+    }
+
+    /**
+     * Sets a maximum latency of connection and GATT operations (read/write). The actual latency is random
+     * (uniformly distributed between 0 and the given value). Latencies are real, i.e. the calling thread sleeps.
+     * @param gattLatency maximum latency in milliseconds
+     */
+    public void setGattLatency(long gattLatency) {
+        this.gattLatency = gattLatency;
+    }
+
+    /**
+     * Advances simulated time. All advertisements and characteristic notifications that are due
+     * in the given period are delivered in the calling thread.
+     * @param millis period in milliseconds
+     */
+    public synchronized void advance(long millis) {
+        now += millis;
+        for (SimulatedAdapter adapter : adapters) {
+            if (adapter.powered && adapter.discovering) {
+                for (SimulatedDevice device : adapter.devices) {
+                    device.advance(now);
+                }
+            }
+            for (SimulatedDevice device : adapter.devices) {
+                if (device.connected) {
+                    device.notifyCharacteristics(now);
+                }
+            }
+        }
+    }
+
+    /**
+     * Starts advancing simulated time in real time in a background thread.
+     * @param tick how often simulated time is advanced, in milliseconds
+     */
+    public synchronized void start(long tick) {
+        if (clock == null) {
+            clock = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "tinyb-simulator");
+                thread.setDaemon(true);
+                return thread;
+            });
+            clock.scheduleAtFixedRate(() -> advance(tick), tick, tick, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Stops advancing simulated time in real time.
+     */
+    public synchronized void stop() {
+        if (clock != null) {
+            clock.shutdownNow();
+            clock = null;
+        }
+    }
+
+    @Override
+    public List<BackendAdapter> getAdapters() {
+        return new ArrayList<>(adapters);
+    }
+
+    @Override
+    public List<BackendDevice> getDevices() {
+        List<BackendDevice> result = new ArrayList<>();
+        adapters.forEach(adapter -> result.addAll(adapter.getDevices()));
+        return result;
+    }
+
+    @Override
+    public List<BackendService> getServices() {
+        List<BackendService> result = new ArrayList<>();
+        adapters.forEach(adapter -> adapter.devices.forEach(device -> result.addAll(device.getServices())));
+        return result;
+    }
+
+    @Override
+    public BackendAdapter getAdapter(String address) {
+        return adaptersByAddress.get(address);
+    }
+
+    @Override
+    public BackendDevice getDevice(BackendAdapter adapter, String address) {
+        return ((SimulatedAdapter) adapter).devicesByAddress.get(address);
+    }
+
+    @Override
+    public BackendService getService(BackendDevice device, String uuid) {
+        SimulatedDevice simulatedDevice = (SimulatedDevice) device;
+        return simulatedDevice.servicesResolved ? simulatedDevice.servicesByUUID.get(uuid.toLowerCase()) : null;
+    }
+
+    @Override
+    public BackendCharacteristic getCharacteristic(BackendService service, String uuid) {
+        return ((SimulatedService) service).characteristicsByUUID.get(uuid.toLowerCase());
+    }
+
+    @Override
+    public boolean stopDiscovery() {
+        adapters.forEach(adapter -> adapter.setDiscovering(false));
+        return true;
+    }
+
+    private static String address(int prefix, int index) {
+        return String.format(Locale.ROOT, "%02X:%02X:%02X:%02X:%02X:%02X",
+                prefix & 0xFF, 0x5E, 0xED, (index >> 16) & 0xFF, (index >> 8) & 0xFF, index & 0xFF);
+    }
+
+    private static <T> void notify(Notification<T> notification, T value) {
+        if (notification != null) {
+            notification.notify(value);
+        }
+    }
+
+    private static void sleep(Random random, long maxLatency) {
+        if (maxLatency > 0) {
+            long latency;
+            synchronized (random) {
+                latency = (long) (random.nextDouble() * maxLatency);
+            }
+            try {
+                TimeUnit.MILLISECONDS.sleep(latency);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new TinyBException("Operation interrupted", ex);
+            }
+        }
+    }
+
+    /**
+     * A simulated adapter.
+     */
+    public final class SimulatedAdapter implements BackendAdapter {
+
+        private final String address;
+        private final String name;
+        private final List<SimulatedDevice> devices = new CopyOnWriteArrayList<>();
+        private final Map<String, SimulatedDevice> devicesByAddress = new ConcurrentHashMap<>();
+        private volatile String alias;
+        private volatile boolean powered = true;
+        private volatile boolean discovering;
+        private volatile Notification<Boolean> poweredNotification;
+        private volatile Notification<Boolean> discoveringNotification;
+
+        private SimulatedAdapter(String address, String name) {
+            this.address = address;
+            this.name = name;
+            this.alias = name;
+        }
+
+        public SimulatedDevice addDevice(String deviceAddress, String deviceName) {
+            SimulatedDevice device = new SimulatedDevice(this, deviceAddress, deviceName,
+                    new Random(seed ^ (deviceAddress.hashCode() * 31L + address.hashCode())));
+            devices.add(device);
+            devicesByAddress.put(deviceAddress, device);
+            return device;
+        }
+
+        @Override
+        public String getAddress() {
+            return address;
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public String getAlias() {
+            return alias;
+        }
+
+        @Override
+        public void setAlias(String alias) {
+            this.alias = alias;
+        }
+
+        @Override
+        public boolean getPowered() {
+            return powered;
+        }
+
+        @Override
+        public void setPowered(boolean powered) {
+            if (this.powered != powered) {
+                this.powered = powered;
+                SimulatedBackend.notify(poweredNotification, powered);
+                if (!powered) {
+                    setDiscovering(false);
+                }
+            }
+        }
+
+        @Override
+        public void enablePoweredNotifications(Notification<Boolean> notification) {
+            poweredNotification = notification;
+        }
+
+        @Override
+        public void disablePoweredNotifications() {
+            poweredNotification = null;
+        }
+
+        @Override
+        public boolean getDiscovering() {
+            return discovering;
+        }
+
+        @Override
+        public void enableDiscoveringNotifications(Notification<Boolean> notification) {
+            discoveringNotification = notification;
+        }
+
+        @Override
+        public void disableDiscoveringNotifications() {
+            discoveringNotification = null;
+        }
+
+        @Override
+        public void disableDiscoverableNotifications() { /* not simulated */ }
+
+        @Override
+        public void disablePairableNotifications() { /* not simulated */ }
+
+        @Override
+        public void resetDiscoveryFilter() { /* not simulated */ }
+
+        @Override
+        public boolean startDiscovery() {
+            if (!powered) {
+                throw new TinyBException("GDBus.Error:org.bluez.Error.NotReady: Resource Not Ready");
+            }
+            setDiscovering(true);
+            return true;
+        }
+
+        @Override
+        public boolean stopDiscovery() {
+            if (!discovering) {
+                throw new TinyBException("GDBus.Error:org.bluez.Error.Failed: No discovery started");
+            }
+            setDiscovering(false);
+            return true;
+        }
+
+        @Override
+        public List<BackendDevice> getDevices() {
+            List<BackendDevice> result = new ArrayList<>(devices.size());
+            for (SimulatedDevice device : devices) {
+                if (device.discovered) {
+                    result.add(device);
+                }
+            }
+            return result;
+        }
+
+        @Override
+        public void close() { /* nothing to release */ }
+
+        private void setDiscovering(boolean discovering) {
+            if (this.discovering != discovering) {
+                this.discovering = discovering;
+                if (!discovering) {
+                    // like BlueZ, RSSI of devices is invalidated when discovery stops
+                    for (SimulatedDevice device : devices) {
+                        device.rssi = 0;
+                    }
+                }
+                SimulatedBackend.notify(discoveringNotification, discovering);
+            }
+        }
+    }
+
+    /**
+     * A simulated device.
+     */
+    public final class SimulatedDevice implements BackendDevice {
+
+        private final SimulatedAdapter adapter;
+        private final String address;
+        private final String name;
+        private final Random random;
+        private final List<SimulatedService> services = new CopyOnWriteArrayList<>();
+        private final Map<String, SimulatedService> servicesByUUID = new ConcurrentHashMap<>();
+        private final Map<Short, byte[]> manufacturerData = new ConcurrentHashMap<>();
+        private final Map<String, byte[]> serviceData = new ConcurrentHashMap<>();
+
+        private volatile String alias;
+        private volatile long advertisementInterval = SimulatedBackend.this.advertisementInterval;
+        private volatile double rssiNoise = SimulatedBackend.this.rssiNoise;
+        private volatile double connectFailureRate = SimulatedBackend.this.connectFailureRate;
+        private volatile short txPower = -59;
+        private volatile int rssiMean = -70;
+        private volatile short rssi;
+        private volatile boolean discovered;
+        private volatile boolean blocked;
+        private volatile boolean connected;
+        private volatile boolean servicesResolved;
+        private long nextAdvertisement;
+
+        private volatile Notification<Boolean> blockedNotification;
+        private volatile Notification<Short> rssiNotification;
+        private volatile Notification<Boolean> connectedNotification;
+        private volatile Notification<Boolean> servicesResolvedNotification;
+        private volatile Notification<Map<String, byte[]>> serviceDataNotification;
+        private volatile Notification<Map<Short, byte[]>> manufacturerDataNotification;
+
+        private SimulatedDevice(SimulatedAdapter adapter, String address, String name, Random random) {
+            this.adapter = adapter;
+            this.address = address;
+            this.name = name;
+            this.alias = name;
+            this.random = random;
+            // spreading advertisements of different devices over the advertisement interval
+            this.nextAdvertisement = (long) (random.nextDouble() * Math.max(0, advertisementInterval));
+        }
+
+        public SimulatedService addService(String uuid) {
+            SimulatedService service = new SimulatedService(this, uuid.toLowerCase());
+            services.add(service);
+            servicesByUUID.put(service.uuid, service);
+            return service;
+        }
+
+        /**
+         * Sets advertisement interval, 0 disables advertising.
+         * @param advertisementInterval interval in milliseconds
+         */
+        public void setAdvertisementInterval(long advertisementInterval) {
+            this.advertisementInterval = advertisementInterval;
+        }
+
+        public void setRssi(int rssiMean, double rssiNoise) {
+            this.rssiMean = rssiMean;
+            this.rssiNoise = rssiNoise;
+        }
+
+        public void setConnectFailureRate(double connectFailureRate) {
+            this.connectFailureRate = connectFailureRate;
+        }
+
+        public void setManufacturerData(short manufacturerId, byte[] data) {
+            manufacturerData.put(manufacturerId, data.clone());
+        }
+
+        public void setServiceData(String uuid, byte[] data) {
+            serviceData.put(uuid.toLowerCase(), data.clone());
+        }
+
+        /**
+         * Simulates a connection loss.
+         */
+        public void dropConnection() {
+            setConnected(false);
+        }
+
+        /**
+         * Simulates a Service Changed indication, services of a connected device get resolved again.
+         */
+        public void changeServices() {
+            if (connected) {
+                servicesResolved = false;
+                SimulatedBackend.notify(servicesResolvedNotification, false);
+                servicesResolved = true;
+                SimulatedBackend.notify(servicesResolvedNotification, true);
+            }
+        }
+
+        @Override
+        public String getAddress() {
+            return address;
+        }
+
+        @Override
+        public BackendAdapter getAdapter() {
+            return adapter;
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public String getAlias() {
+            return alias;
+        }
+
+        @Override
+        public void setAlias(String alias) {
+            this.alias = alias;
+        }
+
+        @Override
+        public int getBluetoothClass() {
+            return 0;
+        }
+
+        @Override
+        public boolean connect() {
+            if (!adapter.powered) {
+                throw new TinyBException("GDBus.Error:org.bluez.Error.NotReady: Resource Not Ready");
+            }
+            if (connected) {
+                return true;
+            }
+            sleep(random, gattLatency);
+            boolean fail;
+            synchronized (random) {
+                fail = random.nextDouble() < connectFailureRate;
+            }
+            if (fail) {
+                throw new TinyBException("GDBus.Error:org.bluez.Error.Failed: Input/output error");
+            }
+            setConnected(true);
+            return true;
+        }
+
+        @Override
+        public boolean disconnect() {
+            if (!connected) {
+                throw new TinyBException("GDBus.Error:org.bluez.Error.NotConnected: Not Connected");
+            }
+            setConnected(false);
+            return true;
+        }
+
+        @Override
+        public boolean remove() {
+            setConnected(false);
+            discovered = false;
+            rssi = 0;
+            return true;
+        }
+
+        @Override
+        public boolean getBlocked() {
+            return blocked;
+        }
+
+        @Override
+        public void setBlocked(boolean blocked) {
+            if (this.blocked != blocked) {
+                this.blocked = blocked;
+                SimulatedBackend.notify(blockedNotification, blocked);
+                if (blocked) {
+                    setConnected(false);
+                }
+            }
+        }
+
+        @Override
+        public void enableBlockedNotifications(Notification<Boolean> notification) {
+            blockedNotification = notification;
+        }
+
+        @Override
+        public void disableBlockedNotifications() {
+            blockedNotification = null;
+        }
+
+        @Override
+        public short getRSSI() {
+            return rssi;
+        }
+
+        @Override
+        public void enableRSSINotifications(Notification<Short> notification) {
+            rssiNotification = notification;
+        }
+
+        @Override
+        public void disableRSSINotifications() {
+            rssiNotification = null;
+        }
+
+        @Override
+        public short getTxPower() {
+            return txPower;
+        }
+
+        @Override
+        public boolean getConnected() {
+            return connected;
+        }
+
+        @Override
+        public void enableConnectedNotifications(Notification<Boolean> notification) {
+            connectedNotification = notification;
+        }
+
+        @Override
+        public void disableConnectedNotifications() {
+            connectedNotification = null;
+        }
+
+        @Override
+        public boolean getServicesResolved() {
+            return servicesResolved;
+        }
+
+        @Override
+        public void enableServicesResolvedNotifications(Notification<Boolean> notification) {
+            servicesResolvedNotification = notification;
+        }
+
+        @Override
+        public void disableServicesResolvedNotifications() {
+            servicesResolvedNotification = null;
+        }
+
+        @Override
+        public void disablePairedNotifications() { /* not simulated */ }
+
+        @Override
+        public void disableTrustedNotifications() { /* not simulated */ }
+
+        @Override
+        public List<BackendService> getServices() {
+            return servicesResolved ? new ArrayList<>(services) : Collections.emptyList();
+        }
+
+        @Override
+        public Map<String, byte[]> getServiceData() {
+            return new HashMap<>(serviceData);
+        }
+
+        @Override
+        public void enableServiceDataNotifications(Notification<Map<String, byte[]>> notification) {
+            serviceDataNotification = notification;
+        }
+
+        @Override
+        public void disableServiceDataNotifications() {
+            serviceDataNotification = null;
+        }
+
+        @Override
+        public Map<Short, byte[]> getManufacturerData() {
+            return new HashMap<>(manufacturerData);
+        }
+
+        @Override
+        public void enableManufacturerDataNotifications(Notification<Map<Short, byte[]>> notification) {
+            manufacturerDataNotification = notification;
+        }
+
+        @Override
+        public void disableManufacturerDataNotifications() {
+            manufacturerDataNotification = null;
+        }
+
+        @Override
+        public void close() { /* nothing to release */ }
+
+        private void setConnected(boolean connected) {
+            if (this.connected != connected) {
+                this.connected = connected;
+                SimulatedBackend.notify(connectedNotification, connected);
+                servicesResolved = connected;
+                SimulatedBackend.notify(servicesResolvedNotification, connected);
+                if (!connected) {
+                    services.forEach(service -> service.characteristics.forEach(
+                        characteristic -> characteristic.notifying = false));
+                }
+            }
+        }
+
+        private void advance(long now) {
+            long interval = advertisementInterval;
+            if (interval <= 0 || blocked) {
+                return;
+            }
+            while (nextAdvertisement <= now) {
+                nextAdvertisement += interval;
+                advertise();
+            }
+        }
+
+        private void advertise() {
+            discovered = true;
+            double noise;
+            synchronized (random) {
+                noise = random.nextGaussian() * rssiNoise;
+            }
+            short value = (short) Math.min(-1, Math.round(rssiMean + noise));
+            rssi = value;
+            SimulatedBackend.notify(rssiNotification, value);
+            if (!manufacturerData.isEmpty()) {
+                SimulatedBackend.notify(manufacturerDataNotification, getManufacturerData());
+            }
+            if (!serviceData.isEmpty()) {
+                SimulatedBackend.notify(serviceDataNotification, getServiceData());
+            }
+        }
+
+        private void notifyCharacteristics(long now) {
+            for (SimulatedService service : services) {
+                for (SimulatedCharacteristic characteristic : service.characteristics) {
+                    characteristic.advance(now);
+                }
+            }
+        }
+    }
+
+    /**
+     * A simulated GATT service.
+     */
+    public final class SimulatedService implements BackendService {
+
+        private final SimulatedDevice device;
+        private final String uuid;
+        private final List<SimulatedCharacteristic> characteristics = new CopyOnWriteArrayList<>();
+        private final Map<String, SimulatedCharacteristic> characteristicsByUUID = new ConcurrentHashMap<>();
+
+        private SimulatedService(SimulatedDevice device, String uuid) {
+            this.device = device;
+            this.uuid = uuid;
+        }
+
+        /**
+         * Adds a characteristic. A client characteristic configuration descriptor is added automatically
+         * if the characteristic supports notifications or indications.
+         * @param characteristicUUID characteristic UUID
+         * @param value initial value
+         * @param flags BlueZ characteristic flags, e.g. "read", "write", "notify"
+         * @return a new characteristic
+         */
+        public SimulatedCharacteristic addCharacteristic(String characteristicUUID, byte[] value, String... flags) {
+            SimulatedCharacteristic characteristic =
+                    new SimulatedCharacteristic(this, characteristicUUID.toLowerCase(), value, flags);
+            characteristics.add(characteristic);
+            characteristicsByUUID.put(characteristic.uuid, characteristic);
+            return characteristic;
+        }
+
+        @Override
+        public String getUUID() {
+            return uuid;
+        }
+
+        @Override
+        public BackendDevice getDevice() {
+            return device;
+        }
+
+        @Override
+        public List<BackendCharacteristic> getCharacteristics() {
+            return new ArrayList<>(characteristics);
+        }
+
+        @Override
+        public void close() { /* nothing to release */ }
+    }
+
+    /**
+     * A simulated GATT characteristic.
+     */
+    public final class SimulatedCharacteristic implements BackendCharacteristic {
+
+        private final SimulatedService service;
+        private final String uuid;
+        private final String[] flags;
+        private final List<BackendDescriptor> descriptors;
+        private volatile byte[] value;
+        private volatile boolean notifying;
+        private volatile long notificationInterval;
+        private long nextNotification;
+        private volatile Notification<byte[]> valueNotification;
+
+        private SimulatedCharacteristic(SimulatedService service, String uuid, byte[] value, String... flags) {
+            this.service = service;
+            this.uuid = uuid;
+            this.value = value.clone();
+            this.flags = flags.clone();
+            List<BackendDescriptor> list = new ArrayList<>();
+            for (String flag : flags) {
+                if ("notify".equals(flag) || "indicate".equals(flag)) {
+                    list.add(new SimulatedDescriptor(DescriptorIndex.CONFIGURATION_UUID));
+                    break;
+                }
+            }
+            this.descriptors = Collections.unmodifiableList(list);
+        }
+
+        /**
+         * Sets the value as if it was changed by the device itself. A notification is sent if notifications
+         * are enabled.
+         * @param value a new value
+         */
+        public void setValue(byte[] value) {
+            this.value = value.clone();
+            if (notifying) {
+                SimulatedBackend.notify(valueNotification, value.clone());
+            }
+        }
+
+        /**
+         * Makes the device to send random values with the given interval when notifications are enabled.
+         * @param notificationInterval interval in milliseconds, 0 disables periodic notifications
+         */
+        public void setNotificationInterval(long notificationInterval) {
+            this.notificationInterval = notificationInterval;
+        }
+
+        @Override
+        public String getUUID() {
+            return uuid;
+        }
+
+        @Override
+        public BackendService getService() {
+            return service;
+        }
+
+        @Override
+        public String[] getFlags() {
+            return flags.clone();
+        }
+
+        @Override
+        public boolean getNotifying() {
+            return notifying;
+        }
+
+        @Override
+        public byte[] readValue() {
+            checkConnected();
+            sleep(service.device.random, gattLatency);
+            return value.clone();
+        }
+
+        @Override
+        public boolean writeValue(byte[] value) {
+            checkConnected();
+            sleep(service.device.random, gattLatency);
+            this.value = value.clone();
+            return true;
+        }
+
+        @Override
+        public boolean writeValueWithoutResponse(byte[] value) {
+            // no acknowledgement, hence no round trip latency
+            checkConnected();
+            this.value = value.clone();
+            return true;
+        }
+
+        @Override
+        public void enableValueNotifications(Notification<byte[]> notification) {
+            checkConnected();
+            valueNotification = notification;
+            notifying = true;
+        }
+
+        @Override
+        public void disableValueNotifications() {
+            notifying = false;
+            valueNotification = null;
+        }
+
+        @Override
+        public List<BackendDescriptor> getDescriptors() {
+            return descriptors;
+        }
+
+        @Override
+        public void close() { /* nothing to release */ }
+
+        private void checkConnected() {
+            if (!service.device.connected) {
+                throw new TinyBException("GDBus.Error:org.bluez.Error.Failed: Not connected");
+            }
+        }
+
+        private void advance(long now) {
+            long interval = notificationInterval;
+            if (interval <= 0 || !notifying) {
+                return;
+            }
+            if (nextNotification == 0) {
+                nextNotification = now;
+            }
+            while (nextNotification <= now) {
+                nextNotification += interval;
+                byte[] data = new byte[Math.max(1, value.length)];
+                synchronized (service.device.random) {
+                    service.device.random.nextBytes(data);
+                }
+                value = data;
+                SimulatedBackend.notify(valueNotification, data.clone());
+            }
+        }
+    }
+
+    /**
+     * A simulated GATT descriptor.
+     */
+    public static final class SimulatedDescriptor implements BackendDescriptor {
+
+        private final String uuid;
+        private volatile byte[] value = new byte[] {0, 0};
+
+        private SimulatedDescriptor(String uuid) {
+            this.uuid = uuid;
+        }
+
+        @Override
+        public String getUUID() {
+            return uuid;
+        }
+
+        @Override
+        public byte[] readValue() {
+            return value.clone();
+        }
+
+        @Override
+        public boolean writeValue(byte[] value) {
+            this.value = value.clone();
+            return true;
+        }
+
+        @Override
+        public void close() { /* nothing to release */ }
+    }
+
+}
@@ -0,0 +1,96 @@
+package org.sputnikdev.bluetooth.manager.transport.tinyb;
+
+/*-
+ * #%L
+ * org.sputnikdev:bluetooth-manager-tinyb
+ * %%
+ * Copyright (C) 2017 Sputnik Dev
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.Arrays;
+
+/**
+ * A point-in-time snapshot of a timer recorded by {@link InMemoryMetricsRegistry}.
+ * Percentiles are calculated over a window of the most recent samples.
+ * All durations are in nanoseconds.
+ * @author Vlad Kolotov
+ */
+public final class TimerSnapshot {
+
+    private final long count;
+    private final long totalTime;
+    private final long max;
+    private final long[] samples;
+
+    TimerSnapshot(long count, long totalTime, long max, long[] samples) {
+        this.count = count;
+        this.totalTime = totalTime;
+        this.max = max;
+        this.samples = samples.clone();
+        Arrays.sort(this.samples);
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getTotalTime() {
+        return totalTime;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    public long getMean() {
+        return count > 0 ? totalTime / count : 0;
+    }
+
+    /**
+     * Returns a percentile of the recent samples (nearest-rank method).
+     * @param percentile percentile, from 0 to 1, e.g. 0.99
+     * @return duration in nanoseconds or 0 if there are no samples
+     */
+    public long getPercentile(double percentile) {
+        if (percentile < 0 || percentile > 1) {
+            throw new IllegalArgumentException("Percentile must be between 0 and 1: " + percentile);
+        }
+        if (samples.length == 0) {
+            return 0;
+        }
+        int rank = (int) Math.ceil(percentile * samples.length);
+        return samples[Math.max(0, rank - 1)];
+    }
+
+    public long getMedian() {
+        return getPercentile(0.5);
+    }
+
+    public long get95thPercentile() {
+        return getPercentile(0.95);
+    }
+
+    public long get99thPercentile() {
+        return getPercentile(0.99);
+    }
+
+    @Override
+    public String toString() {
+        return "count: " + count + "; mean: " + getMean() + "; p50: " + getMedian() + "; p95: "
+                + get95thPercentile() + "; p99: " + get99thPercentile() + "; max: " + max;
+    }
+
+}
@@ -26,10 +26,6 @@ import org.sputnikdev.bluetooth.URL;
 import org.sputnikdev.bluetooth.manager.transport.Adapter;
 import org.sputnikdev.bluetooth.manager.transport.Device;
 import org.sputnikdev.bluetooth.manager.transport.Notification;
-import tinyb.BluetoothAdapter;
-import tinyb.BluetoothDevice;
-import tinyb.BluetoothException;
-import tinyb.TransportType;
 
 import java.util.ArrayList;
 import java.util.Collections;
@@ -44,11 +40,17 @@ class TinyBAdapter implements Adapter {
     private static final Logger LOGGER = LoggerFactory.getLogger(TinyBAdapter.class);
 
     private final URL url;
-    private final BluetoothAdapter adapter;
+    private final BackendAdapter adapter;
+    private final TinyBContext context;
 
-    TinyBAdapter(URL url, BluetoothAdapter adapter) {
+    TinyBAdapter(URL url, BackendAdapter adapter) {
+        this(url, adapter, new TinyBContext());
+    }
+
+    TinyBAdapter(URL url, BackendAdapter adapter, TinyBContext context) {
         this.url = url;
         this.adapter = adapter;
+        this.context = context;
     }
 
     @Override
@@ -81,9 +83,7 @@ class TinyBAdapter implements Adapter {
     public void enablePoweredNotifications(Notification<Boolean> notification) {
         LOGGER.debug("Enable powered notifications: {}", url);
         adapter.enablePoweredNotifications(powered -> {
-            TinyBFactory.notifySafely(() -> {
-                notification.notify(powered);
-            }, LOGGER, "Powered notification execution error");
+            context.notifySafely(url, notification, powered, LOGGER, "Powered notification execution error");
         });
     }
 
@@ -108,9 +108,7 @@ class TinyBAdapter implements Adapter {
     public void enableDiscoveringNotifications(Notification<Boolean> notification) {
         LOGGER.debug("Enable discovering notifications: {}", url);
         adapter.enableDiscoveringNotifications(value -> {
-            TinyBFactory.notifySafely(() -> {
-                notification.notify(value);
-            }, LOGGER, "Discovering notification execution error");
+            context.notifySafely(url, notification, value, LOGGER, "Discovering notification execution error");
         });
     }
 
@@ -134,21 +132,21 @@ class TinyBAdapter implements Adapter {
         // so it is a trade off between having all devices discovered and stable connection establishing
         //adapter.setRssiDiscoveryFilter(-100);
         try {
-            adapter.setDiscoveryFilter(Collections.emptyList(), 0, 0, TransportType.AUTO);
+            adapter.resetDiscoveryFilter();
         } catch (Exception ex) {
             // some adapters are reported not to support this, hence ignore and log it
             // GDBus.Error:org.bluez.Error.NotSupported
             LOGGER.warn("Adapter does not support filtering: {}. Reason: {}.", url, ex.getMessage());
         }
-        return adapter.startDiscovery();
+        return Metrics.time("startDiscovery", url, adapter::startDiscovery);
     }
 
     @Override
     public boolean stopDiscovery() {
         LOGGER.debug("Stopping discovery: {}", url);
         try {
-            return adapter.stopDiscovery();
-        } catch (BluetoothException ex) {
+            return Metrics.time("stopDiscovery", url, adapter::stopDiscovery);
+        } catch (RuntimeException ex) {
             if (adapter.getDiscovering()
                     && "GDBus.Error:org.bluez.Error.Failed: No discovery started".equals(ex.getMessage())) {
                 // workaround for a Bluez bug
@@ -160,17 +158,18 @@ class TinyBAdapter implements Adapter {
 
     @Override
     public List<Device> getDevices() {
-        List<BluetoothDevice> devices = adapter.getDevices();
+        List<BackendDevice> devices = adapter.getDevices();
         List<Device> result = new ArrayList<>(devices.size());
-        for (BluetoothDevice device : devices) {
+        for (BackendDevice device : devices) {
             if (device.getRSSI() != 0) {
-                result.add(new TinyBDevice(url.copyWithDevice(device.getAddress()), device));
+                result.add(context.getWrappers().intern(device, nativeDevice ->
+                    new TinyBDevice(url.copyWithDevice(nativeDevice.getAddress()), nativeDevice, context)));
             }
         }
         return Collections.unmodifiableList(result);
     }
 
-    protected static void dispose(BluetoothAdapter adapter) {
+    protected static void dispose(BackendAdapter adapter) {
         LOGGER.debug("Disposing adapter: {}", adapter.getAddress());
         TinyBFactory.runSilently(adapter::stopDiscovery);
         adapter.getDevices().forEach(TinyBDevice::dispose);
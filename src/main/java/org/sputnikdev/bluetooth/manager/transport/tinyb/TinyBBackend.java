@@ -0,0 +1,77 @@
+package org.sputnikdev.bluetooth.manager.transport.tinyb;
+
+/*-
+ * #%L
+ * org.sputnikdev:bluetooth-manager-tinyb
+ * %%
+ * Copyright (C) 2017 Sputnik Dev
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.List;
+
+/**
+ * A service provider interface for the bluetooth stack underneath {@link TinyBFactory}.
+ * The default implementation talks to BlueZ via TinyB native library, other implementations (e.g.
+ * {@link SimulatedBackend}) allow running the whole transport without bluetooth hardware.
+ * Errors are reported by throwing runtime exceptions with BlueZ error messages.
+ * @author Vlad Kolotov
+ */
+public interface TinyBBackend {
+
+    List<BackendAdapter> getAdapters();
+
+    List<BackendDevice> getDevices();
+
+    List<BackendService> getServices();
+
+    /**
+     * Looks up an adapter.
+     * @param address adapter address
+     * @return an adapter or null if not found
+     */
+    BackendAdapter getAdapter(String address);
+
+    /**
+     * Looks up a device.
+     * @param adapter device adapter
+     * @param address device address
+     * @return a device or null if not found
+     */
+    BackendDevice getDevice(BackendAdapter adapter, String address);
+
+    /**
+     * Looks up a GATT service.
+     * @param device service device
+     * @param uuid service UUID
+     * @return a service or null if not found
+     */
+    BackendService getService(BackendDevice device, String uuid);
+
+    /**
+     * Looks up a GATT characteristic.
+     * @param service characteristic service
+     * @param uuid characteristic UUID
+     * @return a characteristic or null if not found
+     */
+    BackendCharacteristic getCharacteristic(BackendService service, String uuid);
+
+    /**
+     * Stops discovery on all adapters.
+     * @return true if discovery has been stopped
+     */
+    boolean stopDiscovery();
+
+}
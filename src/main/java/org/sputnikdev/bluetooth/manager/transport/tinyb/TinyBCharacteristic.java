@@ -27,12 +27,20 @@ import org.sputnikdev.bluetooth.URL;
 import org.sputnikdev.bluetooth.manager.transport.Characteristic;
 import org.sputnikdev.bluetooth.manager.transport.CharacteristicAccessType;
 import org.sputnikdev.bluetooth.manager.transport.Notification;
-import tinyb.BluetoothGattCharacteristic;
 
-import java.util.Objects;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Supplier;
 
 /**
  * A class representing TinyB characteristics.
@@ -40,8 +48,11 @@ import java.util.stream.Stream;
  */
 class TinyBCharacteristic implements Characteristic {
 
-    private static final String CONFIGURATION_UUID = "00002902-0000-1000-8000-00805f9b34fb";
     private static final Logger LOGGER = LoggerFactory.getLogger(TinyBCharacteristic.class);
+    // ATT_MTU (23 by default) minus 3 bytes of the write command header
+    static final int DEFAULT_CHUNK_SIZE = 20;
+    private static final int MAX_BUSY_RETRIES = 10;
+    private static final long MAX_BUSY_BACKOFF = 100;
 
     private enum AccessTypeMapping {
         broadcast(CharacteristicAccessType.BROADCAST),
@@ -56,7 +67,7 @@ class TinyBCharacteristic implements Characteristic {
         writable_auxiliaries(null),
         encrypt_read(null),
         encrypt_write(null),
-        encrypt_authenticated(null),
+        encrypt_authenticated_read(null),
         encrypt_authenticated_write(null),
         secure_read(null),
         secure_write(null);
@@ -72,12 +83,43 @@ class TinyBCharacteristic implements Characteristic {
         }
     }
 
+    // BlueZ flag names (e.g. "write-without-response") to access types, unsupported flags are mapped to null
+    private static final Map<String, CharacteristicAccessType> FLAG_LOOKUP = new HashMap<>();
+
+    static {
+        for (AccessTypeMapping mapping : AccessTypeMapping.values()) {
+            FLAG_LOOKUP.put(mapping.name().replace('_', '-'), mapping.getAccessType());
+        }
+    }
+
     private final URL url;
-    private final BluetoothGattCharacteristic characteristic;
+    private final BackendCharacteristic characteristic;
+    private final TinyBContext context;
+    private final GattDatabase gattDatabase;
+    // the read operation is created once, so that reading does not allocate per call
+    private final Supplier<byte[]> scheduledRead;
+    private final NotificationFanout<byte[]> valueSubscribers;
+    // buffer subscribers are fed by a single subscriber of the value fan-out
+    private final CopyOnWriteArrayList<Notification<ByteBuffer>> bufferSubscribers = new CopyOnWriteArrayList<>();
+    private final Notification<byte[]> bufferDelivery = this::deliverBuffer;
+    // flags do not change for the life of a GATT attribute, the wrapper is recreated when services are re-resolved
+    private volatile Set<CharacteristicAccessType> flags;
+    private volatile DescriptorIndex descriptors;
 
-    TinyBCharacteristic(URL url, BluetoothGattCharacteristic characteristic) {
+    TinyBCharacteristic(URL url, BackendCharacteristic characteristic) {
+        this(url, characteristic, new TinyBContext());
+    }
+
+    TinyBCharacteristic(URL url, BackendCharacteristic characteristic, TinyBContext context) {
         this.url = url;
         this.characteristic = characteristic;
+        this.context = context;
+        this.gattDatabase = context.getGattDatabase();
+        Supplier<byte[]> read = () -> readValue(url, characteristic);
+        URL deviceURL = url.getDeviceURL();
+        // the scheduler is looked up per read as idle schedulers get removed
+        scheduledRead = () -> context.getGattScheduler(deviceURL).execute(deviceURL, read);
+        valueSubscribers = new NotificationFanout<>(context, url, LOGGER, "Value notification execution error");
     }
 
     @Override
@@ -109,12 +151,42 @@ class TinyBCharacteristic implements Characteristic {
         "secure-read" (Server only)
         "secure-write" (Server only)
          */
-        String[] flags = characteristic.getFlags();
-        return Stream.of(flags)
-                .filter(Objects::nonNull)
-                .map(flag -> AccessTypeMapping.valueOf(flag.toLowerCase().replaceAll("-", "_")).getAccessType())
-                .filter(Objects::nonNull)
-                .collect(Collectors.toSet());
+        Set<CharacteristicAccessType> result = flags;
+        if (result == null) {
+            GattDatabase.CharacteristicRecord record = gattDatabase.getCharacteristic(url);
+            String[] nativeFlags = record.getFlags();
+            if (nativeFlags == null) {
+                nativeFlags = characteristic.getFlags();
+                record.setFlags(nativeFlags);
+            }
+            result = Collections.unmodifiableSet(convert(nativeFlags));
+            flags = result;
+        }
+        return result;
+    }
+
+    static EnumSet<CharacteristicAccessType> convert(String[] flags) {
+        EnumSet<CharacteristicAccessType> accessTypes = EnumSet.noneOf(CharacteristicAccessType.class);
+        if (flags == null) {
+            return accessTypes;
+        }
+        for (String flag : flags) {
+            if (flag == null) {
+                continue;
+            }
+            CharacteristicAccessType accessType = FLAG_LOOKUP.get(flag);
+            if (accessType == null && !FLAG_LOOKUP.containsKey(flag)) {
+                String normalized = flag.trim().toLowerCase().replace('_', '-');
+                accessType = FLAG_LOOKUP.get(normalized);
+                if (accessType == null && !FLAG_LOOKUP.containsKey(normalized)) {
+                    LOGGER.debug("Unknown characteristic flag: {}", flag);
+                }
+            }
+            if (accessType != null) {
+                accessTypes.add(accessType);
+            }
+        }
+        return accessTypes;
     }
 
     @Override
@@ -125,6 +197,229 @@ class TinyBCharacteristic implements Characteristic {
     @Override
     public byte[] readValue() {
         LOGGER.debug("Reading value: {}", url);
+        return Metrics.time("read", url, scheduledRead);
+    }
+
+    @Override
+    public void enableValueNotifications(Notification<byte[]> notification) {
+        LOGGER.debug("Enable value notifications: {}", url);
+        // replaces the subscriber of the previous call, subscribers added by other means are kept
+        if (valueSubscribers.replace(notification)) {
+            enableNative();
+        }
+    }
+
+    /**
+     * Adds a subscriber of value notifications, other subscribers keep receiving notifications. Unlike
+     * {@link #enableValueNotifications(Notification)}, which replaces its previous subscriber, each call adds
+     * a subscriber. All subscribers are fed by the same native notification.
+     * @param notification a subscriber to add
+     */
+    void addValueNotification(Notification<byte[]> notification) {
+        LOGGER.debug("Add value notification: {}", url);
+        subscribe(notification);
+    }
+
+    /**
+     * Removes a single subscriber of value notifications, other subscribers keep receiving notifications.
+     * Native notifications get disabled when the last subscriber is removed.
+     * @param notification a subscriber to remove
+     */
+    void removeValueNotification(Notification<byte[]> notification) {
+        LOGGER.debug("Remove value notification: {}", url);
+        if (valueSubscribers.unsubscribe(notification)) {
+            characteristic.disableValueNotifications();
+        }
+    }
+
+    /**
+     * Enables value notifications that deliver values in pooled buffers (see {@link BufferPool}) instead of
+     * new byte arrays. A buffer is valid only within the notification call, it is returned to the pool afterwards,
+     * hence it must not be retained (its content should be copied if needed). A value is copied into a buffer
+     * only when it is delivered, so that queued, coalesced or dropped notifications do not hold pooled buffers.
+     * Buffer subscribers and subscribers added by {@link #enableValueNotifications(Notification)} coexist,
+     * all of them are fed by the same native notification.
+     * @param notification value notification
+     */
+    void enableValueBufferNotifications(Notification<ByteBuffer> notification) {
+        LOGGER.debug("Enable value buffer notifications: {}", url);
+        bufferSubscribers.addIfAbsent(notification);
+        subscribe(bufferDelivery);
+    }
+
+    @Override
+    public void disableValueNotifications() {
+        LOGGER.debug("Disable value notifications: {}", url);
+        bufferSubscribers.clear();
+        valueSubscribers.clear();
+        characteristic.disableValueNotifications();
+    }
+
+    private void subscribe(Notification<byte[]> notification) {
+        if (valueSubscribers.subscribe(notification)) {
+            enableNative();
+        }
+    }
+
+    private void enableNative() {
+        characteristic.enableValueNotifications(bytes -> {
+            if (LOGGER.isTraceEnabled()) {
+                LOGGER.trace("Notification received: {} : {}", url, DataConversionUtils.convert(bytes, 16));
+            }
+            valueSubscribers.notify(bytes);
+        });
+    }
+
+    private void deliverBuffer(byte[] bytes) {
+        // executed by the fan-out in a dispatcher thread, the buffer never leaves this call
+        BufferPool pool = context.getBufferPool();
+        ByteBuffer buffer = pool.acquire(bytes.length);
+        try {
+            buffer.put(bytes);
+            buffer.flip();
+            for (Notification<ByteBuffer> subscriber : bufferSubscribers) {
+                buffer.rewind();
+                try {
+                    subscriber.notify(buffer);
+                } catch (Exception ex) {
+                    LOGGER.error("Value notification execution error", ex);
+                }
+            }
+        } finally {
+            pool.release(buffer);
+        }
+    }
+
+    @Override
+    public boolean writeValue(byte[] bytes) {
+        LOGGER.debug("Writing value: {}", url);
+        return Metrics.time("write", url,
+            () -> context.getGattScheduler(url).execute(url, () -> characteristic.writeValue(bytes)));
+    }
+
+    /**
+     * Reads the value into the given buffer, starting at its current position.
+     * TinyB returns values as byte arrays, so the value is copied once into the buffer.
+     * @param target a buffer to read the value into, heap or direct
+     * @return number of bytes read
+     * @throws java.nio.BufferOverflowException if the value does not fit into the remaining space of the buffer
+     */
+    int readValue(ByteBuffer target) {
+        byte[] value = readValue();
+        target.put(value);
+        return value.length;
+    }
+
+    /**
+     * Writes remaining bytes of the given buffer, the buffer position is advanced to its limit.
+     * If the buffer wraps an array exactly, the array is passed to the stack as is, otherwise
+     * the remaining bytes are copied.
+     * @param source a buffer to write, heap or direct
+     * @return true if the value has been written
+     */
+    boolean writeValue(ByteBuffer source) {
+        byte[] value;
+        if (source.hasArray() && source.arrayOffset() == 0 && source.position() == 0
+                && source.limit() == source.array().length) {
+            value = source.array();
+            source.position(source.limit());
+        } else {
+            value = new byte[source.remaining()];
+            source.get(value);
+        }
+        return writeValue(value);
+    }
+
+    /**
+     * Writes a stream of data by splitting it into chunks. Chunks are written without response
+     * if the characteristic supports it. If the bluetooth stack reports that it is busy (its queue is full),
+     * the chunk is retried with an exponential back-off.
+     * @param payload data to write
+     * @param chunkSize chunk size, should not exceed ATT_MTU - 3
+     * @return write statistics
+     * @throws IOException if the payload cannot be read
+     */
+    WriteStreamResult writeStream(InputStream payload, int chunkSize) throws IOException {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("Chunk size must be positive: " + chunkSize);
+        }
+        boolean withoutResponse = getFlags().contains(CharacteristicAccessType.WRITE_WITHOUT_RESPONSE);
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Streaming value: {} : chunk size: {}; without response: {}",
+                    url, chunkSize, withoutResponse);
+        }
+        GattScheduler scheduler = context.getGattScheduler(url);
+        byte[] buffer = new byte[chunkSize];
+        long started = System.nanoTime();
+        long bytes = 0;
+        int chunks = 0;
+        int retries = 0;
+        int read;
+        while ((read = readChunk(payload, buffer)) > 0) {
+            byte[] chunk = read == buffer.length ? buffer : Arrays.copyOf(buffer, read);
+            retries += writeChunk(scheduler, chunk, withoutResponse);
+            bytes += read;
+            chunks++;
+        }
+        WriteStreamResult result =
+                new WriteStreamResult(bytes, chunks, retries, System.nanoTime() - started, withoutResponse);
+        LOGGER.debug("Value streamed: {} : {}", url, result);
+        return result;
+    }
+
+    WriteStreamResult writeStream(ByteBuffer payload, int chunkSize) {
+        try {
+            return writeStream(new ByteBufferInputStream(payload), chunkSize);
+        } catch (IOException ex) {
+            // never happens, byte buffers do not throw IO exceptions
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private int writeChunk(GattScheduler scheduler, byte[] chunk, boolean withoutResponse) {
+        for (int attempt = 0; ; attempt++) {
+            try {
+                boolean written = Metrics.time("write", url, () -> scheduler.execute(url, () -> withoutResponse
+                        ? characteristic.writeValueWithoutResponse(chunk) : characteristic.writeValue(chunk)));
+                if (!written) {
+                    throw new TinyBException("Could not write chunk: " + url);
+                }
+                return attempt;
+            } catch (RuntimeException ex) {
+                if (attempt >= MAX_BUSY_RETRIES || !isBusy(ex)) {
+                    throw ex;
+                }
+                long backoff = Math.min(MAX_BUSY_BACKOFF, 1L << attempt);
+                if (LOGGER.isTraceEnabled()) {
+                    LOGGER.trace("Bluetooth stack is busy, retrying in {}ms: {}", backoff, url);
+                }
+                try {
+                    Thread.sleep(backoff);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    throw ex;
+                }
+            }
+        }
+    }
+
+    private static boolean isBusy(RuntimeException ex) {
+        return BluezError.classify(ex) == BluezError.IN_PROGRESS;
+    }
+
+    private static int readChunk(InputStream payload, byte[] buffer) throws IOException {
+        int total = 0;
+        while (total < buffer.length) {
+            int read = payload.read(buffer, total, buffer.length - total);
+            if (read < 0) {
+                break;
+            }
+            total += read;
+        }
+        return total;
+    }
+
+    static byte[] readValue(URL url, BackendCharacteristic characteristic) {
         try {
             byte[] value = characteristic.readValue();
             if (LOGGER.isTraceEnabled()) {
@@ -141,33 +436,91 @@ class TinyBCharacteristic implements Characteristic {
     }
 
     @Override
-    public void enableValueNotifications(Notification<byte[]> notification) {
-        LOGGER.debug("Enable value notifications: {}", url);
-        characteristic.enableValueNotifications(bytes -> {
-            TinyBFactory.notifySafely(() -> {
-                if (LOGGER.isTraceEnabled()) {
-                    LOGGER.trace("Notification received: {} : {}", url, DataConversionUtils.convert(bytes, 16));
-                }
-                notification.notify(bytes);
-            }, LOGGER, "Value notification execution error");
-        });
+    public boolean isNotificationConfigurable() {
+        return getDescriptorIndex().hasConfiguration();
     }
 
-    @Override
-    public void disableValueNotifications() {
-        LOGGER.debug("Disable value notifications: {}", url);
-        characteristic.disableValueNotifications();
+    /**
+     * Reads a descriptor value.
+     * @param uuid full descriptor UUID or a 16 bit short form (e.g. "2902")
+     * @return descriptor value
+     */
+    byte[] readDescriptor(String uuid) {
+        LOGGER.debug("Reading descriptor: {} : {}", url, uuid);
+        BackendDescriptor descriptor = requireDescriptor(uuid);
+        return Metrics.time("readDescriptor", url,
+            () -> context.getGattScheduler(url).execute(url, descriptor::readValue));
     }
 
-    @Override
-    public boolean writeValue(byte[] bytes) {
-        LOGGER.debug("Writing value: {}", url);
-        return characteristic.writeValue(bytes);
+    /**
+     * Writes a descriptor value.
+     * @param uuid full descriptor UUID or a 16 bit short form (e.g. "2902")
+     * @param value a value to write
+     * @return true if the value has been written
+     */
+    boolean writeDescriptor(String uuid, byte[] value) {
+        LOGGER.debug("Writing descriptor: {} : {}", url, uuid);
+        BackendDescriptor descriptor = requireDescriptor(uuid);
+        return Metrics.time("writeDescriptor", url,
+            () -> context.getGattScheduler(url).execute(url, () -> descriptor.writeValue(value)));
     }
 
-    @Override
-    public boolean isNotificationConfigurable() {
-        return characteristic.getDescriptors().stream()
-                .filter(descriptor -> CONFIGURATION_UUID.equalsIgnoreCase(descriptor.getUUID())).count() > 0;
+    /**
+     * Returns the descriptor index, it is built on the first access. Descriptors are known once services
+     * are resolved and do not change until the wrapper gets recreated on the next services resolution.
+     * If descriptor UUIDs are known from the GATT cache, descriptor objects are resolved on demand.
+     * An index without descriptors is not cached, so that descriptors are read again on the next access.
+     * @return descriptor index
+     */
+    DescriptorIndex getDescriptorIndex() {
+        DescriptorIndex index = descriptors;
+        if (index == null) {
+            GattDatabase.CharacteristicRecord record = gattDatabase.getCharacteristic(url);
+            List<String> uuids = record.getDescriptors();
+            if (uuids != null) {
+                index = new DescriptorIndex(uuids, characteristic::getDescriptors);
+            } else {
+                index = new DescriptorIndex(characteristic.getDescriptors());
+                if (index.getUUIDs().isEmpty()) {
+                    // descriptors might have not been resolved yet, an empty list is not cached
+                    return index;
+                }
+                record.setDescriptors(new ArrayList<>(index.getUUIDs()));
+            }
+            descriptors = index;
+        }
+        return index;
+    }
+
+    private BackendDescriptor requireDescriptor(String uuid) {
+        BackendDescriptor descriptor = getDescriptorIndex().get(uuid);
+        if (descriptor == null) {
+            throw new TinyBException("Descriptor not found: " + url + " : " + uuid);
+        }
+        return descriptor;
+    }
+
+    private static final class ByteBufferInputStream extends InputStream {
+
+        private final ByteBuffer buffer;
+
+        private ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) {
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int read = Math.min(length, buffer.remaining());
+            buffer.get(bytes, offset, read);
+            return read;
+        }
     }
 }
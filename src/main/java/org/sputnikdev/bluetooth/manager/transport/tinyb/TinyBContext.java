@@ -0,0 +1,420 @@
+package org.sputnikdev.bluetooth.manager.transport.tinyb;
+
+/*-
+ * #%L
+ * org.sputnikdev:bluetooth-manager-tinyb
+ * %%
+ * Copyright (C) 2017 Sputnik Dev
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import org.slf4j.Logger;
+import org.sputnikdev.bluetooth.URL;
+import org.sputnikdev.bluetooth.manager.transport.Notification;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.ToLongFunction;
+
+/**
+ * Caches, indexes and runtime of a single factory: resolved backend objects, transport objects (wrappers),
+ * GATT attributes, discovered and known devices, GATT executor and schedulers, connection pools,
+ * connect retry engines, notification dispatcher and buffer pool together with their settings.
+ * Objects are keyed by URLs, which are unique only within a backend, hence each factory has its own context
+ * and contexts are never shared between factories (configuring a factory does not affect other factories).
+ * @author Vlad Kolotov
+ */
+class TinyBContext {
+
+    static final long DISPATCHER_SHUTDOWN_TIMEOUT = 1000;
+
+    // live contexts, so that metrics of all factories can be aggregated
+    private static final Set<TinyBContext> CONTEXTS = Collections.newSetFromMap(new WeakHashMap<>());
+
+    private final NativeObjectCache objectCache = new NativeObjectCache();
+    private final WrapperRegistry wrappers = new WrapperRegistry();
+    private final GattDatabase gattDatabase = new GattDatabase();
+    private final DiscoveryIndex discoveryIndex = new DiscoveryIndex(this::getNotificationDispatcher);
+    private final DeviceRegistry deviceRegistry = new DeviceRegistry(gattDatabase);
+    // per adapter and per device state, removed when the adapter or device is lost or disposed
+    private final Map<URL, GattScheduler> schedulers = new ConcurrentHashMap<>();
+    private final Map<URL, ConnectionPool> connectionPools = new ConcurrentHashMap<>();
+    private final Map<URL, ConnectRetry> connectRetries = new ConcurrentHashMap<>();
+    // threads of the executor and dispatcher are started on demand
+    private volatile GattExecutor gattExecutor = new GattExecutor();
+    private volatile NotificationDispatcher notificationDispatcher = new NotificationDispatcher();
+    private volatile BufferPool bufferPool = new BufferPool(BufferPool.DEFAULT_MAX_POOLED, false);
+    private volatile NotificationCoalescer.Settings coalescingSettings;
+    private volatile int fanoutCapacity = NotificationFanout.DEFAULT_CAPACITY;
+    private volatile int connectionConcurrency = GattScheduler.DEFAULT_CONNECTION_CONCURRENCY;
+    private volatile int maxConnections = ConnectionPool.DEFAULT_MAX_CONNECTIONS;
+    private volatile long connectionIdleTimeout = ConnectionPool.DEFAULT_IDLE_TIMEOUT;
+    private volatile long connectionQueueTimeout = ConnectionPool.DEFAULT_QUEUE_TIMEOUT;
+    private volatile int connectAttempts = ConnectRetry.DEFAULT_ATTEMPTS;
+    private volatile long connectBackoff = ConnectRetry.DEFAULT_BACKOFF;
+    private volatile long connectTimeout = ConnectRetry.DEFAULT_TIMEOUT;
+
+    TinyBContext() {
+        synchronized (CONTEXTS) {
+            CONTEXTS.add(this);
+        }
+    }
+
+    NativeObjectCache getObjectCache() {
+        return objectCache;
+    }
+
+    WrapperRegistry getWrappers() {
+        return wrappers;
+    }
+
+    GattDatabase getGattDatabase() {
+        return gattDatabase;
+    }
+
+    DiscoveryIndex getDiscoveryIndex() {
+        return discoveryIndex;
+    }
+
+    DeviceRegistry getDeviceRegistry() {
+        return deviceRegistry;
+    }
+
+    GattExecutor getGattExecutor() {
+        return gattExecutor;
+    }
+
+    /**
+     * Replaces the GATT executor, the previous one is shut down.
+     * @param executor a new executor
+     */
+    void setGattExecutor(GattExecutor executor) {
+        GattExecutor old = gattExecutor;
+        gattExecutor = executor;
+        old.shutdown();
+    }
+
+    NotificationDispatcher getNotificationDispatcher() {
+        return notificationDispatcher;
+    }
+
+    /**
+     * Replaces the notification dispatcher, pending notifications of the previous one are delivered
+     * before it is shut down.
+     * @param dispatcher a new dispatcher
+     */
+    void setNotificationDispatcher(NotificationDispatcher dispatcher) {
+        NotificationDispatcher old = notificationDispatcher;
+        notificationDispatcher = dispatcher;
+        old.shutdown(DISPATCHER_SHUTDOWN_TIMEOUT);
+    }
+
+    BufferPool getBufferPool() {
+        return bufferPool;
+    }
+
+    void setBufferPool(BufferPool pool) {
+        bufferPool = pool;
+    }
+
+    /**
+     * Returns notification coalescing settings.
+     * @return coalescing settings or null if coalescing is disabled
+     */
+    NotificationCoalescer.Settings getCoalescingSettings() {
+        return coalescingSettings;
+    }
+
+    void setCoalescingSettings(NotificationCoalescer.Settings settings) {
+        coalescingSettings = settings;
+    }
+
+    int getFanoutCapacity() {
+        return fanoutCapacity;
+    }
+
+    /**
+     * Sets ring capacity of notification fan-outs created afterwards.
+     * @param capacity ring capacity
+     */
+    void setFanoutCapacity(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Ring capacity must be positive: " + capacity);
+        }
+        fanoutCapacity = capacity;
+    }
+
+    /**
+     * Returns a GATT scheduler of the adapter that the given object belongs to.
+     * @param url a bluetooth object URL
+     * @return adapter scheduler
+     */
+    GattScheduler getGattScheduler(URL url) {
+        return schedulers.computeIfAbsent(url.getAdapterURL(), adapterURL ->
+            new GattScheduler(adapterURL, connectionConcurrency, () -> connectionPools.get(adapterURL)));
+    }
+
+    /**
+     * Returns a GATT scheduler of the given adapter if it has been created.
+     * @param adapterURL adapter URL
+     * @return adapter scheduler or null
+     */
+    GattScheduler findGattScheduler(URL adapterURL) {
+        return schedulers.get(adapterURL);
+    }
+
+    /**
+     * Removes a GATT scheduler of the given adapter if it is idle, i.e. there are no operations executing or waiting.
+     * A busy scheduler is kept, so that operations of the adapter are never scheduled by two schedulers.
+     * @param url adapter URL (or URL of any object of the adapter)
+     */
+    void removeGattScheduler(URL url) {
+        schedulers.computeIfPresent(url.getAdapterURL(),
+            (adapterURL, scheduler) -> scheduler.isIdle() ? null : scheduler);
+    }
+
+    int getConnectionConcurrency() {
+        return connectionConcurrency;
+    }
+
+    /**
+     * Sets maximum number of GATT operations that are executed at a time per connection.
+     * @param concurrency maximum number of concurrent operations per connection
+     */
+    void setConnectionConcurrency(int concurrency) {
+        if (concurrency < 1) {
+            throw new IllegalArgumentException("Connection concurrency must be positive: " + concurrency);
+        }
+        connectionConcurrency = concurrency;
+        schedulers.values().forEach(scheduler -> scheduler.setConnectionConcurrency(concurrency));
+    }
+
+    /**
+     * Returns a connection pool of the adapter that the given object belongs to.
+     * @param url a bluetooth object URL
+     * @return adapter connection pool
+     */
+    ConnectionPool getConnectionPool(URL url) {
+        return connectionPools.computeIfAbsent(url.getAdapterURL(), adapterURL -> {
+            ConnectionPool pool = new ConnectionPool(adapterURL);
+            pool.configure(maxConnections, connectionIdleTimeout, connectionQueueTimeout);
+            return pool;
+        });
+    }
+
+    /**
+     * Returns a connection pool of the given adapter if it has been created.
+     * @param adapterURL adapter URL
+     * @return adapter connection pool or null
+     */
+    ConnectionPool findConnectionPool(URL adapterURL) {
+        return connectionPools.get(adapterURL);
+    }
+
+    /**
+     * Configures connection pools of all adapters.
+     * @param max maximum number of connections per adapter, 0 means no limit
+     * @param idle time in milliseconds without GATT operations after which a connection can be evicted
+     * @param timeout maximum time in milliseconds a connect request waits for a free slot
+     */
+    void configureConnectionPools(int max, long idle, long timeout) {
+        ConnectionPool.validate(max, idle, timeout);
+        maxConnections = max;
+        connectionIdleTimeout = idle;
+        connectionQueueTimeout = timeout;
+        connectionPools.values().forEach(pool -> pool.configure(max, idle, timeout));
+    }
+
+    /**
+     * Returns a connect retry engine of the device that the given object belongs to.
+     * @param url a bluetooth object URL
+     * @return device retry engine
+     */
+    ConnectRetry getConnectRetry(URL url) {
+        return connectRetries.computeIfAbsent(url.getDeviceURL(), deviceURL -> {
+            ConnectRetry retry = new ConnectRetry(deviceURL);
+            retry.configure(connectAttempts, connectBackoff, connectTimeout);
+            return retry;
+        });
+    }
+
+    /**
+     * Returns a connect retry engine of the given device if it has been created.
+     * @param url device URL
+     * @return device retry engine or null
+     */
+    ConnectRetry findConnectRetry(URL url) {
+        return connectRetries.get(url.getDeviceURL());
+    }
+
+    /**
+     * Configures connect retry engines of all devices.
+     * @param maxAttempts maximum number of connect attempts per connect request
+     * @param initialBackoff back-off delay in milliseconds after the first failure, doubled after each failure
+     * @param totalTimeout maximum time in milliseconds of a connect request including retries, 0 means no limit
+     */
+    void configureConnectRetry(int maxAttempts, long initialBackoff, long totalTimeout) {
+        ConnectRetry.validate(maxAttempts, initialBackoff, totalTimeout);
+        connectAttempts = maxAttempts;
+        connectBackoff = initialBackoff;
+        connectTimeout = totalTimeout;
+        connectRetries.values().forEach(retry -> retry.configure(maxAttempts, initialBackoff, totalTimeout));
+    }
+
+    /**
+     * Delivers a notification in a dispatcher thread. Notifications for the same bluetooth object (URL)
+     * are delivered in the order of submission.
+     * @param url a bluetooth object that has originated the notification
+     * @param notification a notification to execute
+     * @param value a value to deliver
+     * @param logger a logger to report errors to
+     * @param errorMessage an error message to report if the notification fails
+     * @param <T> type of the value
+     */
+    <T> void notifySafely(URL url, Notification<T> notification, T value, Logger logger, String errorMessage) {
+        notificationDispatcher.dispatch(url, notification, () -> {
+            try {
+                notification.notify(value);
+                Metrics.notification(url, true);
+            } catch (Exception ex) {
+                Metrics.notification(url, false);
+                logger.error(errorMessage, ex);
+            }
+        });
+    }
+
+    /**
+     * Removes adapters that are not present anymore, and all their descendants, from the native object cache
+     * and wrapper registry. Their connection state is removed too, see {@link #removeConnectionState(URL)}.
+     * @param adapters URLs of present adapters
+     */
+    void retainAdapters(Set<URL> adapters) {
+        objectCache.getAdapterURLs().stream().filter(url -> !adapters.contains(url)).forEach(url -> {
+            invalidate(url);
+            removeConnectionState(url);
+        });
+    }
+
+    /**
+     * Removes connection state of the given adapter or device: connect retry engines of the device
+     * (or of all devices of the adapter), the connection pool slot of the device (or the connection pool
+     * and the idle GATT scheduler of the adapter). This must be called when the adapter or device is lost
+     * or disposed, so that the state does not pile up for devices that are not around anymore.
+     * @param url adapter or device URL
+     */
+    void removeConnectionState(URL url) {
+        connectRetries.keySet().removeIf(deviceURL -> NativeObjectCache.isDescendant(url, deviceURL));
+        if (url.isAdapter()) {
+            connectionPools.remove(url);
+            removeGattScheduler(url);
+        } else {
+            ConnectionPool pool = connectionPools.get(url.getAdapterURL());
+            if (pool != null) {
+                pool.release(url);
+            }
+        }
+    }
+
+    /**
+     * Removes the given object and all its descendants from the native object cache and wrapper registry.
+     * @param url object URL
+     */
+    void invalidate(URL url) {
+        objectCache.invalidate(url);
+        wrappers.invalidate(url);
+    }
+
+    /**
+     * Removes the backend object of the given adapter or device and all its descendants from the native object
+     * cache, so that the object is resolved again on the next lookup. Wrappers are kept as they are bound to
+     * backend objects, a re-resolved object that has not been recreated by the stack gets the same wrapper.
+     * This must be called when a handle can be stale, e.g. the device has been disconnected or a call has failed.
+     * @param url object URL
+     */
+    void invalidateNative(URL url) {
+        objectCache.invalidate(url);
+    }
+
+    /**
+     * Removes services and characteristics of the given device from the native object cache and wrapper registry.
+     * This must be called when the device gets disconnected or its services become unresolved.
+     * @param url device URL
+     */
+    void invalidateServices(URL url) {
+        objectCache.invalidateServices(url);
+        wrappers.invalidateServices(url);
+        // the device has been disconnected, a good moment to persist newly learned GATT attributes
+        gattDatabase.saveIfDirty();
+    }
+
+    /**
+     * Drops cached GATT attributes of a device together with its service objects and wrappers,
+     * so that the attributes are read from the device again.
+     * @param url device URL
+     */
+    void invalidateGattAttributes(URL url) {
+        gattDatabase.remove(url);
+        invalidateServices(url);
+    }
+
+    /**
+     * Updates RSSI of a discovered device when an RSSI notification is received, so that the discovered devices
+     * index does not need to read it.
+     * @param url device URL
+     * @param rssi RSSI value
+     */
+    void updateDiscoveredRSSI(URL url, short rssi) {
+        discoveryIndex.updateRSSI(url, rssi);
+    }
+
+    /**
+     * Drops all cached objects and connection state, persists GATT attributes and closes the device registry.
+     */
+    void clear() {
+        objectCache.clear();
+        wrappers.clear();
+        discoveryIndex.clear();
+        connectRetries.clear();
+        connectionPools.clear();
+        schedulers.keySet().forEach(this::removeGattScheduler);
+        gattDatabase.saveIfDirty();
+        deviceRegistry.close();
+    }
+
+    /**
+     * Sums up a metric of all live contexts.
+     * @param metric a metric of a context
+     * @return sum of the metric values
+     */
+    static long sum(ToLongFunction<TinyBContext> metric) {
+        return getContexts().stream().mapToLong(metric).sum();
+    }
+
+    /**
+     * Returns all live contexts.
+     * @return live contexts
+     */
+    static List<TinyBContext> getContexts() {
+        synchronized (CONTEXTS) {
+            return new ArrayList<>(CONTEXTS);
+        }
+    }
+
+}
@@ -29,14 +29,21 @@ import org.sputnikdev.bluetooth.manager.BluetoothFatalException;
 import org.sputnikdev.bluetooth.manager.transport.Device;
 import org.sputnikdev.bluetooth.manager.transport.Notification;
 import org.sputnikdev.bluetooth.manager.transport.Service;
-import tinyb.BluetoothDevice;
-import tinyb.BluetoothException;
-import tinyb.BluetoothGattService;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiPredicate;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 /**
@@ -48,11 +55,48 @@ class TinyBDevice implements Device {
     private static final Logger LOGGER = LoggerFactory.getLogger(TinyBDevice.class);
 
     private final URL url;
-    private final BluetoothDevice device;
-
-    TinyBDevice(URL url, BluetoothDevice device) {
+    private final BackendDevice device;
+    private final TinyBContext context;
+    private final NotificationFanout<Boolean> blockedSubscribers;
+    private final NotificationFanout<Short> rssiSubscribers;
+    private final NotificationFanout<Boolean> connectedSubscribers;
+    private final NotificationFanout<Boolean> servicesResolvedSubscribers;
+    private final NotificationFanout<Map<String, byte[]>> serviceDataSubscribers;
+    private final NotificationFanout<Map<Short, byte[]>> manufacturerDataSubscribers;
+    private final AdvertisementParser advertisement;
+    private final NotificationFanout<Object> advertisementSubscribers;
+    // subscribers of service and manufacturer data that decode advertisements for advertisement subscribers
+    private final Notification<Map<String, byte[]>> serviceDataParser;
+    private final Notification<Map<Short, byte[]>> manufacturerDataParser;
+    // the native connected callback is shared by connected subscribers and the connection pool
+    private final Notification<Boolean> connectedCallback = this::connectionChanged;
+    private final AtomicBoolean connectedCallbackEnabled = new AtomicBoolean();
+    // whether services have been resolved since the device was connected
+    private volatile boolean servicesResolved;
+
+    TinyBDevice(URL url, BackendDevice device) {
+        this(url, device, new TinyBContext());
+    }
+
+    TinyBDevice(URL url, BackendDevice device, TinyBContext context) {
         this.url = url;
         this.device = device;
+        this.context = context;
+        blockedSubscribers = new NotificationFanout<>(context, url, LOGGER, "Blocked notification execution error");
+        rssiSubscribers = new NotificationFanout<>(context, url, LOGGER, "RSSI notification execution error");
+        connectedSubscribers = new NotificationFanout<>(context, url, LOGGER, "Connected notification execution error");
+        servicesResolvedSubscribers = new NotificationFanout<>(context, url, LOGGER,
+                "Services resolved notification execution error");
+        serviceDataSubscribers = new NotificationFanout<>(context, url, LOGGER,
+                "Service data notification execution error");
+        manufacturerDataSubscribers = new NotificationFanout<>(context, url, LOGGER,
+                "Manufacturer data notification execution error");
+        advertisement = new AdvertisementParser(url);
+        advertisementSubscribers = new NotificationFanout<>(context, url, LOGGER,
+                "Advertisement notification execution error");
+        Consumer<Object> changed = advertisementSubscribers::deliver;
+        serviceDataParser = value -> advertisement.parseServiceData(value, changed);
+        manufacturerDataParser = value -> advertisement.parseManufacturerData(value, changed);
     }
 
     @Override
@@ -69,16 +113,39 @@ class TinyBDevice implements Device {
     @Override
     public boolean disconnect() {
         LOGGER.debug("Disconnecting: {}", url);
-        return device.disconnect();
+        servicesResolved = false;
+        context.invalidateServices(url);
+        context.invalidateNative(url);
+        try {
+            return Metrics.time("disconnect", url,
+                () -> context.getGattScheduler(url).execute(url, device::disconnect));
+        } finally {
+            context.getConnectionPool(url).release(url);
+        }
     }
 
     @Override
     public boolean connect() {
-        LOGGER.debug("Connecting: {}", url);
+        return connect(0);
+    }
+
+    /**
+     * Connects the device by taking a slot in the adapter connection pool.
+     * @param priority connect request priority, requests with higher priority get a free slot first
+     * @return true if connected
+     */
+    boolean connect(int priority) {
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Connecting: {} : priority {}", url, priority);
+        }
+        servicesResolved = false;
         try {
-            return device.connect();
-        } catch (BluetoothException ex) {
-            if ("GDBus.Error:org.bluez.Error.Failed: Input/output error".equals(ex.getMessage())) {
+            return Metrics.time("connect", url, () -> context.getConnectRetry(url).connect(
+                () -> context.getConnectionPool(url).connect(url, priority, this::connectAdmitted, this::disconnect)));
+        } catch (RuntimeException ex) {
+            // the handle might be stale (e.g. the device has been removed by the stack)
+            context.invalidateNative(url);
+            if (BluezError.classify(ex) == BluezError.IO_ERROR) {
                 throw new BluetoothFatalException("Could not connect", ex);
             }
             throw ex;
@@ -119,16 +186,15 @@ class TinyBDevice implements Device {
     @Override
     public void enableBlockedNotifications(Notification<Boolean> notification) {
         LOGGER.debug("Enable blocked notifications: {}", url);
-        device.enableBlockedNotifications(value -> {
-            TinyBFactory.notifySafely(() -> {
-                notification.notify(value);
-            }, LOGGER, "Blocked notification execution error");
-        });
+        if (blockedSubscribers.replace(notification)) {
+            device.enableBlockedNotifications(blockedSubscribers);
+        }
     }
 
     @Override
     public void disableBlockedNotifications() {
         LOGGER.debug("Disable blocked notifications: {}", url);
+        blockedSubscribers.clear();
         device.disableBlockedNotifications();
     }
 
@@ -153,17 +219,21 @@ class TinyBDevice implements Device {
     @Override
     public void enableRSSINotifications(Notification<Short> notification) {
         LOGGER.debug("Enable RSSI notifications: {}", url);
-        device.enableRSSINotifications(value -> {
-            LOGGER.trace("RSSI {} : {}", url, value);
-            TinyBFactory.notifySafely(() -> {
-                notification.notify(value);
-            }, LOGGER, "RSSI notification execution error");
-        });
+        if (rssiSubscribers.replace(notification)) {
+            Notification<Short> delegate = coalesce(rssiSubscribers, Objects::equals,
+                    "RSSI notification execution error");
+            device.enableRSSINotifications(value -> {
+                LOGGER.trace("RSSI {} : {}", url, value);
+                context.updateDiscoveredRSSI(url, value);
+                delegate.notify(value);
+            });
+        }
     }
 
     @Override
     public void disableRSSINotifications() {
         LOGGER.debug("Disable RSSI notifications: {}", url);
+        rssiSubscribers.clear();
         device.disableRSSINotifications();
     }
 
@@ -176,17 +246,20 @@ class TinyBDevice implements Device {
     @Override
     public void enableConnectedNotifications(Notification<Boolean> notification) {
         LOGGER.debug("Enable connected notifications: {}", url);
-        device.enableConnectedNotifications(value -> {
-            TinyBFactory.notifySafely(() -> {
-                notification.notify(value);
-            }, LOGGER, "Connected notification execution error");
-        });
+        connectedSubscribers.replace(notification);
+        enableConnectedCallback();
     }
 
     @Override
     public void disableConnectedNotifications() {
         LOGGER.debug("Disable connected notifications: {}", url);
-        device.disableConnectedNotifications();
+        connectedSubscribers.clear();
+        ConnectionPool pool = context.findConnectionPool(url.getAdapterURL());
+        // the connection pool keeps tracking the connection, so that its slot is released when the link is lost
+        if (pool == null || !pool.isAdmitted(url)) {
+            connectedCallbackEnabled.set(false);
+            device.disableConnectedNotifications();
+        }
     }
 
     @Override
@@ -198,16 +271,27 @@ class TinyBDevice implements Device {
     @Override
     public void enableServicesResolvedNotifications(Notification<Boolean> notification) {
         LOGGER.debug("Enable service resolved notifications: {}", url);
-        device.enableServicesResolvedNotifications(value -> {
-            TinyBFactory.notifySafely(() -> {
-                notification.notify(value);
-            }, LOGGER, "Services resolved notification execution error");
-        });
+        if (servicesResolvedSubscribers.replace(notification)) {
+            device.enableServicesResolvedNotifications(value -> {
+                if (!value) {
+                    context.invalidateServices(url);
+                } else if (servicesResolved) {
+                    // services are resolved again without reconnecting (e.g. the device has indicated
+                    // Service Changed), cached GATT attributes can be stale
+                    LOGGER.debug("Services resolved again, invalidating GATT cache: {}", url);
+                    context.invalidateGattAttributes(url);
+                } else {
+                    servicesResolved = true;
+                }
+                servicesResolvedSubscribers.notify(value);
+            });
+        }
     }
 
     @Override
     public void disableServicesResolvedNotifications() {
         LOGGER.debug("Disable service resolved notifications: {}", url);
+        servicesResolvedSubscribers.clear();
         device.disableServicesResolvedNotifications();
     }
 
@@ -217,11 +301,15 @@ class TinyBDevice implements Device {
         if (!device.getConnected()) {
             return Collections.emptyList();
         }
-        List<BluetoothGattService> services = device.getServices();
+        List<BackendService> services = Metrics.time("getServices", url, device::getServices);
         List<Service> result = new ArrayList<>(services.size());
-        for (BluetoothGattService nativeService : services) {
-            result.add(new TinyBService(url.copyWithService(nativeService.getUUID()), nativeService));
+        for (BackendService nativeService : services) {
+            result.add(context.getWrappers().intern(nativeService,
+                service -> new TinyBService(url.copyWithService(service.getUUID()), service, context)));
         }
+        // validating cached attributes against the resolved services
+        context.getGattDatabase().validate(url, result.stream().map(service -> service.getURL().getServiceUUID())
+                .collect(Collectors.toList()));
         return Collections.unmodifiableList(result);
     }
 
@@ -246,46 +334,241 @@ class TinyBDevice implements Device {
     @Override
     public void enableServiceDataNotifications(Notification<Map<String, byte[]>> notification) {
         LOGGER.debug("Enable service data notifications: {}", url);
-        device.enableServiceDataNotifications(value -> {
-            TinyBFactory.notifySafely(() -> {
-                if (LOGGER.isTraceEnabled()) {
-                    LOGGER.trace("Service data changed: {} : {}", url, value.entrySet().stream()
-                            .collect(Collectors.toMap(Map.Entry::getKey,
-                                    entry -> DataConversionUtils.convert(entry.getValue(), 16))));
-                }
-                notification.notify(value);
-            }, LOGGER, "Service data notification execution error");
-        });
+        if (serviceDataSubscribers.replace(notification)) {
+            enableNativeServiceData();
+        }
     }
 
     @Override
     public void disableServiceDataNotifications() {
         LOGGER.debug("Disable service data notifications: {}", url);
-        device.disableServiceDataNotifications();
+        // the parser keeps decoding advertisements while there are advertisement subscribers
+        Notification<Map<String, byte[]>> retained = hasAdvertisementSubscribers() ? serviceDataParser : null;
+        if (serviceDataSubscribers.clearExcept(retained)) {
+            device.disableServiceDataNotifications();
+        }
     }
 
     @Override
     public void enableManufacturerDataNotifications(Notification<Map<Short, byte[]>> notification) {
         LOGGER.debug("Enable manufacturer data notifications: {}", url);
-        device.enableManufacturerDataNotifications(value -> {
-            TinyBFactory.notifySafely(() -> {
-                if (LOGGER.isTraceEnabled()) {
-                    LOGGER.trace("Manufacturer data changed: {} : {}", url, value.entrySet().stream()
-                            .collect(Collectors.toMap(Map.Entry::getKey,
-                                    entry -> DataConversionUtils.convert(entry.getValue(), 16))));
-                }
-                notification.notify(value);
-            }, LOGGER, "Manufacturer data notification execution error");
-        });
+        if (manufacturerDataSubscribers.replace(notification)) {
+            enableNativeManufacturerData();
+        }
     }
 
     @Override
     public void disableManufacturerDataNotifications() {
         LOGGER.debug("Disable manufacturer data notifications: {}", url);
-        device.disableManufacturerDataNotifications();
+        Notification<Map<Short, byte[]>> retained = hasAdvertisementSubscribers() ? manufacturerDataParser : null;
+        if (manufacturerDataSubscribers.clearExcept(retained)) {
+            device.disableManufacturerDataNotifications();
+        }
+    }
+
+    /**
+     * Returns decoded service data, see {@link AdvertisementDecoders}. Advertisements are decoded only when
+     * they change, the same object is returned until then.
+     * @param serviceUUID full service UUID or a 16 bit short form
+     * @return a decoded object or null if there is no data or no decoder for the service
+     */
+    Object getDecodedServiceData(String serviceUUID) {
+        LOGGER.debug("Getting decoded service data: {} : {}", url, serviceUUID);
+        if (!hasAdvertisementSubscribers()) {
+            // otherwise advertisements are being decoded by notifications
+            advertisement.parseServiceData(device.getServiceData(), null);
+        }
+        return advertisement.getServiceData(serviceUUID);
+    }
+
+    /**
+     * Returns decoded manufacturer data, see {@link AdvertisementDecoders}.
+     * @param manufacturerId manufacturer ID
+     * @return a decoded object or null if there is no data or no decoder for the manufacturer
+     */
+    Object getDecodedManufacturerData(short manufacturerId) {
+        LOGGER.debug("Getting decoded manufacturer data: {} : {}", url, manufacturerId);
+        if (!hasAdvertisementSubscribers()) {
+            advertisement.parseManufacturerData(device.getManufacturerData(), null);
+        }
+        return advertisement.getManufacturerData(manufacturerId);
+    }
+
+    /**
+     * Enables notifications of decoded advertisements. Service and manufacturer data notifications are decoded
+     * once (in a notification thread) for all subscribers, a subscriber receives a decoded object
+     * only when its payload changes.
+     * @param notification a subscriber
+     */
+    void enableAdvertisementNotifications(Notification<Object> notification) {
+        LOGGER.debug("Enable advertisement notifications: {}", url);
+        if (advertisementSubscribers.subscribe(notification)) {
+            // so that the current advertisements are reported to the first subscriber
+            advertisement.reset();
+            // the parsers coexist with service and manufacturer data subscribers
+            if (serviceDataSubscribers.subscribe(serviceDataParser)) {
+                enableNativeServiceData();
+            }
+            if (manufacturerDataSubscribers.subscribe(manufacturerDataParser)) {
+                enableNativeManufacturerData();
+            }
+        }
+    }
+
+    private boolean hasAdvertisementSubscribers() {
+        return advertisementSubscribers.getSubscriberCount() > 0;
+    }
+
+    void disableAdvertisementNotifications() {
+        LOGGER.debug("Disable advertisement notifications: {}", url);
+        advertisementSubscribers.clear();
+        if (serviceDataSubscribers.unsubscribe(serviceDataParser)) {
+            device.disableServiceDataNotifications();
+        }
+        if (manufacturerDataSubscribers.unsubscribe(manufacturerDataParser)) {
+            device.disableManufacturerDataNotifications();
+        }
+    }
+
+    /**
+     * Submits reads of the given characteristics of this device. Reads are executed by as many GATT tasks
+     * as many operations are allowed per connection by {@link GattScheduler}, each task reads the next pending
+     * characteristic until there are none left. This way the reads are pipelined over the connection without
+     * parking GATT threads on the connection, so that other devices and operations are not starved.
+     * Each task times out after the operation timeout per read it may execute.
+     * Latency of a read is measured from the moment the read operation starts executing,
+     * i.e. time spent waiting for a GATT thread or a connection slot is not included.
+     * @param characteristics characteristics to read by URL, a null value means that the characteristic is not found
+     * @return futures of read results in the same order as the given characteristics
+     */
+    Map<URL, CompletableFuture<CharacteristicReadResult>> submitReads(
+            Map<URL, BackendCharacteristic> characteristics) {
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Reading {} characteristics: {}", characteristics.size(), url);
+        }
+        Map<URL, CompletableFuture<CharacteristicReadResult>> futures = new LinkedHashMap<>();
+        Queue<BatchRead> reads = new ConcurrentLinkedQueue<>();
+        characteristics.forEach((characteristicURL, characteristic) -> {
+            if (characteristic == null) {
+                futures.put(characteristicURL, CompletableFuture.completedFuture(CharacteristicReadResult.failure(
+                        characteristicURL, new TinyBException("Characteristic not found: " + characteristicURL), 0)));
+            } else {
+                BatchRead read = new BatchRead(characteristicURL, characteristic);
+                reads.add(read);
+                futures.put(characteristicURL, read.future);
+            }
+        });
+        if (reads.isEmpty()) {
+            return futures;
+        }
+        int tasks = Math.min(reads.size(), context.getConnectionConcurrency());
+        GattExecutor executor = context.getGattExecutor();
+        long timeout = executor.getOperationTimeout() * ((reads.size() + tasks - 1) / tasks);
+        for (int i = 0; i < tasks; i++) {
+            AtomicReference<BatchRead> current = new AtomicReference<>();
+            executor.submit(() -> read(reads, current), timeout).whenComplete((result, error) -> {
+                if (error != null) {
+                    // the task has timed out or has been rejected, pending reads are not executed
+                    BatchRead read = current.get();
+                    do {
+                        if (read != null) {
+                            read.fail(error);
+                        }
+                    } while ((read = reads.poll()) != null);
+                }
+            });
+        }
+        return futures;
+    }
+
+    private Void read(Queue<BatchRead> reads, AtomicReference<BatchRead> current) {
+        GattScheduler scheduler = context.getGattScheduler(url);
+        BatchRead read;
+        while (!Thread.currentThread().isInterrupted() && (read = reads.poll()) != null) {
+            current.set(read);
+            read.execute(scheduler);
+        }
+        current.set(null);
+        return null;
+    }
+
+    /**
+     * Wraps a fan-out of a high frequency notification so that values are either published to its ring straight away
+     * or coalesced if notification coalescing is enabled. Coalesced values are already delivered
+     * in a dispatcher thread, hence they are handed to all subscribers directly.
+     */
+    private void enableNativeServiceData() {
+        Notification<Map<String, byte[]>> delegate = coalesce(serviceDataSubscribers,
+                NotificationCoalescer::contentEquals, "Service data notification execution error");
+        device.enableServiceDataNotifications(value -> {
+            if (LOGGER.isTraceEnabled()) {
+                LOGGER.trace("Service data changed: {} : {}", url, toHexString(value));
+            }
+            delegate.notify(value);
+        });
+    }
+
+    private void enableNativeManufacturerData() {
+        Notification<Map<Short, byte[]>> delegate = coalesce(manufacturerDataSubscribers,
+                NotificationCoalescer::contentEquals, "Manufacturer data notification execution error");
+        device.enableManufacturerDataNotifications(value -> {
+            if (LOGGER.isTraceEnabled()) {
+                LOGGER.trace("Manufacturer data changed: {} : {}", url, toHexString(value));
+            }
+            delegate.notify(value);
+        });
+    }
+
+    private boolean connectAdmitted() {
+        // the device has got a slot in the connection pool, the slot must be released when the link is lost
+        // even if nobody has subscribed to connected notifications
+        enableConnectedCallback();
+        return context.getGattScheduler(url).connect(url, device::connect);
+    }
+
+    private void enableConnectedCallback() {
+        if (connectedCallbackEnabled.compareAndSet(false, true)) {
+            device.enableConnectedNotifications(connectedCallback);
+        }
+    }
+
+    private void connectionChanged(Boolean connected) {
+        if (!connected) {
+            servicesResolved = false;
+            context.invalidateServices(url);
+            context.invalidateNative(url);
+            context.getConnectionPool(url).release(url);
+        }
+        connectedSubscribers.notify(connected);
     }
 
-    protected static void dispose(BluetoothDevice device) {
+    private <T> Notification<T> coalesce(NotificationFanout<T> subscribers, BiPredicate<T, T> equality,
+                                         String errorMessage) {
+        NotificationCoalescer.Settings settings = context.getCoalescingSettings();
+        if (settings == null) {
+            return subscribers;
+        }
+        return new NotificationCoalescer<>(context::getNotificationDispatcher, url, subscribers::deliver,
+                settings, equality, LOGGER, errorMessage);
+    }
+
+    private static <K> String toHexString(Map<K, byte[]> data) {
+        StringBuilder builder = new StringBuilder("{");
+        for (Map.Entry<K, byte[]> entry : data.entrySet()) {
+            if (builder.length() > 1) {
+                builder.append(", ");
+            }
+            builder.append(entry.getKey()).append('=').append(DataConversionUtils.convert(entry.getValue(), 16));
+        }
+        return builder.append('}').toString();
+    }
+
+    private static Exception unwrap(Throwable error) {
+        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        return cause instanceof Exception ? (Exception) cause : new TinyBException(cause.getMessage(), cause);
+    }
+
+    protected static void dispose(BackendDevice device) {
         LOGGER.debug("Disposing device: {}", device.getAddress());
         TinyBFactory.runSilently(device::disconnect);
         TinyBFactory.runSilently(device::disableBlockedNotifications);
@@ -299,4 +582,42 @@ class TinyBDevice implements Device {
         TinyBFactory.runSilently(device::remove);
     }
 
+    /**
+     * A read of a characteristic in a batch.
+     */
+    private static final class BatchRead {
+
+        private final URL url;
+        private final BackendCharacteristic characteristic;
+        private final CompletableFuture<CharacteristicReadResult> future = new CompletableFuture<>();
+        private volatile long started;
+
+        private BatchRead(URL url, BackendCharacteristic characteristic) {
+            this.url = url;
+            this.characteristic = characteristic;
+        }
+
+        private void execute(GattScheduler scheduler) {
+            try {
+                byte[] value = scheduler.execute(url, () -> {
+                    started = System.nanoTime();
+                    return TinyBCharacteristic.readValue(url, characteristic);
+                });
+                future.complete(CharacteristicReadResult.success(url, value, getLatency()));
+            } catch (Exception ex) {
+                fail(ex);
+            }
+        }
+
+        private void fail(Throwable error) {
+            future.complete(CharacteristicReadResult.failure(url, unwrap(error), getLatency()));
+        }
+
+        private long getLatency() {
+            long start = started;
+            // a read that has not started (e.g. timed out while waiting) has no latency
+            return start != 0 ? System.nanoTime() - start : 0;
+        }
+    }
+
 }
@@ -29,50 +29,222 @@ import org.sputnikdev.bluetooth.manager.transport.Adapter;
 import org.sputnikdev.bluetooth.manager.transport.BluetoothObjectFactory;
 import org.sputnikdev.bluetooth.manager.transport.Characteristic;
 import org.sputnikdev.bluetooth.manager.transport.Device;
-import tinyb.BluetoothAdapter;
-import tinyb.BluetoothDevice;
-import tinyb.BluetoothGattCharacteristic;
-import tinyb.BluetoothGattService;
-import tinyb.BluetoothManager;
-import tinyb.BluetoothType;
+import org.sputnikdev.bluetooth.manager.transport.Notification;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.ExecutorService;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 /**
  * A Bluetooth Manager Transport abstraction layer implementation based on TinyB library.
+ * The underlying bluetooth stack is abstracted by {@link TinyBBackend}, by default TinyB native library is used,
+ * a different backend (e.g. {@link SimulatedBackend}) can be provided via constructor.
  * @author Vlad Kolotov
  */
 public class TinyBFactory implements BluetoothObjectFactory {
 
     public static final String TINYB_PROTOCOL_NAME = "tinyb";
 
+    /**
+     * Configuration property: number of threads that deliver notifications.
+     */
+    public static final String NOTIFICATION_WORKERS = "notificationWorkers";
+    /**
+     * Configuration property: maximum number of pending notifications per bluetooth object.
+     */
+    public static final String NOTIFICATION_QUEUE_CAPACITY = "notificationQueueCapacity";
+    /**
+     * Configuration property: what to do when a notification queue is full,
+     * one of: DROP_OLDEST (default), COALESCE, BLOCK.
+     */
+    public static final String NOTIFICATION_OVERFLOW_POLICY = "notificationOverflowPolicy";
+    /**
+     * Configuration property: if true, only the latest pending RSSI, service data and manufacturer data
+     * notification is delivered per device.
+     */
+    public static final String NOTIFICATION_COALESCING = "notificationCoalescing";
+    /**
+     * Configuration property: minimum interval in milliseconds between coalesced notifications.
+     */
+    public static final String NOTIFICATION_COALESCING_INTERVAL = "notificationCoalescingInterval";
+    /**
+     * Configuration property: if true, coalesced notifications are delivered only when the value has changed.
+     */
+    public static final String NOTIFICATION_COALESCING_ON_CHANGE = "notificationCoalescingOnChange";
+    /**
+     * Configuration property: number of values (default 64) buffered per notification for its subscribers,
+     * a subscriber that lags behind by more values skips the oldest ones. Applies to objects resolved afterwards.
+     */
+    public static final String NOTIFICATION_RING_SIZE = "notificationRingSize";
+    /**
+     * Configuration property: how often (in milliseconds) all properties of discovered devices are re-read,
+     * in between only RSSI is refreshed.
+     */
+    public static final String DISCOVERY_REFRESH_INTERVAL = "discoveryRefreshInterval";
+    /**
+     * Configuration property: how often (in milliseconds) discovered devices are checked for changes
+     * when there are discovery listeners.
+     */
+    public static final String DISCOVERY_POLL_INTERVAL = "discoveryPollInterval";
+    /**
+     * Configuration property: time (in milliseconds) after which a device that has not been seen is reported
+     * as lost to discovery listeners, 0 (default) means that devices are reported as lost only when
+     * they are removed by the bluetooth stack.
+     */
+    public static final String DISCOVERY_TTL = "discoveryTTL";
+    /**
+     * Configuration property: number of threads that execute asynchronous GATT operations.
+     */
+    public static final String GATT_THREADS = "gattThreads";
+    /**
+     * Configuration property: maximum number of queued asynchronous GATT operations.
+     */
+    public static final String GATT_QUEUE_CAPACITY = "gattQueueCapacity";
+    /**
+     * Configuration property: timeout in milliseconds of asynchronous read and write operations.
+     */
+    public static final String GATT_TIMEOUT = "gattTimeout";
+    /**
+     * Configuration property: timeout in milliseconds (default 30000) of asynchronous connect operations.
+     * Connect retries of both synchronous and asynchronous connect requests are stopped when the timeout is due.
+     */
+    public static final String CONNECT_TIMEOUT = "connectTimeout";
+    /**
+     * Configuration property: maximum number of GATT operations executed at a time per connection (default 1).
+     */
+    public static final String GATT_CONNECTION_CONCURRENCY = "gattConnectionConcurrency";
+    /**
+     * Configuration property: chunk size of streaming writes (default 20, which is the default ATT_MTU minus 3).
+     * TinyB does not expose the negotiated MTU, so it should be set if a bigger MTU is known to be negotiated.
+     */
+    public static final String WRITE_CHUNK_SIZE = "writeChunkSize";
+    /**
+     * Configuration property: a file to persist the GATT attributes cache to, so that flags and descriptors
+     * of known devices do not need to be read after restarts. The cache is kept in memory only if not set.
+     */
+    public static final String GATT_CACHE_FILE = "gattCacheFile";
+    /**
+     * Configuration property: a file to persist known devices to. Known devices are loaded on startup and
+     * reported as discovered (if seen recently, see {@link #DEVICE_REGISTRY_TTL}) before a discovery cycle completes.
+     */
+    public static final String DEVICE_REGISTRY_FILE = "deviceRegistryFile";
+    /**
+     * Configuration property: time in milliseconds (default 5 minutes) since a known device was seen last time,
+     * within which the device is reported as discovered even if it has not been discovered yet.
+     */
+    public static final String DEVICE_REGISTRY_TTL = "deviceRegistryTTL";
+    /**
+     * Configuration property: time in milliseconds (default 30 days) since a known device was seen last time,
+     * after which the device is removed from the device registry.
+     */
+    public static final String DEVICE_REGISTRY_MAX_AGE = "deviceRegistryMaxAge";
+    /**
+     * Configuration property: maximum number of connections per adapter, 0 (default) means no limit.
+     */
+    public static final String MAX_CONNECTIONS = "maxConnections";
+    /**
+     * Configuration property: time in milliseconds without GATT operations (default 30 seconds) after which
+     * a connection can be closed to make room for a new one when the connection limit is reached.
+     */
+    public static final String CONNECTION_IDLE_TIMEOUT = "connectionIdleTimeout";
+    /**
+     * Configuration property: maximum time in milliseconds (default 30 seconds) a connect request waits
+     * for a free connection slot.
+     */
+    public static final String CONNECTION_QUEUE_TIMEOUT = "connectionQueueTimeout";
+    /**
+     * Configuration property: maximum number of connect attempts (default 3) when BlueZ reports a transient error
+     * (e.g. operation in progress, connection aborted, timeout).
+     */
+    public static final String CONNECT_ATTEMPTS = "connectAttempts";
+    /**
+     * Configuration property: back-off delay in milliseconds (default 500) after the first failed connect attempt,
+     * the delay is doubled (with jitter) after each consecutive failure.
+     */
+    public static final String CONNECT_BACKOFF = "connectBackoff";
+    /**
+     * Configuration property: maximum number of free buffers (default 64) kept per size class by the pool
+     * of buffers that deliver value notifications, see {@link #enableValueBufferNotifications(URL, Notification)}.
+     * 0 disables pooling.
+     */
+    public static final String BUFFER_POOL_SIZE = "bufferPoolSize";
+    /**
+     * Configuration property: if true, pooled buffers are direct buffers (default false).
+     */
+    public static final String DIRECT_BUFFERS = "directBuffers";
+
+    private static final long DEFAULT_DISCOVERY_POLL_INTERVAL = 1000;
+    private static final String NO_ADAPTER_ERROR = "No adapter installed or not recognized by system";
+
+    private static final String[] NATIVE_LIBRARIES = {"tinyb", "javatinyb"};
+    private static final String[] BUNDLED_LIBRARIES = {"libtinyb.so", "libjavatinyb.so"};
+
     private static final Logger LOGGER = LoggerFactory.getLogger(TinyBFactory.class);
 
-    private static final ExecutorService NOTIFICATION_SERVICE = Executors.newCachedThreadPool();
+    private final TinyBBackend backend;
+    // caches are keyed by URLs, which are unique only within a backend, hence they are not shared between factories,
+    // neither are executors and pools, so that configuring a factory does not affect other factories
+    private final TinyBContext context = new TinyBContext();
+    private long discoveryPollInterval = DEFAULT_DISCOVERY_POLL_INTERVAL;
+    private volatile int writeChunkSize = TinyBCharacteristic.DEFAULT_CHUNK_SIZE;
+    private ScheduledExecutorService discoveryPoller;
 
     /**
-     * Loads TinyB bundled native libraries from classpath by copying them to a temp folder.
-     * @return true if all libraries successfully loaded, false otherwise
+     * Creates a factory that uses TinyB native library.
      */
-    private static boolean loadBundeledNativeLibraries() {
-        LOGGER.debug("Loading native libraries from the bundle. Environment: {} : {}",
-                NativesLoader.getOsName(), NativesLoader.getOsArch());
-        if (!NativesLoader.isSupportedEnvironment()) {
-            LOGGER.debug("Environment is not supported: {} : {}", NativesLoader.getOsName(), NativesLoader.getOsArch());
-            return false;
-        }
-        LOGGER.debug("The environment is supported.");
-        final String[] libs = {"libtinyb.so", "libjavatinyb.so"};
-        for (String lib : libs) {
+    public TinyBFactory() {
+        this(new NativeBackend());
+    }
+
+    /**
+     * Creates a factory that uses the given backend.
+     * @param backend bluetooth stack backend
+     */
+    public TinyBFactory(TinyBBackend backend) {
+        this.backend = backend;
+    }
+
+    /**
+     * Prepares TinyB bundled native libraries to be loaded by extracting them from classpath into the cache folder
+     * (or by verifying their cached copies).
+     * @return paths of the prepared libraries or null if the libraries cannot be prepared
+     */
+    private static List<String> prepareBundledNativeLibraries() {
+        List<String> prepared = new ArrayList<>(BUNDLED_LIBRARIES.length);
+        for (String lib : BUNDLED_LIBRARIES) {
             try {
                 LOGGER.debug("Preparing {} native library", lib);
-                String tempFile = NativesLoader.prepare(lib);
-                LOGGER.debug("Loading {} native library: {}", lib, tempFile);
+                prepared.add(NativesLoader.prepare(lib));
+            } catch (Throwable e) {
+                LOGGER.debug("Could not prepare bundled TinyB native libraries.", e);
+                return null;
+            }
+        }
+        return prepared;
+    }
+
+    /**
+     * Loads TinyB bundled native libraries that have been prepared by {@link #prepareBundledNativeLibraries()}.
+     * @return true if all libraries successfully loaded, false otherwise
+     */
+    private static boolean loadBundeledNativeLibraries(List<String> prepared) {
+        for (String tempFile : prepared) {
+            try {
+                LOGGER.debug("Loading native library: {}", tempFile);
                 System.load(tempFile); // $COVERAGE-IGNORE$
             } catch (Throwable e) {
                 LOGGER.debug("Could not load bundled TinyB native libraries.", e);
@@ -83,6 +255,20 @@ public class TinyBFactory implements BluetoothObjectFactory {
         return true; // $COVERAGE-IGNORE$
     }
 
+    /**
+     * Checks whether TinyB native libraries can be found in the system library path.
+     * @return true if all libraries are found
+     */
+    private static boolean findSystemNativeLibraries() {
+        for (String lib : NATIVE_LIBRARIES) {
+            if (NativesLoader.findSystemLibrary(lib) == null) {
+                LOGGER.debug("Native library is not found in the system library path: {}", lib);
+                return false;
+            }
+        }
+        return true;
+    }
+
     /**
      * Loads TinyB native libraries from system paths.
      * @return true if all libraries successfully loaded, false otherwise
@@ -90,8 +276,7 @@ public class TinyBFactory implements BluetoothObjectFactory {
     private static boolean loadSystemNativeLibraries() {
         LOGGER.info("TinyB: environment is not supported out of the box. Attempting to load system libs.");
 
-        final String[] libs = {"tinyb", "javatinyb"};
-        for (String lib : libs) {
+        for (String lib : NATIVE_LIBRARIES) {
             try {
                 LOGGER.debug("Loading native library from class path: {}", lib);
                 System.loadLibrary(lib); // $COVERAGE-IGNORE$
@@ -108,61 +293,131 @@ public class TinyBFactory implements BluetoothObjectFactory {
 
     /**
      * Loads TinyB native libraries (either bundeled or system ones).
+     * The TinyB BluetoothManager is initialized on the first use of the stack.
      * @return true if all libraries successfully loaded, false otherwise
      */
     public static boolean loadNativeLibraries() {
-        return loadBundeledNativeLibraries() || loadSystemNativeLibraries();
+        return loadNativeLibraries(false);
+    }
+
+    /**
+     * Loads TinyB native libraries (either bundeled or system ones). Bundled libraries are preferred.
+     * Extraction of the bundled libraries and looking up the system ones are performed in parallel.
+     * Timings of each stage are available via {@link #getNativeLoadTimings()}.
+     * @param initializeManager if true, the TinyB BluetoothManager is initialized straight away,
+     *                          otherwise it gets initialized on the first use of the stack
+     * @return true if all libraries successfully loaded, false otherwise
+     */
+    public static boolean loadNativeLibraries(boolean initializeManager) {
+        NativeLoadTimings timings = NativeLoadTimings.getDefault();
+
+        long started = System.nanoTime();
+        LOGGER.debug("Loading native libraries. Environment: {} : {}",
+                NativesLoader.getOsName(), NativesLoader.getOsArch());
+        boolean supported = NativesLoader.isSupportedEnvironment();
+        timings.setDetectTime(System.nanoTime() - started);
+        if (!supported) {
+            LOGGER.debug("Environment is not supported: {} : {}", NativesLoader.getOsName(), NativesLoader.getOsArch());
+        }
+
+        started = System.nanoTime();
+        CompletableFuture<List<String>> bundled = supported
+                ? CompletableFuture.supplyAsync(TinyBFactory::prepareBundledNativeLibraries)
+                : CompletableFuture.completedFuture(null);
+        boolean systemFound = findSystemNativeLibraries();
+        timings.setSystemLibrariesFound(systemFound);
+        List<String> prepared = bundled.join();
+        timings.setExtractTime(System.nanoTime() - started);
+
+        started = System.nanoTime();
+        NativeLoadTimings.Source source = NativeLoadTimings.Source.NONE;
+        if (prepared != null && loadBundeledNativeLibraries(prepared)) {
+            source = NativeLoadTimings.Source.BUNDLED;
+        } else if (systemFound && loadSystemNativeLibraries()) {
+            source = NativeLoadTimings.Source.SYSTEM;
+        } else if (!systemFound) {
+            LOGGER.info("TinyB: environment is not supported out of the box and native libraries are not found in: {}",
+                    System.getProperty("java.library.path"));
+        }
+        timings.setLoadTime(System.nanoTime() - started);
+        timings.setSource(source);
+
+        if (source != NativeLoadTimings.Source.NONE && initializeManager) {
+            NativeBackend.initializeManager();
+        }
+        LOGGER.debug("Native libraries initialization: {}", timings);
+        return source != NativeLoadTimings.Source.NONE;
+    }
+
+    /**
+     * Sets a registry to report metrics to (timers and counters of operations, notifications, connections and
+     * caches), see {@link MetricsRegistry}. Metrics are disabled by default.
+     * @param registry a metrics registry or null to disable metrics
+     */
+    public static void setMetricsRegistry(MetricsRegistry registry) {
+        Metrics.setRegistry(registry);
+    }
+
+    /**
+     * Returns the current metrics registry.
+     * @return metrics registry, {@link MetricsRegistry#NOOP} if metrics are disabled
+     */
+    public static MetricsRegistry getMetricsRegistry() {
+        return Metrics.getRegistry();
+    }
+
+    /**
+     * Returns timings of the native libraries initialization.
+     * @return native libraries initialization timings
+     */
+    public static NativeLoadTimings getNativeLoadTimings() {
+        return NativeLoadTimings.getDefault();
     }
 
     @Override
     public Adapter getAdapter(URL url) {
-        BluetoothAdapter adapter = (BluetoothAdapter) BluetoothManager.getBluetoothManager().getObject(
-                BluetoothType.ADAPTER, null, url.getAdapterAddress(), null);
-        return adapter != null ? new TinyBAdapter(url.getAdapterURL(), adapter) : null;
+        BackendAdapter adapter = getNativeAdapter(url);
+        return adapter != null
+                ? context.getWrappers().intern(adapter,
+                    nativeAdapter -> new TinyBAdapter(url.getAdapterURL(), nativeAdapter, context))
+                : null;
     }
 
     @Override
     public Device getDevice(URL url) {
-        BluetoothAdapter adapter = (BluetoothAdapter) BluetoothManager.getBluetoothManager().getObject(
-                BluetoothType.ADAPTER, null, url.getAdapterAddress(), null);
-        if (adapter == null) {
-            return null;
-        }
-        BluetoothDevice device = (BluetoothDevice) BluetoothManager.getBluetoothManager().getObject(
-                BluetoothType.DEVICE, null, url.getDeviceAddress(), adapter);
-        return device != null ? new TinyBDevice(url.getDeviceURL(), device) : null;
+        BackendDevice device = getNativeDevice(url);
+        return device != null
+                ? context.getWrappers().intern(device,
+                    nativeDevice -> new TinyBDevice(url.getDeviceURL(), nativeDevice, context))
+                : null;
     }
 
     @Override
     public Characteristic getCharacteristic(URL url) {
-        BluetoothAdapter adapter = (BluetoothAdapter) BluetoothManager.getBluetoothManager().getObject(
-                BluetoothType.ADAPTER, null, url.getAdapterAddress(), null);
-        if (adapter == null) {
+        BackendDevice device = getNativeDevice(url);
+        if (device == null) {
             return null;
         }
-        BluetoothDevice device = (BluetoothDevice) BluetoothManager.getBluetoothManager().getObject(
-                BluetoothType.DEVICE, null, url.getDeviceAddress(), adapter);
-        if (device == null || !device.getConnected()) {
+        if (!isConnected(url, device)) {
+            context.invalidateServices(url);
             return null;
         }
-        BluetoothGattService service = (BluetoothGattService) BluetoothManager.getBluetoothManager().getObject(
-                        BluetoothType.GATT_SERVICE, null, url.getServiceUUID(), device);
-        if (service == null) {
-            return null;
-        }
-        BluetoothGattCharacteristic characteristic = (BluetoothGattCharacteristic)
-                BluetoothManager.getBluetoothManager().getObject(
-                        BluetoothType.GATT_CHARACTERISTIC, null, url.getCharacteristicUUID(), service);
-        return characteristic != null ? new TinyBCharacteristic(url.getCharacteristicURL(), characteristic) : null;
+        BackendCharacteristic characteristic = getNativeCharacteristic(url, device);
+        return characteristic != null ? context.getWrappers().intern(characteristic,
+            nativeCharacteristic -> new TinyBCharacteristic(url.getCharacteristicURL(), nativeCharacteristic,
+                context)) : null;
     }
 
     @Override
     public Set<DiscoveredAdapter> getDiscoveredAdapters() {
         try {
-            return BluetoothManager.getBluetoothManager().getAdapters().stream().map(
-                    TinyBFactory::convert).collect(Collectors.toSet());
-        } catch (tinyb.BluetoothException ex) {
-            if ("No adapter installed or not recognized by system".equals(ex.getMessage())) {
+            Set<DiscoveredAdapter> adapters =
+                    backend.getAdapters().stream().map(TinyBFactory::convert).collect(Collectors.toSet());
+            context.retainAdapters(adapters.stream().map(DiscoveredAdapter::getURL).collect(Collectors.toSet()));
+            return adapters;
+        } catch (RuntimeException ex) {
+            if (NO_ADAPTER_ERROR.equals(ex.getMessage())) {
+                context.retainAdapters(Collections.emptySet());
                 return Collections.emptySet();
             }
             throw ex;
@@ -171,14 +426,323 @@ public class TinyBFactory implements BluetoothObjectFactory {
 
     @Override
     public Set<DiscoveredDevice> getDiscoveredDevices() {
-        try {
-            return BluetoothManager.getBluetoothManager().getDevices().stream().map(
-                    TinyBFactory::convert).collect(Collectors.toSet());
-        } catch (tinyb.BluetoothException ex) {
-            if ("No adapter installed or not recognized by system".equals(ex.getMessage())) {
-                return Collections.emptySet();
+        refreshDiscoveredDevices();
+        Set<DiscoveredDevice> discovered = context.getDiscoveryIndex().getSnapshot();
+        DeviceRegistry registry = context.getDeviceRegistry();
+        return registry.isEnabled() ? registry.merge(discovered, System.currentTimeMillis()) : discovered;
+    }
+
+    /**
+     * Refreshes the discovered devices index and returns changes since the previous refresh.
+     * Note that {@link #getDiscoveredDevices()} refreshes the index too, hence changes are reported
+     * since the previous call of either method. Changes detected by the background discovery poller
+     * (see {@link #addDiscoveryListener(DiscoveryListener)}) in between are reported too.
+     * @return discovered devices changes
+     */
+    public DiscoveryDelta refreshDiscoveredDevices() {
+        updateDiscoveredDevices();
+        return context.getDiscoveryIndex().takeChanges();
+    }
+
+    /**
+     * Drops cached GATT attributes (flags and descriptors) of a device, see {@link #GATT_CACHE_FILE}, so that
+     * they are read from the device again. Cached attributes are validated against service and characteristic UUIDs
+     * only, this should be called if attributes change while UUIDs stay the same (e.g. after a firmware update).
+     * Cached attributes are also dropped automatically when the device resolves its services again
+     * without reconnecting, which is how a Service Changed indication is handled by BlueZ.
+     * @param url device URL
+     */
+    public void invalidateGattCache(URL url) {
+        LOGGER.debug("Invalidating GATT cache: {}", url);
+        context.invalidateGattAttributes(url.getDeviceURL());
+    }
+
+    /**
+     * Returns devices that have been seen before, including devices loaded from the device registry file
+     * (see {@link #DEVICE_REGISTRY_FILE}), so that they can be bound straight after restart.
+     * @return known devices
+     */
+    public Collection<KnownDevice> getKnownDevices() {
+        return context.getDeviceRegistry().getKnownDevices();
+    }
+
+    /**
+     * Reads values of the given characteristics. Characteristics are resolved through the object cache,
+     * then reads of all devices are submitted before waiting for any of them, so that devices are read in parallel.
+     * Reads of a device are executed by as many GATT threads as many operations are allowed per connection
+     * (see {@link #GATT_CONNECTION_CONCURRENCY}), so that a big batch does not occupy all GATT threads.
+     * Failures are reported per characteristic.
+     * @param urls characteristic URLs
+     * @return read results in the same order as the given URLs
+     */
+    public Map<URL, CharacteristicReadResult> readCharacteristics(List<URL> urls) {
+        Map<URL, List<URL>> byDevice = new LinkedHashMap<>();
+        for (URL url : urls) {
+            byDevice.computeIfAbsent(url.getDeviceURL(), key -> new ArrayList<>()).add(url);
+        }
+        Map<URL, CompletableFuture<CharacteristicReadResult>> futures = new HashMap<>();
+        byDevice.forEach((deviceURL, characteristics) -> {
+            TinyBDevice device = (TinyBDevice) getDevice(deviceURL);
+            if (device != null) {
+                futures.putAll(device.submitReads(resolveCharacteristics(deviceURL, characteristics)));
+            } else {
+                characteristics.forEach(url -> futures.put(url, CompletableFuture.completedFuture(
+                        CharacteristicReadResult.failure(url,
+                                new TinyBException("Device not found: " + deviceURL), 0))));
             }
-            throw ex;
+        });
+        Map<URL, CharacteristicReadResult> ordered = new LinkedHashMap<>();
+        urls.forEach(url -> ordered.put(url, futures.get(url).join()));
+        return ordered;
+    }
+
+    /**
+     * Connects to a device asynchronously. The operation is executed in a bounded pool of GATT threads,
+     * the connection timeout is applied.
+     * @param url device URL
+     * @return a future that is completed when the device is connected
+     */
+    public CompletableFuture<Boolean> connectAsync(URL url) {
+        return connectAsync(url, 0);
+    }
+
+    /**
+     * Connects to a device asynchronously with the given priority. If the adapter connection limit is reached
+     * (see {@link #MAX_CONNECTIONS}), requests with higher priority get a free connection slot first.
+     * @param url device URL
+     * @param priority connect request priority
+     * @return a future that is completed when the device is connected
+     */
+    public CompletableFuture<Boolean> connectAsync(URL url, int priority) {
+        return context.getGattExecutor().submitConnect(() -> ((TinyBDevice) requireDevice(url)).connect(priority));
+    }
+
+    /**
+     * Returns connection pool of the given adapter, which can be used to monitor pool utilization.
+     * @param url adapter URL (or URL of any object of the adapter)
+     * @return adapter connection pool
+     */
+    public ConnectionPool getConnectionPool(URL url) {
+        return context.getConnectionPool(url);
+    }
+
+    /**
+     * Returns connect statistics of the given device: success rate, latency histogram and failures by category.
+     * @param url device URL
+     * @return connect statistics
+     */
+    public ConnectStatistics getConnectStatistics(URL url) {
+        ConnectRetry retry = context.findConnectRetry(url);
+        return retry != null ? retry.getStatistics() : new ConnectStatistics(url.getDeviceURL());
+    }
+
+    /**
+     * Reads a characteristic asynchronously. The operation is executed in a bounded pool of GATT threads,
+     * the operation timeout is applied.
+     * @param url characteristic URL
+     * @return a future that is completed with the characteristic value
+     */
+    public CompletableFuture<byte[]> readValueAsync(URL url) {
+        return context.getGattExecutor().submit(() -> requireCharacteristic(url).readValue());
+    }
+
+    /**
+     * Writes a characteristic asynchronously. The operation is executed in a bounded pool of GATT threads,
+     * the operation timeout is applied.
+     * @param url characteristic URL
+     * @param value a value to write
+     * @return a future that is completed when the value is written
+     */
+    public CompletableFuture<Boolean> writeValueAsync(URL url, byte[] value) {
+        return context.getGattExecutor().submit(() -> requireCharacteristic(url).writeValue(value));
+    }
+
+    /**
+     * Writes a stream of data to a characteristic. The data is split into chunks of the configured size
+     * (see {@link #WRITE_CHUNK_SIZE}), chunks are written without response if the characteristic supports it.
+     * @param url characteristic URL
+     * @param payload data to write, the stream is not closed
+     * @return write statistics, e.g. throughput
+     * @throws IOException if the payload cannot be read
+     */
+    public WriteStreamResult writeStream(URL url, InputStream payload) throws IOException {
+        return requireTinyBCharacteristic(url).writeStream(payload, writeChunkSize);
+    }
+
+    /**
+     * Writes remaining bytes of the given buffer to a characteristic, see {@link #writeStream(URL, InputStream)}.
+     * @param url characteristic URL
+     * @param payload data to write
+     * @return write statistics, e.g. throughput
+     */
+    public WriteStreamResult writeStream(URL url, ByteBuffer payload) {
+        return requireTinyBCharacteristic(url).writeStream(payload, writeChunkSize);
+    }
+
+    /**
+     * Writes the given data to a characteristic, see {@link #writeStream(URL, InputStream)}.
+     * @param url characteristic URL
+     * @param payload data to write
+     * @return write statistics, e.g. throughput
+     */
+    public WriteStreamResult writeStream(URL url, byte[] payload) {
+        return writeStream(url, ByteBuffer.wrap(payload));
+    }
+
+    /**
+     * Reads a characteristic value into the given buffer, starting at its current position.
+     * @param url characteristic URL
+     * @param target a buffer to read the value into, heap or direct
+     * @return number of bytes read
+     * @throws java.nio.BufferOverflowException if the value does not fit into the remaining space of the buffer
+     */
+    public int readValue(URL url, ByteBuffer target) {
+        return requireTinyBCharacteristic(url).readValue(target);
+    }
+
+    /**
+     * Writes remaining bytes of the given buffer to a characteristic.
+     * @param url characteristic URL
+     * @param source a buffer to write, heap or direct
+     * @return true if the value has been written
+     */
+    public boolean writeValue(URL url, ByteBuffer source) {
+        return requireTinyBCharacteristic(url).writeValue(source);
+    }
+
+    /**
+     * Enables value notifications of a characteristic that deliver values in pooled buffers, so that steady state
+     * delivery does not allocate. A buffer is valid only within the notification call and must not be retained.
+     * Buffer subscribers coexist with subscribers added via
+     * {@link Characteristic#enableValueNotifications(Notification)}, all of them are fed by a single native
+     * notification, see {@link #removeValueNotification(URL, Notification)}.
+     * @param url characteristic URL
+     * @param notification value notification
+     */
+    public void enableValueBufferNotifications(URL url, Notification<ByteBuffer> notification) {
+        requireTinyBCharacteristic(url).enableValueBufferNotifications(notification);
+    }
+
+    /**
+     * Adds a subscriber of value notifications of a characteristic. Value notifications support multiple
+     * subscribers: each call of this method adds one, whereas
+     * {@link Characteristic#enableValueNotifications(Notification)} replaces the subscriber of its previous call.
+     * All of them are fed by a single native notification, see {@link #removeValueNotification(URL, Notification)}.
+     * @param url characteristic URL
+     * @param notification a subscriber to add
+     */
+    public void addValueNotification(URL url, Notification<byte[]> notification) {
+        requireTinyBCharacteristic(url).addValueNotification(notification);
+    }
+
+    /**
+     * Removes a single subscriber of value notifications of a characteristic, other subscribers keep receiving
+     * notifications. The native notification is disabled when the last subscriber is removed.
+     * {@link Characteristic#disableValueNotifications()} removes all subscribers.
+     * @param url characteristic URL
+     * @param notification a subscriber to remove
+     */
+    public void removeValueNotification(URL url, Notification<byte[]> notification) {
+        requireTinyBCharacteristic(url).removeValueNotification(notification);
+    }
+
+    /**
+     * Returns decoded service data of a device, see {@link AdvertisementDecoders}.
+     * @param url device URL
+     * @param serviceUUID full service UUID or a 16 bit short form (e.g. "feaa")
+     * @param type expected type of the decoded object, e.g. {@link Eddystone}
+     * @param <T> type of the decoded object
+     * @return a decoded object or null if there is no data, no decoder for the service or the decoded object
+     *     is not of the given type
+     */
+    public <T> T getDecodedServiceData(URL url, String serviceUUID, Class<T> type) {
+        Object decoded = ((TinyBDevice) requireDevice(url)).getDecodedServiceData(serviceUUID);
+        return type.isInstance(decoded) ? type.cast(decoded) : null;
+    }
+
+    /**
+     * Returns decoded manufacturer specific data of a device, see {@link AdvertisementDecoders}.
+     * @param url device URL
+     * @param manufacturerId manufacturer ID (e.g. 0x004C for Apple)
+     * @param type expected type of the decoded object, e.g. {@link IBeacon}
+     * @param <T> type of the decoded object
+     * @return a decoded object or null if there is no data, no decoder for the manufacturer or the decoded object
+     *     is not of the given type
+     */
+    public <T> T getDecodedManufacturerData(URL url, short manufacturerId, Class<T> type) {
+        Object decoded = ((TinyBDevice) requireDevice(url)).getDecodedManufacturerData(manufacturerId);
+        return type.isInstance(decoded) ? type.cast(decoded) : null;
+    }
+
+    /**
+     * Enables notifications of decoded advertisements (service and manufacturer data) of a device.
+     * Advertisements are decoded once for all subscribers by decoders registered in {@link AdvertisementDecoders},
+     * a decoded object is delivered only when its payload changes.
+     * @param url device URL
+     * @param notification a subscriber of decoded objects, e.g. {@link IBeacon}, {@link Eddystone}, {@link MiBeacon}
+     */
+    public void enableAdvertisementNotifications(URL url, Notification<Object> notification) {
+        ((TinyBDevice) requireDevice(url)).enableAdvertisementNotifications(notification);
+    }
+
+    /**
+     * Disables notifications of decoded advertisements of a device.
+     * @param url device URL
+     */
+    public void disableAdvertisementNotifications(URL url) {
+        ((TinyBDevice) requireDevice(url)).disableAdvertisementNotifications();
+    }
+
+    /**
+     * Reads a descriptor of a characteristic.
+     * @param url characteristic URL
+     * @param descriptorUUID full descriptor UUID or a 16 bit short form (e.g. "2902")
+     * @return descriptor value
+     */
+    public byte[] readDescriptor(URL url, String descriptorUUID) {
+        return requireTinyBCharacteristic(url).readDescriptor(descriptorUUID);
+    }
+
+    /**
+     * Writes a descriptor of a characteristic.
+     * @param url characteristic URL
+     * @param descriptorUUID full descriptor UUID or a 16 bit short form (e.g. "2902")
+     * @param value a value to write
+     * @return true if the value has been written
+     */
+    public boolean writeDescriptor(URL url, String descriptorUUID, byte[] value) {
+        return requireTinyBCharacteristic(url).writeDescriptor(descriptorUUID, value);
+    }
+
+    /**
+     * Returns GATT operations scheduler of the given adapter, which can be used to monitor
+     * queue depth and wait time of GATT operations.
+     * @param url adapter URL (or URL of any object of the adapter)
+     * @return adapter scheduler
+     */
+    public GattScheduler getGattScheduler(URL url) {
+        return context.getGattScheduler(url);
+    }
+
+    /**
+     * Subscribes to discovery events. Discovered devices are checked for changes in a background thread
+     * while there are subscribers, RSSI changes are reported straight away if RSSI notifications
+     * are enabled for the device.
+     * @param listener discovery listener
+     */
+    public void addDiscoveryListener(DiscoveryListener listener) {
+        context.getDiscoveryIndex().addListener(listener);
+        startDiscoveryPoller();
+    }
+
+    /**
+     * Unsubscribes from discovery events.
+     * @param listener discovery listener
+     */
+    public void removeDiscoveryListener(DiscoveryListener listener) {
+        context.getDiscoveryIndex().removeListener(listener);
+        if (!context.getDiscoveryIndex().hasListeners()) {
+            stopDiscoveryPoller();
         }
     }
 
@@ -188,18 +752,109 @@ public class TinyBFactory implements BluetoothObjectFactory {
     }
 
     @Override
-    public void configure(Map<String, Object> config) { /* do nothing for now */ }
+    public void configure(Map<String, Object> config) {
+        if (config.containsKey(NOTIFICATION_WORKERS) || config.containsKey(NOTIFICATION_QUEUE_CAPACITY)
+                || config.containsKey(NOTIFICATION_OVERFLOW_POLICY)) {
+            int workers = getInt(config, NOTIFICATION_WORKERS, NotificationDispatcher.DEFAULT_WORKERS);
+            int capacity = getInt(config, NOTIFICATION_QUEUE_CAPACITY, NotificationDispatcher.DEFAULT_CAPACITY);
+            NotificationDispatcher.OverflowPolicy policy = config.containsKey(NOTIFICATION_OVERFLOW_POLICY)
+                    ? NotificationDispatcher.OverflowPolicy.valueOf(
+                            config.get(NOTIFICATION_OVERFLOW_POLICY).toString().trim().toUpperCase())
+                    : NotificationDispatcher.DEFAULT_POLICY;
+            LOGGER.debug("Configuring notification dispatcher: workers: {}; capacity: {}; policy: {}",
+                    workers, capacity, policy);
+            context.setNotificationDispatcher(new NotificationDispatcher(workers, capacity, policy));
+        }
+        if (config.containsKey(DISCOVERY_REFRESH_INTERVAL)) {
+            context.getDiscoveryIndex().setRefreshInterval(getInt(config, DISCOVERY_REFRESH_INTERVAL,
+                    (int) DiscoveryIndex.DEFAULT_REFRESH_INTERVAL));
+        }
+        if (config.containsKey(GATT_THREADS) || config.containsKey(GATT_QUEUE_CAPACITY)
+                || config.containsKey(GATT_TIMEOUT) || config.containsKey(CONNECT_TIMEOUT)) {
+            int threads = getInt(config, GATT_THREADS, GattExecutor.DEFAULT_THREADS);
+            int capacity = getInt(config, GATT_QUEUE_CAPACITY, GattExecutor.DEFAULT_CAPACITY);
+            int timeout = getInt(config, GATT_TIMEOUT, (int) GattExecutor.DEFAULT_OPERATION_TIMEOUT);
+            int connectTimeout = getInt(config, CONNECT_TIMEOUT, (int) GattExecutor.DEFAULT_CONNECT_TIMEOUT);
+            LOGGER.debug("Configuring GATT executor: threads: {}; capacity: {}; timeout: {}; connect timeout: {}",
+                    threads, capacity, timeout, connectTimeout);
+            context.setGattExecutor(new GattExecutor(threads, capacity, timeout, connectTimeout));
+        }
+        if (config.containsKey(GATT_CONNECTION_CONCURRENCY)) {
+            context.setConnectionConcurrency(getInt(config, GATT_CONNECTION_CONCURRENCY,
+                    GattScheduler.DEFAULT_CONNECTION_CONCURRENCY));
+        }
+        if (config.containsKey(WRITE_CHUNK_SIZE)) {
+            writeChunkSize = getInt(config, WRITE_CHUNK_SIZE, TinyBCharacteristic.DEFAULT_CHUNK_SIZE);
+        }
+        if (config.containsKey(BUFFER_POOL_SIZE) || config.containsKey(DIRECT_BUFFERS)) {
+            context.setBufferPool(new BufferPool(getInt(config, BUFFER_POOL_SIZE, BufferPool.DEFAULT_MAX_POOLED),
+                    config.containsKey(DIRECT_BUFFERS)
+                            && Boolean.parseBoolean(config.get(DIRECT_BUFFERS).toString().trim())));
+        }
+        if (config.containsKey(GATT_CACHE_FILE)) {
+            Object file = config.get(GATT_CACHE_FILE);
+            context.getGattDatabase().setFile(file != null && !file.toString().trim().isEmpty()
+                    ? Paths.get(file.toString().trim()) : null);
+        }
+        if (config.containsKey(MAX_CONNECTIONS) || config.containsKey(CONNECTION_IDLE_TIMEOUT)
+                || config.containsKey(CONNECTION_QUEUE_TIMEOUT)) {
+            context.configureConnectionPools(
+                    getInt(config, MAX_CONNECTIONS, ConnectionPool.DEFAULT_MAX_CONNECTIONS),
+                    getInt(config, CONNECTION_IDLE_TIMEOUT, (int) ConnectionPool.DEFAULT_IDLE_TIMEOUT),
+                    getInt(config, CONNECTION_QUEUE_TIMEOUT, (int) ConnectionPool.DEFAULT_QUEUE_TIMEOUT));
+        }
+        if (config.containsKey(CONNECT_ATTEMPTS) || config.containsKey(CONNECT_BACKOFF)
+                || config.containsKey(CONNECT_TIMEOUT)) {
+            context.configureConnectRetry(getInt(config, CONNECT_ATTEMPTS, ConnectRetry.DEFAULT_ATTEMPTS),
+                    getInt(config, CONNECT_BACKOFF, (int) ConnectRetry.DEFAULT_BACKOFF),
+                    getInt(config, CONNECT_TIMEOUT, (int) ConnectRetry.DEFAULT_TIMEOUT));
+        }
+        if (config.containsKey(DEVICE_REGISTRY_TTL)) {
+            context.getDeviceRegistry().setTimeToLive(getInt(config, DEVICE_REGISTRY_TTL,
+                    (int) DeviceRegistry.DEFAULT_TIME_TO_LIVE));
+        }
+        if (config.containsKey(DEVICE_REGISTRY_MAX_AGE)) {
+            context.getDeviceRegistry().setMaxAge(getLong(config, DEVICE_REGISTRY_MAX_AGE,
+                    DeviceRegistry.DEFAULT_MAX_AGE));
+        }
+        if (config.containsKey(DEVICE_REGISTRY_FILE)) {
+            Object file = config.get(DEVICE_REGISTRY_FILE);
+            context.getDeviceRegistry().setFile(file != null && !file.toString().trim().isEmpty()
+                    ? Paths.get(file.toString().trim()) : null);
+        }
+        if (config.containsKey(DISCOVERY_TTL)) {
+            context.getDiscoveryIndex().setTimeToLive(getInt(config, DISCOVERY_TTL, 0));
+        }
+        if (config.containsKey(DISCOVERY_POLL_INTERVAL)) {
+            setDiscoveryPollInterval(getInt(config, DISCOVERY_POLL_INTERVAL, (int) DEFAULT_DISCOVERY_POLL_INTERVAL));
+        }
+        if (config.containsKey(NOTIFICATION_COALESCING)) {
+            if (Boolean.parseBoolean(config.get(NOTIFICATION_COALESCING).toString().trim())) {
+                context.setCoalescingSettings(new NotificationCoalescer.Settings(
+                        getInt(config, NOTIFICATION_COALESCING_INTERVAL, 0),
+                        config.containsKey(NOTIFICATION_COALESCING_ON_CHANGE)
+                                && Boolean.parseBoolean(config.get(NOTIFICATION_COALESCING_ON_CHANGE).toString())));
+            } else {
+                context.setCoalescingSettings(null);
+            }
+            LOGGER.debug("Notification coalescing enabled: {}", context.getCoalescingSettings() != null);
+        }
+        if (config.containsKey(NOTIFICATION_RING_SIZE)) {
+            context.setFanoutCapacity(getInt(config, NOTIFICATION_RING_SIZE, NotificationFanout.DEFAULT_CAPACITY));
+        }
+    }
 
     /**
      * Disposing TinyB factory by closing/disposing all adapters, devices and services.
      */
     public void dispose() {
+        stopDiscoveryPoller();
         try {
-            BluetoothManager bluetoothManager = BluetoothManager.getBluetoothManager();
-            bluetoothManager.stopDiscovery();
-            bluetoothManager.getServices().forEach(TinyBFactory::closeSilently);
-            bluetoothManager.getDevices().forEach(TinyBFactory::closeSilently);
-            bluetoothManager.getAdapters().forEach(TinyBFactory::closeSilently);
+            backend.stopDiscovery();
+            backend.getServices().forEach(TinyBFactory::closeSilently);
+            backend.getDevices().forEach(TinyBFactory::closeSilently);
+            backend.getAdapters().forEach(TinyBFactory::closeSilently);
+            context.clear();
         } catch (Exception ex) {
             LOGGER.debug("Error occurred while disposing TinyB manager: {}", ex.getMessage());
         }
@@ -208,13 +863,14 @@ public class TinyBFactory implements BluetoothObjectFactory {
     @Override
     public void dispose(URL url) {
         LOGGER.debug("Bluetooth object disposal requested: {}", url);
-        BluetoothAdapter adapter = (BluetoothAdapter) BluetoothManager.getBluetoothManager().getObject(
-                BluetoothType.ADAPTER, null, url.getAdapterAddress(), null);
+        context.getNotificationDispatcher().discard(url);
         if (url.isAdapter()) {
-            TinyBAdapter.dispose(adapter);
+            BackendAdapter adapter = getNativeAdapter(url);
+            if (adapter != null) {
+                TinyBAdapter.dispose(adapter);
+            }
         } else if (url.isDevice() || url.isCharacteristic()) {
-            BluetoothDevice device = (BluetoothDevice) BluetoothManager.getBluetoothManager().getObject(
-                    BluetoothType.DEVICE, null, url.getDeviceAddress(), adapter);
+            BackendDevice device = getNativeDevice(url);
             if (device != null) {
                 if (url.isDevice()) {
                     TinyBDevice.dispose(device);
@@ -223,6 +879,16 @@ public class TinyBFactory implements BluetoothObjectFactory {
                 }
             }
         }
+        if (url.isCharacteristic()) {
+            context.invalidateServices(url);
+        } else {
+            context.invalidate(url);
+            context.removeConnectionState(url);
+        }
+    }
+
+    TinyBContext getContext() {
+        return context;
     }
 
     static void runSilently(Runnable func) {
@@ -231,18 +897,149 @@ public class TinyBFactory implements BluetoothObjectFactory {
         } catch (Exception ignore) { /* do nothing */ }
     }
 
-    static void notifySafely(Runnable noticator, Logger logger, String errorMessage) {
-        getNotificationService().submit(() -> {
-            try {
-                noticator.run();
-            } catch (Exception ex) {
-                logger.error(errorMessage, ex);
+    private Device requireDevice(URL url) {
+        Device device = getDevice(url);
+        if (device == null) {
+            throw new TinyBException("Device not found: " + url);
+        }
+        return device;
+    }
+
+    private Characteristic requireCharacteristic(URL url) {
+        Characteristic characteristic = getCharacteristic(url);
+        if (characteristic == null) {
+            throw new TinyBException("Characteristic not found or device is not connected: " + url);
+        }
+        return characteristic;
+    }
+
+    private TinyBCharacteristic requireTinyBCharacteristic(URL url) {
+        return (TinyBCharacteristic) requireCharacteristic(url);
+    }
+
+    private void updateDiscoveredDevices() {
+        List<BackendDevice> devices;
+        try {
+            devices = backend.getDevices();
+        } catch (RuntimeException ex) {
+            if (!NO_ADAPTER_ERROR.equals(ex.getMessage())) {
+                throw ex;
             }
+            devices = Collections.emptyList();
+        }
+        DiscoveryDelta delta = context.getDiscoveryIndex().update(devices);
+        // devices that are gone are removed by BlueZ, their handles are not valid anymore
+        delta.getRemoved().forEach(device -> {
+            context.invalidate(device.getURL());
+            context.removeConnectionState(device.getURL());
         });
+        DeviceRegistry registry = context.getDeviceRegistry();
+        long now = System.currentTimeMillis();
+        if (!delta.isEmpty()) {
+            registry.update(delta, now);
+        }
+        // present devices that do not change are not in the delta
+        registry.touch(context.getDiscoveryIndex().getSnapshot(), now);
     }
 
-    private static ExecutorService getNotificationService() {
-        return NOTIFICATION_SERVICE;
+    private void pollDiscoveredDevices() {
+        try {
+            // changes are not taken, so that they are still reported by refreshDiscoveredDevices
+            updateDiscoveredDevices();
+        } catch (Exception ex) {
+            LOGGER.debug("Could not refresh discovered devices: {}", ex.getMessage());
+        }
+    }
+
+    private synchronized void startDiscoveryPoller() {
+        if (discoveryPoller == null) {
+            discoveryPoller = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "tinyb-discovery");
+                thread.setDaemon(true);
+                return thread;
+            });
+            discoveryPoller.scheduleWithFixedDelay(this::pollDiscoveredDevices, 0, discoveryPollInterval,
+                    TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private synchronized void setDiscoveryPollInterval(long pollInterval) {
+        if (discoveryPollInterval != pollInterval) {
+            discoveryPollInterval = pollInterval;
+            // a running poller is rescheduled with the new interval
+            if (discoveryPoller != null) {
+                stopDiscoveryPoller();
+                startDiscoveryPoller();
+            }
+        }
+    }
+
+    private synchronized void stopDiscoveryPoller() {
+        if (discoveryPoller != null) {
+            discoveryPoller.shutdownNow();
+            discoveryPoller = null;
+        }
+    }
+
+    private static int getInt(Map<String, Object> config, String key, int defaultValue) {
+        Object value = config.get(key);
+        if (value instanceof Number) {
+            return ((Number) value).intValue();
+        }
+        return value != null ? Integer.parseInt(value.toString().trim()) : defaultValue;
+    }
+
+    private static long getLong(Map<String, Object> config, String key, long defaultValue) {
+        Object value = config.get(key);
+        if (value instanceof Number) {
+            return ((Number) value).longValue();
+        }
+        return value != null ? Long.parseLong(value.toString().trim()) : defaultValue;
+    }
+
+    private BackendAdapter getNativeAdapter(URL url) {
+        return context.getObjectCache().get(url.getAdapterURL(),
+            () -> Metrics.time("resolve", url, () -> backend.getAdapter(url.getAdapterAddress())));
+    }
+
+    private BackendDevice getNativeDevice(URL url) {
+        return context.getObjectCache().get(url.getDeviceURL(), () -> {
+            BackendAdapter adapter = getNativeAdapter(url);
+            return adapter != null
+                ? Metrics.time("resolve", url, () -> backend.getDevice(adapter, url.getDeviceAddress())) : null;
+        });
+    }
+
+    private boolean isConnected(URL url, BackendDevice device) {
+        try {
+            return device.getConnected();
+        } catch (RuntimeException ex) {
+            // the handle might be stale (e.g. the device has been removed by the stack)
+            context.invalidateNative(url.getDeviceURL());
+            throw ex;
+        }
+    }
+
+    private BackendCharacteristic getNativeCharacteristic(URL url, BackendDevice device) {
+        return context.getObjectCache().get(url.getCharacteristicURL(), () -> {
+            BackendService service = context.getObjectCache().get(url.getServiceURL(),
+                () -> Metrics.time("resolve", url, () -> backend.getService(device, url.getServiceUUID())));
+            return service != null ? Metrics.time("resolve", url,
+                () -> backend.getCharacteristic(service, url.getCharacteristicUUID())) : null;
+        });
+    }
+
+    private Map<URL, BackendCharacteristic> resolveCharacteristics(URL deviceURL, List<URL> urls) {
+        BackendDevice device = getNativeDevice(deviceURL);
+        boolean connected = device != null && isConnected(deviceURL, device);
+        if (!connected) {
+            context.invalidateServices(deviceURL);
+        }
+        Map<URL, BackendCharacteristic> characteristics = new LinkedHashMap<>();
+        for (URL url : urls) {
+            characteristics.put(url, connected ? getNativeCharacteristic(url, device) : null);
+        }
+        return characteristics;
     }
 
     private static void closeSilently(AutoCloseable autoCloseable) {
@@ -251,16 +1048,7 @@ public class TinyBFactory implements BluetoothObjectFactory {
         } catch (Exception ignore) { /* do nothing */ }
     }
 
-    private static DiscoveredDevice convert(BluetoothDevice device) {
-        return new DiscoveredDevice(new URL(TINYB_PROTOCOL_NAME,
-                device.getAdapter().getAddress(), device.getAddress()),
-                device.getName(), device.getAlias(), device.getRSSI(),
-                device.getBluetoothClass(),
-                //TODO implement proper determination of the device type
-                device.getBluetoothClass() == 0);
-    }
-
-    private static DiscoveredAdapter convert(BluetoothAdapter adapter) {
+    private static DiscoveredAdapter convert(BackendAdapter adapter) {
         return new DiscoveredAdapter(new URL(TINYB_PROTOCOL_NAME,
                 adapter.getAddress(), null),
                 adapter.getName(), adapter.getAlias());
@@ -23,13 +23,11 @@ package org.sputnikdev.bluetooth.manager.transport.tinyb;
 import org.sputnikdev.bluetooth.URL;
 import org.sputnikdev.bluetooth.manager.transport.Characteristic;
 import org.sputnikdev.bluetooth.manager.transport.Service;
-import tinyb.BluetoothDevice;
-import tinyb.BluetoothGattCharacteristic;
-import tinyb.BluetoothGattService;
 
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.stream.Collectors;
 
 
 /**
@@ -39,11 +37,17 @@ import java.util.List;
 class TinyBService implements Service {
 
     private final URL url;
-    private final BluetoothGattService service;
+    private final BackendService service;
+    private final TinyBContext context;
 
-    TinyBService(URL url, BluetoothGattService service) {
+    TinyBService(URL url, BackendService service) {
+        this(url, service, new TinyBContext());
+    }
+
+    TinyBService(URL url, BackendService service, TinyBContext context) {
         this.url = url;
         this.service = service;
+        this.context = context;
     }
 
     @Override
@@ -53,12 +57,17 @@ class TinyBService implements Service {
 
     @Override
     public List<Characteristic> getCharacteristics() {
-        List<BluetoothGattCharacteristic> characteristics = service.getCharacteristics();
+        List<BackendCharacteristic> characteristics = service.getCharacteristics();
         List<Characteristic> result = new ArrayList<>(characteristics.size());
-        for (BluetoothGattCharacteristic nativeCharacteristic : characteristics) {
-            result.add(new TinyBCharacteristic(
-                    url.copyWithCharacteristic(nativeCharacteristic.getUUID()),nativeCharacteristic));
+        for (BackendCharacteristic nativeCharacteristic : characteristics) {
+            result.add(context.getWrappers().intern(nativeCharacteristic,
+                characteristic -> new TinyBCharacteristic(
+                    url.copyWithCharacteristic(characteristic.getUUID()), characteristic, context)));
         }
+        // dropping cached attributes of characteristics that are not present anymore
+        context.getGattDatabase().getService(url).retain(
+                result.stream().map(characteristic -> characteristic.getURL().getCharacteristicUUID())
+                        .collect(Collectors.toList()));
         return Collections.unmodifiableList(result);
     }
 
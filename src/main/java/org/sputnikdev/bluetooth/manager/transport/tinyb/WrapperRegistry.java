@@ -0,0 +1,121 @@
+package org.sputnikdev.bluetooth.manager.transport.tinyb;
+
+/*-
+ * #%L
+ * org.sputnikdev:bluetooth-manager-tinyb
+ * %%
+ * Copyright (C) 2017 Sputnik Dev
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import org.sputnikdev.bluetooth.URL;
+import org.sputnikdev.bluetooth.manager.transport.BluetoothObject;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * A registry of transport objects (wrappers of backend objects) that makes sure that the same wrapper instance
+ * (and therefore the same URL instance) is returned for the same backend object.
+ * Backend objects are compared by their identity in the stack (e.g. DBus object path), hence they are used as keys.
+ * Wrappers are weakly referenced, so that they are garbage collected when they are not used anymore.
+ * @author Vlad Kolotov
+ */
+class WrapperRegistry {
+
+    private final Map<BackendObject, WrapperReference> wrappers = new ConcurrentHashMap<>();
+    private final ReferenceQueue<BluetoothObject> queue = new ReferenceQueue<>();
+
+    /**
+     * Returns an existing wrapper for the given backend object or creates a new one.
+     * @param nativeObject backend object
+     * @param factory a function to create a new wrapper
+     * @param <N> backend object type
+     * @param <W> wrapper type
+     * @return a wrapper for the given backend object
+     */
+    @SuppressWarnings("unchecked")
+    <N extends BackendObject, W extends BluetoothObject> W intern(N nativeObject, Function<N, W> factory) {
+        expunge();
+        WrapperReference reference = wrappers.get(nativeObject);
+        W wrapper = reference != null ? (W) reference.get() : null;
+        if (wrapper != null) {
+            return wrapper;
+        }
+        W created = factory.apply(nativeObject);
+        reference = wrappers.compute(nativeObject, (key, existing) ->
+                existing != null && existing.get() != null ? existing : new WrapperReference(key, created, queue));
+        wrapper = (W) reference.get();
+        return wrapper != null ? wrapper : created;
+    }
+
+    /**
+     * Removes wrappers of the given object and all its descendants.
+     * @param url object URL
+     */
+    void invalidate(URL url) {
+        wrappers.values().removeIf(reference -> {
+            BluetoothObject wrapper = reference.get();
+            return wrapper == null || NativeObjectCache.isDescendant(url, wrapper.getURL());
+        });
+    }
+
+    /**
+     * Removes wrappers of services and characteristics of the given device.
+     * @param url device URL
+     */
+    void invalidateServices(URL url) {
+        URL deviceURL = url.getDeviceURL();
+        wrappers.values().removeIf(reference -> {
+            BluetoothObject wrapper = reference.get();
+            if (wrapper == null) {
+                return true;
+            }
+            URL wrapperURL = wrapper.getURL();
+            return wrapperURL.getServiceUUID() != null && NativeObjectCache.isDescendant(deviceURL, wrapperURL);
+        });
+    }
+
+    void clear() {
+        wrappers.clear();
+    }
+
+    int size() {
+        expunge();
+        return wrappers.size();
+    }
+
+    private void expunge() {
+        WrapperReference reference;
+        while ((reference = (WrapperReference) queue.poll()) != null) {
+            wrappers.remove(reference.key, reference);
+        }
+    }
+
+    private static final class WrapperReference extends WeakReference<BluetoothObject> {
+
+        private final BackendObject key;
+
+        private WrapperReference(BackendObject key, BluetoothObject wrapper,
+                                 ReferenceQueue<BluetoothObject> queue) {
+            super(wrapper, queue);
+            this.key = key;
+        }
+    }
+
+}
@@ -0,0 +1,97 @@
+package org.sputnikdev.bluetooth.manager.transport.tinyb;
+
+/*-
+ * #%L
+ * org.sputnikdev:bluetooth-manager-tinyb
+ * %%
+ * Copyright (C) 2017 Sputnik Dev
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+/**
+ * A result of a streaming write, see {@link TinyBFactory#writeStream}.
+ * @author Vlad Kolotov
+ */
+public final class WriteStreamResult {
+
+    private final long bytes;
+    private final int chunks;
+    private final int retries;
+    private final long elapsed;
+    private final boolean withoutResponse;
+
+    WriteStreamResult(long bytes, int chunks, int retries, long elapsed, boolean withoutResponse) {
+        this.bytes = bytes;
+        this.chunks = chunks;
+        this.retries = retries;
+        this.elapsed = elapsed;
+        this.withoutResponse = withoutResponse;
+    }
+
+    /**
+     * Returns number of written bytes.
+     * @return number of bytes
+     */
+    public long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * Returns number of written chunks.
+     * @return number of chunks
+     */
+    public int getChunks() {
+        return chunks;
+    }
+
+    /**
+     * Returns number of chunk writes that were retried because the bluetooth stack was busy.
+     * @return number of retries
+     */
+    public int getRetries() {
+        return retries;
+    }
+
+    /**
+     * Returns time spent on writing.
+     * @return elapsed time in nanoseconds
+     */
+    public long getElapsed() {
+        return elapsed;
+    }
+
+    /**
+     * Returns true if chunks were written without response.
+     * @return true if write-without-response was used
+     */
+    public boolean isWithoutResponse() {
+        return withoutResponse;
+    }
+
+    /**
+     * Returns write throughput.
+     * @return throughput in bytes per second
+     */
+    public double getThroughput() {
+        return elapsed > 0 ? bytes * 1e9 / elapsed : 0;
+    }
+
+    @Override
+    public String toString() {
+        return "[bytes=" + bytes + ", chunks=" + chunks + ", retries=" + retries + ", elapsed=" + elapsed / 1000000
+                + "ms, throughput=" + Math.round(getThroughput()) + "B/s, withoutResponse=" + withoutResponse + "]";
+    }
+
+}
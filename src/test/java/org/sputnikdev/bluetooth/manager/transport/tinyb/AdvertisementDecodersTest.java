@@ -0,0 +1,139 @@
+package org.sputnikdev.bluetooth.manager.transport.tinyb;
+
+import org.junit.Test;
+
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class AdvertisementDecodersTest {
+
+    static final byte[] IBEACON = {0x02, 0x15, (byte) 0xe2, (byte) 0xc5, 0x6d, (byte) 0xb5, (byte) 0xdf, (byte) 0xfb,
+        0x48, (byte) 0xd2, (byte) 0xb0, 0x60, (byte) 0xd0, (byte) 0xf5, (byte) 0xa7, 0x10, (byte) 0x96, (byte) 0xe0,
+        0x00, 0x01, 0x00, 0x02, (byte) 0xc5};
+    static final byte[] EDDYSTONE_TLM = {0x20, 0x00, 0x0b, (byte) 0xb8, 0x19, (byte) 0x80, 0x00, 0x00, 0x00, 0x64,
+        0x00, 0x00, 0x03, (byte) 0xe8};
+
+    @Test
+    public void testIBeacon() {
+        IBeacon beacon = IBeacon.decode(IBEACON);
+        assertNotNull(beacon);
+        assertEquals(UUID.fromString("e2c56db5-dffb-48d2-b060-d0f5a71096e0"), beacon.getProximityUUID());
+        assertEquals(1, beacon.getMajor());
+        assertEquals(2, beacon.getMinor());
+        assertEquals(-59, beacon.getMeasuredPower());
+
+        assertNull(IBeacon.decode(new byte[] {0x02, 0x15, 0x00}));
+        assertNull(IBeacon.decode(new byte[] {0x10, 0x05, 0x03, 0x18, 0x00, 0x00}));
+    }
+
+    @Test
+    public void testEddystoneUID() {
+        Eddystone frame = Eddystone.decode(new byte[] {0x00, (byte) 0xec, 0x01, 0x02, 0x03, 0x04, 0x05, 0x06, 0x07,
+            0x08, 0x09, 0x0a, 0x0b, 0x0c, 0x0d, 0x0e, 0x0f, 0x10, 0x00, 0x00});
+        assertNotNull(frame);
+        assertEquals(Eddystone.FrameType.UID, frame.getFrameType());
+        assertEquals(-20, frame.getTxPower());
+        assertEquals("0102030405060708090a", frame.getNamespace());
+        assertEquals("0b0c0d0e0f10", frame.getInstance());
+    }
+
+    @Test
+    public void testEddystoneURL() {
+        Eddystone frame = Eddystone.decode(new byte[] {0x10, (byte) 0xf4, 0x00, 'e', 'x', 'a', 'm', 'p', 'l', 'e',
+            0x00, 'i', 'n', 'd', 'e', 'x'});
+        assertNotNull(frame);
+        assertEquals(Eddystone.FrameType.URL, frame.getFrameType());
+        assertEquals(-12, frame.getTxPower());
+        assertEquals("http://www.example.com/index", frame.getURL());
+
+        assertNull(Eddystone.decode(new byte[] {0x10, (byte) 0xf4, 0x05}));
+    }
+
+    @Test
+    public void testEddystoneTLM() {
+        Eddystone frame = Eddystone.decode(EDDYSTONE_TLM);
+        assertNotNull(frame);
+        assertEquals(Eddystone.FrameType.TLM, frame.getFrameType());
+        assertEquals(3000, frame.getBatteryVoltage());
+        assertEquals(25.5, frame.getTemperature(), 0.001);
+        assertEquals(100, frame.getAdvertisementCount());
+        assertEquals(100000, frame.getUptime());
+
+        byte[] unsupported = EDDYSTONE_TLM.clone();
+        unsupported[4] = (byte) 0x80;
+        unsupported[5] = 0x00;
+        assertTrue(Double.isNaN(Eddystone.decode(unsupported).getTemperature()));
+        // encrypted telemetry
+        unsupported[1] = 0x01;
+        assertNull(Eddystone.decode(unsupported));
+    }
+
+    @Test
+    public void testEddystoneEID() {
+        Eddystone frame = Eddystone.decode(new byte[] {0x30, (byte) 0xec, 0x01, 0x02, 0x03, 0x04, 0x05, 0x06, 0x07,
+            (byte) 0xff});
+        assertNotNull(frame);
+        assertEquals(Eddystone.FrameType.EID, frame.getFrameType());
+        assertEquals("01020304050607ff", frame.getEphemeralId());
+
+        assertNull(Eddystone.decode(new byte[] {0x40, 0x00}));
+        assertNull(Eddystone.decode(new byte[] {0x00}));
+    }
+
+    @Test
+    public void testMiBeacon() {
+        MiBeacon beacon = MiBeacon.decode(new byte[] {0x50, 0x20, (byte) 0xaa, 0x01, 0x12, 0x66, 0x55, 0x44, 0x33,
+            0x22, 0x11, 0x0d, 0x10, 0x04, (byte) 0xe1, 0x00, (byte) 0x8a, 0x02});
+        assertNotNull(beacon);
+        assertEquals(0x01aa, beacon.getProductId());
+        assertEquals(0x12, beacon.getFrameCounter());
+        assertEquals("11:22:33:44:55:66", beacon.getAddress());
+        assertFalse(beacon.isEncrypted());
+        assertEquals(0x100d, beacon.getObjectId());
+        assertEquals(22.5, beacon.getTemperature(), 0.001);
+        assertEquals(65.0, beacon.getHumidity(), 0.001);
+        assertNull(beacon.getBattery());
+
+        beacon = MiBeacon.decode(new byte[] {0x40, 0x20, (byte) 0xaa, 0x01, 0x13, 0x0a, 0x10, 0x01, 0x5d});
+        assertNotNull(beacon);
+        assertNull(beacon.getAddress());
+        assertEquals(Integer.valueOf(93), beacon.getBattery());
+        assertNull(beacon.getTemperature());
+
+        beacon = MiBeacon.decode(new byte[] {0x48, 0x30, (byte) 0xaa, 0x01, 0x14, 0x01, 0x02, 0x03});
+        assertNotNull(beacon);
+        assertTrue(beacon.isEncrypted());
+        assertEquals(0, beacon.getObjectId());
+
+        assertNull(MiBeacon.decode(new byte[] {0x50, 0x20, (byte) 0xaa}));
+    }
+
+    @Test
+    public void testRegistry() {
+        AdvertisementDecoders decoders = new AdvertisementDecoders();
+        assertNull(decoders.getServiceDataDecoder("feaa"));
+        decoders.registerDefaults();
+        assertNotNull(decoders.getServiceDataDecoder("FEAA"));
+        assertNotNull(decoders.getServiceDataDecoder(Eddystone.SERVICE_UUID));
+        assertNotNull(decoders.getServiceDataDecoder("fe95"));
+        assertNotNull(decoders.getManufacturerDataDecoder((short) 0x004c));
+
+        AdvertisementDecoder<String> decoder = data -> "custom";
+        decoders.registerServiceDataDecoder("feaa", decoder);
+        assertSame(decoder, decoders.getServiceDataDecoder(Eddystone.SERVICE_UUID));
+        decoders.unregisterServiceDataDecoder(Eddystone.SERVICE_UUID);
+        assertNull(decoders.getServiceDataDecoder("feaa"));
+        decoders.unregisterManufacturerDataDecoder((short) 0x004c);
+        assertNull(decoders.getManufacturerDataDecoder((short) 0x004c));
+
+        decoders.clear();
+        assertNull(decoders.getServiceDataDecoder("fe95"));
+    }
+
+}
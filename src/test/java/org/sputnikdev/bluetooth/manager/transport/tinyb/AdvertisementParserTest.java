@@ -0,0 +1,220 @@
+package org.sputnikdev.bluetooth.manager.transport.tinyb;
+
+import org.junit.Test;
+import org.sputnikdev.bluetooth.URL;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class AdvertisementParserTest {
+
+    private static final URL URL = new URL("tinyb:/11:22:33:44:55:66/12:34:56:78:90:12");
+    private static final String SERVICE = "0000feaa-0000-1000-8000-00805f9b34fb";
+    private static final URL SIMULATED_DEVICE = new URL(TinyBFactory.TINYB_PROTOCOL_NAME,
+            "11:5E:ED:00:00:00", "20:5E:ED:00:00:01");
+
+    private final AdvertisementDecoders decoders = new AdvertisementDecoders();
+    private final AdvertisementParser parser = new AdvertisementParser(URL, () -> decoders);
+    private final AtomicInteger decoded = new AtomicInteger();
+    private final List<Object> changed = new ArrayList<>();
+
+    @Test
+    public void testDecodeOnChangeOnly() {
+        decoders.registerServiceDataDecoder("feaa", data -> {
+            decoded.incrementAndGet();
+            return data[0];
+        });
+        Map<String, byte[]> data = new HashMap<>();
+        data.put(SERVICE, new byte[] {1});
+        parser.parseServiceData(data, changed::add);
+        Object first = parser.getServiceData("feaa");
+        assertEquals((byte) 1, first);
+
+        // equal content, but a different array
+        data.put(SERVICE, new byte[] {1});
+        parser.parseServiceData(data, changed::add);
+        assertEquals(1, decoded.get());
+        assertSame(first, parser.getServiceData(SERVICE));
+
+        data.put(SERVICE, new byte[] {2});
+        parser.parseServiceData(data, changed::add);
+        assertEquals(2, decoded.get());
+        assertEquals(2, changed.size());
+        assertEquals((byte) 2, parser.getServiceData(SERVICE));
+    }
+
+    @Test
+    public void testPayloadIsCopied() {
+        decoders.registerManufacturerDataDecoder((short) 1, data -> decoded.incrementAndGet());
+        byte[] payload = {1};
+        parser.parseManufacturerData(Collections.singletonMap((short) 1, payload), null);
+        payload[0] = 2;
+        parser.parseManufacturerData(Collections.singletonMap((short) 1, payload), null);
+        assertEquals(2, decoded.get());
+        assertEquals(2, parser.getManufacturerData((short) 1));
+    }
+
+    @Test
+    public void testDecoderChange() {
+        decoders.registerManufacturerDataDecoder((short) 1, data -> "first");
+        Map<Short, byte[]> data = Collections.singletonMap((short) 1, new byte[] {1});
+        parser.parseManufacturerData(data, changed::add);
+        decoders.registerManufacturerDataDecoder((short) 1, data2 -> "second");
+        parser.parseManufacturerData(data, changed::add);
+        assertEquals("second", parser.getManufacturerData((short) 1));
+        assertEquals(2, changed.size());
+    }
+
+    @Test
+    public void testNoDecoder() {
+        parser.parseServiceData(Collections.singletonMap(SERVICE, new byte[] {1}), changed::add);
+        assertNull(parser.getServiceData(SERVICE));
+        assertTrue(changed.isEmpty());
+        parser.parseServiceData(null, changed::add);
+    }
+
+    @Test
+    public void testFailingDecoder() {
+        decoders.registerServiceDataDecoder(SERVICE, data -> {
+            decoded.incrementAndGet();
+            throw new IllegalArgumentException("test");
+        });
+        Map<String, byte[]> data = Collections.singletonMap(SERVICE, new byte[] {1});
+        parser.parseServiceData(data, changed::add);
+        parser.parseServiceData(data, changed::add);
+        assertNull(parser.getServiceData(SERVICE));
+        assertTrue(changed.isEmpty());
+        // a malformed payload is not decoded again until it changes
+        assertEquals(1, decoded.get());
+    }
+
+    @Test
+    public void testReset() {
+        decoders.registerServiceDataDecoder(SERVICE, data -> decoded.incrementAndGet());
+        Map<String, byte[]> data = Collections.singletonMap(SERVICE, new byte[] {1});
+        parser.parseServiceData(data, changed::add);
+        parser.reset();
+        assertNull(parser.getServiceData(SERVICE));
+        parser.parseServiceData(data, changed::add);
+        assertEquals(2, changed.size());
+    }
+
+    @Test
+    public void testMissingPayloadIsDropped() {
+        decoders.registerServiceDataDecoder("feaa", data -> data[0]);
+        decoders.registerManufacturerDataDecoder((short) 1, data -> data[0]);
+        parser.parseServiceData(Collections.singletonMap(SERVICE, new byte[] {1}), changed::add);
+        parser.parseManufacturerData(Collections.singletonMap((short) 1, new byte[] {2}), changed::add);
+        assertEquals((byte) 1, parser.getServiceData("feaa"));
+        assertEquals((byte) 2, parser.getManufacturerData((short) 1));
+
+        // the short form of the same service UUID is not a missing payload
+        parser.parseServiceData(Collections.singletonMap("feaa", new byte[] {1}), changed::add);
+        assertEquals((byte) 1, parser.getServiceData(SERVICE));
+        assertEquals(2, changed.size());
+
+        parser.parseServiceData(Collections.singletonMap("180f", new byte[] {3}), changed::add);
+        assertNull(parser.getServiceData(SERVICE));
+        parser.parseManufacturerData(Collections.emptyMap(), changed::add);
+        assertNull(parser.getManufacturerData((short) 1));
+        assertEquals(2, changed.size());
+    }
+
+    @Test
+    public void testMetrics() {
+        InMemoryMetricsRegistry registry = new InMemoryMetricsRegistry();
+        Metrics.setRegistry(registry);
+        try {
+            decoders.registerManufacturerDataDecoder((short) 0x004c, IBeacon::decode);
+            Map<Short, byte[]> data = Collections.singletonMap((short) 0x004c, AdvertisementDecodersTest.IBEACON);
+            parser.parseManufacturerData(data, null);
+            parser.parseManufacturerData(data, null);
+            assertEquals(1, registry.getTimerSnapshot(Metrics.DECODE, "adapter", URL.getAdapterAddress(),
+                    "payload", "004c").getCount());
+            assertEquals(1, registry.getCount(Metrics.UNCHANGED_ADVERTISEMENTS, "adapter", URL.getAdapterAddress()));
+        } finally {
+            Metrics.setRegistry(null);
+        }
+    }
+
+    @Test
+    public void testDeviceAdvertisements() throws Exception {
+        SimulatedBackend backend = new SimulatedBackend(42).populate(1, 3, 2);
+        TinyBFactory factory = new TinyBFactory(backend);
+        URL url = SIMULATED_DEVICE;
+        SimulatedBackend.SimulatedDevice device = (SimulatedBackend.SimulatedDevice)
+                backend.getDevice(backend.getAdapter(url.getAdapterAddress()), url.getDeviceAddress());
+        device.setManufacturerData((short) 0x004c, AdvertisementDecodersTest.IBEACON);
+        device.setServiceData(SERVICE, AdvertisementDecodersTest.EDDYSTONE_TLM);
+
+        IBeacon beacon = factory.getDecodedManufacturerData(url, (short) 0x004c, IBeacon.class);
+        assertEquals(1, beacon.getMajor());
+        assertSame(beacon, factory.getDecodedManufacturerData(url, (short) 0x004c, IBeacon.class));
+        assertNull(factory.getDecodedManufacturerData(url, (short) 0x004c, Eddystone.class));
+        assertEquals(3000, factory.getDecodedServiceData(url, "feaa", Eddystone.class).getBatteryVoltage());
+
+        assertTrue(factory.getAdapter(url.getAdapterURL()).startDiscovery());
+        List<Object> received = new CopyOnWriteArrayList<>();
+        CountDownLatch latch = new CountDownLatch(3);
+        factory.enableAdvertisementNotifications(url, value -> {
+            received.add(value);
+            latch.countDown();
+        });
+        // the same advertisement is decoded and delivered only once
+        backend.advance(3000);
+        device.setManufacturerData((short) 0x004c, new byte[] {0x02, 0x15});
+        device.setServiceData(SERVICE, new byte[] {0x10, 0x00, 0x02, 'a'});
+        backend.advance(1000);
+        assertTrue(latch.await(1, TimeUnit.SECONDS));
+        Thread.sleep(100);
+        assertEquals(3, received.size());
+        assertTrue(received.stream().anyMatch(value -> value instanceof IBeacon));
+        assertTrue(received.stream().anyMatch(value -> value instanceof Eddystone
+                && "http://a".equals(((Eddystone) value).getURL())));
+
+        factory.disableAdvertisementNotifications(url);
+        device.setServiceData(SERVICE, AdvertisementDecodersTest.EDDYSTONE_TLM);
+        backend.advance(1000);
+        Thread.sleep(100);
+        assertEquals(3, received.size());
+    }
+
+    @Test
+    public void testDisableServiceDataKeepsAdvertisements() throws Exception {
+        SimulatedBackend backend = new SimulatedBackend(42).populate(1, 3, 2);
+        TinyBFactory factory = new TinyBFactory(backend);
+        URL url = SIMULATED_DEVICE;
+        SimulatedBackend.SimulatedDevice device = (SimulatedBackend.SimulatedDevice)
+                backend.getDevice(backend.getAdapter(url.getAdapterAddress()), url.getDeviceAddress());
+        device.setServiceData(SERVICE, AdvertisementDecodersTest.EDDYSTONE_TLM);
+        assertTrue(factory.getAdapter(url.getAdapterURL()).startDiscovery());
+
+        List<Object> received = new CopyOnWriteArrayList<>();
+        factory.enableAdvertisementNotifications(url, received::add);
+        factory.getDevice(url).enableServiceDataNotifications(value -> { });
+        factory.getDevice(url).disableServiceDataNotifications();
+
+        // advertisement subscribers keep receiving decoded service data
+        device.setServiceData(SERVICE, new byte[] {0x10, 0x00, 0x02, 'a'});
+        backend.advance(1000);
+        Thread.sleep(100);
+        assertTrue(received.stream().anyMatch(value -> value instanceof Eddystone
+                && "http://a".equals(((Eddystone) value).getURL())));
+        assertEquals("http://a", factory.getDecodedServiceData(url, "feaa", Eddystone.class).getURL());
+
+        factory.disableAdvertisementNotifications(url);
+    }
+
+}
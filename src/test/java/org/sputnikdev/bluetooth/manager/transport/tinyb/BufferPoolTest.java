@@ -0,0 +1,253 @@
+package org.sputnikdev.bluetooth.manager.transport.tinyb;
+
+import org.junit.Test;
+import org.sputnikdev.bluetooth.URL;
+import org.sputnikdev.bluetooth.manager.transport.Notification;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class BufferPoolTest {
+
+    private static final URL BATTERY_LEVEL = new URL(TinyBFactory.TINYB_PROTOCOL_NAME, "11:5E:ED:00:00:00",
+            "20:5E:ED:00:00:01", "0000180f-0000-1000-8000-00805f9b34fb", "00002a19-0000-1000-8000-00805f9b34fb", null);
+
+    @Test
+    public void testAcquireRelease() {
+        BufferPool pool = new BufferPool(2, false);
+
+        ByteBuffer buffer = pool.acquire(20);
+        assertEquals(32, buffer.capacity());
+        assertEquals(20, buffer.limit());
+        assertEquals(0, buffer.position());
+        assertFalse(buffer.isDirect());
+        buffer.put((byte) 1);
+        pool.release(buffer);
+
+        // same size class
+        ByteBuffer reused = pool.acquire(17);
+        assertSame(buffer, reused);
+        assertEquals(17, reused.limit());
+        assertEquals(0, reused.position());
+        assertEquals(1, pool.getAllocationCount());
+        assertEquals(1, pool.getReuseCount());
+
+        // different size class
+        assertNotSame(buffer, pool.acquire(33));
+        assertEquals(2, pool.getAllocationCount());
+    }
+
+    @Test
+    public void testSizeClasses() {
+        BufferPool pool = new BufferPool(1, false);
+        assertEquals(1, pool.acquire(0).capacity());
+        assertEquals(1, pool.acquire(1).capacity());
+        assertEquals(2, pool.acquire(2).capacity());
+        assertEquals(512, pool.acquire(257).capacity());
+        assertEquals(600, pool.acquire(600).capacity());
+    }
+
+    @Test
+    public void testPoolLimit() {
+        BufferPool pool = new BufferPool(1, false);
+        ByteBuffer first = pool.acquire(8);
+        ByteBuffer second = pool.acquire(8);
+        pool.release(first);
+        pool.release(second);
+
+        assertSame(first, pool.acquire(8));
+        assertNotSame(second, pool.acquire(8));
+    }
+
+    @Test
+    public void testForeignBuffersAreNotPooled() {
+        BufferPool pool = new BufferPool(4, false);
+        ByteBuffer oddCapacity = ByteBuffer.allocate(10);
+        ByteBuffer direct = ByteBuffer.allocateDirect(16);
+        ByteBuffer readOnly = ByteBuffer.allocate(16).asReadOnlyBuffer();
+        pool.release(oddCapacity);
+        pool.release(direct);
+        pool.release(readOnly);
+
+        assertEquals(16, pool.acquire(10).capacity());
+        assertEquals(1, pool.getAllocationCount());
+        assertEquals(0, pool.getReuseCount());
+    }
+
+    @Test
+    public void testDirect() {
+        BufferPool pool = new BufferPool(1, true);
+        ByteBuffer buffer = pool.acquire(4);
+        assertTrue(buffer.isDirect());
+        pool.release(buffer);
+        assertSame(buffer, pool.acquire(4));
+    }
+
+    @Test
+    public void testPoolingDisabled() {
+        BufferPool pool = new BufferPool(0, false);
+        ByteBuffer buffer = pool.acquire(4);
+        pool.release(buffer);
+        assertNotSame(buffer, pool.acquire(4));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegativeSize() {
+        new BufferPool(1, false).acquire(-1);
+    }
+
+    @Test
+    public void testValueBuffers() throws Exception {
+        SimulatedBackend backend = new SimulatedBackend(42).populate(1, 3, 2);
+        TinyBFactory factory = new TinyBFactory(backend);
+        URL url = BATTERY_LEVEL;
+        try {
+            factory.getDevice(url).connect();
+
+            ByteBuffer target = ByteBuffer.allocateDirect(8);
+            target.put((byte) 7);
+            assertEquals(1, factory.readValue(url, target));
+            target.flip();
+            assertEquals(7, target.get());
+            assertEquals(100, target.get());
+
+            ByteBuffer source = ByteBuffer.allocateDirect(4);
+            source.put(new byte[] {1, 2, 3, 4});
+            source.flip();
+            source.position(2);
+            assertTrue(factory.writeValue(url, source));
+            assertFalse(source.hasRemaining());
+            assertArrayEquals(new byte[] {3, 4}, factory.getCharacteristic(url).readValue());
+
+            BufferPool pool = new BufferPool(4, false);
+            factory.getContext().setBufferPool(pool);
+            CountDownLatch received = new CountDownLatch(2);
+            List<byte[]> values = new ArrayList<>();
+            factory.enableValueBufferNotifications(url, buffer -> {
+                byte[] value = new byte[buffer.remaining()];
+                buffer.get(value);
+                values.add(value);
+                received.countDown();
+            });
+            SimulatedBackend.SimulatedCharacteristic characteristic = getSimulated(backend, url);
+            characteristic.setValue(new byte[] {42});
+            // waiting for the first buffer to be returned to the pool
+            Thread.sleep(100);
+            characteristic.setValue(new byte[] {43});
+            assertTrue(received.await(1, TimeUnit.SECONDS));
+
+            assertArrayEquals(new byte[] {42}, values.get(0));
+            assertArrayEquals(new byte[] {43}, values.get(1));
+            assertEquals(1, pool.getAllocationCount());
+            assertEquals(1, pool.getReuseCount());
+        } finally {
+            factory.dispose();
+        }
+    }
+
+    @Test
+    public void testValueAndBufferSubscribers() throws Exception {
+        SimulatedBackend backend = new SimulatedBackend(42).populate(1, 3, 2);
+        TinyBFactory factory = new TinyBFactory(backend);
+        URL url = BATTERY_LEVEL;
+        try {
+            factory.getDevice(url).connect();
+            SimulatedBackend.SimulatedCharacteristic characteristic = getSimulated(backend, url);
+
+            CountDownLatch received = new CountDownLatch(3);
+            List<byte[]> values = new CopyOnWriteArrayList<>();
+            Notification<byte[]> valueSubscriber = value -> {
+                values.add(value);
+                received.countDown();
+            };
+            Notification<ByteBuffer> bufferSubscriber = buffer -> {
+                byte[] value = new byte[buffer.remaining()];
+                buffer.get(value);
+                values.add(value);
+                received.countDown();
+            };
+            factory.getCharacteristic(url).enableValueNotifications(valueSubscriber);
+            factory.enableValueBufferNotifications(url, bufferSubscriber);
+            // each buffer subscriber reads the whole value
+            factory.enableValueBufferNotifications(url, bufferSubscriber::notify);
+            // enabling value notifications again does not replace buffer subscribers
+            factory.getCharacteristic(url).enableValueNotifications(valueSubscriber);
+
+            characteristic.setValue(new byte[] {42});
+            assertTrue(received.await(1, TimeUnit.SECONDS));
+            assertEquals(3, values.size());
+            for (byte[] value : values) {
+                assertArrayEquals(new byte[] {42}, value);
+            }
+
+            // buffer subscribers keep the native notification enabled
+            factory.removeValueNotification(url, valueSubscriber);
+            assertTrue(characteristic.getNotifying());
+
+            factory.getCharacteristic(url).disableValueNotifications();
+            assertFalse(characteristic.getNotifying());
+        } finally {
+            factory.dispose();
+        }
+    }
+
+    @Test
+    public void testBuffersAreReleasedOnOverflow() throws Exception {
+        SimulatedBackend backend = new SimulatedBackend(42).populate(1, 3, 2);
+        TinyBFactory factory = new TinyBFactory(backend);
+        URL url = BATTERY_LEVEL;
+        try {
+            factory.getDevice(url).connect();
+            SimulatedBackend.SimulatedCharacteristic characteristic = getSimulated(backend, url);
+
+            Map<String, Object> config = new HashMap<>();
+            config.put(TinyBFactory.NOTIFICATION_QUEUE_CAPACITY, 1);
+            config.put(TinyBFactory.NOTIFICATION_OVERFLOW_POLICY, "coalesce");
+            factory.configure(config);
+            BufferPool pool = new BufferPool(4, false);
+            factory.getContext().setBufferPool(pool);
+            CountDownLatch blocked = new CountDownLatch(1);
+            CountDownLatch received = new CountDownLatch(20);
+            factory.enableValueBufferNotifications(url, buffer -> {
+                try {
+                    blocked.await();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+                received.countDown();
+            });
+            // dispatcher tasks get coalesced while the subscriber is blocked
+            for (int i = 0; i < 20; i++) {
+                characteristic.setValue(new byte[] {(byte) i});
+            }
+            blocked.countDown();
+            assertTrue(received.await(1, TimeUnit.SECONDS));
+
+            // values are copied into buffers only when they are delivered, one at a time
+            assertEquals(1, pool.getAllocationCount());
+            assertEquals(19, pool.getReuseCount());
+        } finally {
+            factory.dispose();
+        }
+    }
+
+    private static SimulatedBackend.SimulatedCharacteristic getSimulated(SimulatedBackend backend, URL url) {
+        return (SimulatedBackend.SimulatedCharacteristic) backend.getCharacteristic(backend.getService(
+                backend.getDevice(backend.getAdapter(url.getAdapterAddress()), url.getDeviceAddress()),
+                url.getServiceUUID()), url.getCharacteristicUUID());
+    }
+
+}
@@ -0,0 +1,118 @@
+package org.sputnikdev.bluetooth.manager.transport.tinyb;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.sputnikdev.bluetooth.URL;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CharacteristicReadResultTest {
+
+    private static final String ADAPTER = "11:5E:ED:00:00:00";
+    private static final String DEVICE = "20:5E:ED:00:00:01";
+    private static final String SERVICE = "0000180f-0000-1000-8000-00805f9b34fb";
+    private static final String CHARACTERISTIC = "00002a19-0000-1000-8000-00805f9b34fb";
+
+    private SimulatedBackend backend;
+    private TinyBFactory factory;
+
+    @Before
+    public void setUp() {
+        backend = new SimulatedBackend(42).populate(1, 3, 2);
+        factory = new TinyBFactory(backend);
+    }
+
+    @After
+    public void tearDown() {
+        factory.dispose();
+    }
+
+    @Test
+    public void testReadCharacteristics() {
+        URL battery = new URL(TinyBFactory.TINYB_PROTOCOL_NAME, ADAPTER, DEVICE, SERVICE, CHARACTERISTIC, null);
+        URL generic = new URL(TinyBFactory.TINYB_PROTOCOL_NAME, ADAPTER, DEVICE,
+                "00000001-0000-1000-8000-00805f9b34fb", "00001001-0000-1000-8000-00805f9b34fb", null);
+        URL missing = battery.copyWithCharacteristic("0000ffff-0000-1000-8000-00805f9b34fb");
+        URL disconnected = new URL(TinyBFactory.TINYB_PROTOCOL_NAME, ADAPTER, "20:5E:ED:00:00:02",
+                SERVICE, CHARACTERISTIC, null);
+        backend.setGattLatency(5);
+        factory.getDevice(battery).connect();
+
+        Map<URL, CharacteristicReadResult> results =
+                factory.readCharacteristics(Arrays.asList(battery, generic, missing, disconnected));
+
+        assertEquals(Arrays.asList(battery, generic, missing, disconnected), new ArrayList<>(results.keySet()));
+        assertArrayEquals(new byte[] {100}, results.get(battery).getValue());
+        assertArrayEquals(new byte[] {1}, results.get(generic).getValue());
+        assertTrue(results.get(battery).getLatency() > 0);
+        assertFalse(results.get(missing).isSuccess());
+        assertFalse(results.get(disconnected).isSuccess());
+    }
+
+    @Test
+    public void testDevicesAreReadInParallel() {
+        URL first = new URL(TinyBFactory.TINYB_PROTOCOL_NAME, ADAPTER, DEVICE, SERVICE, CHARACTERISTIC, null);
+        URL second = new URL(TinyBFactory.TINYB_PROTOCOL_NAME, ADAPTER, "20:5E:ED:00:00:02",
+                SERVICE, CHARACTERISTIC, null);
+        factory.getDevice(first).connect();
+        factory.getDevice(second).connect();
+        backend.setGattLatency(300);
+        try {
+            long started = System.currentTimeMillis();
+            Map<URL, CharacteristicReadResult> results =
+                    factory.readCharacteristics(Arrays.asList(first, second));
+
+            assertTrue(results.get(first).isSuccess());
+            assertTrue(results.get(second).isSuccess());
+            // reads of the second device are not waiting for the first device
+            assertTrue(System.currentTimeMillis() - started < 550);
+        } finally {
+            backend.setGattLatency(0);
+            factory.getDevice(first).disconnect();
+            factory.getDevice(second).disconnect();
+        }
+    }
+
+    @Test
+    public void testBatchDoesNotStarveOtherDevices() throws Exception {
+        backend = new SimulatedBackend(42).populate(1, 3, 16);
+        factory = new TinyBFactory(backend);
+        URL battery = new URL(TinyBFactory.TINYB_PROTOCOL_NAME, ADAPTER, "20:5E:ED:00:00:02",
+                SERVICE, CHARACTERISTIC, null);
+        URL service = new URL(TinyBFactory.TINYB_PROTOCOL_NAME, ADAPTER, DEVICE)
+                .copyWithService("00000001-0000-1000-8000-00805f9b34fb");
+        List<URL> batch = new ArrayList<>();
+        for (int i = 0; i < 16; i++) {
+            batch.add(service.copyWithCharacteristic(String.format("%08x-0000-1000-8000-00805f9b34fb", 0x1000 + i)));
+        }
+        factory.getDevice(battery).connect();
+        factory.getDevice(service).connect();
+        backend.setGattLatency(100);
+        try {
+            CompletableFuture<Map<URL, CharacteristicReadResult>> pending =
+                    CompletableFuture.supplyAsync(() -> factory.readCharacteristics(batch));
+            Thread.sleep(50);
+
+            // the batch occupies a single GATT thread, as reads of a connection are executed one at a time
+            long started = System.currentTimeMillis();
+            assertTrue(factory.readCharacteristics(Arrays.asList(battery)).get(battery).isSuccess());
+            assertTrue(System.currentTimeMillis() - started < 300);
+            assertTrue(pending.get().values().stream().allMatch(CharacteristicReadResult::isSuccess));
+        } finally {
+            backend.setGattLatency(0);
+            factory.getDevice(battery).disconnect();
+            factory.getDevice(service).disconnect();
+        }
+    }
+
+}
@@ -0,0 +1,184 @@
+package org.sputnikdev.bluetooth.manager.transport.tinyb;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.sputnikdev.bluetooth.URL;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ConnectRetryTest {
+
+    private static final URL DEVICE = new URL(TinyBFactory.TINYB_PROTOCOL_NAME,
+            "11:22:33:44:55:66", "12:34:56:78:90:12");
+    private static final String IN_PROGRESS = "GDBus.Error:org.bluez.Error.InProgress: Operation already in progress";
+    private static final String ABORTED = "GDBus.Error:org.bluez.Error.Failed: Software caused connection abort";
+    private static final String IO_ERROR = "GDBus.Error:org.bluez.Error.Failed: Input/output error";
+
+    private final ConnectRetry retry = new ConnectRetry(DEVICE);
+    private final AtomicInteger calls = new AtomicInteger();
+
+    @Before
+    public void setUp() {
+        retry.configure(3, 1, 0);
+    }
+
+    @Test
+    public void testClassify() {
+        assertEquals(BluezError.IN_PROGRESS, BluezError.classify(new TinyBException(IN_PROGRESS)));
+        assertEquals(BluezError.ABORTED, BluezError.classify(new TinyBException(ABORTED)));
+        assertEquals(BluezError.IO_ERROR, BluezError.classify(new TinyBException(IO_ERROR)));
+        assertEquals(BluezError.TIMEOUT, BluezError.classify(
+                new TinyBException("GDBus.Error:org.freedesktop.DBus.Error.NoReply: Timeout was reached")));
+        assertEquals(BluezError.UNKNOWN, BluezError.classify(new TinyBException("Something else")));
+        assertEquals(BluezError.UNKNOWN, BluezError.classify(new TinyBException()));
+        assertTrue(BluezError.ABORTED.isRetryable());
+        assertFalse(BluezError.IO_ERROR.isRetryable());
+    }
+
+    @Test
+    public void testRetryableErrorIsRetried() {
+        assertTrue(retry.connect(() -> {
+            if (calls.incrementAndGet() < 3) {
+                throw new TinyBException(calls.get() == 1 ? IN_PROGRESS : ABORTED);
+            }
+            return true;
+        }));
+
+        ConnectStatistics statistics = retry.getStatistics();
+        assertEquals(3, statistics.getAttempts());
+        assertEquals(1, statistics.getSuccesses());
+        assertEquals(1.0 / 3, statistics.getSuccessRate(), 0.001);
+        assertEquals(1, statistics.getLatencyHistogram()[0]);
+        assertEquals(1L, (long) statistics.getFailuresByCategory().get("IN_PROGRESS"));
+        assertEquals(1L, (long) statistics.getFailuresByCategory().get("ABORTED"));
+    }
+
+    @Test
+    public void testFatalErrorIsNotRetried() {
+        try {
+            retry.connect(() -> {
+                calls.incrementAndGet();
+                throw new TinyBException(IO_ERROR);
+            });
+            fail();
+        } catch (TinyBException ex) {
+            assertEquals(1, calls.get());
+            assertEquals(Collections.singletonMap("IO_ERROR", 1L), retry.getStatistics().getFailuresByCategory());
+        }
+        // no back-off after fatal errors
+        assertTrue(retry.connect(() -> true));
+    }
+
+    @Test
+    public void testBackoffAfterAllAttemptsFailed() {
+        retry.configure(1, 60000, 0);
+        try {
+            retry.connect(() -> {
+                calls.incrementAndGet();
+                throw new TinyBException(ABORTED);
+            });
+            fail();
+        } catch (TinyBException ex) {
+            assertEquals(ABORTED, ex.getMessage());
+        }
+        try {
+            retry.connect(() -> calls.incrementAndGet() > 0);
+            fail();
+        } catch (TinyBException ex) {
+            assertTrue(ex.getMessage().contains("backing off"));
+        }
+        assertEquals(1, calls.get());
+        assertEquals(1, retry.getStatistics().getAttempts());
+    }
+
+    @Test
+    public void testTotalTimeout() {
+        // another attempt would exceed the total time of the connect request
+        retry.configure(3, 1, 150);
+        try {
+            retry.connect(() -> {
+                calls.incrementAndGet();
+                sleep(100);
+                throw new TinyBException(ABORTED);
+            });
+            fail();
+        } catch (TinyBException ex) {
+            assertEquals(ABORTED, ex.getMessage());
+        }
+        assertEquals(1, calls.get());
+    }
+
+    @Test
+    public void testInterruptedCallerIsNotRetried() {
+        Thread.currentThread().interrupt();
+        try {
+            retry.connect(() -> {
+                calls.incrementAndGet();
+                throw new TinyBException(ABORTED);
+            });
+            fail();
+        } catch (TinyBException ex) {
+            assertEquals(1, calls.get());
+        } finally {
+            assertTrue(Thread.interrupted());
+        }
+    }
+
+    @Test
+    public void testAlreadyConnected() {
+        assertTrue(retry.connect(() -> {
+            throw new TinyBException("GDBus.Error:org.bluez.Error.AlreadyConnected: Already Connected");
+        }));
+        assertEquals(1, retry.getStatistics().getSuccesses());
+    }
+
+    @Test
+    public void testRetriesAreKeptPerFactory() {
+        TinyBFactory factory = new TinyBFactory(new SimulatedBackend(42).populate(1, 3, 2));
+        TinyBFactory other = new TinyBFactory(new SimulatedBackend(42).populate(1, 3, 2));
+        Map<String, Object> config = new HashMap<>();
+        config.put(TinyBFactory.CONNECT_ATTEMPTS, 1);
+        config.put(TinyBFactory.GATT_CONNECTION_CONCURRENCY, 2);
+        factory.configure(config);
+        assertEquals(2, factory.getContext().getConnectionConcurrency());
+        assertEquals(GattScheduler.DEFAULT_CONNECTION_CONCURRENCY, other.getContext().getConnectionConcurrency());
+
+        try {
+            factory.getContext().getConnectRetry(DEVICE).connect(() -> {
+                calls.incrementAndGet();
+                throw new TinyBException(ABORTED);
+            });
+            fail();
+        } catch (TinyBException ex) {
+            assertEquals(1, calls.get());
+        }
+        assertEquals(1, factory.getConnectStatistics(DEVICE).getAttempts());
+
+        // statistics of unknown devices are not kept
+        assertEquals(0, other.getConnectStatistics(DEVICE).getAttempts());
+        assertNull(other.getContext().findConnectRetry(DEVICE));
+
+        // retry engines are removed when their adapter is lost
+        factory.getContext().removeConnectionState(DEVICE.getAdapterURL());
+        assertNull(factory.getContext().findConnectRetry(DEVICE));
+        assertEquals(0, factory.getConnectStatistics(DEVICE).getAttempts());
+    }
+
+    private static void sleep(long delay) {
+        try {
+            Thread.sleep(delay);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+}
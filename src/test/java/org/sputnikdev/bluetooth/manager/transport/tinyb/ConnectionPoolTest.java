@@ -0,0 +1,140 @@
+package org.sputnikdev.bluetooth.manager.transport.tinyb;
+
+import org.junit.After;
+import org.junit.Test;
+import org.sputnikdev.bluetooth.URL;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ConnectionPoolTest {
+
+    private static final URL ADAPTER = new URL(TinyBFactory.TINYB_PROTOCOL_NAME, "11:22:33:44:55:66", null);
+
+    private final ConnectionPool pool = new ConnectionPool(ADAPTER);
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testEvictLeastRecentlyUsed() throws Exception {
+        pool.configure(2, 0, 1000);
+        List<URL> evicted = Collections.synchronizedList(new ArrayList<>());
+        connect(device(1), evicted);
+        Thread.sleep(5);
+        connect(device(2), evicted);
+        Thread.sleep(5);
+        pool.touch(device(1));
+
+        connect(device(3), evicted);
+
+        assertEquals(Collections.singletonList(device(2)), evicted);
+        assertEquals(2, pool.getActiveConnections());
+        assertEquals(1, pool.getEvictionCount());
+        assertEquals(1.0, pool.getUtilization(), 0.001);
+    }
+
+    @Test
+    public void testPriorityQueue() throws Exception {
+        pool.configure(1, 60000, 5000);
+        connect(device(1), null);
+
+        List<Integer> order = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch done = new CountDownLatch(2);
+        executor.submit(() -> {
+            pool.connect(device(2), 0, () -> order.add(0), () -> { });
+            pool.release(device(2));
+            done.countDown();
+        });
+        waitForWaiting(1);
+        executor.submit(() -> {
+            pool.connect(device(3), 10, () -> order.add(10), () -> { });
+            pool.release(device(3));
+            done.countDown();
+        });
+        waitForWaiting(2);
+
+        pool.release(device(1));
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(2, order.size());
+        assertEquals(10, (int) order.get(0));
+    }
+
+    @Test
+    public void testRejection() {
+        pool.configure(1, 60000, 50);
+        connect(device(1), null);
+        try {
+            connect(device(2), null);
+            fail();
+        } catch (TinyBException ex) {
+            assertEquals(1, pool.getRejectionCount());
+            assertEquals(0, pool.getWaitingCount());
+        }
+    }
+
+    @Test
+    public void testFailedConnectReleasesSlot() {
+        pool.configure(1, 60000, 50);
+        assertEquals(false, pool.connect(device(1), 0, () -> false, () -> { }));
+        assertEquals(0, pool.getActiveConnections());
+        connect(device(2), null);
+        assertEquals(1, pool.getActiveConnections());
+    }
+
+    @Test
+    public void testLostConnectionReleasesSlot() {
+        SimulatedBackend backend = new SimulatedBackend(42).populate(1, 3, 2);
+        TinyBFactory factory = new TinyBFactory(backend);
+        URL url = new URL(TinyBFactory.TINYB_PROTOCOL_NAME, "11:5E:ED:00:00:00", "20:5E:ED:00:00:01");
+        try {
+            assertTrue(factory.getDevice(url).connect());
+            // nobody has subscribed to connected notifications
+            factory.getDevice(url).disableConnectedNotifications();
+            ConnectionPool pool = factory.getConnectionPool(url);
+            assertEquals(1, pool.getActiveConnections());
+
+            ((SimulatedBackend.SimulatedDevice) backend.getDevice(backend.getAdapter(url.getAdapterAddress()),
+                    url.getDeviceAddress())).dropConnection();
+            assertEquals(0, pool.getActiveConnections());
+            assertFalse(pool.isAdmitted(url));
+        } finally {
+            factory.dispose();
+        }
+    }
+
+    private void connect(URL url, List<URL> evicted) {
+        assertTrue(pool.connect(url, 0, () -> true, () -> {
+            if (evicted != null) {
+                evicted.add(url);
+            }
+            pool.release(url);
+        }));
+    }
+
+    private void waitForWaiting(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (pool.getWaitingCount() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(count, pool.getWaitingCount());
+    }
+
+    private static URL device(int index) {
+        return ADAPTER.copyWithDevice(String.format("12:34:56:78:90:%02d", index));
+    }
+
+}
@@ -0,0 +1,45 @@
+package org.sputnikdev.bluetooth.manager.transport.tinyb;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class DescriptorIndexTest {
+
+    private static final String USER_DESCRIPTION_UUID = "00002901-0000-1000-8000-00805f9b34fb";
+
+    @Test
+    public void testIndex() {
+        BackendDescriptor configuration = mockDescriptor("00002902-0000-1000-8000-00805F9B34FB");
+        BackendDescriptor description = mockDescriptor(USER_DESCRIPTION_UUID);
+
+        DescriptorIndex index = new DescriptorIndex(Arrays.asList(description, configuration));
+
+        assertEquals(2, index.size());
+        assertSame(configuration, index.getConfiguration());
+        assertSame(configuration, index.get(DescriptorIndex.CONFIGURATION_UUID));
+        assertSame(description, index.get("2901"));
+        assertSame(description, index.get(USER_DESCRIPTION_UUID.toUpperCase()));
+        assertNull(index.get("2904"));
+    }
+
+    @Test
+    public void testEmpty() {
+        assertNull(new DescriptorIndex(Collections.emptyList()).getConfiguration());
+        assertEquals(0, new DescriptorIndex(null).size());
+    }
+
+    private static BackendDescriptor mockDescriptor(String uuid) {
+        BackendDescriptor descriptor = mock(BackendDescriptor.class);
+        when(descriptor.getUUID()).thenReturn(uuid);
+        return descriptor;
+    }
+
+}
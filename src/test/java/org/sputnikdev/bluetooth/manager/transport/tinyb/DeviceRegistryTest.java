@@ -0,0 +1,183 @@
+package org.sputnikdev.bluetooth.manager.transport.tinyb;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.sputnikdev.bluetooth.URL;
+import org.sputnikdev.bluetooth.manager.DiscoveredDevice;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class DeviceRegistryTest {
+
+    private static final URL DEVICE_1 = new URL(TinyBFactory.TINYB_PROTOCOL_NAME,
+            "11:22:33:44:55:66", "12:34:56:67:89:11");
+    private static final URL DEVICE_2 = new URL(TinyBFactory.TINYB_PROTOCOL_NAME,
+            "11:22:33:44:55:66", "44:33:22:11:77:88");
+
+    private final GattDatabase database = new GattDatabase();
+    private final DeviceRegistry registry = new DeviceRegistry(database);
+    private Path file;
+
+    @Before
+    public void setUp() throws Exception {
+        file = Files.createTempFile("devices", ".registry");
+        registry.setFile(file);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        registry.close();
+        Files.deleteIfExists(file);
+    }
+
+    @Test
+    public void testPersistence() throws Exception {
+        database.validate(DEVICE_1, Collections.singletonList("0000180f-0000-1000-8000-00805f9b34fb"));
+        registry.update(device(DEVICE_1, "sensor", (short) -60), 1000);
+        registry.update(device(DEVICE_2, "lamp\twith tab", (short) -70), 1000);
+        // RSSI change only, not persisted within the persist interval
+        registry.update(device(DEVICE_1, "sensor", (short) -65), 2000);
+        // name change, persisted
+        registry.update(device(DEVICE_2, "lamp", (short) -70), 3000);
+        registry.close();
+        assertEquals(3, Files.readAllLines(file).size());
+
+        DeviceRegistry restored = new DeviceRegistry(database);
+        restored.setFile(file);
+        try {
+            assertEquals(2, restored.size());
+            // compacted
+            assertEquals(2, Files.readAllLines(file).size());
+            for (KnownDevice known : restored.getKnownDevices()) {
+                if (DEVICE_1.equals(known.getDevice().getURL())) {
+                    assertEquals("sensor", known.getDevice().getName());
+                    assertEquals(-60, known.getDevice().getRSSI());
+                    assertEquals(1000, known.getLastSeen());
+                    assertEquals(Collections.singleton("0000180f-0000-1000-8000-00805f9b34fb"),
+                            known.getServiceUUIDs());
+                } else {
+                    assertEquals("lamp", known.getDevice().getName());
+                    assertEquals(3000, known.getLastSeen());
+                    assertTrue(known.getServiceUUIDs().isEmpty());
+                }
+            }
+        } finally {
+            restored.close();
+        }
+    }
+
+    @Test
+    public void testMerge() {
+        registry.setTimeToLive(1000);
+        registry.update(device(DEVICE_1, "sensor", (short) -60), 1000);
+        registry.update(device(DEVICE_2, "lamp", (short) -70), 5000);
+        Set<DiscoveredDevice> discovered = Collections.singleton(device(DEVICE_2, "lamp", (short) -75));
+
+        assertSame(discovered, registry.merge(discovered, 5500));
+        Set<DiscoveredDevice> merged = registry.merge(Collections.emptySet(), 5500);
+        assertEquals(Collections.singleton(device(DEVICE_2, "lamp", (short) -70)), merged);
+    }
+
+    @Test
+    public void testTouch() throws Exception {
+        registry.setTimeToLive(1000);
+        registry.update(device(DEVICE_1, "sensor", (short) -60), 1000);
+        // the device is present but does not change
+        registry.touch(Collections.singleton(device(DEVICE_1, "sensor", (short) -60)), 5000);
+        assertEquals(1, registry.merge(Collections.emptySet(), 5500).size());
+        assertEquals(5000, registry.getKnownDevices().iterator().next().getLastSeen());
+
+        registry.touch(Collections.singleton(device(DEVICE_1, "sensor", (short) -60)),
+                1000 + DeviceRegistry.PERSIST_INTERVAL);
+        assertEquals(2, Files.readAllLines(file).size());
+    }
+
+    @Test
+    public void testEviction() throws Exception {
+        registry.setMaxAge(10000);
+        registry.update(device(DEVICE_1, "sensor", (short) -60), 1000);
+        registry.update(device(DEVICE_2, "lamp", (short) -70), 8000);
+        registry.touch(Collections.emptySet(), 12000);
+        assertEquals(1, registry.size());
+        assertEquals(DEVICE_2, registry.getKnownDevices().iterator().next().getDevice().getURL());
+
+        // the file still has records of evicted devices, they are evicted again after loading
+        registry.setFile(file);
+        registry.touch(Collections.emptySet(), 12000);
+        assertEquals(1, registry.size());
+    }
+
+    @Test
+    public void testCachedDeviceIsEvicted() throws Exception {
+        registry.setMaxAge(10000);
+        registry.update(device(DEVICE_1, "sensor", (short) -60), 1000);
+        // BlueZ keeps reporting the device after it has gone out of range, its RSSI is invalidated
+        registry.update(device(DEVICE_1, "sensor", (short) 0), 5000);
+        registry.touch(Collections.singleton(device(DEVICE_1, "sensor", (short) 0)), 8000);
+        assertEquals(1000, registry.getKnownDevices().iterator().next().getLastSeen());
+
+        registry.touch(Collections.singleton(device(DEVICE_1, "sensor", (short) 0)), 12000);
+        assertEquals(0, registry.size());
+    }
+
+    @Test
+    public void testNullName() throws Exception {
+        registry.update(new DiscoveredDevice(DEVICE_1, null, "", (short) -60, 0, true), 1000);
+        registry.update(new DiscoveredDevice(DEVICE_2, "back\\slash", "tab\tand\nnew line", (short) -60, 0, true),
+                1000);
+        registry.close();
+
+        DeviceRegistry restored = new DeviceRegistry(database);
+        restored.setFile(file);
+        try {
+            for (KnownDevice known : restored.getKnownDevices()) {
+                DiscoveredDevice device = known.getDevice();
+                if (DEVICE_1.equals(device.getURL())) {
+                    assertNull(device.getName());
+                    assertEquals("", device.getAlias());
+                } else {
+                    assertEquals("back\\slash", device.getName());
+                    assertEquals("tab\tand\nnew line", device.getAlias());
+                }
+            }
+            // the same identity, hence not persisted within the persist interval
+            restored.update(new DiscoveredDevice(DEVICE_1, null, "", (short) -60, 0, true), 2000);
+            assertEquals(2, Files.readAllLines(file).size());
+        } finally {
+            restored.close();
+        }
+    }
+
+    @Test
+    public void testCompaction() throws Exception {
+        int updates = DeviceRegistry.MIN_COMPACTION_THRESHOLD + 10;
+        for (int i = 0; i < updates; i++) {
+            registry.update(device(DEVICE_1, "sensor " + i, (short) -60), 1000 + i);
+        }
+        assertEquals(1, registry.size());
+        assertTrue(Files.readAllLines(file).size() < updates);
+        registry.close();
+
+        DeviceRegistry restored = new DeviceRegistry(database);
+        restored.setFile(file);
+        try {
+            assertEquals("sensor " + (updates - 1), restored.getKnownDevices().iterator().next().getDevice().getName());
+        } finally {
+            restored.close();
+        }
+    }
+
+    private static DiscoveredDevice device(URL url, String name, short rssi) {
+        return new DiscoveredDevice(url, name, name, rssi, 0, true);
+    }
+
+}
@@ -0,0 +1,113 @@
+package org.sputnikdev.bluetooth.manager.transport.tinyb;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.sputnikdev.bluetooth.URL;
+import org.sputnikdev.bluetooth.manager.DiscoveredDevice;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class DiscoveryIndexTest {
+
+    private static final String ADAPTER_MAC = "11:22:33:44:55:66";
+    private static final String DEVICE_1_MAC = "12:34:56:67:89:11";
+    private static final String DEVICE_2_MAC = "44:33:22:11:77:88";
+    private static final URL DEVICE_1 = new URL(TinyBFactory.TINYB_PROTOCOL_NAME, ADAPTER_MAC, DEVICE_1_MAC);
+
+    private final DiscoveryIndex index = new TinyBContext().getDiscoveryIndex();
+    private final BackendAdapter adapter = mock(BackendAdapter.class);
+    private final BackendDevice device1 = mockDevice(DEVICE_1_MAC, "device1", (short) -70);
+    private final BackendDevice device2 = mockDevice(DEVICE_2_MAC, "device2", (short) -80);
+
+    @Before
+    public void setUp() {
+        when(adapter.getAddress()).thenReturn(ADAPTER_MAC);
+    }
+
+    @Test
+    public void testIncrementalUpdate() {
+        DiscoveryDelta delta = index.update(Arrays.asList(device1, device2));
+        assertEquals(2, delta.getAdded().size());
+        assertTrue(delta.getChanged().isEmpty());
+        assertEquals(2, index.getSnapshot().size());
+
+        // nothing has changed, the same snapshot is returned and only RSSI is read
+        Set<DiscoveredDevice> snapshot = index.getSnapshot();
+        assertTrue(index.update(Arrays.asList(device1, device2)).isEmpty());
+        assertSame(snapshot, index.getSnapshot());
+        verify(device1, times(1)).getName();
+        verify(device1, times(2)).getRSSI();
+
+        when(device1.getRSSI()).thenReturn((short) -60);
+        delta = index.update(Arrays.asList(device1, device2));
+        assertEquals(1, delta.getChanged().size());
+        assertEquals(-60, delta.getChanged().iterator().next().getRSSI());
+
+        delta = index.update(Collections.singletonList(device2));
+        assertEquals(1, delta.getRemoved().size());
+        assertEquals(DEVICE_1, delta.getRemoved().iterator().next().getURL());
+        assertEquals(1, index.getSnapshot().size());
+    }
+
+    @Test
+    public void testRSSINotification() {
+        index.update(Collections.singletonList(device1));
+
+        index.updateRSSI(DEVICE_1, (short) -50);
+        assertEquals(-50, index.getSnapshot().iterator().next().getRSSI());
+
+        // RSSI is not read as it has been received via notification
+        DiscoveryDelta delta = index.update(Collections.singletonList(device1));
+        verify(device1, times(1)).getRSSI();
+        assertEquals(1, delta.getChanged().size());
+    }
+
+    @Test
+    public void testFullRefresh() {
+        index.setRefreshInterval(0);
+        index.update(Collections.singletonList(device1));
+        when(device1.getAlias()).thenReturn("alias");
+
+        DiscoveryDelta delta = index.update(Collections.singletonList(device1));
+
+        assertEquals(1, delta.getChanged().size());
+        assertEquals("alias", delta.getChanged().iterator().next().getAlias());
+        verify(device1, times(2)).getName();
+    }
+
+    @Test
+    public void testAccumulatedChanges() {
+        index.update(Arrays.asList(device1, device2));
+        when(device1.getRSSI()).thenReturn((short) -60);
+        index.update(Arrays.asList(device1, device2));
+        index.update(Collections.singletonList(device1));
+
+        DiscoveryDelta delta = index.takeChanges();
+        // device2 has been added and removed in between
+        assertEquals(1, delta.getAdded().size());
+        assertEquals(-60, delta.getAdded().iterator().next().getRSSI());
+        assertTrue(delta.getChanged().isEmpty());
+        assertTrue(delta.getRemoved().isEmpty());
+        assertTrue(index.takeChanges().isEmpty());
+    }
+
+    private BackendDevice mockDevice(String address, String name, short rssi) {
+        BackendDevice device = mock(BackendDevice.class);
+        when(device.getAdapter()).thenReturn(adapter);
+        when(device.getAddress()).thenReturn(address);
+        when(device.getName()).thenReturn(name);
+        when(device.getRSSI()).thenReturn(rssi);
+        return device;
+    }
+
+}
@@ -0,0 +1,119 @@
+package org.sputnikdev.bluetooth.manager.transport.tinyb;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.sputnikdev.bluetooth.manager.DiscoveredDevice;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DiscoveryListenerTest {
+
+    private static final String ADAPTER = "11:5E:ED:00:00:00";
+
+    private SimulatedBackend backend;
+    private TinyBFactory factory;
+
+    @Before
+    public void setUp() {
+        backend = new SimulatedBackend(42).populate(1, 3, 2);
+        factory = new TinyBFactory(backend);
+    }
+
+    @Test
+    public void testDiscoveryListener() throws Exception {
+        Map<String, Object> config = new HashMap<>();
+        config.put(TinyBFactory.DISCOVERY_POLL_INTERVAL, 10);
+        config.put(TinyBFactory.DISCOVERY_TTL, 100);
+        factory.configure(config);
+        CountDownLatch discovered = new CountDownLatch(3);
+        CountDownLatch lost = new CountDownLatch(3);
+        DiscoveryListener listener = listener(discovered, lost);
+        factory.addDiscoveryListener(listener);
+        try {
+            backend.getAdapter(ADAPTER).startDiscovery();
+            backend.advance(1000);
+            assertTrue(discovered.await(5, TimeUnit.SECONDS));
+
+            // devices are not advertising anymore
+            backend.getAdapter(ADAPTER).stopDiscovery();
+            assertTrue(lost.await(5, TimeUnit.SECONDS));
+        } finally {
+            factory.removeDiscoveryListener(listener);
+            config.put(TinyBFactory.DISCOVERY_TTL, 0);
+            factory.configure(config);
+        }
+    }
+
+    @Test
+    public void testSteadyDevicesAreNotLost() throws Exception {
+        backend = new SimulatedBackend(42);
+        backend.setRssiNoise(0);
+        backend.populate(1, 3, 2);
+        factory = new TinyBFactory(backend);
+        Map<String, Object> config = new HashMap<>();
+        config.put(TinyBFactory.DISCOVERY_POLL_INTERVAL, 10);
+        config.put(TinyBFactory.DISCOVERY_TTL, 100);
+        factory.configure(config);
+        CountDownLatch discovered = new CountDownLatch(3);
+        CountDownLatch lost = new CountDownLatch(3);
+        DiscoveryListener listener = listener(discovered, lost);
+        factory.addDiscoveryListener(listener);
+        try {
+            backend.getAdapter(ADAPTER).startDiscovery();
+            backend.advance(1000);
+            assertTrue(discovered.await(5, TimeUnit.SECONDS));
+
+            // RSSI does not change, but devices are still in range
+            Thread.sleep(500);
+            assertEquals(3, lost.getCount());
+
+            backend.getAdapter(ADAPTER).stopDiscovery();
+            assertTrue(lost.await(5, TimeUnit.SECONDS));
+        } finally {
+            factory.removeDiscoveryListener(listener);
+            config.put(TinyBFactory.DISCOVERY_TTL, 0);
+            factory.configure(config);
+        }
+    }
+
+    @Test
+    public void testPollerDoesNotConsumeChanges() throws Exception {
+        Map<String, Object> config = new HashMap<>();
+        config.put(TinyBFactory.DISCOVERY_POLL_INTERVAL, 10);
+        factory.configure(config);
+        CountDownLatch discovered = new CountDownLatch(3);
+        DiscoveryListener listener = listener(discovered, new CountDownLatch(0));
+        factory.addDiscoveryListener(listener);
+        try {
+            backend.getAdapter(ADAPTER).startDiscovery();
+            backend.advance(1000);
+            assertTrue(discovered.await(5, TimeUnit.SECONDS));
+
+            assertEquals(3, factory.refreshDiscoveredDevices().getAdded().size());
+            assertTrue(factory.refreshDiscoveredDevices().getAdded().isEmpty());
+        } finally {
+            factory.removeDiscoveryListener(listener);
+        }
+    }
+
+    private static DiscoveryListener listener(CountDownLatch discovered, CountDownLatch lost) {
+        return new DiscoveryListener() {
+            @Override
+            public void discovered(DiscoveredDevice device) {
+                discovered.countDown();
+            }
+
+            @Override
+            public void lost(DiscoveredDevice device) {
+                lost.countDown();
+            }
+        };
+    }
+
+}
@@ -0,0 +1,142 @@
+package org.sputnikdev.bluetooth.manager.transport.tinyb;
+
+import org.junit.Test;
+import org.sputnikdev.bluetooth.URL;
+import org.sputnikdev.bluetooth.manager.transport.Characteristic;
+import org.sputnikdev.bluetooth.manager.transport.Device;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class GattDatabaseTest {
+
+    private static final String SERVICE_1 = "0000180f-0000-1000-8000-00805f9b34fb";
+    private static final String SERVICE_2 = "0000180a-0000-1000-8000-00805f9b34fb";
+    private static final String CHARACTERISTIC = "00002a19-0000-1000-8000-00805f9b34fb";
+    private static final URL DEVICE = new URL(TinyBFactory.TINYB_PROTOCOL_NAME,
+            "11:22:33:44:55:66", "12:34:56:78:90:12");
+    private static final URL CHARACTERISTIC_URL = DEVICE.copyWith(SERVICE_1, CHARACTERISTIC);
+    private static final URL SIMULATED_CHARACTERISTIC = new URL(TinyBFactory.TINYB_PROTOCOL_NAME,
+            "11:5E:ED:00:00:00", "20:5E:ED:00:00:01", SERVICE_1, CHARACTERISTIC, null);
+
+    private final GattDatabase database = new GattDatabase();
+
+    @Test
+    public void testValidate() {
+        database.validate(DEVICE, Arrays.asList(SERVICE_1, SERVICE_2));
+        database.getCharacteristic(CHARACTERISTIC_URL).setFlags(new String[] {"read"});
+        assertEquals(0, database.getHits());
+        assertEquals(1, database.getMisses());
+
+        database.validate(DEVICE, Arrays.asList(SERVICE_2, SERVICE_1.toUpperCase()));
+        assertEquals(1, database.getHits());
+        assertArrayEquals(new String[] {"read"}, database.getCharacteristic(CHARACTERISTIC_URL).getFlags());
+
+        // the services have changed
+        GattDatabase.DeviceRecord record = database.validate(DEVICE, Collections.singletonList(SERVICE_2));
+        assertEquals(2, database.getMisses());
+        assertEquals(Collections.singleton(SERVICE_2), record.getServiceUUIDs());
+        assertNull(database.getCharacteristic(CHARACTERISTIC_URL).getFlags());
+    }
+
+    @Test
+    public void testRetainCharacteristics() {
+        GattDatabase.ServiceRecord service = database.getService(CHARACTERISTIC_URL);
+        service.getCharacteristic(CHARACTERISTIC).setDescriptors(Collections.emptyList());
+
+        assertTrue(service.retain(Collections.singletonList(CHARACTERISTIC)));
+        assertEquals(Collections.emptyList(), service.getCharacteristic(CHARACTERISTIC).getDescriptors());
+        service.retain(Collections.singletonList("00002a1a-0000-1000-8000-00805f9b34fb"));
+        assertEquals(new HashSet<>(Collections.singletonList("00002a1a-0000-1000-8000-00805f9b34fb")),
+                service.getCharacteristicUUIDs());
+    }
+
+    @Test
+    public void testPersistence() throws Exception {
+        Path file = Files.createTempFile("gatt", ".cache");
+        try {
+            database.validate(DEVICE, Arrays.asList(SERVICE_1, SERVICE_2));
+            GattDatabase.CharacteristicRecord record = database.getCharacteristic(CHARACTERISTIC_URL);
+            record.setFlags(new String[] {"read", "notify"});
+            record.setDescriptors(Collections.singletonList(DescriptorIndex.CONFIGURATION_UUID));
+            database.save(file);
+
+            GattDatabase restored = new GattDatabase();
+            restored.setFile(file);
+            assertEquals(1, restored.size());
+            restored.validate(DEVICE, Arrays.asList(SERVICE_1, SERVICE_2));
+            assertEquals(1, restored.getHits());
+            GattDatabase.CharacteristicRecord restoredRecord = restored.getCharacteristic(CHARACTERISTIC_URL);
+            assertArrayEquals(new String[] {"read", "notify"}, restoredRecord.getFlags());
+            assertEquals(Collections.singletonList(DescriptorIndex.CONFIGURATION_UUID),
+                    restoredRecord.getDescriptors());
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public void testReconnect() {
+        TinyBFactory factory = new TinyBFactory(new SimulatedBackend(42).populate(1, 3, 2));
+        Device device = factory.getDevice(SIMULATED_CHARACTERISTIC);
+        try {
+            device.connect();
+            device.getServices().forEach(service -> service.getCharacteristics().forEach(Characteristic::getFlags));
+            assertTrue(factory.getCharacteristic(SIMULATED_CHARACTERISTIC).isNotificationConfigurable());
+            GattDatabase cache = factory.getContext().getGattDatabase();
+            long misses = cache.getMisses();
+            device.disconnect();
+
+            device.connect();
+            device.getServices();
+            assertEquals(misses, cache.getMisses());
+            assertEquals(1, cache.getHits());
+            GattDatabase.CharacteristicRecord record = cache.getCharacteristic(SIMULATED_CHARACTERISTIC);
+            assertArrayEquals(new String[] {"read", "notify"}, record.getFlags());
+            assertEquals(Arrays.asList(DescriptorIndex.CONFIGURATION_UUID), record.getDescriptors());
+            assertTrue(factory.getCharacteristic(SIMULATED_CHARACTERISTIC).isNotificationConfigurable());
+        } finally {
+            factory.dispose();
+        }
+    }
+
+    @Test
+    public void testInvalidation() {
+        SimulatedBackend backend = new SimulatedBackend(42).populate(1, 3, 2);
+        TinyBFactory factory = new TinyBFactory(backend);
+        SimulatedBackend.SimulatedDevice simulated = (SimulatedBackend.SimulatedDevice) backend.getDevice(
+                backend.getAdapter(SIMULATED_CHARACTERISTIC.getAdapterAddress()),
+                SIMULATED_CHARACTERISTIC.getDeviceAddress());
+        GattDatabase cache = factory.getContext().getGattDatabase();
+        Device device = factory.getDevice(SIMULATED_CHARACTERISTIC);
+        device.enableServicesResolvedNotifications(value -> { });
+        try {
+            device.connect();
+            device.getServices();
+            // reconnecting keeps cached attributes
+            device.disconnect();
+            device.connect();
+            assertNotNull(cache.getServiceUUIDs(SIMULATED_CHARACTERISTIC));
+
+            simulated.changeServices();
+            assertNull(cache.getServiceUUIDs(SIMULATED_CHARACTERISTIC));
+
+            device.getServices();
+            assertNotNull(cache.getServiceUUIDs(SIMULATED_CHARACTERISTIC));
+            factory.invalidateGattCache(SIMULATED_CHARACTERISTIC);
+            assertNull(cache.getServiceUUIDs(SIMULATED_CHARACTERISTIC));
+        } finally {
+            device.disconnect();
+        }
+    }
+
+}
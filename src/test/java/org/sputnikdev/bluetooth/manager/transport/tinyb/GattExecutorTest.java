@@ -0,0 +1,102 @@
+package org.sputnikdev.bluetooth.manager.transport.tinyb;
+
+import org.junit.After;
+import org.junit.Test;
+import org.sputnikdev.bluetooth.URL;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class GattExecutorTest {
+
+    private static final URL BATTERY_LEVEL = new URL(TinyBFactory.TINYB_PROTOCOL_NAME, "11:5E:ED:00:00:00",
+            "20:5E:ED:00:00:01", "0000180f-0000-1000-8000-00805f9b34fb", "00002a19-0000-1000-8000-00805f9b34fb", null);
+
+    private final GattExecutor executor = new GattExecutor(1, 1, 100, 200);
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    @After
+    public void tearDown() {
+        release.countDown();
+        executor.shutdown();
+    }
+
+    @Test
+    public void testSubmit() throws Exception {
+        assertEquals("value", executor.submit(() -> "value").get(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testFailure() throws Exception {
+        CompletableFuture<Object> future = executor.submit(() -> {
+            throw new TinyBException("error");
+        });
+        assertCause(future, TinyBException.class);
+    }
+
+    @Test
+    public void testTimeout() throws Exception {
+        CompletableFuture<Boolean> future = executor.submit(this::block);
+        assertCause(future, TimeoutException.class);
+
+        // the thread is released by interrupting the blocked operation
+        assertEquals("next", executor.submit(() -> "next").get(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testCancel() throws Exception {
+        CompletableFuture<Boolean> future = executor.submit(this::block, 0);
+        assertTrue(future.cancel(true));
+
+        // the thread is released by interrupting the blocked operation
+        assertEquals("next", executor.submit(() -> "next").get(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testRejected() throws Exception {
+        executor.submit(this::block, 0);
+        executor.submit(this::block, 0);
+        assertCause(executor.submit(this::block, 0), RejectedExecutionException.class);
+    }
+
+    @Test
+    public void testFactoryOperations() throws Exception {
+        TinyBFactory factory = new TinyBFactory(new SimulatedBackend(42).populate(1, 3, 2));
+        try {
+            assertTrue(factory.connectAsync(BATTERY_LEVEL.getDeviceURL()).get(5, TimeUnit.SECONDS));
+            assertTrue(factory.writeValueAsync(BATTERY_LEVEL, new byte[] {42}).get(5, TimeUnit.SECONDS));
+            assertArrayEquals(new byte[] {42}, factory.readValueAsync(BATTERY_LEVEL).get(5, TimeUnit.SECONDS));
+        } finally {
+            factory.dispose();
+        }
+    }
+
+    private boolean block() {
+        try {
+            return release.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private static void assertCause(CompletableFuture<?> future, Class<? extends Throwable> expected)
+            throws Exception {
+        try {
+            future.get(1, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException ex) {
+            assertTrue(ex.getCause().toString(), expected.isInstance(ex.getCause()));
+        }
+    }
+
+}
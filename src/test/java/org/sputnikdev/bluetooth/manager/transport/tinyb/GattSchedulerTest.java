@@ -0,0 +1,161 @@
+package org.sputnikdev.bluetooth.manager.transport.tinyb;
+
+import org.junit.Test;
+import org.sputnikdev.bluetooth.URL;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class GattSchedulerTest {
+
+    private static final URL ADAPTER = new URL(TinyBFactory.TINYB_PROTOCOL_NAME, "11:22:33:44:55:66", null);
+    private static final URL DEVICE_1 = ADAPTER.copyWithDevice("12:34:56:67:89:11");
+    private static final URL DEVICE_2 = ADAPTER.copyWithDevice("44:33:22:11:77:88");
+
+    private final GattScheduler scheduler = new GattScheduler(ADAPTER);
+    private final ExecutorService executor = Executors.newFixedThreadPool(8);
+
+    @Test
+    public void testOperationsOfConnectionAreSerialized() throws Exception {
+        assertEquals(1, maxConcurrency(DEVICE_1, DEVICE_1, false));
+        assertEquals(4, scheduler.getOperationCount());
+        assertEquals(0, scheduler.getQueueDepth());
+        assertTrue(scheduler.getMaxWaitTime() > 0);
+    }
+
+    @Test
+    public void testConnectionsAreParallel() throws Exception {
+        assertEquals(2, maxConcurrency(DEVICE_1, DEVICE_2, false));
+    }
+
+    @Test
+    public void testConnectsAreSerialized() throws Exception {
+        assertEquals(1, maxConcurrency(DEVICE_1, DEVICE_2, true));
+    }
+
+    @Test
+    public void testIdleConnectionsAreRemoved() throws Exception {
+        maxConcurrency(DEVICE_1, DEVICE_2, false);
+        assertTrue(scheduler.isIdle());
+    }
+
+    @Test
+    public void testConnectionConcurrencyChange() throws Exception {
+        URL adapter = new URL(TinyBFactory.TINYB_PROTOCOL_NAME, "11:22:33:44:55:77", null);
+        URL device = adapter.copyWithDevice("12:34:56:67:89:11");
+        TinyBContext context = new TinyBContext();
+        GattScheduler shared = context.getGattScheduler(adapter);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        try {
+            executor.submit(() -> shared.execute(device, () -> {
+                started.countDown();
+                return await(release);
+            }));
+            assertTrue(started.await(1, TimeUnit.SECONDS));
+            context.setConnectionConcurrency(2);
+            assertEquals(2, shared.getConnectionConcurrency());
+            // the running operation completes in the previous generation and releases its own permit
+            release.countDown();
+            AtomicInteger running = new AtomicInteger();
+            AtomicInteger max = new AtomicInteger();
+            CountDownLatch done = new CountDownLatch(4);
+            for (int i = 0; i < 4; i++) {
+                executor.submit(() -> {
+                    shared.execute(device, () -> {
+                        max.accumulateAndGet(running.incrementAndGet(), Math::max);
+                        sleep();
+                        return running.decrementAndGet();
+                    });
+                    done.countDown();
+                });
+            }
+            assertTrue(done.await(5, TimeUnit.SECONDS));
+            assertEquals(2, max.get());
+            assertTrue(shared.isIdle());
+        } finally {
+            release.countDown();
+        }
+    }
+
+    @Test
+    public void testRemove() throws Exception {
+        URL adapter = new URL(TinyBFactory.TINYB_PROTOCOL_NAME, "11:22:33:44:55:88", null);
+        URL device = adapter.copyWithDevice("12:34:56:67:89:11");
+        TinyBContext context = new TinyBContext();
+        GattScheduler busy = context.getGattScheduler(adapter);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        executor.submit(() -> busy.execute(device, () -> {
+            started.countDown();
+            return await(release);
+        }));
+        assertTrue(started.await(1, TimeUnit.SECONDS));
+        // a busy scheduler is kept
+        context.removeGattScheduler(adapter);
+        assertSame(busy, context.findGattScheduler(adapter));
+
+        release.countDown();
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(1, TimeUnit.SECONDS));
+        context.removeGattScheduler(device);
+        assertNull(context.findGattScheduler(adapter));
+    }
+
+    private int maxConcurrency(URL first, URL second, boolean connect) throws Exception {
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger max = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(4);
+        for (int i = 0; i < 4; i++) {
+            URL url = i % 2 == 0 ? first : second;
+            executor.submit(() -> {
+                Runnable operation = () -> {
+                    max.accumulateAndGet(running.incrementAndGet(), Math::max);
+                    sleep();
+                    running.decrementAndGet();
+                };
+                if (connect) {
+                    scheduler.connect(url, () -> {
+                        operation.run();
+                        return true;
+                    });
+                } else {
+                    scheduler.execute(url, () -> {
+                        operation.run();
+                        return true;
+                    });
+                }
+                done.countDown();
+            });
+        }
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        executor.shutdown();
+        return max.get();
+    }
+
+    private static boolean await(CountDownLatch latch) {
+        try {
+            return latch.await(1, TimeUnit.SECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private static void sleep() {
+        try {
+            Thread.sleep(50);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+}
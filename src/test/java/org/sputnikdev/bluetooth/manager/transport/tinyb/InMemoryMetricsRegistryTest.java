@@ -0,0 +1,106 @@
+package org.sputnikdev.bluetooth.manager.transport.tinyb;
+
+import org.junit.Test;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class InMemoryMetricsRegistryTest {
+
+    private final InMemoryMetricsRegistry registry = new InMemoryMetricsRegistry(100);
+
+    @Test
+    public void testCounter() {
+        registry.counter("requests", "adapter", "hci0").increment();
+        registry.counter("requests", "adapter", "hci0").increment(2);
+        registry.counter("requests", "adapter", "hci1").increment();
+
+        assertEquals(3, registry.getCount("requests", "adapter", "hci0"));
+        assertEquals(1, registry.getCount("requests", "adapter", "hci1"));
+        assertEquals(0, registry.getCount("requests"));
+        assertSame(registry.counter("requests", "adapter", "hci0"), registry.counter("requests", "adapter", "hci0"));
+    }
+
+    @Test
+    public void testTimerPercentiles() {
+        MetricsRegistry.Timer timer = registry.timer("latency");
+        for (int i = 1; i <= 100; i++) {
+            timer.record(i);
+        }
+
+        TimerSnapshot snapshot = registry.getTimerSnapshot("latency");
+        assertEquals(100, snapshot.getCount());
+        assertEquals(5050, snapshot.getTotalTime());
+        assertEquals(50, snapshot.getMean());
+        assertEquals(100, snapshot.getMax());
+        assertEquals(50, snapshot.getMedian());
+        assertEquals(95, snapshot.get95thPercentile());
+        assertEquals(99, snapshot.get99thPercentile());
+        assertEquals(1, snapshot.getPercentile(0));
+        assertEquals(100, snapshot.getPercentile(1));
+        assertNull(registry.getTimerSnapshot("unknown"));
+    }
+
+    @Test
+    public void testTimerWindow() {
+        MetricsRegistry.Timer timer = registry.timer("latency");
+        for (int i = 1; i <= 200; i++) {
+            timer.record(i > 100 ? 1000 : 1);
+        }
+
+        TimerSnapshot snapshot = registry.getTimerSnapshot("latency");
+        assertEquals(200, snapshot.getCount());
+        // only the most recent samples are used to calculate percentiles
+        assertEquals(1000, snapshot.getPercentile(0));
+    }
+
+    @Test
+    public void testEmptyTimer() {
+        registry.timer("latency");
+
+        TimerSnapshot snapshot = registry.getTimerSnapshot("latency");
+        assertEquals(0, snapshot.getCount());
+        assertEquals(0, snapshot.getMean());
+        assertEquals(0, snapshot.get99thPercentile());
+    }
+
+    @Test
+    public void testGauge() {
+        AtomicInteger value = new AtomicInteger(5);
+        registry.gauge("queue", value::get, "adapter", "hci0");
+        value.set(7);
+
+        assertEquals(7, registry.getGaugeValue("queue", "adapter", "hci0").intValue());
+        assertNull(registry.getGaugeValue("queue"));
+    }
+
+    @Test
+    public void testSnapshot() {
+        registry.counter("b").increment();
+        registry.gauge("a", () -> 1);
+        registry.timer("c", "k", "v").record(10);
+
+        Map<String, Object> snapshot = registry.snapshot();
+        assertEquals("[a, b, c{k=v}]", snapshot.keySet().toString());
+        assertEquals(1L, snapshot.get("b"));
+
+        registry.clear();
+        assertEquals(0, registry.snapshot().size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testOddTags() {
+        registry.counter("requests", "adapter");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidPercentile() {
+        registry.timer("latency").record(1);
+        registry.getTimerSnapshot("latency").getPercentile(2);
+    }
+
+}
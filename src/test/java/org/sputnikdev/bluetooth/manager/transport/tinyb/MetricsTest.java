@@ -0,0 +1,63 @@
+package org.sputnikdev.bluetooth.manager.transport.tinyb;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.sputnikdev.bluetooth.URL;
+import org.sputnikdev.bluetooth.manager.transport.Characteristic;
+import org.sputnikdev.bluetooth.manager.transport.Device;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class MetricsTest {
+
+    private static final String ADAPTER = "11:5E:ED:00:00:00";
+    private static final String DEVICE = "20:5E:ED:00:00:01";
+    private static final String SERVICE = "0000180f-0000-1000-8000-00805f9b34fb";
+    private static final String CHARACTERISTIC = "00002a19-0000-1000-8000-00805f9b34fb";
+
+    private SimulatedBackend backend;
+    private TinyBFactory factory;
+
+    @Before
+    public void setUp() {
+        backend = new SimulatedBackend(42).populate(1, 3, 2);
+        factory = new TinyBFactory(backend);
+    }
+
+    @After
+    public void tearDown() {
+        factory.dispose();
+    }
+
+    @Test
+    public void testMetrics() {
+        InMemoryMetricsRegistry registry = new InMemoryMetricsRegistry();
+        TinyBFactory.setMetricsRegistry(registry);
+        try {
+            URL url = new URL(TinyBFactory.TINYB_PROTOCOL_NAME, ADAPTER, DEVICE, SERVICE, CHARACTERISTIC, null);
+            Device device = factory.getDevice(url);
+            assertTrue(device.connect());
+            device.getServices();
+            Characteristic characteristic = factory.getCharacteristic(url);
+            characteristic.readValue();
+            characteristic.readValue();
+
+            assertEquals(1, registry.getTimerSnapshot(Metrics.OPERATION,
+                "operation", "connect", "adapter", ADAPTER).getCount());
+            TimerSnapshot reads = registry.getTimerSnapshot(Metrics.OPERATION,
+                "operation", "read", "adapter", ADAPTER);
+            assertEquals(2, reads.getCount());
+            assertTrue(reads.getMax() >= reads.getMedian());
+            assertNotNull(registry.getTimerSnapshot(Metrics.GATT_WAIT, "adapter", ADAPTER));
+            assertEquals(1, registry.getGaugeValue("tinyb.connections.active", "adapter", ADAPTER).intValue());
+            assertTrue(registry.getGaugeValue("tinyb.cache.objects.hits").longValue() > 0);
+        } finally {
+            TinyBFactory.setMetricsRegistry(null);
+        }
+        assertEquals(MetricsRegistry.NOOP, TinyBFactory.getMetricsRegistry());
+    }
+
+}
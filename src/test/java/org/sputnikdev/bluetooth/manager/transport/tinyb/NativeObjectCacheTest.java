@@ -0,0 +1,76 @@
+package org.sputnikdev.bluetooth.manager.transport.tinyb;
+
+import org.junit.Test;
+import org.sputnikdev.bluetooth.URL;
+
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class NativeObjectCacheTest {
+
+    private static final URL ADAPTER = new URL(TinyBFactory.TINYB_PROTOCOL_NAME, "11:22:33:44:55:66", null);
+    private static final URL DEVICE = ADAPTER.copyWithDevice("12:34:56:78:90:12");
+    private static final URL SERVICE = DEVICE.copyWithService("0000180f-0000-1000-8000-00805f9b34fb");
+
+    private final NativeObjectCache cache = new NativeObjectCache();
+
+    @Test
+    public void testGet() {
+        BackendObject adapter = () -> { };
+        BackendObject device = () -> { };
+        BackendObject service = () -> { };
+        AtomicInteger resolved = new AtomicInteger();
+
+        assertSame(adapter, cache.get(ADAPTER, () -> {
+            resolved.incrementAndGet();
+            return adapter;
+        }));
+        // cached objects are served without resolving
+        assertSame(adapter, cache.get(ADAPTER, () -> {
+            resolved.incrementAndGet();
+            return null;
+        }));
+        assertEquals(1, resolved.get());
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+
+        // objects that are not found are not cached
+        assertNull(cache.get(DEVICE, () -> null));
+        assertEquals(2, cache.getMisses());
+        assertSame(device, cache.get(DEVICE, () -> device));
+        assertSame(service, cache.get(SERVICE, () -> service));
+        assertEquals(3, cache.size());
+        assertEquals(Collections.singletonList(ADAPTER), cache.getAdapterURLs());
+        assertEquals(1, cache.getHits());
+    }
+
+    @Test
+    public void testInvalidate() {
+        BackendObject adapter = () -> { };
+        BackendObject device = () -> { };
+        BackendObject service = () -> { };
+        cache.get(ADAPTER, () -> adapter);
+        cache.get(DEVICE, () -> device);
+        cache.get(SERVICE, () -> service);
+
+        cache.invalidateServices(DEVICE);
+        assertEquals(2, cache.size());
+        cache.get(SERVICE, () -> service);
+
+        // the device handle is stale, its services are stale too
+        cache.invalidate(DEVICE);
+        assertEquals(1, cache.size());
+        BackendObject recreated = () -> { };
+        assertSame(recreated, cache.get(DEVICE, () -> recreated));
+
+        // the adapter is gone
+        cache.invalidate(ADAPTER);
+        assertEquals(0, cache.size());
+        assertNull(cache.get(DEVICE, () -> null));
+    }
+
+}
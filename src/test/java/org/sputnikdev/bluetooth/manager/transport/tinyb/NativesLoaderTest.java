@@ -4,9 +4,17 @@ import org.junit.Test;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Comparator;
+import java.util.stream.Stream;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 public class NativesLoaderTest {
@@ -31,7 +39,141 @@ public class NativesLoaderTest {
         File tempLibFile = new File(NativesLoader.prepare("libjavatinyb.so"));
         assertTrue(tempLibFile.exists());
         assertEquals("libjavatinyb.so", tempLibFile.getName());
-        assertEquals(new File(System.getProperty("java.io.tmpdir")), tempLibFile.getParentFile().getParentFile());
+        assertEquals(NativesLoader.getCacheDirectory().toFile(), tempLibFile.getParentFile().getParentFile());
+    }
+
+    @Test
+    public void testPrepareReusesCachedCopy() throws Exception {
+        System.setProperty("os.name", "Linux");
+        System.setProperty("os.arch", "x86_64");
+        File first = new File(NativesLoader.prepare("libjavatinyb.so"));
+        long modified = first.lastModified();
+        Thread.sleep(10);
+        File second = new File(NativesLoader.prepare("libjavatinyb.so"));
+
+        assertEquals(first, second);
+        assertEquals(modified, second.lastModified());
+        assertTrue(second.getParentFile().getName().startsWith("tinyb-"));
+    }
+
+    @Test
+    public void testPrepareReplacesCorruptedCopy() throws Exception {
+        System.setProperty("os.name", "Linux");
+        System.setProperty("os.arch", "x86_64");
+        File lib = new File(NativesLoader.prepare("libjavatinyb.so"));
+        long length = lib.length();
+        Files.write(lib.toPath(), new byte[] {1, 2, 3});
+
+        assertEquals(lib, new File(NativesLoader.prepare("libjavatinyb.so")));
+        assertEquals(length, lib.length());
+    }
+
+    @Test
+    public void testPrivateCacheDirectory() throws Exception {
+        System.setProperty("os.name", "Linux");
+        System.setProperty("os.arch", "x86_64");
+        Path parent = Files.createTempDirectory("natives");
+        Path cache = parent.resolve("cache");
+        System.setProperty(NativesLoader.CACHE_DIRECTORY_PROPERTY, cache.toString());
+        try {
+            Path lib = Paths.get(NativesLoader.prepare("libjavatinyb.so"));
+            assertEquals(cache, lib.getParent().getParent());
+            assertEquals("rwx------", PosixFilePermissions.toString(Files.getPosixFilePermissions(cache)));
+            assertEquals("rwx------", PosixFilePermissions.toString(Files.getPosixFilePermissions(lib.getParent())));
+            assertFalse(Files.getPosixFilePermissions(lib).contains(PosixFilePermission.OTHERS_WRITE));
+        } finally {
+            System.clearProperty(NativesLoader.CACHE_DIRECTORY_PROPERTY);
+            delete(parent);
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testWritableCacheDirectoryIsRefused() throws Exception {
+        System.setProperty("os.name", "Linux");
+        System.setProperty("os.arch", "x86_64");
+        Path cache = Files.createTempDirectory("natives");
+        Files.setPosixFilePermissions(cache, PosixFilePermissions.fromString("rwxrwxrwx"));
+        System.setProperty(NativesLoader.CACHE_DIRECTORY_PROPERTY, cache.toString());
+        try {
+            NativesLoader.prepare("libjavatinyb.so");
+        } finally {
+            System.clearProperty(NativesLoader.CACHE_DIRECTORY_PROPERTY);
+            delete(cache);
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testWritableLibraryIsRefused() throws Exception {
+        System.setProperty("os.name", "Linux");
+        System.setProperty("os.arch", "x86_64");
+        Path lib = Paths.get(NativesLoader.prepare("libjavatinyb.so"));
+        Files.setPosixFilePermissions(lib, PosixFilePermissions.fromString("rw-rw-rw-"));
+        try {
+            NativesLoader.prepare("libjavatinyb.so");
+        } finally {
+            Files.delete(lib);
+        }
+    }
+
+    @Test
+    public void testCacheDirectoryFallback() throws Exception {
+        String home = System.getProperty("user.home");
+        System.setProperty("user.home", "/nonexistent");
+        try {
+            Path cache = NativesLoader.getCacheDirectory();
+            assertEquals(Paths.get(System.getProperty("java.io.tmpdir")), cache.getParent());
+            assertTrue(cache.getFileName().toString().startsWith("tinyb-natives-"));
+        } finally {
+            System.setProperty("user.home", home);
+        }
+    }
+
+    @Test
+    public void testStaleDirectoriesAreDeleted() throws Exception {
+        System.setProperty("os.name", "Linux");
+        System.setProperty("os.arch", "x86_64");
+        String tmp = System.getProperty("java.io.tmpdir");
+        Path parent = Files.createTempDirectory("natives");
+        Path cache = parent.resolve("cache");
+        Files.createDirectories(cache);
+        Path stale = Files.createDirectories(cache.resolve("tinyb-0000000000000000"));
+        Files.write(stale.resolve("libjavatinyb.so"), new byte[] {1});
+        Path other = Files.createDirectories(cache.resolve("tinyb-1111111111111111"));
+        Files.write(other.resolve("libtinyb.so"), new byte[] {1});
+        Path legacy = Files.createDirectories(parent.resolve("tinyb123libs"));
+        Files.write(legacy.resolve("libjavatinyb.so"), new byte[] {1});
+        System.setProperty(NativesLoader.CACHE_DIRECTORY_PROPERTY, cache.toString());
+        System.setProperty("java.io.tmpdir", parent.toString());
+        try {
+            Path lib = Paths.get(NativesLoader.prepare("libjavatinyb.so"));
+            assertTrue(Files.exists(lib));
+            // a previous version of the library
+            assertFalse(Files.exists(stale));
+            // a cached copy of another library
+            assertTrue(Files.exists(other));
+            // a temp directory of the previous loader
+            assertFalse(Files.exists(legacy));
+        } finally {
+            System.setProperty("java.io.tmpdir", tmp);
+            System.clearProperty(NativesLoader.CACHE_DIRECTORY_PROPERTY);
+            delete(parent);
+        }
+    }
+
+    @Test
+    public void testFindSystemLibrary() throws Exception {
+        String libraryPath = System.getProperty("java.library.path");
+        Path directory = Files.createTempDirectory("natives");
+        try {
+            Path lib = Files.write(directory.resolve(System.mapLibraryName("tinyb")), new byte[] {1});
+            System.setProperty("java.library.path", "/nonexistent" + File.pathSeparator + directory);
+
+            assertEquals(lib, NativesLoader.findSystemLibrary("tinyb"));
+            assertNull(NativesLoader.findSystemLibrary("javatinyb"));
+        } finally {
+            System.setProperty("java.library.path", libraryPath);
+            delete(directory);
+        }
     }
 
     @Test(expected = IllegalStateException.class)
@@ -93,4 +235,10 @@ public class NativesLoaderTest {
         assertTrue(NativesLoader.isX86_32());
     }
 
+    private static void delete(Path directory) throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+        }
+    }
+
 }
@@ -0,0 +1,195 @@
+package org.sputnikdev.bluetooth.manager.transport.tinyb;
+
+import org.junit.After;
+import org.junit.Test;
+import org.slf4j.LoggerFactory;
+import org.sputnikdev.bluetooth.URL;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class NotificationCoalescerTest {
+
+    private static final URL URL = new URL("tinyb:/11:22:33:44:55:66/12:34:56:78:90:12");
+
+    private final ManualDispatcher dispatcher = new ManualDispatcher();
+    private final List<Short> delivered = new ArrayList<>();
+
+    @After
+    public void tearDown() {
+        dispatcher.shutdown(0);
+    }
+
+    @Test
+    public void testLatestValueOnly() {
+        NotificationCoalescer<Short> coalescer = create(new NotificationCoalescer.Settings(0, false));
+        coalescer.notify((short) -80);
+        coalescer.notify((short) -81);
+        coalescer.notify((short) -82);
+        assertEquals(1, dispatcher.tasks.size());
+
+        dispatcher.runAll();
+        assertEquals(Collections.singletonList((short) -82), delivered);
+
+        coalescer.notify((short) -83);
+        assertEquals(1, dispatcher.tasks.size());
+        dispatcher.runAll();
+        assertEquals(Arrays.asList((short) -82, (short) -83), delivered);
+    }
+
+    @Test
+    public void testOnChangeOnly() {
+        NotificationCoalescer<Short> coalescer = create(new NotificationCoalescer.Settings(0, true));
+        coalescer.notify((short) -80);
+        dispatcher.runAll();
+        coalescer.notify((short) -80);
+        assertEquals(0, dispatcher.tasks.size());
+
+        coalescer.notify((short) -81);
+        dispatcher.runAll();
+        assertEquals(Arrays.asList((short) -80, (short) -81), delivered);
+    }
+
+    @Test
+    public void testOnChangeComparesDeliveredValue() {
+        NotificationCoalescer<Short> coalescer = create(new NotificationCoalescer.Settings(0, true));
+        coalescer.notify((short) -80);
+        dispatcher.runAll();
+        coalescer.notify((short) -81);
+        // the value goes back to the delivered one before the pending value is delivered
+        coalescer.notify((short) -80);
+        dispatcher.runAll();
+        assertEquals(Collections.singletonList((short) -80), delivered);
+
+        coalescer.notify((short) -81);
+        dispatcher.runAll();
+        assertEquals(Arrays.asList((short) -80, (short) -81), delivered);
+    }
+
+    @Test
+    public void testDiscardedFlush() {
+        NotificationCoalescer<Short> coalescer = create(new NotificationCoalescer.Settings(0, false));
+        coalescer.notify((short) -80);
+        dispatcher.discardAll();
+        assertTrue(delivered.isEmpty());
+
+        coalescer.notify((short) -81);
+        assertEquals(1, dispatcher.tasks.size());
+        dispatcher.runAll();
+        assertEquals(Collections.singletonList((short) -81), delivered);
+    }
+
+    @Test
+    public void testDroppedFlush() throws Exception {
+        NotificationDispatcher real =
+                new NotificationDispatcher(1, 1, NotificationDispatcher.OverflowPolicy.DROP_OLDEST);
+        List<Short> received = new CopyOnWriteArrayList<>();
+        NotificationCoalescer<Short> coalescer = new NotificationCoalescer<>(() -> real, URL, received::add,
+                new NotificationCoalescer.Settings(0, false), Objects::equals,
+                LoggerFactory.getLogger(NotificationCoalescerTest.class), "error");
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        try {
+            real.dispatch(URL, null, () -> {
+                started.countDown();
+                try {
+                    release.await(1, TimeUnit.SECONDS);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            assertTrue(started.await(1, TimeUnit.SECONDS));
+            coalescer.notify((short) -80);
+            // the queue is full, the flush task is dropped
+            real.dispatch(URL, null, () -> { });
+            assertEquals(1, real.getDroppedCount());
+            release.countDown();
+            CountDownLatch drained = new CountDownLatch(1);
+            real.dispatch(URL, null, drained::countDown);
+            assertTrue(drained.await(1, TimeUnit.SECONDS));
+
+            coalescer.notify((short) -81);
+            for (int i = 0; i < 100 && received.isEmpty(); i++) {
+                Thread.sleep(10);
+            }
+            assertEquals(Collections.singletonList((short) -81), received);
+        } finally {
+            real.shutdown(0);
+        }
+    }
+
+    @Test
+    public void testMinInterval() {
+        NotificationCoalescer<Short> coalescer = create(new NotificationCoalescer.Settings(10000, false));
+        coalescer.notify((short) -80);
+        assertEquals(Collections.singletonList(0L), dispatcher.delays);
+        dispatcher.runAll();
+
+        coalescer.notify((short) -81);
+        assertEquals(2, dispatcher.delays.size());
+        assertTrue(dispatcher.delays.get(1) > 9000);
+    }
+
+    @Test
+    public void testContentEquals() {
+        Map<String, byte[]> first = new HashMap<>();
+        first.put("0180", new byte[] {1, 2});
+        Map<String, byte[]> second = new HashMap<>();
+        second.put("0180", new byte[] {1, 2});
+        assertTrue(NotificationCoalescer.contentEquals(first, second));
+
+        second.put("0180", new byte[] {1, 3});
+        assertFalse(NotificationCoalescer.contentEquals(first, second));
+
+        second.put("0181", new byte[] {1, 2});
+        assertFalse(NotificationCoalescer.contentEquals(first, second));
+        assertFalse(NotificationCoalescer.contentEquals(first, null));
+    }
+
+    private NotificationCoalescer<Short> create(NotificationCoalescer.Settings settings) {
+        return new NotificationCoalescer<>(() -> dispatcher, URL, delivered::add, settings, Objects::equals,
+                LoggerFactory.getLogger(NotificationCoalescerTest.class), "error");
+    }
+
+    private static class ManualDispatcher extends NotificationDispatcher {
+
+        private final List<Runnable> tasks = new ArrayList<>();
+        private final List<Long> delays = new ArrayList<>();
+
+        @Override
+        void dispatch(Object key, Object type, Runnable task) {
+            tasks.add(task);
+            delays.add(0L);
+        }
+
+        @Override
+        void dispatchLater(Object key, Object type, Runnable task, long delay) {
+            tasks.add(task);
+            delays.add(delay);
+        }
+
+        private void discardAll() {
+            tasks.forEach(task -> ((DiscardableTask) task).discarded());
+            tasks.clear();
+        }
+
+        private void runAll() {
+            List<Runnable> copy = new ArrayList<>(tasks);
+            tasks.clear();
+            copy.forEach(Runnable::run);
+        }
+    }
+
+}
@@ -0,0 +1,257 @@
+package org.sputnikdev.bluetooth.manager.transport.tinyb;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class NotificationDispatcherTest {
+
+    private static final String KEY = "key";
+
+    private final List<Integer> delivered = Collections.synchronizedList(new ArrayList<>());
+    private final CountDownLatch started = new CountDownLatch(1);
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    private NotificationDispatcher dispatcher;
+
+    @After
+    public void tearDown() {
+        release.countDown();
+        if (dispatcher != null) {
+            dispatcher.shutdown(1000);
+        }
+    }
+
+    @Test
+    public void testOrdering() throws Exception {
+        dispatcher = new NotificationDispatcher(4, 1000, NotificationDispatcher.OverflowPolicy.BLOCK);
+        CountDownLatch done = new CountDownLatch(100);
+        List<Integer> expected = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            expected.add(i);
+            dispatcher.dispatch(KEY, "type", deliver(i, done));
+        }
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(expected, delivered);
+    }
+
+    @Test
+    public void testDifferentKeysInParallel() throws Exception {
+        dispatcher = new NotificationDispatcher(2, 10, NotificationDispatcher.OverflowPolicy.DROP_OLDEST);
+        CountDownLatch done = new CountDownLatch(1);
+        dispatcher.dispatch(KEY, "type", this::block);
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        dispatcher.dispatch("another key", "type", deliver(1, done));
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testDropOldest() throws Exception {
+        dispatcher = new NotificationDispatcher(1, 2, NotificationDispatcher.OverflowPolicy.DROP_OLDEST);
+        CountDownLatch done = new CountDownLatch(2);
+        dispatcher.dispatch(KEY, "type", this::block);
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        dispatcher.dispatch(KEY, "type", deliver(1, done));
+        dispatcher.dispatch(KEY, "type", deliver(2, done));
+        dispatcher.dispatch(KEY, "type", deliver(3, done));
+        assertEquals(1, dispatcher.getDroppedCount());
+        assertEquals(2, dispatcher.getPendingCount());
+
+        release.countDown();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList(2, 3), delivered);
+    }
+
+    @Test
+    public void testCoalesce() throws Exception {
+        dispatcher = new NotificationDispatcher(1, 2, NotificationDispatcher.OverflowPolicy.COALESCE);
+        CountDownLatch done = new CountDownLatch(2);
+        dispatcher.dispatch(KEY, "type", this::block);
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        dispatcher.dispatch(KEY, "rssi", deliver(1, done));
+        dispatcher.dispatch(KEY, "data", deliver(2, done));
+        dispatcher.dispatch(KEY, "rssi", deliver(3, done));
+        assertEquals(1, dispatcher.getCoalescedCount());
+        assertEquals(0, dispatcher.getDroppedCount());
+
+        release.countDown();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList(3, 2), delivered);
+    }
+
+    @Test
+    public void testBlock() throws Exception {
+        dispatcher = new NotificationDispatcher(1, 1, NotificationDispatcher.OverflowPolicy.BLOCK);
+        CountDownLatch done = new CountDownLatch(2);
+        dispatcher.dispatch(KEY, "type", this::block);
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        dispatcher.dispatch(KEY, "type", deliver(1, done));
+        Thread producer = new Thread(() -> dispatcher.dispatch(KEY, "type", deliver(2, done)));
+        producer.start();
+        producer.join(200);
+        assertTrue(producer.isAlive());
+
+        release.countDown();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        producer.join(1000);
+        assertEquals(Arrays.asList(1, 2), delivered);
+        assertEquals(0, dispatcher.getDroppedCount());
+    }
+
+    @Test
+    public void testBlockingHandlerDoesNotWaitForItself() throws Exception {
+        dispatcher = new NotificationDispatcher(1, 1, NotificationDispatcher.OverflowPolicy.BLOCK);
+        CountDownLatch done = new CountDownLatch(1);
+        dispatcher.dispatch(KEY, "type", () -> {
+            // the queue gets full, the handler must not wait for its own queue to be drained
+            for (int i = 0; i < 3; i++) {
+                dispatcher.dispatch(KEY, "type", deliver(i, new CountDownLatch(1)));
+            }
+            done.countDown();
+        });
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(2, dispatcher.getDroppedCount());
+    }
+
+    @Test
+    public void testShutdownDeliversPending() throws Exception {
+        dispatcher = new NotificationDispatcher(1, 1000, NotificationDispatcher.OverflowPolicy.DROP_OLDEST);
+        dispatcher.dispatch(KEY, "type", this::block);
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        CountDownLatch done = new CountDownLatch(100);
+        for (int i = 0; i < 100; i++) {
+            dispatcher.dispatch(KEY, "type", deliver(i, done));
+        }
+        Thread shutdown = new Thread(() -> dispatcher.shutdown(5000));
+        shutdown.start();
+        Thread.sleep(100);
+
+        // more than a drain batch is pending, the queue is drained in-line once shutdown has started
+        release.countDown();
+        shutdown.join(5000);
+        assertEquals(0, done.getCount());
+        assertEquals(100, delivered.size());
+    }
+
+    @Test
+    public void testDiscard() throws Exception {
+        dispatcher = new NotificationDispatcher(1, 10, NotificationDispatcher.OverflowPolicy.DROP_OLDEST);
+        dispatcher.dispatch(KEY, "type", this::block);
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        dispatcher.dispatch(KEY, "type", deliver(1, new CountDownLatch(1)));
+        assertEquals(1, dispatcher.getPendingCount());
+
+        dispatcher.discard(KEY);
+        assertEquals(0, dispatcher.getPendingCount());
+    }
+
+    @Test
+    public void testDrainedQueuesAreRemoved() throws Exception {
+        dispatcher = new NotificationDispatcher(2, 10, NotificationDispatcher.OverflowPolicy.DROP_OLDEST);
+        CountDownLatch done = new CountDownLatch(100);
+        for (int i = 0; i < 100; i++) {
+            dispatcher.dispatch(i % 10, "type", deliver(i, done));
+        }
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        for (int i = 0; i < 100 && dispatcher.getQueueCount() > 0; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, dispatcher.getQueueCount());
+    }
+
+    @Test
+    public void testDispatchAfterDiscard() throws Exception {
+        dispatcher = new NotificationDispatcher(2, 10, NotificationDispatcher.OverflowPolicy.DROP_OLDEST);
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger max = new AtomicInteger();
+        dispatcher.dispatch(KEY, "type", () -> {
+            max.accumulateAndGet(running.incrementAndGet(), Math::max);
+            block();
+            running.decrementAndGet();
+        });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        dispatcher.dispatch(KEY, "type", deliver(1, new CountDownLatch(1)));
+        dispatcher.discard(KEY);
+
+        // a task dispatched after discarding is not delivered in parallel with the one being delivered
+        CountDownLatch done = new CountDownLatch(1);
+        dispatcher.dispatch(KEY, "type", () -> {
+            max.accumulateAndGet(running.incrementAndGet(), Math::max);
+            delivered.add(2);
+            running.decrementAndGet();
+            done.countDown();
+        });
+        assertEquals(1, dispatcher.getQueueCount());
+        Thread.sleep(50);
+        assertTrue(delivered.isEmpty());
+
+        release.countDown();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(Collections.singletonList(2), delivered);
+        assertEquals(1, max.get());
+    }
+
+    @Test
+    public void testDiscardedTasksAreTold() throws Exception {
+        dispatcher = new NotificationDispatcher(1, 10, NotificationDispatcher.OverflowPolicy.DROP_OLDEST);
+        AtomicInteger discarded = new AtomicInteger();
+        NotificationDispatcher.DiscardableTask task = new NotificationDispatcher.DiscardableTask() {
+            @Override
+            public void run() {
+                delivered.add(1);
+            }
+
+            @Override
+            public void discarded() {
+                discarded.incrementAndGet();
+            }
+        };
+        dispatcher.dispatch(KEY, "type", this::block);
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        dispatcher.dispatch(KEY, "type", task);
+        dispatcher.discard(KEY);
+        assertEquals(1, discarded.get());
+
+        dispatcher.dispatchLater(KEY, "type", task, 10000);
+        release.countDown();
+        dispatcher.shutdown(1000);
+        assertEquals(2, discarded.get());
+        assertTrue(delivered.isEmpty());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidConfiguration() {
+        new NotificationDispatcher(0, 10, NotificationDispatcher.OverflowPolicy.DROP_OLDEST);
+    }
+
+    private Runnable deliver(int value, CountDownLatch done) {
+        return () -> {
+            delivered.add(value);
+            done.countDown();
+        };
+    }
+
+    private void block() {
+        started.countDown();
+        try {
+            release.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+}
@@ -0,0 +1,244 @@
+package org.sputnikdev.bluetooth.manager.transport.tinyb;
+
+import org.junit.After;
+import org.junit.Test;
+import org.slf4j.LoggerFactory;
+import org.sputnikdev.bluetooth.URL;
+import org.sputnikdev.bluetooth.manager.transport.Notification;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class NotificationFanoutTest {
+
+    private static final URL URL = new URL("tinyb:/11:22:33:44:55:66/12:34:56:78:90:12");
+    private static final URL BATTERY_LEVEL = new URL(TinyBFactory.TINYB_PROTOCOL_NAME, "11:5E:ED:00:00:00",
+            "20:5E:ED:00:00:01", "0000180f-0000-1000-8000-00805f9b34fb", "00002a19-0000-1000-8000-00805f9b34fb", null);
+
+    private final ManualDispatcher dispatcher = new ManualDispatcher();
+    private final List<Integer> first = new ArrayList<>();
+    private final List<Integer> second = new ArrayList<>();
+
+    @After
+    public void tearDown() {
+        dispatcher.shutdown(0);
+    }
+
+    @Test
+    public void testSubscribe() {
+        NotificationFanout<Integer> fanout = create(4);
+        Notification<Integer> notification = first::add;
+        assertTrue(fanout.subscribe(notification));
+        assertFalse(fanout.subscribe(notification));
+        assertEquals(1, fanout.getSubscriberCount());
+        assertFalse(fanout.subscribe(second::add));
+        assertEquals(2, fanout.getSubscriberCount());
+
+        assertFalse(fanout.unsubscribe(notification));
+        fanout.clear();
+        assertEquals(0, fanout.getSubscriberCount());
+        assertTrue(fanout.subscribe(notification));
+    }
+
+    @Test
+    public void testReplace() {
+        NotificationFanout<Integer> fanout = create(4);
+        List<Integer> added = new ArrayList<>();
+        assertTrue(fanout.subscribe(added::add));
+        assertFalse(fanout.replace(first::add));
+        fanout.notify(1);
+        dispatcher.runAll();
+
+        // a repeated enable call replaces its previous subscriber only
+        assertFalse(fanout.replace(second::add));
+        assertEquals(2, fanout.getSubscriberCount());
+        fanout.notify(2);
+        dispatcher.runAll();
+        assertEquals(Collections.singletonList(1), first);
+        assertEquals(Collections.singletonList(2), second);
+        assertEquals(Arrays.asList(1, 2), added);
+
+        fanout.clear();
+        assertTrue(fanout.replace(first::add));
+    }
+
+    @Test
+    public void testCapacity() {
+        assertEquals(4, create(3).getCapacity());
+        assertEquals(8, create(8).getCapacity());
+        assertEquals(1, create(1).getCapacity());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidCapacity() {
+        create(0);
+    }
+
+    @Test
+    public void testNoSubscribers() {
+        NotificationFanout<Integer> fanout = create(4);
+        fanout.notify(1);
+        assertTrue(dispatcher.tasks.isEmpty());
+    }
+
+    @Test
+    public void testFanout() {
+        NotificationFanout<Integer> fanout = create(4);
+        fanout.subscribe(first::add);
+        fanout.subscribe(second::add);
+        fanout.notify(1);
+        fanout.notify(2);
+        dispatcher.runAll();
+        assertEquals(Arrays.asList(1, 2), first);
+        assertEquals(Arrays.asList(1, 2), second);
+        assertEquals(0, fanout.getDroppedCount());
+    }
+
+    @Test
+    public void testLateSubscriber() {
+        NotificationFanout<Integer> fanout = create(4);
+        fanout.subscribe(first::add);
+        fanout.notify(1);
+        dispatcher.runAll();
+        fanout.subscribe(second::add);
+        fanout.notify(2);
+        dispatcher.runAll();
+        assertEquals(Arrays.asList(1, 2), first);
+        assertEquals(Collections.singletonList(2), second);
+    }
+
+    @Test
+    public void testLaggingSubscriber() {
+        NotificationFanout<Integer> fanout = create(4);
+        fanout.subscribe(first::add);
+        for (int i = 1; i <= 6; i++) {
+            fanout.notify(i);
+        }
+        // all values are delivered by the first task, the rest have nothing to deliver
+        dispatcher.runAll();
+        assertEquals(Arrays.asList(3, 4, 5, 6), first);
+        assertEquals(2, fanout.getDroppedCount());
+    }
+
+    @Test
+    public void testOverwrittenWhileDraining() {
+        NotificationFanout<Integer> fanout = create(4);
+        fanout.subscribe(value -> {
+            first.add(value);
+            if (value == 1) {
+                // the producer wraps around the ring while the value is being delivered
+                for (int i = 2; i <= 5; i++) {
+                    fanout.notify(i);
+                }
+            }
+        });
+        fanout.subscribe(second::add);
+        fanout.notify(1);
+        dispatcher.runAll();
+        dispatcher.runAll();
+        assertEquals(Arrays.asList(1, 2, 3, 4, 5), first);
+        // the slot of the first value holds the fifth value now, it must not be delivered as the first one
+        assertEquals(Arrays.asList(2, 3, 4, 5), second);
+        assertEquals(1, fanout.getDroppedCount());
+    }
+
+    @Test
+    public void testDiscardedTask() {
+        NotificationFanout<Integer> fanout = create(4);
+        fanout.subscribe(first::add);
+        fanout.notify(1);
+        dispatcher.tasks.clear();
+        fanout.notify(2);
+        dispatcher.runAll();
+        assertEquals(Arrays.asList(1, 2), first);
+    }
+
+    @Test
+    public void testFailingSubscriber() {
+        NotificationFanout<Integer> fanout = create(4);
+        fanout.subscribe(value -> {
+            throw new IllegalStateException("test");
+        });
+        fanout.subscribe(first::add);
+        fanout.notify(1);
+        dispatcher.runAll();
+        assertEquals(Collections.singletonList(1), first);
+    }
+
+    @Test
+    public void testDeliver() {
+        NotificationFanout<Integer> fanout = create(4);
+        fanout.subscribe(first::add);
+        fanout.subscribe(second::add);
+        fanout.deliver(1);
+        assertTrue(dispatcher.tasks.isEmpty());
+        assertEquals(Collections.singletonList(1), first);
+        assertEquals(Collections.singletonList(1), second);
+    }
+
+    @Test
+    public void testCharacteristicSubscribers() throws Exception {
+        SimulatedBackend backend = new SimulatedBackend(42).populate(1, 3, 2);
+        TinyBFactory factory = new TinyBFactory(backend);
+        URL url = BATTERY_LEVEL;
+        try {
+            factory.getDevice(url).connect();
+            SimulatedBackend.SimulatedCharacteristic characteristic = (SimulatedBackend.SimulatedCharacteristic)
+                    backend.getCharacteristic(backend.getService(backend.getDevice(backend.getAdapter(
+                            url.getAdapterAddress()), url.getDeviceAddress()), url.getServiceUUID()),
+                            url.getCharacteristicUUID());
+
+            CountDownLatch replaced = new CountDownLatch(1);
+            CountDownLatch first = new CountDownLatch(2);
+            CountDownLatch second = new CountDownLatch(1);
+            Notification<byte[]> recorder = value -> second.countDown();
+            factory.getCharacteristic(url).enableValueNotifications(value -> replaced.countDown());
+            // enabling notifications again replaces the subscriber, so that values are not delivered twice
+            factory.getCharacteristic(url).enableValueNotifications(value -> first.countDown());
+            factory.addValueNotification(url, recorder);
+            characteristic.setValue(new byte[] {42});
+            assertTrue(second.await(1, TimeUnit.SECONDS));
+
+            factory.removeValueNotification(url, recorder);
+            characteristic.setValue(new byte[] {43});
+            assertTrue(first.await(1, TimeUnit.SECONDS));
+            assertEquals(1, replaced.getCount());
+            assertTrue(factory.getCharacteristic(url).isNotifying());
+
+            factory.getCharacteristic(url).disableValueNotifications();
+            assertFalse(factory.getCharacteristic(url).isNotifying());
+        } finally {
+            factory.dispose();
+        }
+    }
+
+    private NotificationFanout<Integer> create(int capacity) {
+        return new NotificationFanout<>(() -> dispatcher, URL, capacity,
+                LoggerFactory.getLogger(NotificationFanoutTest.class), "error");
+    }
+
+    private static class ManualDispatcher extends NotificationDispatcher {
+
+        private final List<Runnable> tasks = new ArrayList<>();
+
+        @Override
+        void dispatch(Object key, Object type, Runnable task) {
+            tasks.add(task);
+        }
+
+        private void runAll() {
+            List<Runnable> copy = new ArrayList<>(tasks);
+            tasks.clear();
+            copy.forEach(Runnable::run);
+        }
+    }
+
+}
@@ -0,0 +1,105 @@
+package org.sputnikdev.bluetooth.manager.transport.tinyb;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.sputnikdev.bluetooth.URL;
+import org.sputnikdev.bluetooth.manager.BluetoothFatalException;
+import org.sputnikdev.bluetooth.manager.transport.Adapter;
+import org.sputnikdev.bluetooth.manager.transport.Characteristic;
+import org.sputnikdev.bluetooth.manager.transport.Device;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SimulatedBackendTest {
+
+    private static final String ADAPTER = "11:5E:ED:00:00:00";
+    private static final String DEVICE = "20:5E:ED:00:00:01";
+    private static final String SERVICE = "0000180f-0000-1000-8000-00805f9b34fb";
+    private static final String CHARACTERISTIC = "00002a19-0000-1000-8000-00805f9b34fb";
+
+    private SimulatedBackend backend;
+    private TinyBFactory factory;
+
+    @Before
+    public void setUp() {
+        backend = new SimulatedBackend(42).populate(1, 3, 2);
+        factory = new TinyBFactory(backend);
+    }
+
+    @Test
+    public void testDiscovery() {
+        assertEquals(1, factory.getDiscoveredAdapters().size());
+        assertEquals(0, factory.getDiscoveredDevices().size());
+
+        Adapter adapter = factory.getAdapter(new URL(TinyBFactory.TINYB_PROTOCOL_NAME, ADAPTER, null));
+        assertTrue(adapter.startDiscovery());
+        backend.advance(1000);
+
+        assertEquals(3, factory.getDiscoveredDevices().size());
+        assertEquals(3, adapter.getDevices().size());
+        assertTrue(adapter.stopDiscovery());
+        assertFalse(adapter.stopDiscovery());
+    }
+
+    @Test
+    public void testDeterministic() {
+        assertEquals(collectRssi(new SimulatedBackend(7).populate(1, 1, 0)),
+                collectRssi(new SimulatedBackend(7).populate(1, 1, 0)));
+    }
+
+    @Test
+    public void testReadAndNotify() throws Exception {
+        URL url = new URL(TinyBFactory.TINYB_PROTOCOL_NAME, ADAPTER, DEVICE, SERVICE, CHARACTERISTIC, null);
+        Device device = factory.getDevice(url);
+        assertNull(factory.getCharacteristic(url));
+
+        assertTrue(device.connect());
+        assertTrue(device.isServicesResolved());
+        assertEquals(2, device.getServices().size());
+
+        Characteristic characteristic = factory.getCharacteristic(url);
+        assertNotNull(characteristic);
+        assertTrue(characteristic.isNotificationConfigurable());
+        assertArrayEquals(new byte[] {100}, characteristic.readValue());
+        assertTrue(factory.writeDescriptor(url, "2902", new byte[] {1, 0}));
+        assertArrayEquals(new byte[] {1, 0}, factory.readDescriptor(url, "00002902-0000-1000-8000-00805f9b34fb"));
+
+        CountDownLatch latch = new CountDownLatch(1);
+        characteristic.enableValueNotifications(value -> latch.countDown());
+        ((SimulatedBackend.SimulatedCharacteristic) backend.getCharacteristic(
+                backend.getService(backend.getDevice(backend.getAdapter(ADAPTER), DEVICE), SERVICE), CHARACTERISTIC))
+                .setValue(new byte[] {50});
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+
+        assertTrue(device.disconnect());
+        assertNull(factory.getCharacteristic(url));
+    }
+
+    @Test(expected = BluetoothFatalException.class)
+    public void testConnectFailure() {
+        backend.setConnectFailureRate(1);
+        SimulatedBackend.SimulatedDevice simulated = backend.addAdapter("11:5E:ED:00:00:01", "hci1")
+                .addDevice(DEVICE, "flaky");
+        new TinyBDevice(new URL(TinyBFactory.TINYB_PROTOCOL_NAME, "11:5E:ED:00:00:01", DEVICE), simulated).connect();
+    }
+
+    private static List<Short> collectRssi(SimulatedBackend backend) {
+        List<Short> values = new ArrayList<>();
+        BackendAdapter adapter = backend.getAdapters().get(0);
+        adapter.startDiscovery();
+        backend.getDevice(adapter, "20:5E:ED:00:00:00").enableRSSINotifications(values::add);
+        backend.advance(10000);
+        return values;
+    }
+
+}
@@ -23,14 +23,12 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Future;
 
 import static org.junit.Assert.assertEquals;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyBoolean;
-import static org.mockito.Matchers.anyString;
 import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
@@ -59,20 +57,21 @@ public class TinyBAdapterTest {
     private BluetoothAdapter bluetoothAdapter = mock(BluetoothAdapter.class);
 
     @Mock
-    private ExecutorService fakeExecutorService;
+    private NotificationDispatcher fakeDispatcher;
+
+    private final TinyBContext context = new TinyBContext();
 
     @InjectMocks
-    private TinyBAdapter tinyBAdapter = new TinyBAdapter(URL, bluetoothAdapter);
+    private TinyBAdapter tinyBAdapter = new TinyBAdapter(URL, NativeBackend.wrap(bluetoothAdapter), context);
 
     @Before
     public void setUp() throws Exception {
         PowerMockito.mockStatic(TinyBFactory.class);
-        PowerMockito.doCallRealMethod().when(TinyBFactory.class, "notifySafely", any(), any(), anyString());
-        PowerMockito.doReturn(fakeExecutorService).when(TinyBFactory.class, "getNotificationService");
-        when(fakeExecutorService.submit(any(Runnable.class))).thenAnswer((Answer<Future<?>>) invocation -> {
-            invocation.getArgumentAt(0, Runnable.class).run();
+        context.setNotificationDispatcher(fakeDispatcher);
+        doAnswer((Answer<Void>) invocation -> {
+            invocation.getArgumentAt(2, Runnable.class).run();
             return null;
-        });
+        }).when(fakeDispatcher).dispatch(any(), any(), any(Runnable.class));
 
         when(bluetoothAdapter.getAddress()).thenReturn(MAC);
         when(bluetoothAdapter.getAlias()).thenReturn(ALIAS);
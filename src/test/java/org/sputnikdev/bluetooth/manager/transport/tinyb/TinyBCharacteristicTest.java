@@ -16,11 +16,10 @@ import org.sputnikdev.bluetooth.manager.transport.CharacteristicAccessType;
 import org.sputnikdev.bluetooth.manager.transport.Notification;
 import tinyb.*;
 
+import java.io.ByteArrayInputStream;
 import java.util.Arrays;
 import java.util.EnumSet;
 import java.util.Set;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Future;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -52,22 +51,24 @@ public class TinyBCharacteristicTest {
 
     private BluetoothGattCharacteristic bluetoothGattCharacteristic = mock(BluetoothGattCharacteristic.class);
     @Mock
-    private ExecutorService fakeExecutorService;
+    private NotificationDispatcher fakeDispatcher;
     @Mock
     private BluetoothGattDescriptor notificationDescriptor;
 
+    private final TinyBContext context = new TinyBContext();
+
     @InjectMocks
-    private TinyBCharacteristic tinyBCharacteristic = new TinyBCharacteristic(URL, bluetoothGattCharacteristic);
+    private TinyBCharacteristic tinyBCharacteristic =
+            new TinyBCharacteristic(URL, NativeBackend.wrap(bluetoothGattCharacteristic), context);
 
     @Before
     public void setUp() throws Exception {
         PowerMockito.mockStatic(TinyBFactory.class);
-        PowerMockito.doCallRealMethod().when(TinyBFactory.class, "notifySafely", any(), any(), anyString());
-        PowerMockito.doReturn(fakeExecutorService).when(TinyBFactory.class, "getNotificationService");
-        when(fakeExecutorService.submit(any(Runnable.class))).thenAnswer((Answer<Future<?>>) invocation -> {
-            invocation.getArgumentAt(0, Runnable.class).run();
+        context.setNotificationDispatcher(fakeDispatcher);
+        doAnswer((Answer<Void>) invocation -> {
+            invocation.getArgumentAt(2, Runnable.class).run();
             return null;
-        });
+        }).when(fakeDispatcher).dispatch(any(), any(), any(Runnable.class));
 
         when(bluetoothAdapter.getAddress()).thenReturn(ADAPTER_MAC);
         when(bluetoothDevice.getAdapter()).thenReturn(bluetoothAdapter);
@@ -100,6 +101,23 @@ public class TinyBCharacteristicTest {
         verify(bluetoothGattCharacteristic, times(1)).getFlags();
     }
 
+    @Test
+    public void testGetFlagsCached() throws Exception {
+        Set<CharacteristicAccessType> flags = tinyBCharacteristic.getFlags();
+
+        assertSame(flags, tinyBCharacteristic.getFlags());
+        verify(bluetoothGattCharacteristic, times(1)).getFlags();
+    }
+
+    @Test
+    public void testConvertFlags() throws Exception {
+        assertEquals(EnumSet.of(CharacteristicAccessType.READ, CharacteristicAccessType.WRITE,
+                CharacteristicAccessType.AUTHENTICATED_SIGNED_WRITES),
+                TinyBCharacteristic.convert(new String[] {"read", "Write", "authenticated_signed_writes",
+                    "encrypt-authenticated-read", "unknown-flag", null}));
+        assertTrue(TinyBCharacteristic.convert(null).isEmpty());
+    }
+
     @Test
     public void testIsNotifying() throws Exception {
         assertEquals(NOTIFYING, tinyBCharacteristic.isNotifying());
@@ -143,6 +161,22 @@ public class TinyBCharacteristicTest {
         verify(bluetoothGattCharacteristic, times(1)).writeValue(VALUE);
     }
 
+    @Test
+    public void testWriteStream() throws Exception {
+        when(bluetoothGattCharacteristic.writeValue(any()))
+                .thenThrow(new TinyBException("GDBus.Error:org.bluez.Error.InProgress: Operation already in progress"))
+                .thenReturn(true);
+
+        WriteStreamResult result = tinyBCharacteristic.writeStream(new ByteArrayInputStream(new byte[] {1, 2, 3}), 2);
+
+        assertEquals(3, result.getBytes());
+        assertEquals(2, result.getChunks());
+        assertEquals(1, result.getRetries());
+        assertTrue(result.isWithoutResponse());
+        verify(bluetoothGattCharacteristic, times(2)).writeValue(new byte[] {1, 2});
+        verify(bluetoothGattCharacteristic, times(1)).writeValue(new byte[] {3});
+    }
+
     @Test
     public void testDispose() {
         //tinyBCharacteristic.dispose();
@@ -160,5 +194,26 @@ public class TinyBCharacteristicTest {
 
         when(bluetoothGattCharacteristic.getDescriptors()).thenReturn(Arrays.asList(notificationDescriptor));
         assertTrue(tinyBCharacteristic.isNotificationConfigurable());
+
+        // descriptors are indexed once per characteristic and cached in the GATT database
+        assertTrue(tinyBCharacteristic.isNotificationConfigurable());
+        verify(bluetoothGattCharacteristic, times(3)).getDescriptors();
+    }
+
+    @Test
+    public void testReadWriteDescriptor() {
+        when(bluetoothGattCharacteristic.getDescriptors()).thenReturn(Arrays.asList(notificationDescriptor));
+        when(notificationDescriptor.readValue()).thenReturn(new byte[] {1, 0});
+        when(notificationDescriptor.writeValue(any())).thenReturn(true);
+
+        assertArrayEquals(new byte[] {1, 0}, tinyBCharacteristic.readDescriptor("2902"));
+        assertTrue(tinyBCharacteristic.writeDescriptor("00002902-0000-1000-8000-00805f9b34fb", new byte[] {0, 0}));
+        verify(notificationDescriptor).writeValue(new byte[] {0, 0});
+        verify(bluetoothGattCharacteristic, times(1)).getDescriptors();
+    }
+
+    @Test(expected = TinyBException.class)
+    public void testReadMissingDescriptor() {
+        tinyBCharacteristic.readDescriptor("2901");
     }
 }
@@ -3,7 +3,6 @@ package org.sputnikdev.bluetooth.manager.transport.tinyb;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
-import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.stubbing.Answer;
 import org.powermock.api.mockito.PowerMockito;
@@ -12,6 +11,7 @@ import org.powermock.core.classloader.annotations.SuppressStaticInitializationFo
 import org.powermock.modules.junit4.PowerMockRunner;
 import org.slf4j.Logger;
 import org.sputnikdev.bluetooth.URL;
+import org.sputnikdev.bluetooth.manager.transport.Notification;
 import tinyb.BluetoothGattCharacteristic;
 import tinyb.BluetoothGattService;
 import tinyb.BluetoothManager;
@@ -20,14 +20,13 @@ import tinyb.BluetoothType;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Future;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
 import static org.mockito.Matchers.any;
-import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
@@ -51,21 +50,19 @@ public class TinyBFactoryTest {
     private BluetoothManager bluetoothManager = mock(BluetoothManager.class);
 
     @Mock
-    private ExecutorService fakeExecutorService;
+    private NotificationDispatcher fakeDispatcher;
 
-    @InjectMocks
-    private TinyBFactory tinyBFactory;
+    private TinyBFactory tinyBFactory = new TinyBFactory();
 
     @Before
     public void setUp() throws Exception {
         PowerMockito.mockStatic(BluetoothManager.class);
         PowerMockito.spy(TinyBFactory.class);
-        PowerMockito.doCallRealMethod().when(TinyBFactory.class, "notifySafely", any(), any(), anyString());
-        PowerMockito.doReturn(fakeExecutorService).when(TinyBFactory.class, "getNotificationService");
-        when(fakeExecutorService.submit(any(Runnable.class))).thenAnswer((Answer<Future<?>>) invocation -> {
-            invocation.getArgumentAt(0, Runnable.class).run();
+        tinyBFactory.getContext().setNotificationDispatcher(fakeDispatcher);
+        doAnswer((Answer<Void>) invocation -> {
+            invocation.getArgumentAt(2, Runnable.class).run();
             return null;
-        });
+        }).when(fakeDispatcher).dispatch(any(), any(), any(Runnable.class));
 
         when(BluetoothManager.getBluetoothManager()).thenReturn(bluetoothManager);
         when(adapter.getAddress()).thenReturn(ADAPTER.getAdapterAddress());
@@ -149,6 +146,48 @@ public class TinyBFactoryTest {
         assertNull(tinyBFactory.getCharacteristic(CHARACTERISTIC));
     }
 
+    @Test
+    public void testObjectCache() throws Exception {
+        when(device.getConnected()).thenReturn(true);
+        NativeObjectCache cache = tinyBFactory.getContext().getObjectCache();
+        long hits = cache.getHits();
+
+        assertEquals(CHARACTERISTIC, tinyBFactory.getCharacteristic(CHARACTERISTIC).getURL());
+        assertEquals(CHARACTERISTIC, tinyBFactory.getCharacteristic(CHARACTERISTIC).getURL());
+        assertEquals(DEVICE, tinyBFactory.getDevice(DEVICE).getURL());
+        // cached adapters and devices are not resolved again
+        verify(bluetoothManager, times(1)).getObject(BluetoothType.ADAPTER, null, ADAPTER.getAdapterAddress(), null);
+        verify(bluetoothManager, times(1)).getObject(BluetoothType.DEVICE, null, DEVICE.getDeviceAddress(), adapter);
+        verify(bluetoothManager, times(1)).getObject(BluetoothType.GATT_SERVICE, null,
+                CHARACTERISTIC.getServiceUUID(), device);
+        verify(bluetoothManager, times(1)).getObject(BluetoothType.GATT_CHARACTERISTIC, null,
+                CHARACTERISTIC.getCharacteristicUUID(), service);
+        assertEquals(4, cache.size());
+        assertEquals(hits + 3, cache.getHits());
+
+        // services and characteristics get invalidated when device is disconnected
+        when(device.getConnected()).thenReturn(false);
+        assertNull(tinyBFactory.getCharacteristic(CHARACTERISTIC));
+        assertEquals(2, cache.size());
+
+        when(device.getConnected()).thenReturn(true);
+        assertEquals(CHARACTERISTIC, tinyBFactory.getCharacteristic(CHARACTERISTIC).getURL());
+        verify(bluetoothManager, times(2)).getObject(BluetoothType.GATT_CHARACTERISTIC, null,
+                CHARACTERISTIC.getCharacteristicUUID(), service);
+
+        tinyBFactory.getContext().invalidateServices(DEVICE);
+        assertEquals(2, cache.size());
+
+        // the device handle can be stale once the device is disconnected
+        tinyBFactory.getDevice(DEVICE).disconnect();
+        assertEquals(1, cache.size());
+        assertEquals(DEVICE, tinyBFactory.getDevice(DEVICE).getURL());
+        verify(bluetoothManager, times(2)).getObject(BluetoothType.DEVICE, null, DEVICE.getDeviceAddress(), adapter);
+
+        tinyBFactory.getContext().invalidate(ADAPTER);
+        assertEquals(0, cache.size());
+    }
+
     @Test
     public void testGetDiscoveredAdapters() throws Exception {
         assertEquals(1, tinyBFactory.getDiscoveredAdapters().size());
@@ -211,19 +250,33 @@ public class TinyBFactoryTest {
         verifyNoMoreInteractions(bluetoothManager, adapter, device, service);
     }
 
+    @Test
+    public void testConfigureNotificationDispatcher() throws Exception {
+        Map<String, Object> config = new HashMap<>();
+        config.put(TinyBFactory.NOTIFICATION_WORKERS, 3);
+        config.put(TinyBFactory.NOTIFICATION_QUEUE_CAPACITY, "10");
+        config.put(TinyBFactory.NOTIFICATION_OVERFLOW_POLICY, "coalesce");
+        tinyBFactory.configure(config);
+
+        NotificationDispatcher dispatcher = tinyBFactory.getContext().getNotificationDispatcher();
+        assertEquals(10, dispatcher.getCapacity());
+        assertEquals(NotificationDispatcher.OverflowPolicy.COALESCE, dispatcher.getPolicy());
+    }
+
     @Test
     public void testNotifySafely() {
-        Runnable notification = mock(Runnable.class);
+        Notification<String> notification = mock(Notification.class);
         Logger logger = mock(Logger.class);
         String message = "Error!";
-        TinyBFactory.notifySafely(notification, logger, message);
-        verify(notification, times(1)).run();
+        tinyBFactory.getContext().notifySafely(DEVICE, notification, "value", logger, message);
+        verify(notification, times(1)).notify("value");
+        verify(fakeDispatcher, times(1)).dispatch(eq(DEVICE), eq(notification), any(Runnable.class));
         verifyNoMoreInteractions(logger);
 
         RuntimeException ex = new RuntimeException();
-        doThrow(ex).when(notification).run();
-        TinyBFactory.notifySafely(notification, logger, message);
-        verify(notification, times(2)).run();
+        doThrow(ex).when(notification).notify("value");
+        tinyBFactory.getContext().notifySafely(DEVICE, notification, "value", logger, message);
+        verify(notification, times(2)).notify("value");
         verify(logger, times(1)).error(message, ex);
     }
 
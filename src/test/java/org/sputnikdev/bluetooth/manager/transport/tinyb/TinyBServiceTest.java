@@ -47,7 +47,7 @@ public class TinyBServiceTest {
     private BluetoothAdapter bluetoothAdapter;
 
     @InjectMocks
-    private TinyBService tinyBService = new TinyBService(URL, bluetoothGattService);
+    private TinyBService tinyBService = new TinyBService(URL, NativeBackend.wrap(bluetoothGattService));
 
     @Before
     public void setUp() {
@@ -0,0 +1,46 @@
+package org.sputnikdev.bluetooth.manager.transport.tinyb;
+
+import org.junit.Test;
+import org.sputnikdev.bluetooth.URL;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.mock;
+
+public class WrapperRegistryTest {
+
+    private static final URL CHARACTERISTIC = new URL("tinyb:/11:22:33:44:55:66/10:20:30:40:50:60/0180/aa11");
+    private static final URL DEVICE = CHARACTERISTIC.getDeviceURL();
+
+    private final WrapperRegistry registry = new WrapperRegistry();
+    private final BackendDevice device = mock(BackendDevice.class);
+    private final BackendCharacteristic characteristic = mock(BackendCharacteristic.class);
+
+    @Test
+    public void testIntern() {
+        TinyBDevice first = registry.intern(device, nativeDevice -> new TinyBDevice(DEVICE, nativeDevice));
+        TinyBDevice second = registry.intern(device, nativeDevice -> new TinyBDevice(DEVICE, nativeDevice));
+        assertSame(first, second);
+        assertSame(first.getURL(), second.getURL());
+        assertEquals(1, registry.size());
+    }
+
+    @Test
+    public void testInvalidate() {
+        TinyBDevice tinyBDevice = registry.intern(device, nativeDevice -> new TinyBDevice(DEVICE, nativeDevice));
+        TinyBCharacteristic tinyBCharacteristic = registry.intern(characteristic,
+            nativeCharacteristic -> new TinyBCharacteristic(CHARACTERISTIC, nativeCharacteristic));
+        assertEquals(2, registry.size());
+
+        registry.invalidateServices(DEVICE);
+        assertEquals(1, registry.size());
+        assertSame(tinyBDevice, registry.intern(device, nativeDevice -> new TinyBDevice(DEVICE, nativeDevice)));
+        assertNotSame(tinyBCharacteristic, registry.intern(characteristic,
+            nativeCharacteristic -> new TinyBCharacteristic(CHARACTERISTIC, nativeCharacteristic)));
+
+        registry.invalidate(DEVICE);
+        assertEquals(0, registry.size());
+    }
+
+}
@@ -0,0 +1,63 @@
+package org.sputnikdev.bluetooth.manager.transport.tinyb;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.sputnikdev.bluetooth.URL;
+
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class WriteStreamResultTest {
+
+    private static final String ADAPTER = "11:5E:ED:00:00:00";
+    private static final String DEVICE = "20:5E:ED:00:00:01";
+
+    private SimulatedBackend backend;
+    private TinyBFactory factory;
+
+    @Before
+    public void setUp() {
+        backend = new SimulatedBackend(42).populate(1, 3, 2);
+        factory = new TinyBFactory(backend);
+    }
+
+    @After
+    public void tearDown() {
+        factory.dispose();
+    }
+
+    @Test
+    public void testWriteStream() throws Exception {
+        URL url = new URL(TinyBFactory.TINYB_PROTOCOL_NAME, ADAPTER, DEVICE,
+                "00000001-0000-1000-8000-00805f9b34fb", "00001001-0000-1000-8000-00805f9b34fb", null);
+        factory.getDevice(url).connect();
+        byte[] payload = new byte[45];
+        for (int i = 0; i < payload.length; i++) {
+            payload[i] = (byte) i;
+        }
+
+        WriteStreamResult result = factory.writeStream(url, new ByteArrayInputStream(payload));
+        assertEquals(45, result.getBytes());
+        assertEquals(3, result.getChunks());
+        assertEquals(0, result.getRetries());
+        assertTrue(result.isWithoutResponse());
+        assertTrue(result.getThroughput() > 0);
+        // the last chunk holds the remaining 5 bytes
+        assertArrayEquals(Arrays.copyOfRange(payload, 40, 45), factory.getCharacteristic(url).readValue());
+
+        ByteBuffer buffer = ByteBuffer.wrap(payload);
+        buffer.position(30);
+        result = factory.writeStream(url, buffer);
+        assertEquals(15, result.getBytes());
+        assertEquals(1, result.getChunks());
+        assertFalse(buffer.hasRemaining());
+    }
+
+}